@@ -0,0 +1,128 @@
+package com.mch.helloble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
+
+import java.util.List;
+import java.util.UUID;
+
+public class AndroidGattClient implements GattClient {
+
+    private final BluetoothGatt mGatt;
+
+    public AndroidGattClient(BluetoothGatt gatt) {
+        mGatt = gatt;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGattCharacteristic c = find(service, characteristic);
+        return c != null && mGatt.readCharacteristic(c);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+        BluetoothGattCharacteristic c = find(service, characteristic);
+        if (c == null) {
+            return false;
+        }
+        c.setWriteType(writeType);
+        c.setValue(value);
+        return mGatt.writeCharacteristic(c);
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        BluetoothGattCharacteristic c = find(service, characteristic);
+        BluetoothGattDescriptor d = c == null ? null : c.getDescriptor(descriptor);
+        if (d == null) {
+            return false;
+        }
+        d.setValue(value);
+        return mGatt.writeDescriptor(d);
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        BluetoothGattCharacteristic c = find(service, characteristic);
+        return c != null && mGatt.setCharacteristicNotification(c, enable);
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return mGatt.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        return mGatt.requestConnectionPriority(priority);
+    }
+
+    @Override
+    public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false;
+        }
+        mGatt.setPreferredPhy(txPhyMask, rxPhyMask, 0);
+        return true;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return mGatt.discoverServices();
+    }
+
+    @Override
+    public GattServiceTree getServices() {
+        return toServiceTree(mGatt.getServices());
+    }
+
+    /**
+     * Always false: BluetoothGatt only addresses attributes it has discovered itself, so a
+     * cached tree can only be shown, not used.
+     */
+    @Override
+    public boolean useServices(GattServiceTree services) {
+        return false;
+    }
+
+    @Override
+    public void disconnect() {
+        mGatt.disconnect();
+    }
+
+    @Override
+    public void close() {
+        mGatt.close();
+    }
+
+    public BluetoothGatt getGatt() {
+        return mGatt;
+    }
+
+    public static GattServiceTree toServiceTree(List<BluetoothGattService> services) {
+        GattServiceTree tree = new GattServiceTree();
+        if (services == null) {
+            return tree;
+        }
+        for (BluetoothGattService s : services) {
+            GattServiceTree.Service service = tree.addService(s.getUuid());
+            for (BluetoothGattCharacteristic c : s.getCharacteristics()) {
+                GattServiceTree.Characteristic characteristic =
+                        service.addCharacteristic(c.getUuid(), c.getProperties());
+                for (BluetoothGattDescriptor d : c.getDescriptors()) {
+                    characteristic.addDescriptor(d.getUuid());
+                }
+            }
+        }
+        return tree;
+    }
+
+    private BluetoothGattCharacteristic find(UUID service, UUID characteristic) {
+        BluetoothGattService s = mGatt.getService(service);
+        return s == null ? null : s.getCharacteristic(characteristic);
+    }
+}
@@ -0,0 +1,83 @@
+package com.mch.helloble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+public class AndroidGattConnector implements GattConnector {
+
+    private final Context mContext;
+
+    private final BluetoothAdapter mAdapter;
+
+    public AndroidGattConnector(Context context, BluetoothAdapter adapter) {
+        mContext = context.getApplicationContext();
+        mAdapter = adapter;
+    }
+
+    @Override
+    public GattClient connect(String address, boolean autoConnect, GattClient.Callback callback) {
+        BluetoothGatt gatt = mAdapter.getRemoteDevice(address).connectGatt(mContext, autoConnect, new Bridge(callback));
+        return gatt == null ? null : new AndroidGattClient(gatt);
+    }
+
+    /**
+     * Forwards {@link BluetoothGattCallback} to a {@link GattClient.Callback}.
+     */
+    static class Bridge extends BluetoothGattCallback {
+
+        private final GattClient.Callback mCallback;
+
+        Bridge(GattClient.Callback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                mCallback.onConnectionStateChange(true, status);
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                mCallback.onConnectionStateChange(false, status);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            mCallback.onServicesDiscovered(status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicRead(characteristic.getUuid(), characteristic.getValue(), status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicWrite(characteristic.getUuid(), status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            mCallback.onCharacteristicChanged(characteristic.getUuid(), characteristic.getValue());
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            mCallback.onDescriptorWrite(descriptor.getCharacteristic().getUuid(), descriptor.getUuid(), status);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            mCallback.onMtuChanged(mtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            mCallback.onPhyUpdate(txPhy, rxPhy, status);
+        }
+    }
+}
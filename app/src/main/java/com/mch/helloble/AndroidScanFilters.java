@@ -0,0 +1,86 @@
+package com.mch.helloble;
+
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Moves {@link ScanFilterSpec}s down to the controller, and presents a {@link ScanRecord} to
+ * them for the software check.
+ */
+public final class AndroidScanFilters {
+
+    private AndroidScanFilters() {
+    }
+
+    /**
+     * Returns the hardware filters for the specs, or null to scan unfiltered when one of them
+     * cannot be offloaded. Name prefixes are left out and matched in software.
+     */
+    public static List<ScanFilter> toScanFilters(List<ScanFilterSpec> specs) {
+        if (specs.isEmpty()) {
+            return null;
+        }
+        List<ScanFilter> filters = new ArrayList<>(specs.size());
+        for (int i = 0; i < specs.size(); i++) {
+            ScanFilterSpec spec = specs.get(i);
+            if (!spec.isOffloadable()) {
+                return null;
+            }
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            if (spec.getServiceUuid() != null) {
+                builder.setServiceUuid(new ParcelUuid(spec.getServiceUuid()));
+            }
+            if (spec.getManufacturerId() >= 0) {
+                builder.setManufacturerData(spec.getManufacturerId(), spec.getManufacturerData(),
+                        spec.getManufacturerDataMask());
+            }
+            filters.add(builder.build());
+        }
+        return filters;
+    }
+
+    /**
+     * A reusable view of one scan record.
+     */
+    public static class Record implements ScanFilterSpec.Advertisement {
+
+        private ScanRecord mRecord;
+
+        public Record set(ScanRecord record) {
+            mRecord = record;
+            return this;
+        }
+
+        @Override
+        public String getName() {
+            return mRecord == null ? null : mRecord.getDeviceName();
+        }
+
+        @Override
+        public boolean hasServiceUuid(UUID uuid) {
+            if (mRecord == null) {
+                return false;
+            }
+            List<ParcelUuid> uuids = mRecord.getServiceUuids();
+            if (uuids == null) {
+                return false;
+            }
+            for (int i = 0; i < uuids.size(); i++) {
+                if (uuid.equals(uuids.get(i).getUuid())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public byte[] getManufacturerData(int manufacturerId) {
+            return mRecord == null ? null : mRecord.getManufacturerSpecificData(manufacturerId);
+        }
+    }
+}
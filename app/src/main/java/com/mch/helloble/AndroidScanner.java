@@ -0,0 +1,117 @@
+package com.mch.helloble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class AndroidScanner implements Scanner {
+
+    private final BluetoothAdapter mAdapter;
+
+    private final HashMap<Callback, Bridge> mBridges = new HashMap<>();
+
+    public AndroidScanner(BluetoothAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    @Override
+    public ScanConfig startScan(List<ScanFilterSpec> filters, ScanConfig config, Callback callback) {
+        Bridge bridge = mBridges.get(callback);
+        if (bridge == null) {
+            bridge = new Bridge(callback);
+            mBridges.put(callback, bridge);
+        }
+        if (config.isBatched() && !mAdapter.isOffloadedScanBatchingSupported()) {
+            config = config.unbatched();
+        }
+        mAdapter.getBluetoothLeScanner().startScan(AndroidScanFilters.toScanFilters(filters),
+                buildScanSettings(config), bridge);
+        return config;
+    }
+
+    @Override
+    public void flushPendingScanResults(Callback callback) {
+        Bridge bridge = mBridges.get(callback);
+        if (bridge != null) {
+            mAdapter.getBluetoothLeScanner().flushPendingScanResults(bridge);
+        }
+    }
+
+    @Override
+    public void stopScan(Callback callback) {
+        Bridge bridge = mBridges.remove(callback);
+        if (bridge != null) {
+            mAdapter.getBluetoothLeScanner().stopScan(bridge);
+        }
+    }
+
+    private ScanSettings buildScanSettings(ScanConfig config) {
+        ScanSettings.Builder builder = new ScanSettings.Builder()
+                .setScanMode(config.scanMode);
+        if (config.isBatched()) {
+            builder.setReportDelay(config.reportDelayMillis);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            builder.setMatchMode(config.matchMode);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Forwards {@link ScanCallback} to a {@link Scanner.Callback}, reusing one result per
+     * position in a batch.
+     */
+    static class Bridge extends ScanCallback {
+
+        private final Callback mCallback;
+
+        private final ArrayList<Result> mPool = new ArrayList<>();
+
+        private final ArrayList<Result> mBatch = new ArrayList<>();
+
+        Bridge(Callback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            mCallback.onScanResult(set(0, result));
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            mBatch.clear();
+            for (int i = 0; i < results.size(); i++) {
+                mBatch.add(set(i, results.get(i)));
+            }
+            mCallback.onBatchScanResults(mBatch);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            mCallback.onScanFailed(errorCode);
+        }
+
+        private Result set(int index, ScanResult scanResult) {
+            while (mPool.size() <= index) {
+                Result result = new Result();
+                result.advertisement = new AndroidScanFilters.Record();
+                mPool.add(result);
+            }
+            Result result = mPool.get(index);
+            BluetoothDevice device = scanResult.getDevice();
+            result.address = device.getAddress();
+            result.name = device.getName();
+            result.rssi = scanResult.getRssi();
+            ((AndroidScanFilters.Record) result.advertisement).set(scanResult.getScanRecord());
+            return result;
+        }
+    }
+}
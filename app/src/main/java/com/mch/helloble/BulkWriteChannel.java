@@ -0,0 +1,410 @@
+package com.mch.helloble;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Streams a payload, such as a configuration blob or a firmware image, to one characteristic
+ * in chunks that fill the ATT MTU, pipelined with write without response.
+ * <p>
+ * Each chunk is the little-endian 32-bit offset of its data followed by the data, so the peer
+ * can place it and notice a gap. Up to {@link #setCredits credits} chunks are outstanding at
+ * once; the client returns a credit with the {@code onCharacteristicWrite} of a write without
+ * response, once the controller has taken the packet off its buffer. As many credits as the
+ * controller has buffers keep it busy every connection event without ever overflowing it.
+ * <p>
+ * Every {@link #setCheckpointInterval checkpoint interval} bytes, and for the last chunk, the
+ * chunk is written with response instead and nothing more is sent until it is acknowledged.
+ * The peer acknowledges only if it holds everything up to there, so an acknowledged checkpoint
+ * is where the transfer resumes after a disconnect, a timeout or a rejected checkpoint.
+ * <p>
+ * The GATT callbacks arrive through {@link #onCharacteristicWrite} and {@link #onLinkLost}.
+ * {@link ConnectionManager#startBulkWrite} wires a channel to a connection and pauses its
+ * {@link GattCommandQueue} for as long as the transfer runs.
+ */
+public class BulkWriteChannel {
+
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_RUNNING = 1;
+    /**
+     * Stopped short; {@link #start} resumes from the last checkpoint.
+     */
+    public static final int STATE_INTERRUPTED = 2;
+    public static final int STATE_COMPLETE = 3;
+
+    public static final int STATUS_SUCCESS = GattCommandQueue.STATUS_SUCCESS;
+    public static final int STATUS_TIMEOUT = GattCommandQueue.STATUS_TIMEOUT;
+    public static final int STATUS_REJECTED = GattCommandQueue.STATUS_REJECTED;
+    public static final int STATUS_CANCELLED = GattCommandQueue.STATUS_CANCELLED;
+    public static final int STATUS_LINK_LOST = -4;
+
+    // ATT opcode and handle of a write.
+    static final int ATT_WRITE_OVERHEAD = 3;
+
+    static final int CHUNK_HEADER_SIZE = 4;
+
+    public static final int DEFAULT_CREDITS = 4;
+
+    static final long WRITE_TIMEOUT = 5000;
+
+    // Client refused a write: it is still busy with the previous one.
+    private static final long BUSY_RETRY_DELAY = 5;
+
+    // Rejected checkpoints in a row before giving up.
+    static final int MAX_CHECKPOINT_RETRIES = 3;
+
+    public interface Listener {
+        /**
+         * Called when the peer acknowledged everything before {@code offset}.
+         */
+        void onCheckpoint(BulkWriteChannel channel, int offset);
+
+        /**
+         * Called once the transfer completed or stopped, with {@link #STATUS_SUCCESS} or why.
+         */
+        void onComplete(BulkWriteChannel channel, int status);
+    }
+
+    private final UUID mService;
+
+    private final UUID mCharacteristic;
+
+    private final byte[] mPayload;
+
+    private int mCredits = DEFAULT_CREDITS;
+
+    private int mCheckpointInterval;
+
+    private Listener mListener;
+
+    // Set while a connection holds the channel; runs once it stops.
+    private Runnable mOnStop;
+
+    // Handed to a connection that has not started it yet.
+    private boolean mWaiting;
+
+    private GattClient mClient;
+
+    private Scheduler mScheduler;
+
+    private int mChunkSize;
+
+    private byte[] mChunk;
+
+    private int mState = STATE_IDLE;
+
+    // Data before this offset was written; before mCheckpoint the peer acknowledged it.
+    private int mOffset;
+    private int mCheckpoint;
+    private int mNextCheckpoint;
+
+    private int mOutstanding;
+    private boolean mAwaitingCheckpoint;
+    private int mCheckpointFailures;
+
+    private boolean mRetryScheduled;
+
+    private long mBytesSent;
+    private long mBytesResent;
+    private long mActiveMillis;
+    private long mRunningSince;
+
+    private final Runnable mTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            interrupt(STATUS_TIMEOUT);
+        }
+    };
+
+    private final Runnable mRetryTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BulkWriteChannel.this) {
+                mRetryScheduled = false;
+            }
+            pump();
+        }
+    };
+
+    public BulkWriteChannel(UUID service, UUID characteristic, byte[] payload) {
+        mService = service;
+        mCharacteristic = characteristic;
+        mPayload = payload;
+    }
+
+    /**
+     * Sets how many writes without response may be outstanding; the controller's buffer count.
+     */
+    public synchronized BulkWriteChannel setCredits(int credits) {
+        if (credits <= 0) {
+            throw new IllegalArgumentException("credits must be positive: " + credits);
+        }
+        mCredits = credits;
+        return this;
+    }
+
+    /**
+     * Acknowledges a checkpoint at least every {@code bytes}; 0 acknowledges only the end.
+     */
+    public synchronized BulkWriteChannel setCheckpointInterval(int bytes) {
+        mCheckpointInterval = bytes;
+        return this;
+    }
+
+    public synchronized BulkWriteChannel setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Marks the channel as waiting for {@link #start}; {@code onStop} runs once the transfer
+     * stops, or if it is interrupted before it started.
+     */
+    synchronized void attach(Runnable onStop) {
+        mOnStop = onStop;
+        mWaiting = true;
+    }
+
+    public UUID getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    /**
+     * Starts the transfer over {@code client} with chunks for {@code mtu}, or resumes it from
+     * the last checkpoint if it was interrupted.
+     */
+    public void start(GattClient client, Scheduler scheduler, int mtu) {
+        synchronized (this) {
+            if (mState == STATE_RUNNING || mState == STATE_COMPLETE) {
+                throw new IllegalStateException("transfer already " + (mState == STATE_RUNNING ? "running" : "complete"));
+            }
+            int chunkSize = mtu - ATT_WRITE_OVERHEAD;
+            if (chunkSize <= CHUNK_HEADER_SIZE) {
+                throw new IllegalArgumentException("MTU too small: " + mtu);
+            }
+            mWaiting = false;
+            mClient = client;
+            mScheduler = scheduler;
+            if (chunkSize != mChunkSize) {
+                mChunkSize = chunkSize;
+                mChunk = new byte[chunkSize];
+            }
+            mBytesResent += mOffset - mCheckpoint;
+            mOffset = mCheckpoint;
+            mNextCheckpoint = nextCheckpoint(mCheckpoint);
+            mOutstanding = 0;
+            mAwaitingCheckpoint = false;
+            mCheckpointFailures = 0;
+            mState = STATE_RUNNING;
+            mRunningSince = scheduler.now();
+        }
+        pump();
+    }
+
+    /**
+     * Stops the transfer. It can be resumed from the last checkpoint with {@link #start}.
+     */
+    public void cancel() {
+        interrupt(STATUS_CANCELLED);
+    }
+
+    /**
+     * Returns true if the callback was for this transfer.
+     */
+    public boolean onCharacteristicWrite(UUID characteristic, int status) {
+        int checkpoint = -1;
+        boolean rejected = false;
+        Listener listener;
+        synchronized (this) {
+            if (mState != STATE_RUNNING || !mCharacteristic.equals(characteristic)
+                    || (mOutstanding == 0 && !mAwaitingCheckpoint)) {
+                return false;
+            }
+            mScheduler.cancel(mTimeoutTask);
+            listener = mListener;
+            if (mOutstanding > 0) {
+                // Writes without response complete in order, before the checkpoint sent after them.
+                mOutstanding--;
+            } else if (status == 0) {
+                mAwaitingCheckpoint = false;
+                mCheckpointFailures = 0;
+                mCheckpoint = mOffset;
+                checkpoint = mOffset;
+                mNextCheckpoint = nextCheckpoint(mOffset);
+            } else if (++mCheckpointFailures > MAX_CHECKPOINT_RETRIES) {
+                mAwaitingCheckpoint = false;
+                stop(STATE_INTERRUPTED);
+                rejected = true;
+            } else {
+                // The peer missed something since the last checkpoint; send it all again.
+                mAwaitingCheckpoint = false;
+                mBytesResent += mOffset - mCheckpoint;
+                mOffset = mCheckpoint;
+            }
+            if (mOutstanding > 0 || mAwaitingCheckpoint) {
+                mScheduler.schedule(mTimeoutTask, WRITE_TIMEOUT);
+            }
+        }
+        if (rejected) {
+            finish(STATUS_REJECTED);
+            return true;
+        }
+        if (checkpoint >= 0 && listener != null) {
+            listener.onCheckpoint(this, checkpoint);
+        }
+        pump();
+        return true;
+    }
+
+    /**
+     * Interrupts a running or waiting transfer because the link went down.
+     */
+    public void onLinkLost() {
+        interrupt(STATUS_LINK_LOST);
+    }
+
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * Returns the offset the transfer would resume from.
+     */
+    public synchronized int getCheckpoint() {
+        return mCheckpoint;
+    }
+
+    public int getLength() {
+        return mPayload.length;
+    }
+
+    /**
+     * Returns the payload bytes written so far, including those written more than once.
+     */
+    public synchronized long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /**
+     * Returns how many payload bytes were written again after a resume or rejected checkpoint.
+     */
+    public synchronized long getBytesResent() {
+        return mBytesResent;
+    }
+
+    /**
+     * Returns the payload bytes written per second while the transfer was running.
+     */
+    public synchronized double getBytesPerSecond() {
+        long millis = mActiveMillis + (mState == STATE_RUNNING ? mScheduler.now() - mRunningSince : 0);
+        return millis == 0 ? 0 : mBytesSent * 1000.0 / millis;
+    }
+
+    private int nextCheckpoint(int offset) {
+        if (mCheckpointInterval <= 0) {
+            return mPayload.length;
+        }
+        return Math.min(offset + mCheckpointInterval, mPayload.length);
+    }
+
+    /**
+     * Writes chunks while there are credits left and no checkpoint is pending.
+     */
+    private void pump() {
+        boolean complete = false;
+        synchronized (this) {
+            while (mState == STATE_RUNNING && !mAwaitingCheckpoint && !mRetryScheduled) {
+                if (mOffset == mPayload.length) {
+                    if (mOutstanding == 0 && mCheckpoint == mPayload.length) {
+                        stop(STATE_COMPLETE);
+                        complete = true;
+                    }
+                    break;
+                }
+                int length = Math.min(mChunkSize - CHUNK_HEADER_SIZE, mNextCheckpoint - mOffset);
+                // The chunk that reaches the checkpoint is acknowledged, after everything before it.
+                boolean checkpoint = mOffset + length == mNextCheckpoint;
+                if (checkpoint ? mOutstanding > 0 : mOutstanding >= mCredits) {
+                    break;
+                }
+                byte[] chunk = length + CHUNK_HEADER_SIZE == mChunk.length ? mChunk
+                        : new byte[length + CHUNK_HEADER_SIZE];
+                chunk[0] = (byte) mOffset;
+                chunk[1] = (byte) (mOffset >> 8);
+                chunk[2] = (byte) (mOffset >> 16);
+                chunk[3] = (byte) (mOffset >> 24);
+                System.arraycopy(mPayload, mOffset, chunk, CHUNK_HEADER_SIZE, length);
+                if (!mClient.writeCharacteristic(mService, mCharacteristic, chunk,
+                        checkpoint ? GattClient.WRITE_TYPE_DEFAULT : GattClient.WRITE_TYPE_NO_RESPONSE)) {
+                    if (mOutstanding == 0) {
+                        // Nothing outstanding whose callback would bring us back here.
+                        mRetryScheduled = true;
+                        mScheduler.schedule(mRetryTask, BUSY_RETRY_DELAY);
+                    }
+                    break;
+                }
+                if (mOutstanding == 0 && !checkpoint) {
+                    mScheduler.schedule(mTimeoutTask, WRITE_TIMEOUT);
+                }
+                mOffset += length;
+                mBytesSent += length;
+                if (checkpoint) {
+                    mAwaitingCheckpoint = true;
+                    mScheduler.schedule(mTimeoutTask, WRITE_TIMEOUT);
+                } else {
+                    mOutstanding++;
+                }
+            }
+        }
+        if (complete) {
+            finish(STATUS_SUCCESS);
+        }
+    }
+
+    private void interrupt(int status) {
+        synchronized (this) {
+            if (mState == STATE_RUNNING) {
+                stop(STATE_INTERRUPTED);
+            } else if (mWaiting) {
+                mWaiting = false;
+                mState = STATE_INTERRUPTED;
+            } else {
+                return;
+            }
+        }
+        finish(status);
+    }
+
+    // Called without the lock once the transfer stopped. The connection lets go of the channel
+    // first, so that the listener may start it again.
+    private void finish(int status) {
+        Listener listener;
+        Runnable onStop;
+        synchronized (this) {
+            listener = mListener;
+            onStop = mOnStop;
+            mOnStop = null;
+        }
+        if (onStop != null) {
+            onStop.run();
+        }
+        if (listener != null) {
+            listener.onComplete(this, status);
+        }
+    }
+
+    // Called with the lock held.
+    private void stop(int state) {
+        mState = state;
+        mActiveMillis += mScheduler.now() - mRunningSince;
+        mScheduler.cancel(mTimeoutTask);
+        mScheduler.cancel(mRetryTask);
+        mRetryScheduled = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "BulkWriteChannel{%d/%d B, checkpoint %d, resent %d, %.0f B/s}",
+                mOffset, mPayload.length, mCheckpoint, mBytesResent, getBytesPerSecond());
+    }
+}
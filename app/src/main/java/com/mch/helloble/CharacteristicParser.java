@@ -0,0 +1,26 @@
+package com.mch.helloble;
+
+/**
+ * Understands the values of one kind of characteristic. Parsers are registered by UUID with a
+ * {@link ParserRegistry} and must not allocate: they are called for every notification.
+ */
+public interface CharacteristicParser {
+
+    /**
+     * The most chars {@link #format} may write; enough for any value as hex.
+     */
+    int MAX_TEXT_LENGTH = 3 * GattEvent.MAX_VALUE_LENGTH;
+
+    /**
+     * Fills the typed fields of {@code event} from {@code length} bytes of {@code value}, e.g.
+     * its {@link GattEvent#sample}. Returns false if there is nothing to decode or the value is
+     * malformed. Runs on the Binder thread.
+     */
+    boolean decode(byte[] value, int length, GattEvent event);
+
+    /**
+     * Writes a readable rendering of the value into {@code out}, which holds at least
+     * {@link #MAX_TEXT_LENGTH} chars, and returns how many were written.
+     */
+    int format(byte[] value, int length, char[] out);
+}
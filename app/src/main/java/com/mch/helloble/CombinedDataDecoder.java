@@ -0,0 +1,105 @@
+package com.mch.helloble;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Decodes the combined temperature/humidity/air-quality payload. The payload is three
+ * little-endian unsigned 16-bit fields: temperature in centi-kelvin, relative humidity in
+ * hundredths of a percent and the raw air-quality index.
+ */
+public final class CombinedDataDecoder {
+
+    public static final UUID CHARACTERISTIC = UUID.fromString("3BD91530-EC56-9CF3-B2DF-F2E239D01013");
+
+    public static final int PAYLOAD_LENGTH = 6;
+
+    private static final int OFFSET_TEMPERATURE = 0;
+    private static final int OFFSET_HUMIDITY = 2;
+    private static final int OFFSET_AIR_QUALITY = 4;
+
+    // 0 degrees Celsius in centi-kelvin.
+    private static final int ZERO_CELSIUS = 27315;
+
+    /**
+     * Decodes into {@link GattEvent#sample} and renders e.g. "23.50 \u00B0C, 45 %, AQ 120".
+     */
+    public static final CharacteristicParser PARSER = new CharacteristicParser() {
+        @Override
+        public boolean decode(byte[] value, int length, GattEvent event) {
+            event.hasSample = CombinedDataDecoder.decode(value, 0, length, event.sample);
+            return event.hasSample;
+        }
+
+        @Override
+        public int format(byte[] value, int length, char[] out) {
+            if (length < PAYLOAD_LENGTH) {
+                return HexFormatter.hex(value, 0, length, out, 0);
+            }
+            int pos = HexFormatter.fixed2(centiCelsius(uint16(value, OFFSET_TEMPERATURE)), out, 0);
+            pos = HexFormatter.string(" \u00B0C, ", out, pos);
+            pos = HexFormatter.decimal(humidity(uint16(value, OFFSET_HUMIDITY)), out, pos);
+            pos = HexFormatter.string(" %, AQ ", out, pos);
+            return HexFormatter.decimal(uint16(value, OFFSET_AIR_QUALITY), out, pos);
+        }
+    };
+
+    private CombinedDataDecoder() {
+    }
+
+    public static boolean decode(byte[] data, SensorSample out) {
+        return data != null && decode(data, 0, data.length, out);
+    }
+
+    /**
+     * Decodes {@code length} bytes of {@code data} starting at {@code offset} into {@code out}.
+     * Returns false and leaves {@code out} untouched when the payload is too short.
+     */
+    public static boolean decode(byte[] data, int offset, int length, SensorSample out) {
+        if (length < PAYLOAD_LENGTH) {
+            return false;
+        }
+        out.temperature = temperature(uint16(data, offset + OFFSET_TEMPERATURE));
+        out.humidity = humidity(uint16(data, offset + OFFSET_HUMIDITY));
+        out.airQuality = uint16(data, offset + OFFSET_AIR_QUALITY);
+        return true;
+    }
+
+    /**
+     * Decodes the payload at the buffer's position without moving it, regardless of the
+     * buffer's byte order.
+     */
+    public static boolean decode(ByteBuffer buffer, SensorSample out) {
+        int position = buffer.position();
+        if (buffer.remaining() < PAYLOAD_LENGTH) {
+            return false;
+        }
+        out.temperature = temperature(uint16(buffer, position + OFFSET_TEMPERATURE));
+        out.humidity = humidity(uint16(buffer, position + OFFSET_HUMIDITY));
+        out.airQuality = uint16(buffer, position + OFFSET_AIR_QUALITY);
+        return true;
+    }
+
+    public static double temperature(int raw) {
+        return centiCelsius(raw) / 100.0;
+    }
+
+    /**
+     * Converts a raw temperature in centi-kelvin to hundredths of a degree Celsius.
+     */
+    public static int centiCelsius(int raw) {
+        return raw - ZERO_CELSIUS;
+    }
+
+    public static int humidity(int raw) {
+        return raw / 100;
+    }
+
+    public static int uint16(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int uint16(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xFF) | (buffer.get(index + 1) & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,824 @@
+package com.mch.helloble;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds concurrent GATT connections keyed by device address and merges their events into one
+ * stream.
+ * <p>
+ * Each connection has its own state machine, its own {@link GattCommandQueue} and its own
+ * {@link GattEventBus} ring. At most {@code maxConcurrentConnects} connection attempts and
+ * {@code maxConcurrentDiscoveries} service discoveries run at once; the rest wait in FIFO
+ * order. Listeners see the events of all devices on the event executor, drained round-robin
+ * in batches so that one chatty device cannot hold back the others.
+ * <p>
+ * With a {@link GattServiceCache}, a device whose tree is cached and whose client can use it
+ * is ready as soon as it connects. Discovery runs when there is no cached tree, when the
+ * client cannot use it, or after {@link #invalidateServices(String)}, which also happens when
+ * the peripheral indicates Service Changed.
+ * <p>
+ * With a {@link ReconnectPolicy}, a device the app has asked for stays wanted until
+ * {@link #disconnect(String)}. When its link is lost or an attempt fails, the manager waits
+ * as long as the policy says and tries again with {@code autoConnect}, which neither times out
+ * nor takes one of the connect slots. {@link ConnectionStats} records how long that took.
+ * <p>
+ * With a {@link LinkProfile}, every connection that becomes ready first negotiates the MTU,
+ * connection priority and PHY of the profile.
+ */
+public class ConnectionManager {
+
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_DISCOVERING = 2;
+    public static final int STATE_READY = 3;
+
+    public static final int STATUS_CONNECT_TIMEOUT = -1;
+    public static final int STATUS_CONNECT_FAILED = -2;
+
+    private static final int BUS_CAPACITY = 64;
+
+    private static final int DRAIN_BATCH = 16;
+
+    private static final long CONNECT_TIMEOUT = 15000;
+
+    static final UUID SERVICE_CHANGED = UUID.fromString("00002a05-0000-1000-8000-00805f9b34fb");
+
+    private final GattConnector mConnector;
+
+    private final Scheduler mScheduler;
+
+    private final Executor mEventExecutor;
+
+    private final int mMaxConcurrentConnects;
+
+    private final int mMaxConcurrentDiscoveries;
+
+    private GattServiceCache mServiceCache;
+
+    private ReconnectPolicy mReconnectPolicy;
+
+    private LinkProfile mLinkProfile;
+
+    private volatile ParserRegistry mParsers = ParserRegistry.getDefault();
+
+    private volatile LatencyProbes mProbes;
+
+    private volatile SensorLog mSensorLog;
+
+    private volatile TraceRecorder mTrace = TraceRecorder.getDefault();
+
+    private final HashMap<String, Connection> mConnections = new HashMap<>();
+
+    private volatile Connection[] mConnectionArray = new Connection[0];
+
+    private final ArrayDeque<Connection> mPendingConnects = new ArrayDeque<>();
+
+    private final ArrayDeque<Connection> mPendingDiscoveries = new ArrayDeque<>();
+
+    private int mConnecting;
+
+    private int mDiscovering;
+
+    private volatile GattEventBus.Listener[] mListeners = new GattEventBus.Listener[0];
+
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Executor mDrainSignal = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            scheduleDrain();
+        }
+    };
+
+    private final GattEventBus.Listener mForwarder = new GattEventBus.Listener() {
+        @Override
+        public void onGattEvent(GattEvent event) {
+            LatencyProbes probes = event.publishedNanos == 0 ? null : mProbes;
+            long start = 0;
+            if (probes != null) {
+                start = System.nanoTime();
+                probes.record(LatencyProbes.STAGE_DISPATCH, start - event.publishedNanos);
+            }
+            for (GattEventBus.Listener listener : mListeners) {
+                listener.onGattEvent(event);
+            }
+            if (probes != null) {
+                probes.record(LatencyProbes.STAGE_RECEIVER, System.nanoTime() - start);
+            }
+        }
+    };
+
+    public ConnectionManager(GattConnector connector, Scheduler scheduler, Executor eventExecutor,
+                             int maxConcurrentConnects, int maxConcurrentDiscoveries) {
+        mConnector = connector;
+        mScheduler = scheduler;
+        mEventExecutor = eventExecutor;
+        mMaxConcurrentConnects = maxConcurrentConnects;
+        mMaxConcurrentDiscoveries = maxConcurrentDiscoveries;
+    }
+
+    /**
+     * Decodes values with {@code parsers} instead of {@link ParserRegistry#getDefault()}.
+     */
+    public void setParserRegistry(ParserRegistry parsers) {
+        mParsers = parsers;
+    }
+
+    /**
+     * Records the callback, decode, dispatch and receiver stages of every value into
+     * {@code probes}, or nothing if it is null.
+     */
+    public void setLatencyProbes(LatencyProbes probes) {
+        mProbes = probes;
+    }
+
+    /**
+     * Appends every value to {@code log} as it arrives, before the bus can drop it, or to
+     * nothing if it is null.
+     */
+    public void setSensorLog(SensorLog log) {
+        mSensorLog = log;
+    }
+
+    /**
+     * Records callbacks into {@code trace} instead of {@link TraceRecorder#getDefault()}.
+     */
+    public void setTraceRecorder(TraceRecorder trace) {
+        mTrace = trace;
+    }
+
+    public synchronized void setServiceCache(GattServiceCache cache) {
+        mServiceCache = cache;
+    }
+
+    /**
+     * Reconnects lost devices according to {@code policy}, or not at all if it is null.
+     */
+    public synchronized void setReconnectPolicy(ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    /**
+     * Tunes connections that become ready from now on with {@code profile}, or leaves the
+     * link parameters alone if it is null.
+     */
+    public synchronized void setLinkProfile(LinkProfile profile) {
+        mLinkProfile = profile;
+    }
+
+    /**
+     * Tunes the link to {@code address} with {@code profile} right away. Returns false if the
+     * device is not ready.
+     */
+    public boolean applyLinkProfile(String address, LinkProfile profile) {
+        GattCommandQueue queue;
+        synchronized (this) {
+            Connection connection = mConnections.get(address);
+            if (connection == null || connection.mState != STATE_READY) {
+                return false;
+            }
+            queue = connection.mQueue;
+        }
+        profile.apply(queue);
+        return true;
+    }
+
+    public synchronized void addListener(GattEventBus.Listener listener) {
+        GattEventBus.Listener[] listeners = new GattEventBus.Listener[mListeners.length + 1];
+        System.arraycopy(mListeners, 0, listeners, 0, mListeners.length);
+        listeners[mListeners.length] = listener;
+        mListeners = listeners;
+    }
+
+    public synchronized void removeListener(GattEventBus.Listener listener) {
+        for (int i = 0; i < mListeners.length; i++) {
+            if (mListeners[i] == listener) {
+                GattEventBus.Listener[] listeners = new GattEventBus.Listener[mListeners.length - 1];
+                System.arraycopy(mListeners, 0, listeners, 0, i);
+                System.arraycopy(mListeners, i + 1, listeners, i, listeners.length - i);
+                mListeners = listeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Connects to {@code address} unless a connection already exists or is pending.
+     */
+    public synchronized void connect(String address) {
+        Connection connection = mConnections.get(address);
+        if (connection == null) {
+            connection = new Connection(address);
+            mConnections.put(address, connection);
+            Connection[] array = new Connection[mConnectionArray.length + 1];
+            System.arraycopy(mConnectionArray, 0, array, 0, mConnectionArray.length);
+            array[mConnectionArray.length] = connection;
+            mConnectionArray = array;
+        }
+        connection.mWanted = true;
+        if (connection.mState != STATE_DISCONNECTED || mPendingConnects.contains(connection)) {
+            return;
+        }
+        // Asked again while waiting to retry: try now, the normal way.
+        mScheduler.cancel(connection.mReconnectTask);
+        mPendingConnects.add(connection);
+        pumpConnects();
+    }
+
+    /**
+     * Drops the link to {@code address} or cancels its pending attempt. The device stays known
+     * to the manager and can be connected again.
+     */
+    public void disconnect(String address) {
+        Connection connection;
+        synchronized (this) {
+            connection = mConnections.get(address);
+            if (connection == null) {
+                return;
+            }
+            connection.mWanted = false;
+            mScheduler.cancel(connection.mReconnectTask);
+            mPendingConnects.remove(connection);
+        }
+        connection.onLinkLost(0);
+        connection.close();
+        connection.mStats.onReleased(mScheduler.elapsedRealtime());
+    }
+
+    public void disconnectAll() {
+        for (Connection connection : mConnectionArray) {
+            disconnect(connection.mAddress);
+        }
+    }
+
+    /**
+     * Drops the cached tree of {@code address} and, if the device is ready, discovers again.
+     */
+    public void invalidateServices(String address) {
+        GattServiceCache cache;
+        synchronized (this) {
+            cache = mServiceCache;
+        }
+        if (cache != null) {
+            cache.invalidate(address);
+        }
+        synchronized (this) {
+            Connection connection = mConnections.get(address);
+            if (connection != null && connection.mState == STATE_READY) {
+                connection.mState = STATE_DISCOVERING;
+                mPendingDiscoveries.add(connection);
+                pumpDiscoveries();
+            }
+        }
+    }
+
+    /**
+     * Returns the service tree of a connected device, else the cached one, else null.
+     */
+    public GattServiceTree getServices(String address) {
+        GattServiceCache cache;
+        GattClient client;
+        synchronized (this) {
+            cache = mServiceCache;
+            Connection connection = mConnections.get(address);
+            client = connection == null || connection.mState != STATE_READY ? null : connection.mClient;
+        }
+        GattServiceTree services = client == null ? null : client.getServices();
+        if (services == null && cache != null) {
+            services = cache.get(address);
+        }
+        return services;
+    }
+
+    /**
+     * Returns the reconnect metrics of {@code address}, or null if it was never connected. Its
+     * times are on the scheduler's {@link Scheduler#elapsedRealtime()} clock.
+     */
+    public ConnectionStats getStats(String address) {
+        Connection connection = find(address);
+        return connection == null ? null : connection.mStats;
+    }
+
+    /**
+     * Returns the negotiated ATT MTU of {@code address}, or {@link LinkProfile#DEFAULT_MTU}.
+     */
+    public int getMtu(String address) {
+        Connection connection = find(address);
+        return connection == null ? LinkProfile.DEFAULT_MTU : connection.mMtu;
+    }
+
+    /**
+     * Returns the PHY that notifications of {@code address} arrive on, as far as reported.
+     */
+    public int getRxPhy(String address) {
+        Connection connection = find(address);
+        return connection == null ? GattClient.PHY_LE_1M : connection.mRxPhy;
+    }
+
+    public int getState(String address) {
+        Connection connection = find(address);
+        return connection == null ? STATE_DISCONNECTED : connection.mState;
+    }
+
+    /**
+     * Starts or resumes {@code channel} on a ready device with its negotiated MTU. Returns false
+     * if the device is not ready or already has a transfer. The stack takes one operation at a
+     * time, so the device's command queue is paused: the transfer starts once the running
+     * command completes, and queued commands run after it.
+     */
+    public boolean startBulkWrite(String address, final BulkWriteChannel channel) {
+        final Connection connection = find(address);
+        if (connection == null) {
+            return false;
+        }
+        int state = channel.getState();
+        if (state == BulkWriteChannel.STATE_RUNNING || state == BulkWriteChannel.STATE_COMPLETE) {
+            throw new IllegalStateException("transfer already "
+                    + (state == BulkWriteChannel.STATE_RUNNING ? "running" : "complete"));
+        }
+        final GattCommandQueue queue;
+        synchronized (this) {
+            if (connection.mState != STATE_READY || connection.mBulk != null) {
+                return false;
+            }
+            connection.mBulk = channel;
+            queue = connection.mQueue;
+        }
+        channel.attach(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionManager.this) {
+                    if (connection.mBulk == channel) {
+                        connection.mBulk = null;
+                    }
+                }
+                queue.resume();
+            }
+        });
+        queue.pause(new Runnable() {
+            @Override
+            public void run() {
+                GattClient client;
+                int mtu;
+                synchronized (ConnectionManager.this) {
+                    if (connection.mBulk != channel) {
+                        return;
+                    }
+                    client = connection.mClient;
+                    mtu = connection.mMtu;
+                }
+                channel.start(client, mScheduler, mtu);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns the command queue of a connected device, or null.
+     */
+    public GattCommandQueue getQueue(String address) {
+        Connection connection = find(address);
+        return connection == null ? null : connection.mQueue;
+    }
+
+    public int getConnectionCount() {
+        return mConnectionArray.length;
+    }
+
+    public int getReadyCount() {
+        int ready = 0;
+        for (Connection connection : mConnectionArray) {
+            if (connection.mState == STATE_READY) {
+                ready++;
+            }
+        }
+        return ready;
+    }
+
+    public synchronized int getConnectingCount() {
+        return mConnecting;
+    }
+
+    public synchronized int getDiscoveringCount() {
+        return mDiscovering;
+    }
+
+    public long getDroppedEvents() {
+        long dropped = 0;
+        for (Connection connection : mConnectionArray) {
+            dropped += connection.mBus.getDropped();
+        }
+        return dropped;
+    }
+
+    private synchronized Connection find(String address) {
+        return mConnections.get(address);
+    }
+
+    private void scheduleDrain() {
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mEventExecutor.execute(mDrainTask);
+        }
+    }
+
+    private void drain() {
+        mDrainScheduled.set(false);
+        boolean more = false;
+        for (Connection connection : mConnectionArray) {
+            connection.mBus.drain(DRAIN_BATCH);
+            more |= connection.mBus.getBacklog() > 0;
+        }
+        if (more) {
+            scheduleDrain();
+        }
+    }
+
+    // Called with the lock held.
+    private void pumpConnects() {
+        while (mConnecting < mMaxConcurrentConnects && !mPendingConnects.isEmpty()) {
+            Connection connection = mPendingConnects.poll();
+            mConnecting++;
+            connection.start();
+        }
+    }
+
+    // Called with the lock held.
+    private void pumpDiscoveries() {
+        while (mDiscovering < mMaxConcurrentDiscoveries && !mPendingDiscoveries.isEmpty()) {
+            Connection connection = mPendingDiscoveries.poll();
+            mDiscovering++;
+            connection.mDiscovering = true;
+            if (!connection.mClient.discoverServices()) {
+                connection.mDiscovering = false;
+                mDiscovering--;
+                connection.mClient.disconnect();
+            }
+        }
+    }
+
+    private class Connection implements GattClient.Callback {
+
+        final String mAddress;
+
+        final GattEventBus mBus = new GattEventBus(BUS_CAPACITY, mDrainSignal);
+
+        volatile int mState = STATE_DISCONNECTED;
+
+        GattClient mClient;
+
+        GattCommandQueue mQueue;
+
+        volatile BulkWriteChannel mBulk;
+
+        boolean mConnecting;
+
+        boolean mDiscovering;
+
+        boolean mWanted;
+
+        int mFailures;
+
+        boolean mTuned;
+
+        volatile int mMtu = LinkProfile.DEFAULT_MTU;
+
+        volatile int mRxPhy = GattClient.PHY_LE_1M;
+
+        final ConnectionStats mStats = new ConnectionStats();
+
+        final Runnable mConnectTimeout = new Runnable() {
+            @Override
+            public void run() {
+                trace(TraceRecorder.EVENT_DISCONNECTED, null, STATUS_CONNECT_TIMEOUT, 0);
+                onLinkLost(STATUS_CONNECT_TIMEOUT);
+                close();
+            }
+        };
+
+        final Runnable mConnectFailed = new Runnable() {
+            @Override
+            public void run() {
+                trace(TraceRecorder.EVENT_DISCONNECTED, null, STATUS_CONNECT_FAILED, 0);
+                onLinkLost(STATUS_CONNECT_FAILED);
+            }
+        };
+
+        final Runnable mReconnectTask = new Runnable() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        };
+
+        Connection(String address) {
+            mAddress = address;
+            mBus.addListener(mForwarder);
+        }
+
+        // Called with the manager lock held.
+        void start() {
+            mConnecting = true;
+            mScheduler.schedule(mConnectTimeout, CONNECT_TIMEOUT);
+            if (!open(false)) {
+                mScheduler.cancel(mConnectTimeout);
+            }
+        }
+
+        void reconnect() {
+            synchronized (ConnectionManager.this) {
+                if (mWanted && mState == STATE_DISCONNECTED && !mPendingConnects.contains(this)) {
+                    open(true);
+                }
+            }
+        }
+
+        // Called with the manager lock held.
+        private boolean open(boolean autoConnect) {
+            if (mClient != null) {
+                mClient.close();
+            }
+            mState = STATE_CONNECTING;
+            mStats.onAttempt();
+            trace(TraceRecorder.EVENT_CONNECT, null, 0, autoConnect ? 1 : 0);
+            mClient = mConnector.connect(mAddress, autoConnect, this);
+            if (mClient == null) {
+                mScheduler.schedule(mConnectFailed, 0);
+                return false;
+            }
+            mQueue = new GattCommandQueue(mClient, mScheduler);
+            return true;
+        }
+
+        void close() {
+            GattClient client;
+            synchronized (ConnectionManager.this) {
+                client = mClient;
+                mClient = null;
+            }
+            if (client != null) {
+                client.close();
+            }
+        }
+
+        @Override
+        public void onConnectionStateChange(boolean connected, int status) {
+            trace(connected ? TraceRecorder.EVENT_CONNECTED : TraceRecorder.EVENT_DISCONNECTED, null, status, 0);
+            if (!connected) {
+                onLinkLost(status);
+                return;
+            }
+            GattServiceCache cache;
+            synchronized (ConnectionManager.this) {
+                cache = mServiceCache;
+            }
+            GattServiceTree cached = cache == null ? null : cache.get(mAddress);
+            boolean ready;
+            synchronized (ConnectionManager.this) {
+                if (mState != STATE_CONNECTING) {
+                    return;
+                }
+                if (mConnecting) {
+                    releaseConnectSlot();
+                }
+                ready = cached != null && mClient.useServices(cached);
+                if (ready) {
+                    onReady();
+                } else {
+                    mState = STATE_DISCOVERING;
+                    mPendingDiscoveries.add(this);
+                    pumpDiscoveries();
+                }
+            }
+            publish(GattEvent.TYPE_CONNECTED, status);
+            if (ready) {
+                publish(GattEvent.TYPE_SERVICES_DISCOVERED, 0);
+                tune();
+            }
+        }
+
+        void onLinkLost(int status) {
+            GattCommandQueue queue;
+            BulkWriteChannel bulk;
+            synchronized (ConnectionManager.this) {
+                if (mState == STATE_DISCONNECTED) {
+                    return;
+                }
+                mState = STATE_DISCONNECTED;
+                mTuned = false;
+                mMtu = LinkProfile.DEFAULT_MTU;
+                mRxPhy = GattClient.PHY_LE_1M;
+                if (mConnecting) {
+                    releaseConnectSlot();
+                }
+                if (mDiscovering) {
+                    mDiscovering = false;
+                    ConnectionManager.this.mDiscovering--;
+                    pumpDiscoveries();
+                }
+                mPendingDiscoveries.remove(this);
+                queue = mQueue;
+                bulk = mBulk;
+                mBulk = null;
+                if (mWanted) {
+                    mStats.onLinkLost(mScheduler.elapsedRealtime());
+                    if (mReconnectPolicy != null) {
+                        long delay = mReconnectPolicy.delay(mFailures++);
+                        trace(TraceRecorder.EVENT_RECONNECT_SCHEDULED, null, status, (int) delay);
+                        mScheduler.schedule(mReconnectTask, delay);
+                    }
+                }
+            }
+            if (queue != null) {
+                queue.clear();
+            }
+            if (bulk != null) {
+                bulk.onLinkLost();
+            }
+            publish(GattEvent.TYPE_DISCONNECTED, status);
+        }
+
+        // Called with the manager lock held.
+        private void onReady() {
+            mState = STATE_READY;
+            mFailures = 0;
+            mStats.onReady(mScheduler.elapsedRealtime());
+        }
+
+        // Called with the manager lock held.
+        private void releaseConnectSlot() {
+            mConnecting = false;
+            mScheduler.cancel(mConnectTimeout);
+            ConnectionManager.this.mConnecting--;
+            pumpConnects();
+        }
+
+        @Override
+        public void onServicesDiscovered(int status) {
+            trace(TraceRecorder.EVENT_SERVICES_DISCOVERED, null, status, 0);
+            GattServiceCache cache;
+            GattClient client;
+            synchronized (ConnectionManager.this) {
+                if (!mDiscovering) {
+                    return;
+                }
+                mDiscovering = false;
+                ConnectionManager.this.mDiscovering--;
+                pumpDiscoveries();
+                if (status != 0) {
+                    mClient.disconnect();
+                    return;
+                }
+                onReady();
+                cache = mServiceCache;
+                client = mClient;
+            }
+            GattServiceTree services = client.getServices();
+            if (cache != null && services != null) {
+                try {
+                    cache.put(mAddress, services);
+                } catch (IOException e) {
+                    // Not fatal: the next connection discovers again.
+                }
+            }
+            publish(GattEvent.TYPE_SERVICES_DISCOVERED, status);
+            tune();
+        }
+
+        // Once per link: rediscovering after Service Changed keeps the tuning.
+        private void tune() {
+            LinkProfile profile;
+            GattCommandQueue queue;
+            synchronized (ConnectionManager.this) {
+                if (mTuned || mLinkProfile == null || mState != STATE_READY) {
+                    return;
+                }
+                mTuned = true;
+                profile = mLinkProfile;
+                queue = mQueue;
+            }
+            profile.apply(queue);
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+            trace(TraceRecorder.EVENT_READ, characteristic, status, value == null ? 0 : value.length);
+            if (status == 0) {
+                log(characteristic, value);
+                publishData(characteristic, value, mProbes == null ? 0 : System.nanoTime());
+            }
+            mQueue.onCharacteristicRead(characteristic, value, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int status) {
+            trace(TraceRecorder.EVENT_WRITE, characteristic, status, 0);
+            BulkWriteChannel bulk = mBulk;
+            if (bulk != null && bulk.onCharacteristicWrite(characteristic, status)) {
+                return;
+            }
+            mQueue.onCharacteristicWrite(characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+            trace(TraceRecorder.EVENT_NOTIFY, characteristic, 0, value == null ? 0 : value.length);
+            if (SERVICE_CHANGED.equals(characteristic)) {
+                invalidateServices(mAddress);
+                return;
+            }
+            log(characteristic, value);
+            publishData(characteristic, value, mProbes == null ? 0 : System.nanoTime());
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+            trace(TraceRecorder.EVENT_DESCRIPTOR_WRITE, characteristic, status, 0);
+            mQueue.onDescriptorWrite(characteristic, descriptor, status);
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            trace(TraceRecorder.EVENT_MTU, null, status, mtu);
+            if (status == 0) {
+                mMtu = mtu;
+            }
+            mQueue.onMtuChanged(mtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+            trace(TraceRecorder.EVENT_PHY, null, status, txPhy << 8 | rxPhy);
+            if (status == 0) {
+                mRxPhy = rxPhy;
+            }
+            mQueue.onPhyUpdate(txPhy, rxPhy, status);
+        }
+
+        private void trace(int type, UUID uuid, int status, int argument) {
+            mTrace.record(type, mAddress, uuid, status, argument);
+        }
+
+        // Stamped on arrival; the bus and its drain may be far behind.
+        private void log(UUID characteristic, byte[] value) {
+            SensorLog log = mSensorLog;
+            if (log == null || value == null || value.length == 0) {
+                return;
+            }
+            try {
+                log.append(System.currentTimeMillis(), mAddress.hashCode(), SensorLog.characteristicId(characteristic),
+                        value, 0, value.length);
+            } catch (IOException e) {
+                // Not fatal: the value is still published, only its record is lost.
+            }
+        }
+
+        // The bus is single-producer; the lock orders Binder callbacks with timeouts.
+        private synchronized void publish(int type, int status) {
+            GattEvent event = mBus.claim(type);
+            if (event != null) {
+                event.address = mAddress;
+                event.status = status;
+                mBus.publish();
+            }
+        }
+
+        /**
+         * {@code callbackNanos} is when the callback arrived, or 0 when probes are off.
+         */
+        private synchronized void publishData(UUID characteristic, byte[] value, long callbackNanos) {
+            LatencyProbes probes = callbackNanos == 0 ? null : mProbes;
+            GattEvent event = mBus.claim(GattEvent.TYPE_DATA_AVAILABLE);
+            if (event == null) {
+                trace(TraceRecorder.EVENT_DROPPED, characteristic, 0, value == null ? 0 : value.length);
+                if (probes != null) {
+                    probes.onDropped();
+                }
+                return;
+            }
+            event.address = mAddress;
+            event.characteristic = characteristic;
+            event.setValue(value);
+            mParsers.get(characteristic).decode(event.value, event.valueLength, event);
+            if (probes != null) {
+                long now = System.nanoTime();
+                probes.record(LatencyProbes.STAGE_CALLBACK, event.timestampNanos - callbackNanos);
+                probes.record(LatencyProbes.STAGE_DECODE, now - event.timestampNanos);
+                event.callbackNanos = callbackNanos;
+                event.publishedNanos = now;
+            }
+            mBus.publish();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.mch.helloble;
+
+/**
+ * Reconnect metrics of one device. An outage starts when a link the app wants is lost and
+ * ends when the device is ready again, or when the app stops wanting it. Times are in
+ * milliseconds of a clock that keeps counting in deep sleep, where most outages are spent.
+ */
+public class ConnectionStats {
+
+    private long mOutageStart = -1;
+
+    private long mDisconnectedMillis;
+
+    private int mReconnects;
+
+    private int mAttempts;
+
+    private long mLastReconnectLatency;
+
+    private long mMaxReconnectLatency;
+
+    private long mTotalReconnectLatency;
+
+    synchronized void onLinkLost(long now) {
+        if (mOutageStart < 0) {
+            mOutageStart = now;
+        }
+    }
+
+    synchronized void onAttempt() {
+        mAttempts++;
+    }
+
+    synchronized void onReady(long now) {
+        if (mOutageStart < 0) {
+            return;
+        }
+        long latency = now - mOutageStart;
+        mOutageStart = -1;
+        mDisconnectedMillis += latency;
+        mReconnects++;
+        mLastReconnectLatency = latency;
+        mMaxReconnectLatency = Math.max(mMaxReconnectLatency, latency);
+        mTotalReconnectLatency += latency;
+    }
+
+    synchronized void onReleased(long now) {
+        if (mOutageStart >= 0) {
+            mDisconnectedMillis += now - mOutageStart;
+            mOutageStart = -1;
+        }
+    }
+
+    /**
+     * Time spent disconnected while the device was wanted, including an outage still going on.
+     */
+    public synchronized long getDisconnectedMillis(long now) {
+        return mDisconnectedMillis + (mOutageStart < 0 ? 0 : now - mOutageStart);
+    }
+
+    public synchronized boolean isInOutage() {
+        return mOutageStart >= 0;
+    }
+
+    public synchronized int getReconnects() {
+        return mReconnects;
+    }
+
+    /**
+     * Connection attempts made, including the first one and the failed ones.
+     */
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+
+    public synchronized long getLastReconnectLatency() {
+        return mLastReconnectLatency;
+    }
+
+    public synchronized long getMaxReconnectLatency() {
+        return mMaxReconnectLatency;
+    }
+
+    public synchronized long getMeanReconnectLatency() {
+        return mReconnects == 0 ? 0 : mTotalReconnectLatency / mReconnects;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConnectionStats{attempts=" + mAttempts + ", reconnects=" + mReconnects
+                + ", meanLatency=" + getMeanReconnectLatency() + "ms, maxLatency=" + mMaxReconnectLatency
+                + "ms, disconnected=" + mDisconnectedMillis + "ms}";
+    }
+}
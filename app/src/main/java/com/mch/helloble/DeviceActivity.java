@@ -1,30 +1,28 @@
 package com.mch.helloble;
 
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
-import android.content.BroadcastReceiver;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.ExpandableListView;
-import android.widget.SimpleExpandableListAdapter;
 import android.widget.TextView;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.UUID;
+import java.io.File;
+import java.io.IOException;
 
 public class DeviceActivity extends AppCompatActivity {
 
@@ -32,117 +30,94 @@ public class DeviceActivity extends AppCompatActivity {
 
     public static final String ARG_DEVICE = "device";
 
+    private static final long LATENCY_OVERLAY_INTERVAL = 1000;
+
     public static Intent newIntent(Context context, BluetoothDevice device) {
         return new Intent(context, DeviceActivity.class).putExtra(ARG_DEVICE, device);
     }
 
-    public static final String ACTION_GATT_CONNECTED = "com.mch.helloble.ACTION_GATT_CONNECTED";
-    public static final String ACTION_GATT_DISCONNECTED = "com.mch.helloble.ACTION_GATT_DISCONNECTED";
-    public static final String ACTION_GATT_SERVICES_DISCOVERED = "com.mch.helloble.ACTION_GATT_SERVICES_DISCOVERED";
-    public static final String ACTION_DATA_AVAILABLE = "com.mch.helloble.ACTION_DATA_AVAILABLE";
-    
-    public static final String EXTRA_DATA = "com.mch.helloble.EXTRA_DATA";
-    public static final String EXTRA_TEMP = "com.mch.helloble.EXTRA_TEMP";
-    public static final String EXTRA_HUMILITY = "com.mch.helloble.EXTRA_HUMILITY";
-    public static final String EXTRA_AIR = "com.mch.helloble.EXTRA_AIR";
-
-    private static final int STATE_DISCONNECTED = 0;
-    private static final int STATE_CONNECTING = 1;
-    private static final int STATE_CONNECTED = 2;
-
-    private static final String LIST_SERVICE = "service";
-    private static final String LIST_CHARACTERISTIC = "characteristic";
+    private BluetoothDevice mDevice;
 
-    private static final UUID UUID_COMBINE_DATA_CHAR = UUID.fromString("3BD91530-EC56-9CF3-B2DF-F2E239D01013");
+    private String mAddress;
 
-    public static final UUID UUID_HEART_RATE_MEASUREMENT = UUID.randomUUID();
+    private SensorService mService;
 
-    private BluetoothDevice mDevice;
+    private ConnectionManager mConnectionManager;
 
-    private BluetoothGatt mBluetoothGatt;
+    private RecyclerView mServiceList;
 
-    private int mConnectionState = STATE_DISCONNECTED;
+    private GattBrowserAdapter mAdapter;
 
-    private ArrayList<ArrayList<BluetoothGattCharacteristic>> mGattCharacteristics;
+    private SensorRenderer mSensorRenderer;
 
-    private ExpandableListView mExpandableListView;
+    private GattServiceTree mShownServices;
 
-    private SimpleExpandableListAdapter mAdapter;
-
-    ArrayList<HashMap<String, String>> mGroupData = new ArrayList<>();
+    private boolean mConnected;
 
-    ArrayList<ArrayList<HashMap<String, String>>> mChildData = new ArrayList<>();
+    private TextView mLatencyOverlay;
 
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+    private final Runnable mLatencyOverlayTask = new Runnable() {
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            String intentAction;
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                intentAction = ACTION_GATT_CONNECTED;
-                mConnectionState = STATE_CONNECTED;
-                broadcastUpdate(intentAction);
-                Log.i(TAG, "Connected to GATT server.");
-                Log.i(TAG, "Attempting to start service discovery:" + mBluetoothGatt.discoverServices());
-
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                intentAction = ACTION_GATT_DISCONNECTED;
-                mConnectionState = STATE_DISCONNECTED;
-                Log.i(TAG, "Disconnected from GATT server.");
-                broadcastUpdate(intentAction);
+        public void run() {
+            LatencyProbes probes = mService == null ? null : mService.getLatencyProbes();
+            if (probes == null) {
+                mLatencyOverlay.setVisibility(View.GONE);
+                return;
             }
+            mLatencyOverlay.setVisibility(View.VISIBLE);
+            mLatencyOverlay.setText(probes.summary());
+            mLatencyOverlay.postDelayed(this, LATENCY_OVERLAY_INTERVAL);
         }
+    };
 
+    private final GattEventBus.Listener mGattEventListener = new GattEventBus.Listener() {
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            Log.d(TAG, "onServicesDiscovered: " + status);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
+        public void onGattEvent(GattEvent event) {
+            if (!mAddress.equals(event.address)) {
+                return;
             }
-        }
-
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic,
-                                         int status) {
-            Log.d(TAG, "onCharacteristicRead: " + characteristic.getUuid() + " status = " + status);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+            switch (event.type) {
+                case GattEvent.TYPE_CONNECTED:
+                    mConnected = true;
+                    Snackbar.make(mServiceList, "connected", Snackbar.LENGTH_LONG).show();
+                    break;
+                case GattEvent.TYPE_DISCONNECTED:
+                    if (mConnected) {
+                        Snackbar.make(mServiceList, "disconnected", Snackbar.LENGTH_LONG).show();
+                    }
+                    mConnected = false;
+                    break;
+                case GattEvent.TYPE_SERVICES_DISCOVERED:
+                    showServices();
+                    break;
+                case GattEvent.TYPE_DATA_AVAILABLE:
+                    mAdapter.onValue(event.characteristic, event.value, event.valueLength);
+                    if (event.hasSample) {
+                        displayData(event.sample.temperature, event.sample.humidity, event.sample.airQuality,
+                                event.callbackNanos);
+                    }
+                    break;
             }
         }
+    };
 
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            Log.d(TAG, "onCharacteristicChanged: " + characteristic.getUuid());
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = ((SensorService.LocalBinder) binder).getService();
+            mConnectionManager = mService.getConnectionManager();
+            mConnectionManager.addListener(mGattEventListener);
+            mConnected = mConnectionManager.getState(mAddress) >= ConnectionManager.STATE_DISCOVERING;
+            // Probes outlive the activity along with the service.
+            showLatencyProbes(mService.getLatencyProbes());
+            // The link may have been up all along; show what is known right away.
+            showServices();
         }
-    };
 
-    private boolean mConnected;
-
-    private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            if (ACTION_GATT_CONNECTED.equals(action)) {
-                Log.d(TAG, "onReceive: " + action);
-                mConnected = true;
-                Snackbar.make(findViewById(R.id.expandable_list_view), "connected", Snackbar.LENGTH_LONG).show();
-            } else if (ACTION_GATT_DISCONNECTED.equals(action)) {
-                Log.d(TAG, "onReceive: " + action);
-                mConnected = false;
-                Snackbar.make(findViewById(R.id.expandable_list_view), "disconnected", Snackbar.LENGTH_LONG).show();
-            } else if (ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
-                Log.d(TAG, "onReceive: " + action);
-                // Show all the supported services and characteristics on the user interface.
-                displayGattServices(mBluetoothGatt.getServices());
-            } else if (ACTION_DATA_AVAILABLE.equals(action)) {
-                Log.d(TAG, "onReceive: " + action);
-                displayData(
-                        intent.getDoubleExtra(EXTRA_TEMP, -1),
-                        intent.getIntExtra(EXTRA_HUMILITY, -1),
-                        intent.getIntExtra(EXTRA_AIR, -1)
-                );
-            }
+        public void onServiceDisconnected(ComponentName name) {
+            mConnectionManager = null;
+            mService = null;
         }
     };
 
@@ -152,6 +127,7 @@ public class DeviceActivity extends AppCompatActivity {
         setContentView(R.layout.activity_device);
 
         mDevice = getIntent().getParcelableExtra(ARG_DEVICE);
+        mAddress = mDevice.getAddress();
 
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -161,7 +137,7 @@ public class DeviceActivity extends AppCompatActivity {
             @Override
             public void onClick(View view) {
                 Snackbar.make(view, "connectGatt", Snackbar.LENGTH_LONG).show();
-                mBluetoothGatt = mDevice.connectGatt(getApplicationContext(), false, mGattCallback);
+                startService(SensorService.connectIntent(getApplicationContext(), mAddress));
             }
         });
 
@@ -169,206 +145,198 @@ public class DeviceActivity extends AppCompatActivity {
 
         setTitle(mDevice.getName());
 
-        mAdapter = new SimpleExpandableListAdapter(getApplicationContext(),
-                mGroupData,
-                R.layout.service_item,
-                new String[]{LIST_SERVICE},
-                new int[]{R.id.service},
-                mChildData,
-                R.layout.characteristic_item,
-                new String[]{LIST_CHARACTERISTIC},
-                new int[]{R.id.characteristic}
-        );
-
-        mExpandableListView = findViewById(R.id.expandable_list_view);
-        mExpandableListView.setAdapter(mAdapter);
-        mExpandableListView.setOnChildClickListener(new ExpandableListView.OnChildClickListener() {
+        mAdapter = new GattBrowserAdapter(new GattBrowserAdapter.OnCharacteristicClickListener() {
             @Override
-            public boolean onChildClick(ExpandableListView parent, View v, int groupPosition, int childPosition, long id) {
-                Log.d(TAG, "onChildClick: " + groupPosition + " " + childPosition);
+            public void onCharacteristicClick(GattServiceTree.Characteristic characteristic) {
+                Log.d(TAG, "onCharacteristicClick: read" + characteristic.uuid);
+
+                GattCommandQueue queue = mConnectionManager == null ? null : mConnectionManager.getQueue(mAddress);
+                if (queue == null) {
+                    return;
+                }
+                if (characteristic.hasProperty(GattServiceTree.PROPERTY_READ)) {
+                    queue.submit(GattCommand.read(characteristic.service, characteristic.uuid));
+                }
+                if (characteristic.hasProperty(GattServiceTree.PROPERTY_NOTIFY)) {
+                    queue.submit(GattCommand.enableNotifications(characteristic.service, characteristic.uuid,
+                            BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE));
+                } else if (characteristic.hasProperty(GattServiceTree.PROPERTY_INDICATE)) {
+                    queue.submit(GattCommand.enableNotifications(characteristic.service, characteristic.uuid,
+                            BluetoothGattDescriptor.ENABLE_INDICATION_VALUE));
+                }
+            }
 
-                BluetoothGattCharacteristic characteristic = mGattCharacteristics.get(groupPosition).get(childPosition);
+            @Override
+            public void onCharacteristicLongClick(GattServiceTree.Characteristic characteristic) {
+                if (characteristic.hasProperty(GattServiceTree.PROPERTY_NOTIFY)) {
+                    startActivity(ThroughputActivity.newIntent(DeviceActivity.this, mAddress, characteristic));
+                } else if (characteristic.hasProperty(GattServiceTree.PROPERTY_READ)
+                        && !characteristic.hasProperty(GattServiceTree.PROPERTY_INDICATE)) {
+                    togglePolling(characteristic);
+                }
+            }
+        });
 
-                Log.d(TAG, "onChildClick: read" + characteristic.getUuid());
+        mServiceList = findViewById(R.id.service_list);
+        mServiceList.setLayoutManager(new LinearLayoutManager(getApplicationContext()));
+        mServiceList.setAdapter(mAdapter);
 
-                mBluetoothGatt.readCharacteristic(characteristic);
+        mSensorRenderer = new SensorRenderer(
+                (TextView) findViewById(R.id.temperature),
+                (TextView) findViewById(R.id.humidity),
+                (TextView) findViewById(R.id.air_quality));
+        mLatencyOverlay = findViewById(R.id.latency_overlay);
+    }
 
-                mBluetoothGatt.setCharacteristicNotification(characteristic, true);
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_device, menu);
+        menu.findItem(R.id.action_latency_overlay).setChecked(mService != null && mService.getLatencyProbes() != null);
+        return true;
+    }
 
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_latency_overlay:
+                if (mService == null) {
+                    return true;
+                }
+                item.setChecked(!item.isChecked());
+                showLatencyProbes(mService.setLatencyProbesEnabled(item.isChecked()));
                 return true;
-            }
-        });
-
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(ACTION_GATT_CONNECTED);
-        filter.addAction(ACTION_GATT_DISCONNECTED);
-        filter.addAction(ACTION_GATT_SERVICES_DISCOVERED);
-        filter.addAction(ACTION_DATA_AVAILABLE);
-        registerReceiver(mGattUpdateReceiver, filter);
+            case R.id.action_dump_latency:
+                if (mService == null) {
+                    return true;
+                }
+                try {
+                    File file = mService.dumpLatencyProbes();
+                    Snackbar.make(mServiceList, getString(R.string.latency_dumped, file), Snackbar.LENGTH_LONG).show();
+                } catch (IOException e) {
+                    Log.w(TAG, "onOptionsItemSelected: latency dump failed", e);
+                    Snackbar.make(mServiceList, getString(R.string.latency_dump_failed, e.getMessage()),
+                            Snackbar.LENGTH_LONG).show();
+                }
+                return true;
+            case R.id.action_export_readings:
+            case R.id.action_export_readings_csv:
+                if (mService != null) {
+                    exportReadings(mService, item.getItemId() == R.id.action_export_readings_csv);
+                }
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     @Override
     protected void onStart() {
         super.onStart();
 
-        mBluetoothGatt = mDevice.connectGatt(getApplicationContext(), false, mGattCallback);
+        // The service keeps the link; connecting to a device it already holds does nothing.
+        startService(SensorService.connectIntent(getApplicationContext(), mAddress));
+        bindService(new Intent(this, SensorService.class), mServiceConnection, Context.BIND_AUTO_CREATE);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
 
-        close();
+        if (mConnectionManager != null) {
+            Log.i(TAG, "onStop: " + mConnectionManager.getStats(mAddress)
+                    + " coalesced=" + mSensorRenderer.getCoalescedCount());
+            mConnectionManager.removeListener(mGattEventListener);
+            mConnectionManager = null;
+        }
+        // The probes stay with the service; only stop showing them.
+        mSensorRenderer.setLatencyProbes(null);
+        mLatencyOverlay.removeCallbacks(mLatencyOverlayTask);
+        unbindService(mServiceConnection);
+        mService = null;
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
-        unregisterReceiver(mGattUpdateReceiver);
+        mSensorRenderer.stop();
     }
 
-    private void broadcastUpdate(final String action) {
-        final Intent intent = new Intent(action);
-        sendBroadcast(intent);
+    private void showServices() {
+        if (mConnectionManager == null) {
+            return;
+        }
+        GattServiceTree services = mConnectionManager.getServices(mAddress);
+        // The cached tree is usually on screen already; only redraw if it changed.
+        if (services != null && !services.equals(mShownServices)) {
+            displayGattServices(services);
+        }
     }
 
-    private void broadcastUpdate(final String action,
-                                 final BluetoothGattCharacteristic characteristic) {
-        final Intent intent = new Intent(action);
-
-        // This is special handling for the Heart Rate Measurement profile. Data
-        // parsing is carried out as per profile specifications.
-        if (UUID_HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
-            int flag = characteristic.getProperties();
-            int format = -1;
-            if ((flag & 0x01) != 0) {
-                format = BluetoothGattCharacteristic.FORMAT_UINT16;
-                Log.d(TAG, "Heart rate format UINT16.");
-            } else {
-                format = BluetoothGattCharacteristic.FORMAT_UINT8;
-                Log.d(TAG, "Heart rate format UINT8.");
-            }
-            final int heartRate = characteristic.getIntValue(format, 1);
-            Log.d(TAG, String.format("Received heart rate: %d", heartRate));
-            intent.putExtra(EXTRA_DATA, String.valueOf(heartRate));
-        } else if (UUID_COMBINE_DATA_CHAR.equals(characteristic.getUuid())) {
-            double temperature = extractCombinedTemperature(characteristic);
-            int humidity = extractCombinedHumidity(characteristic);
-            int airQuality = extractCombinedAirQuality(characteristic);
-            intent.putExtra(EXTRA_TEMP, temperature);
-            intent.putExtra(EXTRA_HUMILITY, humidity);
-            intent.putExtra(EXTRA_AIR, airQuality);
+    /**
+     * Starts or stops reading a characteristic that cannot notify every now and then.
+     */
+    private void togglePolling(GattServiceTree.Characteristic characteristic) {
+        if (mService == null) {
+            return;
+        }
+        PollScheduler poller = mService.getPollScheduler();
+        PollScheduler.Poll poll = poller.find(mAddress, characteristic.uuid);
+        if (poll != null) {
+            poller.remove(poll);
         } else {
-            // For all other profiles, writes the data formatted in HEX.
-            final byte[] data = characteristic.getValue();
-            if (data != null && data.length > 0) {
-                final StringBuilder stringBuilder = new StringBuilder(data.length);
-                for (byte byteChar : data)
-                    stringBuilder.append(String.format("%02X ", byteChar));
-                intent.putExtra(EXTRA_DATA, new String(data) + "\n" +
-                        stringBuilder.toString());
-            }
+            poller.add(mAddress, characteristic.service, characteristic.uuid);
         }
-        sendBroadcast(intent);
+        Snackbar.make(mServiceList, getString(poll != null ? R.string.polling_stopped : R.string.polling_started,
+                characteristic.uuid), Snackbar.LENGTH_SHORT).show();
     }
 
-    private void displayGattServices(List<BluetoothGattService> gattServices) {
-        if (gattServices == null) return;
-        String uuid = null;
-        String unknownServiceString = "unknown_service";
-        String unknownCharaString = "unknown_characteristic";
-        ArrayList<HashMap<String, String>> gattServiceData = new ArrayList<>();
-        ArrayList<ArrayList<HashMap<String, String>>> gattCharacteristicData = new ArrayList<>();
-        mGattCharacteristics = new ArrayList<>();
-
-        mGroupData.clear();
-        mChildData.clear();
-
-        // Loops through available GATT Services.
-        for (BluetoothGattService gattService : gattServices) {
-
-            Log.d(TAG, "displayGattServices: gattService = " + gattService.getUuid());
-
-            HashMap<String, String> currentServiceData = new HashMap<>();
-            uuid = gattService.getUuid().toString();
-
-            currentServiceData.put(LIST_SERVICE, uuid);
-
-            gattServiceData.add(currentServiceData);
-            mGroupData.add(currentServiceData);
-
-            ArrayList<HashMap<String, String>> gattCharacteristicGroupData = new ArrayList<>();
-            List<BluetoothGattCharacteristic> gattCharacteristics = gattService.getCharacteristics();
-            ArrayList<BluetoothGattCharacteristic> charas = new ArrayList<>();
-            // Loops through available Characteristics.
-            for (BluetoothGattCharacteristic gattCharacteristic : gattCharacteristics) {
-
-                Log.d(TAG, "displayGattServices: gattCharacteristic = " + gattCharacteristic.getUuid());
-
-                charas.add(gattCharacteristic);
-                HashMap<String, String> currentCharaData = new HashMap<>();
-                uuid = gattCharacteristic.getUuid().toString();
-
-                if (gattCharacteristic.getUuid().equals(UUID_COMBINE_DATA_CHAR)) {
-                    uuid += " ! ";
+    private void exportReadings(final SensorService service, final boolean csv) {
+        Snackbar.make(mServiceList, R.string.readings_exporting, Snackbar.LENGTH_SHORT).show();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    message = getString(R.string.readings_exported, service.exportReadings(csv));
+                } catch (IOException e) {
+                    Log.w(TAG, "exportReadings: failed", e);
+                    message = getString(R.string.readings_export_failed, e.getMessage());
                 }
-
-                currentCharaData.put(LIST_CHARACTERISTIC, uuid);
-
-                gattCharacteristicGroupData.add(currentCharaData);
+                final String text = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Snackbar.make(mServiceList, text, Snackbar.LENGTH_LONG).show();
+                    }
+                });
             }
-            mGattCharacteristics.add(charas);
-            gattCharacteristicData.add(gattCharacteristicGroupData);
-            mChildData.add(gattCharacteristicGroupData);
-        }
+        }, "export-readings").start();
+    }
 
-        mAdapter.notifyDataSetChanged();
+    private void showLatencyProbes(LatencyProbes probes) {
+        mSensorRenderer.setLatencyProbes(probes);
+        mLatencyOverlay.removeCallbacks(mLatencyOverlayTask);
+        mLatencyOverlayTask.run();
     }
 
-    public void close() {
-        if (mBluetoothGatt == null) {
-            return;
-        }
-        mBluetoothGatt.close();
-        mBluetoothGatt = null;
+    private void displayGattServices(GattServiceTree services) {
+        mShownServices = services;
+        mAdapter.setServices(services);
     }
 
     public static double extractCombinedTemperature(BluetoothGattCharacteristic c) {
-        double temp = shortUnsignedAtOffset(c, 0);
-        temp = (-27315f + temp) / 100f;
-        return temp;
+        return CombinedDataDecoder.temperature(CombinedDataDecoder.uint16(c.getValue(), 0));
     }
 
     public static int extractCombinedHumidity(BluetoothGattCharacteristic c) {
-        int humidity = shortUnsignedAtOffset(c, 2);
-        humidity = humidity / 100;
-        return humidity;
+        return CombinedDataDecoder.humidity(CombinedDataDecoder.uint16(c.getValue(), 2));
     }
 
     public static int extractCombinedAirQuality(BluetoothGattCharacteristic c) {
-        return shortUnsignedAtOffset(c, 4);
-    }
-
-    private static Integer shortUnsignedAtOffset(BluetoothGattCharacteristic c, int offset) {
-        Integer lowerByte = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, offset);
-        Integer upperByte = c.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, offset + 1); // Note: interpret MSB as unsigned.
-
-        return (upperByte << 8) + lowerByte;
+        return CombinedDataDecoder.uint16(c.getValue(), 4);
     }
  
-    private void displayData(double temperature, int humidity, int airQuality) {
-        Log.d(TAG, "displayGattServices: Hello Sensor!!");
-
-        Log.d(TAG, "displayGattServices: T " + temperature);
-        Log.d(TAG, "displayGattServices: H " + humidity);
-        Log.d(TAG, "displayGattServices: A " + airQuality);
-
-        TextView textView = findViewById(R.id.temperature);
-        textView.setText("Temperature: \n" + temperature);
-        textView = findViewById(R.id.humidity);
-        textView.setText("Humility: \n" + humidity);
-        textView = findViewById(R.id.air_quality);
-        textView.setText("Air Quality: \n" + airQuality);
+    private void displayData(double temperature, int humidity, int airQuality, long callbackNanos) {
+        mSensorRenderer.update(temperature, humidity, airQuality, callbackNanos);
     }
 }
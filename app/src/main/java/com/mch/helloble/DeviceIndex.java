@@ -0,0 +1,361 @@
+package com.mch.helloble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Devices seen while scanning, keyed by address, either in the order they were first seen or
+ * ranked by smoothed RSSI as a proxy for proximity.
+ * <p>
+ * Advertisements only update the index. The structural changes they cause are logged and
+ * handed to a {@link ChangeListener} in one batch by {@link #flush(ChangeListener)}, so the
+ * caller decides how often the UI is told. When ranking, the list is kept sorted by each device's
+ * rank RSSI, which follows the smoothed RSSI only once it has drifted more than
+ * {@link #RANK_HYSTERESIS} dB away, so fading does not shuffle the rows. A device whose rank
+ * changes moves by adjacent steps; the list is never re-sorted as a whole. Not thread-safe.
+ */
+public class DeviceIndex {
+
+    /**
+     * Weight of a new reading in the exponential moving average of the RSSI.
+     */
+    static final float RSSI_SMOOTHING = 0.25f;
+
+    static final float RANK_HYSTERESIS = 3f;
+
+    private static final int MAX_LOGGED_OPS = 256;
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_MOVE = 1;
+
+    public static class Entry {
+        public final long id;
+        public final String address;
+        public String name;
+        public int rssi;
+        public float smoothedRssi;
+        public float rankRssi;
+        public long firstSeen;
+        public long lastSeen;
+        public int advertisementCount;
+        /**
+         * Remembered from an earlier run and not seen advertising yet.
+         */
+        public boolean recent;
+        /**
+         * Last reading remembered from an earlier run, or null.
+         */
+        public SensorSample lastReading;
+
+        int position;
+        boolean dirty;
+        long insertedInFlush;
+
+        Entry(long id, String address) {
+            this.id = id;
+            this.address = address;
+        }
+    }
+
+    public interface ChangeListener {
+        void onInserted(int position, int count);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onChanged(int position, int count);
+
+        /**
+         * Too much changed to describe item by item; rebind everything.
+         */
+        void onReset();
+    }
+
+    private static final Comparator<Entry> BY_POSITION = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.position < b.position ? -1 : a.position == b.position ? 0 : 1;
+        }
+    };
+
+    private static final Comparator<Entry> BY_PROXIMITY = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Float.compare(b.rankRssi, a.rankRssi);
+        }
+    };
+
+    private static final Comparator<Entry> BY_ARRIVAL = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.id < b.id ? -1 : a.id == b.id ? 0 : 1;
+        }
+    };
+
+    private final HashMap<String, Entry> mByAddress = new HashMap<>();
+
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+
+    private final ArrayList<Entry> mDirty = new ArrayList<>();
+
+    private final int[] mOpType = new int[MAX_LOGGED_OPS];
+    private final int[] mOpA = new int[MAX_LOGGED_OPS];
+    private final int[] mOpB = new int[MAX_LOGGED_OPS];
+    private int mOpCount;
+    private boolean mReset;
+
+    private boolean mRankByProximity;
+
+    private long mFlushCount;
+
+    private long mNextId;
+
+    /**
+     * Records one advertisement and returns the device's entry.
+     */
+    public Entry onAdvertisement(String address, String name, int rssi, long now) {
+        Entry entry = mByAddress.get(address);
+        if (entry == null) {
+            entry = new Entry(mNextId++, address);
+            entry.firstSeen = now;
+            entry.smoothedRssi = rssi;
+            entry.rankRssi = rssi;
+            entry.insertedInFlush = mFlushCount;
+            mByAddress.put(address, entry);
+            insert(entry, mRankByProximity ? rankedPosition(entry.rankRssi) : mEntries.size());
+        } else {
+            if (entry.recent) {
+                // The remembered RSSI is stale; start over from this one.
+                entry.recent = false;
+                entry.firstSeen = now;
+                entry.smoothedRssi = rssi;
+            }
+            entry.smoothedRssi += RSSI_SMOOTHING * (rssi - entry.smoothedRssi);
+            if (!entry.dirty && entry.insertedInFlush != mFlushCount) {
+                entry.dirty = true;
+                mDirty.add(entry);
+            }
+            if (Math.abs(entry.smoothedRssi - entry.rankRssi) > RANK_HYSTERESIS) {
+                entry.rankRssi = entry.smoothedRssi;
+                if (mRankByProximity) {
+                    rerank(entry);
+                }
+            }
+        }
+        if (name != null) {
+            entry.name = name;
+        }
+        entry.rssi = rssi;
+        entry.lastSeen = now;
+        entry.advertisementCount++;
+        return entry;
+    }
+
+    /**
+     * Lists a device remembered from an earlier run as {@link Entry#recent} until it advertises.
+     * Does nothing if the device is already listed.
+     */
+    public Entry restore(String address, String name, int rssi, SensorSample lastReading) {
+        Entry entry = mByAddress.get(address);
+        if (entry != null) {
+            return entry;
+        }
+        entry = new Entry(mNextId++, address);
+        entry.name = name;
+        entry.rssi = rssi;
+        entry.smoothedRssi = rssi;
+        entry.rankRssi = rssi;
+        entry.recent = true;
+        entry.lastReading = lastReading;
+        entry.insertedInFlush = mFlushCount;
+        mByAddress.put(address, entry);
+        insert(entry, mRankByProximity ? rankedPosition(entry.rankRssi) : mEntries.size());
+        return entry;
+    }
+
+    /**
+     * Switches between first-seen order and proximity ranking. The next flush reports a reset.
+     */
+    public void setRankByProximity(boolean rank) {
+        if (mRankByProximity == rank) {
+            return;
+        }
+        mRankByProximity = rank;
+        Collections.sort(mEntries, rank ? BY_PROXIMITY : BY_ARRIVAL);
+        for (int i = 0; i < mEntries.size(); i++) {
+            mEntries.get(i).position = i;
+        }
+        mReset = true;
+    }
+
+    public boolean isRankedByProximity() {
+        return mRankByProximity;
+    }
+
+    public Entry get(int position) {
+        return mEntries.get(position);
+    }
+
+    public Entry find(String address) {
+        return mByAddress.get(address);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public boolean hasPendingChanges() {
+        return mReset || mOpCount > 0 || !mDirty.isEmpty();
+    }
+
+    /**
+     * Reports everything that changed since the last flush: the inserts and moves in the order
+     * they happened, with consecutive inserts merged into ranges, then the updated rows at their
+     * final positions, with adjacent positions merged.
+     */
+    public void flush(ChangeListener listener) {
+        mFlushCount++;
+        if (mReset) {
+            for (int i = 0; i < mDirty.size(); i++) {
+                mDirty.get(i).dirty = false;
+            }
+            mDirty.clear();
+            mOpCount = 0;
+            mReset = false;
+            listener.onReset();
+            return;
+        }
+        for (int i = 0; i < mOpCount; i++) {
+            if (mOpType[i] == OP_INSERT) {
+                listener.onInserted(mOpA[i], mOpB[i]);
+            } else {
+                listener.onMoved(mOpA[i], mOpB[i]);
+            }
+        }
+        mOpCount = 0;
+        int count = mDirty.size();
+        if (count == 0) {
+            return;
+        }
+        int start = -1;
+        int end = -1;
+        if (count * 8 > mEntries.size()) {
+            // Most rows changed: walking the list is cheaper than sorting the dirty set.
+            for (int position = 0; position < mEntries.size(); position++) {
+                Entry entry = mEntries.get(position);
+                if (!entry.dirty) {
+                    continue;
+                }
+                entry.dirty = false;
+                if (start >= 0 && position > end + 1) {
+                    listener.onChanged(start, end - start + 1);
+                    start = -1;
+                }
+                if (start < 0) {
+                    start = position;
+                }
+                end = position;
+            }
+        } else {
+            Collections.sort(mDirty, BY_POSITION);
+            for (int i = 0; i < count; i++) {
+                Entry entry = mDirty.get(i);
+                entry.dirty = false;
+                if (start >= 0 && entry.position > end + 1) {
+                    listener.onChanged(start, end - start + 1);
+                    start = -1;
+                }
+                if (start < 0) {
+                    start = entry.position;
+                }
+                end = entry.position;
+            }
+        }
+        listener.onChanged(start, end - start + 1);
+        mDirty.clear();
+    }
+
+    public void clear() {
+        mByAddress.clear();
+        mEntries.clear();
+        mDirty.clear();
+        mOpCount = 0;
+        mReset = true;
+    }
+
+    private int rankedPosition(float rankRssi) {
+        int lo = 0;
+        int hi = mEntries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mEntries.get(mid).rankRssi >= rankRssi) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void insert(Entry entry, int position) {
+        mEntries.add(position, entry);
+        for (int i = position; i < mEntries.size(); i++) {
+            mEntries.get(i).position = i;
+        }
+        if (mOpCount > 0 && mOpType[mOpCount - 1] == OP_INSERT
+                && mOpA[mOpCount - 1] + mOpB[mOpCount - 1] == position) {
+            mOpB[mOpCount - 1]++;
+        } else {
+            log(OP_INSERT, position, 1);
+        }
+    }
+
+    private void rerank(Entry entry) {
+        int from = entry.position;
+        int to = from;
+        while (to > 0 && entry.rankRssi > mEntries.get(to - 1).rankRssi) {
+            Entry neighbour = mEntries.get(to - 1);
+            neighbour.position = to;
+            mEntries.set(to, neighbour);
+            to--;
+        }
+        if (to == from) {
+            while (to < mEntries.size() - 1 && entry.rankRssi < mEntries.get(to + 1).rankRssi) {
+                Entry neighbour = mEntries.get(to + 1);
+                neighbour.position = to;
+                mEntries.set(to, neighbour);
+                to++;
+            }
+        }
+        if (to == from) {
+            return;
+        }
+        entry.position = to;
+        mEntries.set(to, entry);
+        if (mOpCount > 0 && mOpType[mOpCount - 1] == OP_MOVE && mOpB[mOpCount - 1] == from) {
+            // Nothing happened in between, so the last move was this entry's: extend it.
+            if (mOpA[mOpCount - 1] == to) {
+                mOpCount--;
+            } else {
+                mOpB[mOpCount - 1] = to;
+            }
+        } else {
+            log(OP_MOVE, from, to);
+        }
+    }
+
+    private void log(int type, int a, int b) {
+        if (mReset) {
+            return;
+        }
+        if (mOpCount == MAX_LOGGED_OPS) {
+            mReset = true;
+            return;
+        }
+        mOpType[mOpCount] = type;
+        mOpA[mOpCount] = a;
+        mOpB[mOpCount] = b;
+        mOpCount++;
+    }
+}
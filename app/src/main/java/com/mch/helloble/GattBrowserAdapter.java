@@ -0,0 +1,184 @@
+package com.mch.helloble;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Shows a {@link GattBrowserModel}. Tree updates are diffed so that only the rows that changed
+ * are touched, and a new value rebinds just the value of its row.
+ */
+public class GattBrowserAdapter extends RecyclerView.Adapter<GattBrowserAdapter.ViewHolder> {
+
+    public interface OnCharacteristicClickListener {
+        void onCharacteristicClick(GattServiceTree.Characteristic characteristic);
+
+        void onCharacteristicLongClick(GattServiceTree.Characteristic characteristic);
+    }
+
+    private static final Object PAYLOAD_VALUE = new Object();
+
+    private final GattBrowserModel mModel = new GattBrowserModel();
+
+    private final OnCharacteristicClickListener mListener;
+
+    private final ParserRegistry mParsers = ParserRegistry.getDefault();
+
+    private final char[] mValueText = new char[CharacteristicParser.MAX_TEXT_LENGTH];
+
+    public GattBrowserAdapter(OnCharacteristicClickListener listener) {
+        mListener = listener;
+        setHasStableIds(true);
+    }
+
+    public void setServices(GattServiceTree services) {
+        final List<GattBrowserModel.Node> before = mModel.snapshot();
+        mModel.setServices(services);
+        DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return before.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return mModel.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return before.get(oldPosition).id == mModel.get(newPosition).id;
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                // Nodes are replaced rather than changed, so the same id means the same row.
+                return true;
+            }
+        }, false).dispatchUpdatesTo(this);
+    }
+
+    public void onValue(UUID characteristic, byte[] value, int length) {
+        int position = mModel.onValue(characteristic, value, length);
+        if (position >= 0) {
+            notifyItemChanged(position, PAYLOAD_VALUE);
+        }
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return mModel.get(position).type;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mModel.get(position).id;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mModel.size();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        LayoutInflater inflater = LayoutInflater.from(parent.getContext());
+        final ViewHolder holder;
+        if (viewType == GattBrowserModel.TYPE_SERVICE) {
+            holder = new ViewHolder(inflater.inflate(R.layout.service_item, parent, false), R.id.service, 0);
+        } else {
+            holder = new ViewHolder(inflater.inflate(R.layout.characteristic_item, parent, false),
+                    R.id.characteristic, R.id.characteristic_value);
+        }
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                GattBrowserModel.Node node = mModel.get(position);
+                if (node.type == GattBrowserModel.TYPE_SERVICE) {
+                    toggle(position);
+                } else if (mListener != null) {
+                    mListener.onCharacteristicClick(node.characteristic);
+                }
+            }
+        });
+        holder.itemView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION || mListener == null) {
+                    return false;
+                }
+                GattBrowserModel.Node node = mModel.get(position);
+                if (node.type != GattBrowserModel.TYPE_CHARACTERISTIC) {
+                    return false;
+                }
+                mListener.onCharacteristicLongClick(node.characteristic);
+                return true;
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        GattBrowserModel.Node node = mModel.get(position);
+        holder.mLabel.setText(node.label);
+        holder.itemView.setActivated(node.isExpanded());
+        bindValue(holder, node);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        bindValue(holder, mModel.get(position));
+    }
+
+    private void bindValue(ViewHolder holder, GattBrowserModel.Node node) {
+        if (holder.mValue == null) {
+            return;
+        }
+        if (!node.hasValue()) {
+            holder.mValue.setVisibility(View.GONE);
+            return;
+        }
+        int length = GattBrowserModel.formatValue(node, mParsers, mValueText);
+        holder.mValue.setText(mValueText, 0, length);
+        holder.mValue.setVisibility(View.VISIBLE);
+    }
+
+    private void toggle(int position) {
+        int children = mModel.toggle(position);
+        if (mModel.get(position).isExpanded()) {
+            notifyItemRangeInserted(position + 1, children);
+        } else {
+            notifyItemRangeRemoved(position + 1, children);
+        }
+        notifyItemChanged(position);
+    }
+
+    public class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView mLabel;
+        final TextView mValue;
+
+        ViewHolder(View view, int labelId, int valueId) {
+            super(view);
+            mLabel = view.findViewById(labelId);
+            mValue = valueId == 0 ? null : (TextView) view.findViewById(valueId);
+        }
+    }
+}
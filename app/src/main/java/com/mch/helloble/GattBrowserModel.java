@@ -0,0 +1,177 @@
+package com.mch.helloble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The rows of the service browser: one per service, followed by one per characteristic while
+ * the service is expanded.
+ * <p>
+ * Nodes outlive tree updates. A service or characteristic that is still there after
+ * {@link #setServices(GattServiceTree)} keeps its node, and with it its id, its formatted
+ * label and its last value, so a list adapter can diff the rows by identity. Not thread-safe.
+ */
+public class GattBrowserModel {
+
+    public static final int TYPE_SERVICE = 0;
+    public static final int TYPE_CHARACTERISTIC = 1;
+
+    public static class Node {
+        public final long id;
+        public final int type;
+        public final UUID uuid;
+        public final String label;
+        public final GattServiceTree.Characteristic characteristic;
+
+        boolean expanded;
+        int position = -1;
+        final ArrayList<Node> children = new ArrayList<>();
+
+        byte[] value;
+        int valueLength = -1;
+
+        Node(long id, int type, UUID uuid, String label, GattServiceTree.Characteristic characteristic) {
+            this.id = id;
+            this.type = type;
+            this.uuid = uuid;
+            this.label = label;
+            this.characteristic = characteristic;
+        }
+
+        public boolean isExpanded() {
+            return expanded;
+        }
+
+        public boolean hasValue() {
+            return valueLength >= 0;
+        }
+    }
+
+    private final HashMap<UUID, Node> mServices = new HashMap<>();
+
+    private final HashMap<UUID, Node> mByCharacteristic = new HashMap<>();
+
+    private final ArrayList<Node> mServiceOrder = new ArrayList<>();
+
+    private final ArrayList<Node> mRows = new ArrayList<>();
+
+    private long mNextId;
+
+    /**
+     * Replaces the tree, reusing the nodes of services and characteristics that did not change.
+     */
+    public void setServices(GattServiceTree tree) {
+        HashMap<UUID, Node> previous = new HashMap<>(mServices);
+        mServices.clear();
+        mServiceOrder.clear();
+        mByCharacteristic.clear();
+        for (GattServiceTree.Service service : tree.getServices()) {
+            Node node = previous.remove(service.uuid);
+            if (node == null) {
+                node = new Node(mNextId++, TYPE_SERVICE, service.uuid, service.uuid.toString(), null);
+            }
+            ArrayList<Node> oldChildren = new ArrayList<>(node.children);
+            node.children.clear();
+            for (GattServiceTree.Characteristic characteristic : service.getCharacteristics()) {
+                Node child = takeChild(oldChildren, characteristic);
+                node.children.add(child);
+                if (!mByCharacteristic.containsKey(child.uuid)) {
+                    mByCharacteristic.put(child.uuid, child);
+                }
+            }
+            mServices.put(service.uuid, node);
+            mServiceOrder.add(node);
+        }
+        rebuildRows();
+    }
+
+    public Node get(int position) {
+        return mRows.get(position);
+    }
+
+    public int size() {
+        return mRows.size();
+    }
+
+    /**
+     * Returns a copy of the current rows, for diffing against the rows after an update.
+     */
+    public List<Node> snapshot() {
+        return new ArrayList<>(mRows);
+    }
+
+    /**
+     * Expands or collapses the service at {@code position} and returns how many characteristic
+     * rows appeared or went away after it.
+     */
+    public int toggle(int position) {
+        Node node = mRows.get(position);
+        if (node.type != TYPE_SERVICE) {
+            return 0;
+        }
+        node.expanded = !node.expanded;
+        rebuildRows();
+        return node.children.size();
+    }
+
+    /**
+     * Stores the latest value of a characteristic and returns the row to refresh, or -1 if the
+     * characteristic is unknown or its service is collapsed.
+     */
+    public int onValue(UUID characteristic, byte[] value, int length) {
+        Node node = mByCharacteristic.get(characteristic);
+        if (node == null) {
+            return -1;
+        }
+        if (node.value == null || node.value.length < length) {
+            node.value = new byte[Math.max(length, 20)];
+        }
+        System.arraycopy(value, 0, node.value, 0, length);
+        node.valueLength = length;
+        return node.position;
+    }
+
+    /**
+     * Writes the node's value as its parser renders it into {@code out}, which holds at least
+     * {@link CharacteristicParser#MAX_TEXT_LENGTH} chars, and returns the length.
+     */
+    public static int formatValue(Node node, ParserRegistry parsers, char[] out) {
+        return parsers.get(node.uuid).format(node.value, node.valueLength, out);
+    }
+
+    private Node takeChild(ArrayList<Node> oldChildren, GattServiceTree.Characteristic characteristic) {
+        for (int i = 0; i < oldChildren.size(); i++) {
+            Node old = oldChildren.get(i);
+            if (old.uuid.equals(characteristic.uuid)
+                    && old.characteristic.properties == characteristic.properties) {
+                oldChildren.remove(i);
+                return old;
+            }
+        }
+        String label = characteristic.uuid.toString();
+        if (CombinedDataDecoder.CHARACTERISTIC.equals(characteristic.uuid)) {
+            label += " ! ";
+        }
+        return new Node(mNextId++, TYPE_CHARACTERISTIC, characteristic.uuid, label, characteristic);
+    }
+
+    private void rebuildRows() {
+        mRows.clear();
+        for (int i = 0; i < mServiceOrder.size(); i++) {
+            Node service = mServiceOrder.get(i);
+            service.position = mRows.size();
+            mRows.add(service);
+            for (int j = 0; j < service.children.size(); j++) {
+                Node child = service.children.get(j);
+                if (service.expanded) {
+                    child.position = mRows.size();
+                    mRows.add(child);
+                } else {
+                    child.position = -1;
+                }
+            }
+        }
+    }
+}
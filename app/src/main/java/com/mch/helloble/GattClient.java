@@ -0,0 +1,100 @@
+package com.mch.helloble;
+
+import java.util.UUID;
+
+/**
+ * One GATT connection, addressed by UUID so that it can be implemented without Android on the
+ * JVM. Each method only starts the operation and returns whether it was accepted; the result
+ * arrives through the {@link Callback} the client was connected with.
+ */
+public interface GattClient {
+
+    /**
+     * GATT events of one connection. Implementations deliver them one at a time, in order.
+     */
+    interface Callback {
+        void onConnectionStateChange(boolean connected, int status);
+
+        void onServicesDiscovered(int status);
+
+        void onCharacteristicRead(UUID characteristic, byte[] value, int status);
+
+        void onCharacteristicWrite(UUID characteristic, int status);
+
+        void onCharacteristicChanged(UUID characteristic, byte[] value);
+
+        void onDescriptorWrite(UUID characteristic, UUID descriptor, int status);
+
+        void onMtuChanged(int mtu, int status);
+
+        /**
+         * Reports the PHYs now in use, as {@link #PHY_LE_1M}, {@link #PHY_LE_2M} or
+         * {@link #PHY_LE_CODED}.
+         */
+        void onPhyUpdate(int txPhy, int rxPhy, int status);
+    }
+
+    UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    int WRITE_TYPE_NO_RESPONSE = 1;
+    int WRITE_TYPE_DEFAULT = 2;
+
+    int CONNECTION_PRIORITY_BALANCED = 0;
+    int CONNECTION_PRIORITY_HIGH = 1;
+    int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+    int PHY_LE_1M = 1;
+    int PHY_LE_2M = 2;
+    int PHY_LE_CODED = 3;
+
+    int PHY_LE_1M_MASK = 1;
+    int PHY_LE_2M_MASK = 2;
+    int PHY_LE_CODED_MASK = 4;
+
+    boolean readCharacteristic(UUID service, UUID characteristic);
+
+    boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType);
+
+    boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+
+    /**
+     * Enables or disables local delivery of notifications. Completes synchronously.
+     */
+    boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable);
+
+    boolean requestMtu(int mtu);
+
+    /**
+     * Asks for a shorter or longer connection interval. Completes synchronously; the link is
+     * updated some time later.
+     */
+    boolean requestConnectionPriority(int priority);
+
+    /**
+     * Asks for the PHYs in {@code txPhyMask} and {@code rxPhyMask}, e.g.
+     * {@link #PHY_LE_2M_MASK}. Returns false where the platform cannot change the PHY.
+     */
+    boolean setPreferredPhy(int txPhyMask, int rxPhyMask);
+
+    boolean discoverServices();
+
+    /**
+     * Returns the services found by the last discovery or passed to {@link #useServices},
+     * or null.
+     */
+    GattServiceTree getServices();
+
+    /**
+     * Lets the client address attributes through a tree discovered on an earlier connection
+     * instead of discovering again. Returns false if it cannot, in which case the caller has
+     * to discover.
+     */
+    boolean useServices(GattServiceTree services);
+
+    void disconnect();
+
+    /**
+     * Releases the connection. No callbacks are delivered afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,148 @@
+package com.mch.helloble;
+
+import java.util.UUID;
+
+/**
+ * One operation for {@link GattCommandQueue}. Create commands with the static factories and
+ * adjust them with the setters before submitting.
+ */
+public class GattCommand {
+
+    public static final int TYPE_READ = 1;
+    public static final int TYPE_WRITE = 2;
+    public static final int TYPE_WRITE_DESCRIPTOR = 3;
+    public static final int TYPE_ENABLE_NOTIFICATIONS = 4;
+    public static final int TYPE_REQUEST_MTU = 5;
+    public static final int TYPE_CONNECTION_PRIORITY = 6;
+    public static final int TYPE_SET_PHY = 7;
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    private static final long DEFAULT_TIMEOUT = 5000;
+    private static final int DEFAULT_RETRIES = 1;
+
+    public interface Callback {
+        /**
+         * Called once the command finished. {@code value} is the value read, or null.
+         */
+        void onComplete(GattCommand command, int status, byte[] value);
+    }
+
+    final int type;
+    final UUID service;
+    final UUID characteristic;
+    final UUID descriptor;
+    final byte[] value;
+    final int writeType;
+    // The MTU, connection priority or PHY mask, depending on the type.
+    final int parameter;
+
+    int priority = PRIORITY_NORMAL;
+    long timeout = DEFAULT_TIMEOUT;
+    int retries = DEFAULT_RETRIES;
+    Callback callback;
+
+    int attempts;
+
+    private GattCommand(int type, UUID service, UUID characteristic, UUID descriptor,
+                        byte[] value, int writeType, int parameter) {
+        this.type = type;
+        this.service = service;
+        this.characteristic = characteristic;
+        this.descriptor = descriptor;
+        this.value = value;
+        this.writeType = writeType;
+        this.parameter = parameter;
+    }
+
+    public static GattCommand read(UUID service, UUID characteristic) {
+        return new GattCommand(TYPE_READ, service, characteristic, null, null, 0, 0);
+    }
+
+    public static GattCommand write(UUID service, UUID characteristic, byte[] value, int writeType) {
+        return new GattCommand(TYPE_WRITE, service, characteristic, null, value, writeType, 0);
+    }
+
+    public static GattCommand writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        return new GattCommand(TYPE_WRITE_DESCRIPTOR, service, characteristic, descriptor, value, 0, 0);
+    }
+
+    /**
+     * Enables local delivery and then writes {@code cccValue} to the client characteristic
+     * configuration descriptor, e.g. {@code {1, 0}} for notifications or {@code {2, 0}} for
+     * indications.
+     */
+    public static GattCommand enableNotifications(UUID service, UUID characteristic, byte[] cccValue) {
+        return new GattCommand(TYPE_ENABLE_NOTIFICATIONS, service, characteristic,
+                GattClient.CLIENT_CHARACTERISTIC_CONFIG, cccValue, 0, 0);
+    }
+
+    public static GattCommand requestMtu(int mtu) {
+        return new GattCommand(TYPE_REQUEST_MTU, null, null, null, null, 0, mtu);
+    }
+
+    /**
+     * Completes as soon as the client accepted it; see {@link GattClient#requestConnectionPriority}.
+     */
+    public static GattCommand connectionPriority(int priority) {
+        return new GattCommand(TYPE_CONNECTION_PRIORITY, null, null, null, null, 0, priority);
+    }
+
+    /**
+     * Asks for the PHYs in {@code phyMask} in both directions.
+     */
+    public static GattCommand preferredPhy(int phyMask) {
+        return new GattCommand(TYPE_SET_PHY, null, null, null, null, 0, phyMask);
+    }
+
+    public GattCommand setPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public GattCommand setTimeout(long timeoutMillis) {
+        this.timeout = timeoutMillis;
+        return this;
+    }
+
+    public GattCommand setRetries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    public GattCommand setCallback(Callback callback) {
+        this.callback = callback;
+        return this;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public UUID getService() {
+        return service;
+    }
+
+    public UUID getCharacteristic() {
+        return characteristic;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "GattCommand{type=" + type + ", characteristic=" + characteristic + ", priority=" + priority + "}";
+    }
+}
@@ -0,0 +1,331 @@
+package com.mch.helloble;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Runs {@link GattCommand}s against a {@link GattClient} one at a time, which is all Android's
+ * GATT allows. The next command is started as soon as the callback of the current one arrives.
+ * <p>
+ * Commands wait in three priority lanes. A lane that has been passed over
+ * {@link #MAX_SKIPS} times in a row is served next, so a steady stream of high priority work
+ * cannot starve the rest. A command that times out or is rejected by the client is retried
+ * while it has retries left and then completed with {@link #STATUS_TIMEOUT} or
+ * {@link #STATUS_REJECTED}.
+ * <p>
+ * The GATT callback methods forward to {@code onCharacteristicRead} and friends. Submitting
+ * and completion may happen on different threads. {@link #pause} hands the client to someone
+ * else, such as a {@link BulkWriteChannel}, until {@link #resume}.
+ */
+public class GattCommandQueue {
+
+    public static final int STATUS_SUCCESS = 0;
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_REJECTED = -2;
+    public static final int STATUS_CANCELLED = -3;
+
+    static final int MAX_SKIPS = 8;
+
+    private static final long RETRY_DELAY = 50;
+
+    private static final int LANES = 3;
+
+    private final GattClient mClient;
+
+    private final Scheduler mScheduler;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<GattCommand>[] mLanes = new ArrayDeque[LANES];
+
+    private final int[] mSkips = new int[LANES];
+
+    private GattCommand mCurrent;
+
+    private boolean mRetryPending;
+
+    private boolean mPaused;
+
+    private Runnable mIdleTask;
+
+    private long mCompleted;
+
+    private final Runnable mTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            GattCommand command;
+            synchronized (GattCommandQueue.this) {
+                command = mCurrent;
+                if (command == null) {
+                    return;
+                }
+                mCurrent = null;
+                if (command.attempts <= command.retries) {
+                    mLanes[command.priority].addFirst(command);
+                    command = null;
+                }
+            }
+            if (command != null) {
+                finish(command, STATUS_TIMEOUT, null);
+            }
+            dispatchNext();
+        }
+    };
+
+    private final Runnable mRetryTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (GattCommandQueue.this) {
+                mRetryPending = false;
+            }
+            dispatchNext();
+        }
+    };
+
+    public GattCommandQueue(GattClient client, Scheduler scheduler) {
+        mClient = client;
+        mScheduler = scheduler;
+        for (int i = 0; i < LANES; i++) {
+            mLanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    public void submit(GattCommand command) {
+        if (command.priority < 0 || command.priority >= LANES) {
+            throw new IllegalArgumentException("bad priority " + command.priority);
+        }
+        synchronized (this) {
+            mLanes[command.priority].add(command);
+        }
+        dispatchNext();
+    }
+
+    /**
+     * Starts no more commands until {@link #resume()}; they wait in their lanes. {@code whenIdle}
+     * runs once the running command, if any, has completed, unless {@link #clear()} comes first.
+     */
+    public void pause(Runnable whenIdle) {
+        synchronized (this) {
+            mPaused = true;
+            mIdleTask = whenIdle;
+        }
+        dispatchNext();
+    }
+
+    public void resume() {
+        synchronized (this) {
+            mPaused = false;
+            mIdleTask = null;
+        }
+        dispatchNext();
+    }
+
+    public synchronized boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * Fails the running and every pending command with {@link #STATUS_CANCELLED}, e.g. after a
+     * disconnect.
+     */
+    public void clear() {
+        ArrayDeque<GattCommand> cancelled = new ArrayDeque<>();
+        synchronized (this) {
+            mScheduler.cancel(mTimeoutTask);
+            mScheduler.cancel(mRetryTask);
+            mRetryPending = false;
+            mIdleTask = null;
+            if (mCurrent != null) {
+                cancelled.add(mCurrent);
+                mCurrent = null;
+            }
+            for (ArrayDeque<GattCommand> lane : mLanes) {
+                cancelled.addAll(lane);
+                lane.clear();
+            }
+        }
+        for (GattCommand command : cancelled) {
+            finish(command, STATUS_CANCELLED, null);
+        }
+    }
+
+    public synchronized int size() {
+        int size = mCurrent == null ? 0 : 1;
+        for (ArrayDeque<GattCommand> lane : mLanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    public synchronized boolean isBusy() {
+        return mCurrent != null;
+    }
+
+    public synchronized long getCompletedCount() {
+        return mCompleted;
+    }
+
+    public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+        complete(GattCommand.TYPE_READ, characteristic, null, status, value);
+    }
+
+    public void onCharacteristicWrite(UUID characteristic, int status) {
+        complete(GattCommand.TYPE_WRITE, characteristic, null, status, null);
+    }
+
+    public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+        int type;
+        synchronized (this) {
+            type = mCurrent != null && mCurrent.type == GattCommand.TYPE_ENABLE_NOTIFICATIONS
+                    ? GattCommand.TYPE_ENABLE_NOTIFICATIONS : GattCommand.TYPE_WRITE_DESCRIPTOR;
+        }
+        complete(type, characteristic, descriptor, status, null);
+    }
+
+    public void onMtuChanged(int mtu, int status) {
+        complete(GattCommand.TYPE_REQUEST_MTU, null, null, status, null);
+    }
+
+    public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+        complete(GattCommand.TYPE_SET_PHY, null, null, status, null);
+    }
+
+    private void complete(int type, UUID characteristic, UUID descriptor, int status, byte[] value) {
+        GattCommand command;
+        synchronized (this) {
+            command = mCurrent;
+            if (command == null || command.type != type
+                    || (characteristic != null && !characteristic.equals(command.characteristic))
+                    || (descriptor != null && !descriptor.equals(command.descriptor))) {
+                // A late callback for a command that already timed out.
+                return;
+            }
+            mScheduler.cancel(mTimeoutTask);
+            mCurrent = null;
+        }
+        finish(command, status, value);
+        dispatchNext();
+    }
+
+    private void finish(GattCommand command, int status, byte[] value) {
+        synchronized (this) {
+            mCompleted++;
+        }
+        if (command.callback != null) {
+            command.callback.onComplete(command, status, value);
+        }
+    }
+
+    private void dispatchNext() {
+        if (runIdleTask()) {
+            return;
+        }
+        GattCommand rejected = null;
+        GattCommand completed = null;
+        synchronized (this) {
+            if (mCurrent != null || mRetryPending || mPaused) {
+                return;
+            }
+            GattCommand command = poll();
+            if (command == null) {
+                return;
+            }
+            command.attempts++;
+            if (start(command)) {
+                if (command.type == GattCommand.TYPE_CONNECTION_PRIORITY) {
+                    // No callback follows.
+                    completed = command;
+                } else {
+                    mCurrent = command;
+                    mScheduler.schedule(mTimeoutTask, command.timeout);
+                    return;
+                }
+            } else if (command.attempts <= command.retries) {
+                mLanes[command.priority].addFirst(command);
+                mRetryPending = true;
+                mScheduler.schedule(mRetryTask, RETRY_DELAY);
+                return;
+            } else {
+                rejected = command;
+            }
+        }
+        if (completed != null) {
+            finish(completed, STATUS_SUCCESS, null);
+        } else {
+            finish(rejected, STATUS_REJECTED, null);
+        }
+        dispatchNext();
+    }
+
+    // Returns true while paused.
+    private boolean runIdleTask() {
+        Runnable idle;
+        synchronized (this) {
+            if (!mPaused) {
+                return false;
+            }
+            if (mCurrent != null) {
+                return true;
+            }
+            idle = mIdleTask;
+            mIdleTask = null;
+        }
+        if (idle != null) {
+            idle.run();
+        }
+        return true;
+    }
+
+    private GattCommand poll() {
+        int lane = -1;
+        for (int i = 0; i < LANES; i++) {
+            if (!mLanes[i].isEmpty() && mSkips[i] >= MAX_SKIPS) {
+                lane = i;
+                break;
+            }
+        }
+        if (lane < 0) {
+            for (int i = 0; i < LANES; i++) {
+                if (!mLanes[i].isEmpty()) {
+                    lane = i;
+                    break;
+                }
+            }
+        }
+        if (lane < 0) {
+            return null;
+        }
+        for (int i = 0; i < LANES; i++) {
+            if (i == lane) {
+                mSkips[i] = 0;
+            } else if (!mLanes[i].isEmpty()) {
+                mSkips[i]++;
+            }
+        }
+        return mLanes[lane].poll();
+    }
+
+    private boolean start(GattCommand command) {
+        switch (command.type) {
+            case GattCommand.TYPE_READ:
+                return mClient.readCharacteristic(command.service, command.characteristic);
+            case GattCommand.TYPE_WRITE:
+                return mClient.writeCharacteristic(command.service, command.characteristic,
+                        command.value, command.writeType);
+            case GattCommand.TYPE_WRITE_DESCRIPTOR:
+                return mClient.writeDescriptor(command.service, command.characteristic,
+                        command.descriptor, command.value);
+            case GattCommand.TYPE_ENABLE_NOTIFICATIONS:
+                return mClient.setCharacteristicNotification(command.service, command.characteristic, true)
+                        && mClient.writeDescriptor(command.service, command.characteristic,
+                        command.descriptor, command.value);
+            case GattCommand.TYPE_REQUEST_MTU:
+                return mClient.requestMtu(command.parameter);
+            case GattCommand.TYPE_CONNECTION_PRIORITY:
+                return mClient.requestConnectionPriority(command.parameter);
+            case GattCommand.TYPE_SET_PHY:
+                return mClient.setPreferredPhy(command.parameter, command.parameter);
+            default:
+                throw new IllegalStateException("unknown command type " + command.type);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.mch.helloble;
+
+/**
+ * Opens GATT connections by device address.
+ */
+public interface GattConnector {
+
+    /**
+     * Starts connecting to {@code address}. The outcome is reported through
+     * {@link GattClient.Callback#onConnectionStateChange(boolean, int)}.
+     *
+     * @param autoConnect wait for the device to come into range instead of trying for a short
+     *                    while. Such attempts take no radio time of their own, but can take
+     *                    arbitrarily long.
+     */
+    GattClient connect(String address, boolean autoConnect, GattClient.Callback callback);
+}
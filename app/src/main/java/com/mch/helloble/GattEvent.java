@@ -0,0 +1,62 @@
+package com.mch.helloble;
+
+import java.util.UUID;
+
+/**
+ * One slot of the {@link GattEventBus} ring. Slots are preallocated and overwritten in place, so
+ * listeners must copy anything they want to keep beyond {@code onGattEvent}.
+ */
+public class GattEvent {
+
+    public static final int TYPE_CONNECTED = 1;
+    public static final int TYPE_DISCONNECTED = 2;
+    public static final int TYPE_SERVICES_DISCOVERED = 3;
+    public static final int TYPE_DATA_AVAILABLE = 4;
+
+    public static final int MAX_VALUE_LENGTH = 512;
+
+    public int type;
+
+    public int status;
+
+    public long timestampNanos;
+
+    /**
+     * When the callback behind a data event arrived and when it was published, or 0 unless
+     * {@link LatencyProbes} are on.
+     */
+    public long callbackNanos;
+
+    public long publishedNanos;
+
+    public String address;
+
+    public UUID characteristic;
+
+    public boolean hasSample;
+
+    public final SensorSample sample = new SensorSample();
+
+    public final byte[] value = new byte[MAX_VALUE_LENGTH];
+
+    public int valueLength;
+
+    public void setValue(byte[] value) {
+        valueLength = value == null ? 0 : Math.min(value.length, MAX_VALUE_LENGTH);
+        if (valueLength > 0) {
+            System.arraycopy(value, 0, this.value, 0, valueLength);
+        }
+    }
+
+    void reset(int type, long timestampNanos) {
+        this.type = type;
+        this.timestampNanos = timestampNanos;
+        callbackNanos = 0;
+        publishedNanos = 0;
+        status = 0;
+        address = null;
+        valueLength = 0;
+        characteristic = null;
+        hasSample = false;
+    }
+}
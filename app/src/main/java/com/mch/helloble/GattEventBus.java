@@ -0,0 +1,161 @@
+package com.mch.helloble;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer ring buffer that hands {@link GattEvent}s from the GATT callback thread to
+ * listeners running on an {@link Executor}, usually the main thread.
+ * <p>
+ * The producer fills a slot between {@link #claim(int)} and {@link #publish()}. Binder delivers
+ * the one-way callbacks of a single GATT client in order, so one bus per connection satisfies the
+ * single-producer contract. When the ring is full the new event is dropped and counted rather
+ * than blocking the Binder thread.
+ */
+public class GattEventBus {
+
+    public interface Listener {
+        void onGattEvent(GattEvent event);
+    }
+
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+
+    private final GattEvent[] mSlots;
+
+    private final int mMask;
+
+    private final AtomicLong mHead = new AtomicLong();
+
+    private final AtomicLong mTail = new AtomicLong();
+
+    private final AtomicLong mDropped = new AtomicLong();
+
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    private final Executor mExecutor;
+
+    private volatile Listener[] mListeners = NO_LISTENERS;
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public GattEventBus(int capacity, Executor executor) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mSlots = new GattEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mSlots[i] = new GattEvent();
+        }
+        mMask = capacity - 1;
+        mExecutor = executor;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        Listener[] listeners = new Listener[mListeners.length + 1];
+        System.arraycopy(mListeners, 0, listeners, 0, mListeners.length);
+        listeners[mListeners.length] = listener;
+        mListeners = listeners;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        for (int i = 0; i < mListeners.length; i++) {
+            if (mListeners[i] == listener) {
+                Listener[] listeners = new Listener[mListeners.length - 1];
+                System.arraycopy(mListeners, 0, listeners, 0, i);
+                System.arraycopy(mListeners, i + 1, listeners, i, listeners.length - i);
+                mListeners = listeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the next free slot reset to {@code type}, or null if the ring is full. Producer
+     * thread only; every non-null claim must be followed by {@link #publish()}.
+     */
+    public GattEvent claim(int type) {
+        long head = mHead.get();
+        if (head - mTail.get() > mMask) {
+            mDropped.incrementAndGet();
+            return null;
+        }
+        GattEvent event = mSlots[(int) head & mMask];
+        event.reset(type, System.nanoTime());
+        return event;
+    }
+
+    public void publish() {
+        mHead.lazySet(mHead.get() + 1);
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    public boolean publish(int type) {
+        if (claim(type) == null) {
+            return false;
+        }
+        publish();
+        return true;
+    }
+
+    /**
+     * Delivers every published event to the listeners. Runs on the executor passed to the
+     * constructor; returns the number of events delivered.
+     */
+    public int drain() {
+        return drain(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Delivers at most {@code maxEvents} events. Whoever drains in batches is responsible for
+     * coming back while {@link #getBacklog()} is not zero.
+     */
+    public int drain(int maxEvents) {
+        mDrainScheduled.set(false);
+        Listener[] listeners = mListeners;
+        long tail = mTail.get();
+        long head = mHead.get();
+        int delivered = 0;
+        while (tail < head && delivered < maxEvents) {
+            GattEvent event = mSlots[(int) tail & mMask];
+            for (Listener listener : listeners) {
+                listener.onGattEvent(event);
+            }
+            mTail.lazySet(++tail);
+            delivered++;
+            if (tail == head) {
+                head = mHead.get();
+            }
+        }
+        return delivered;
+    }
+
+    public int getCapacity() {
+        return mSlots.length;
+    }
+
+    public long getPublished() {
+        return mHead.get();
+    }
+
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    public int getBacklog() {
+        return (int) (mHead.get() - mTail.get());
+    }
+
+    @Override
+    public String toString() {
+        return "GattEventBus{published=" + getPublished() + ", dropped=" + getDropped()
+                + ", backlog=" + getBacklog() + "}";
+    }
+}
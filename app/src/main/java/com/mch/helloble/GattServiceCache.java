@@ -0,0 +1,89 @@
+package com.mch.helloble;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Service trees of known devices, one small file per address, so that a reconnect can use the
+ * tree right away instead of waiting for discovery. A file that cannot be read is deleted and
+ * treated as missing.
+ */
+public class GattServiceCache {
+
+    private static final String SUFFIX = ".gatt";
+
+    private final File mDirectory;
+
+    private final HashMap<String, GattServiceTree> mLoaded = new HashMap<>();
+
+    public GattServiceCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns the cached tree for {@code address}, or null if there is none.
+     */
+    public synchronized GattServiceTree get(String address) {
+        GattServiceTree tree = mLoaded.get(address);
+        if (tree != null) {
+            return tree;
+        }
+        File file = file(address);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                tree = GattServiceTree.readFrom(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+        mLoaded.put(address, tree);
+        return tree;
+    }
+
+    /**
+     * Stores {@code tree} unless the same tree is already cached. Returns whether the file was
+     * written.
+     */
+    public synchronized boolean put(String address, GattServiceTree tree) throws IOException {
+        if (tree.equals(get(address))) {
+            return false;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("cannot create " + mDirectory);
+        }
+        // Write aside and rename, so that a crash leaves either the old tree or the new one.
+        File temp = new File(mDirectory, file(address).getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            tree.writeTo(out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file(address))) {
+            temp.delete();
+            throw new IOException("cannot replace " + file(address));
+        }
+        mLoaded.put(address, tree);
+        return true;
+    }
+
+    public synchronized void invalidate(String address) {
+        mLoaded.remove(address);
+        file(address).delete();
+    }
+
+    private File file(String address) {
+        return new File(mDirectory, address.replace(':', '-') + SUFFIX);
+    }
+}
@@ -0,0 +1,273 @@
+package com.mch.helloble;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * The services, characteristics and descriptors of a peripheral, as found by service
+ * discovery. Property bits are those of {@code BluetoothGattCharacteristic}.
+ * <p>
+ * {@link #writeTo(OutputStream)} stores the tree in a compact binary form: UUIDs on the
+ * Bluetooth base UUID take 5 bytes instead of 16, and a CRC at the end lets
+ * {@link #readFrom(InputStream)} reject a damaged file.
+ */
+public class GattServiceTree {
+
+    public static final int PROPERTY_READ = 0x02;
+    public static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    public static final int PROPERTY_WRITE = 0x08;
+    public static final int PROPERTY_NOTIFY = 0x10;
+    public static final int PROPERTY_INDICATE = 0x20;
+
+    private static final int MAGIC = 0x47415454;
+    private static final int VERSION = 1;
+
+    private static final long BASE_UUID_LSB = 0x800000805f9b34fbL;
+    private static final long BASE_UUID_MSB = 0x1000L;
+
+    private static final int UUID_SHORT = 0;
+    private static final int UUID_FULL = 1;
+
+    public static class Service {
+        public final UUID uuid;
+        final List<Characteristic> mCharacteristics = new ArrayList<>();
+
+        Service(UUID uuid) {
+            this.uuid = uuid;
+        }
+
+        public Characteristic addCharacteristic(UUID characteristic, int properties) {
+            Characteristic c = new Characteristic(uuid, characteristic, properties);
+            mCharacteristics.add(c);
+            return c;
+        }
+
+        public List<Characteristic> getCharacteristics() {
+            return Collections.unmodifiableList(mCharacteristics);
+        }
+    }
+
+    public static class Characteristic {
+        public final UUID service;
+        public final UUID uuid;
+        public final int properties;
+        final List<UUID> mDescriptors = new ArrayList<>();
+
+        Characteristic(UUID service, UUID uuid, int properties) {
+            this.service = service;
+            this.uuid = uuid;
+            this.properties = properties;
+        }
+
+        public Characteristic addDescriptor(UUID descriptor) {
+            mDescriptors.add(descriptor);
+            return this;
+        }
+
+        public List<UUID> getDescriptors() {
+            return Collections.unmodifiableList(mDescriptors);
+        }
+
+        public boolean hasProperty(int property) {
+            return (properties & property) != 0;
+        }
+    }
+
+    private final List<Service> mServices = new ArrayList<>();
+
+    public Service addService(UUID uuid) {
+        Service service = new Service(uuid);
+        mServices.add(service);
+        return service;
+    }
+
+    public List<Service> getServices() {
+        return Collections.unmodifiableList(mServices);
+    }
+
+    public Characteristic findCharacteristic(UUID service, UUID characteristic) {
+        for (int i = 0; i < mServices.size(); i++) {
+            Service s = mServices.get(i);
+            if (!s.uuid.equals(service)) {
+                continue;
+            }
+            for (int j = 0; j < s.mCharacteristics.size(); j++) {
+                Characteristic c = s.mCharacteristics.get(j);
+                if (c.uuid.equals(characteristic)) {
+                    return c;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first characteristic with the UUID in any service, or null.
+     */
+    public Characteristic findCharacteristic(UUID characteristic) {
+        for (int i = 0; i < mServices.size(); i++) {
+            List<Characteristic> characteristics = mServices.get(i).mCharacteristics;
+            for (int j = 0; j < characteristics.size(); j++) {
+                if (characteristics.get(j).uuid.equals(characteristic)) {
+                    return characteristics.get(j);
+                }
+            }
+        }
+        return null;
+    }
+
+    public int getCharacteristicCount() {
+        int count = 0;
+        for (int i = 0; i < mServices.size(); i++) {
+            count += mServices.get(i).mCharacteristics.size();
+        }
+        return count;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeShort(mServices.size());
+        for (int i = 0; i < mServices.size(); i++) {
+            Service service = mServices.get(i);
+            writeUuid(data, service.uuid);
+            data.writeShort(service.mCharacteristics.size());
+            for (int j = 0; j < service.mCharacteristics.size(); j++) {
+                Characteristic characteristic = service.mCharacteristics.get(j);
+                writeUuid(data, characteristic.uuid);
+                data.writeByte(characteristic.properties);
+                data.writeByte(characteristic.mDescriptors.size());
+                for (int k = 0; k < characteristic.mDescriptors.size(); k++) {
+                    writeUuid(data, characteristic.mDescriptors.get(k));
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        data.writeInt((int) crc.getValue());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Reads a tree written by {@link #writeTo(OutputStream)}.
+     *
+     * @throws IOException if the data is truncated, corrupt or of another version
+     */
+    public static GattServiceTree readFrom(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        byte[] buffer = new byte[512];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        byte[] content = bytes.toByteArray();
+        if (content.length < 11) {
+            throw new IOException("truncated service tree");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - 4);
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(content));
+        data.skipBytes(content.length - 4);
+        if (data.readInt() != (int) crc.getValue()) {
+            throw new IOException("service tree checksum mismatch");
+        }
+
+        data = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - 4));
+        if (data.readInt() != MAGIC || data.readUnsignedByte() != VERSION) {
+            throw new IOException("not a service tree");
+        }
+        GattServiceTree tree = new GattServiceTree();
+        int services = data.readUnsignedShort();
+        for (int i = 0; i < services; i++) {
+            Service service = tree.addService(readUuid(data));
+            int characteristics = data.readUnsignedShort();
+            for (int j = 0; j < characteristics; j++) {
+                Characteristic characteristic = service.addCharacteristic(readUuid(data), data.readUnsignedByte());
+                int descriptors = data.readUnsignedByte();
+                for (int k = 0; k < descriptors; k++) {
+                    characteristic.addDescriptor(readUuid(data));
+                }
+            }
+        }
+        return tree;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GattServiceTree)) {
+            return false;
+        }
+        List<Service> other = ((GattServiceTree) o).mServices;
+        if (other.size() != mServices.size()) {
+            return false;
+        }
+        for (int i = 0; i < mServices.size(); i++) {
+            Service a = mServices.get(i);
+            Service b = other.get(i);
+            if (!a.uuid.equals(b.uuid) || a.mCharacteristics.size() != b.mCharacteristics.size()) {
+                return false;
+            }
+            for (int j = 0; j < a.mCharacteristics.size(); j++) {
+                Characteristic x = a.mCharacteristics.get(j);
+                Characteristic y = b.mCharacteristics.get(j);
+                if (!x.uuid.equals(y.uuid) || x.properties != y.properties
+                        || !x.mDescriptors.equals(y.mDescriptors)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < mServices.size(); i++) {
+            hash = 31 * hash + mServices.get(i).uuid.hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "GattServiceTree{services=" + mServices.size()
+                + ", characteristics=" + getCharacteristicCount() + "}";
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        long msb = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() == BASE_UUID_LSB && (msb & 0xFFFFFFFFL) == BASE_UUID_MSB) {
+            out.writeByte(UUID_SHORT);
+            out.writeInt((int) (msb >>> 32));
+        } else {
+            out.writeByte(UUID_FULL);
+            out.writeLong(msb);
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        int form = in.readUnsignedByte();
+        if (form == UUID_SHORT) {
+            return new UUID(((long) in.readInt() << 32) | BASE_UUID_MSB, BASE_UUID_LSB);
+        } else if (form == UUID_FULL) {
+            return new UUID(in.readLong(), in.readLong());
+        }
+        throw new IOException("bad uuid form " + form);
+    }
+}
@@ -0,0 +1,86 @@
+package com.mch.helloble;
+
+import java.util.UUID;
+
+/**
+ * Heart Rate Measurement (0x2A37). The flags byte says whether the rate is 8 or 16 bits, what
+ * the sensor contact status is, and whether energy expended and RR intervals follow.
+ */
+public class HeartRateParser implements CharacteristicParser {
+
+    public static final UUID SERVICE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+
+    public static final UUID CHARACTERISTIC = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    private static final int FLAG_UINT16 = 0x01;
+    private static final int FLAG_CONTACT_DETECTED = 0x02;
+    private static final int FLAG_CONTACT_SUPPORTED = 0x04;
+    private static final int FLAG_ENERGY_EXPENDED = 0x08;
+    private static final int FLAG_RR_INTERVALS = 0x10;
+
+    // " 63999", the longest interval.
+    private static final int MAX_RR_LENGTH = 6;
+
+    private static final String RR_CUT = " ...";
+
+    private static final String RR_UNIT = " ms";
+
+    /**
+     * Returns the heart rate in beats per minute, or -1 if the value is too short.
+     */
+    public static int heartRate(byte[] value, int length) {
+        if (length < 2) {
+            return -1;
+        }
+        if ((value[0] & FLAG_UINT16) == 0) {
+            return value[1] & 0xFF;
+        }
+        return length < 3 ? -1 : CombinedDataDecoder.uint16(value, 1);
+    }
+
+    /**
+     * Nothing to decode: the rate has no typed field in {@link GattEvent}.
+     */
+    @Override
+    public boolean decode(byte[] value, int length, GattEvent event) {
+        return false;
+    }
+
+    @Override
+    public int format(byte[] value, int length, char[] out) {
+        int rate = heartRate(value, length);
+        if (rate < 0) {
+            return HexFormatter.hex(value, 0, length, out, 0);
+        }
+        int flags = value[0];
+        int pos = HexFormatter.decimal(rate, out, 0);
+        pos = HexFormatter.string(" bpm", out, pos);
+        if ((flags & (FLAG_CONTACT_SUPPORTED | FLAG_CONTACT_DETECTED)) == FLAG_CONTACT_SUPPORTED) {
+            pos = HexFormatter.string(", no contact", out, pos);
+        }
+        int offset = (flags & FLAG_UINT16) == 0 ? 2 : 3;
+        if ((flags & FLAG_ENERGY_EXPENDED) != 0 && offset + 2 <= length) {
+            pos = HexFormatter.string(", ", out, pos);
+            pos = HexFormatter.decimal(CombinedDataDecoder.uint16(value, offset), out, pos);
+            pos = HexFormatter.string(" kJ", out, pos);
+            offset += 2;
+        }
+        if ((flags & FLAG_RR_INTERVALS) != 0 && offset + 2 <= length) {
+            pos = HexFormatter.string(", RR", out, pos);
+            // A long value has more intervals than fit; the last ones give way to "...".
+            int end = out.length - RR_CUT.length() - RR_UNIT.length();
+            for (; offset + 2 <= length; offset += 2) {
+                if (pos + MAX_RR_LENGTH > end) {
+                    pos = HexFormatter.string(RR_CUT, out, pos);
+                    break;
+                }
+                // RR intervals come in 1/1024 s.
+                int millis = (CombinedDataDecoder.uint16(value, offset) * 1000 + 512) / 1024;
+                out[pos++] = ' ';
+                pos = HexFormatter.decimal(millis, out, pos);
+            }
+            pos = HexFormatter.string(RR_UNIT, out, pos);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,129 @@
+package com.mch.helloble;
+
+/**
+ * Formats bytes and numbers into a caller's {@code char[]} through lookup tables, so a value
+ * can be shown once per notification without building a String.
+ */
+public final class HexFormatter {
+
+    // Two chars per byte value: "00", "01", ... "FF".
+    private static final char[] HEX_PAIRS = new char[512];
+
+    // Two chars per value below 100: "00", "01", ... "99".
+    private static final char[] DECIMAL_PAIRS = new char[200];
+
+    static {
+        char[] digits = "0123456789ABCDEF".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            HEX_PAIRS[2 * i] = digits[i >> 4];
+            HEX_PAIRS[2 * i + 1] = digits[i & 0xF];
+        }
+        for (int i = 0; i < 100; i++) {
+            DECIMAL_PAIRS[2 * i] = (char) ('0' + i / 10);
+            DECIMAL_PAIRS[2 * i + 1] = (char) ('0' + i % 10);
+        }
+    }
+
+    private HexFormatter() {
+    }
+
+    /**
+     * Returns how many chars {@link #hex} writes for {@code length} bytes.
+     */
+    public static int hexLength(int length) {
+        return length <= 0 ? 0 : 3 * length - 1;
+    }
+
+    /**
+     * Writes {@code length} bytes of {@code value} as space separated hex pairs at {@code pos}
+     * and returns the position after them.
+     */
+    public static int hex(byte[] value, int offset, int length, char[] out, int pos) {
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                out[pos++] = ' ';
+            }
+            int pair = (value[offset + i] & 0xFF) << 1;
+            out[pos++] = HEX_PAIRS[pair];
+            out[pos++] = HEX_PAIRS[pair + 1];
+        }
+        return pos;
+    }
+
+    /**
+     * Writes {@code value} in decimal at {@code pos} and returns the position after it.
+     */
+    public static int decimal(int value, char[] out, int pos) {
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                return string("-2147483648", out, pos);
+            }
+            out[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        int p = end;
+        while (value >= 100) {
+            int pair = (value % 100) << 1;
+            value /= 100;
+            out[--p] = DECIMAL_PAIRS[pair + 1];
+            out[--p] = DECIMAL_PAIRS[pair];
+        }
+        if (value >= 10) {
+            out[--p] = DECIMAL_PAIRS[(value << 1) + 1];
+            out[--p] = DECIMAL_PAIRS[value << 1];
+        } else {
+            out[--p] = (char) ('0' + value);
+        }
+        return end;
+    }
+
+    /**
+     * Like {@link #decimal(int, char[], int)} for a long, e.g. a timestamp in milliseconds.
+     */
+    public static int decimal(long value, char[] out, int pos) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return decimal((int) value, out, pos);
+        }
+        if (value == Long.MIN_VALUE) {
+            return string("-9223372036854775808", out, pos);
+        }
+        if (value < 0) {
+            out[pos++] = '-';
+            value = -value;
+        }
+        pos = decimal(value / 1000000000, out, pos);
+        // The low nine digits, zero padded.
+        int low = (int) (value % 1000000000);
+        for (int p = pos + 8; p >= pos; p--) {
+            out[p] = (char) ('0' + low % 10);
+            low /= 10;
+        }
+        return pos + 9;
+    }
+
+    /**
+     * Writes {@code hundredths / 100} with two decimals, e.g. 2350 as "23.50".
+     */
+    public static int fixed2(int hundredths, char[] out, int pos) {
+        if (hundredths < 0) {
+            out[pos++] = '-';
+            hundredths = -hundredths;
+        }
+        pos = decimal(hundredths / 100, out, pos);
+        out[pos++] = '.';
+        int pair = (hundredths % 100) << 1;
+        out[pos++] = DECIMAL_PAIRS[pair];
+        out[pos++] = DECIMAL_PAIRS[pair + 1];
+        return pos;
+    }
+
+    public static int string(String s, char[] out, int pos) {
+        s.getChars(0, s.length(), out, pos);
+        return pos + s.length();
+    }
+}
@@ -0,0 +1,166 @@
+package com.mch.helloble;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of nanosecond latencies in fixed memory, with buckets laid out like
+ * HdrHistogram's: values below 64 have a bucket each, above that every power of two is split
+ * into 32 buckets, so any recorded value is off by at most 1/32 (about 3 %). Values up to
+ * {@link #MAX_VALUE} (about 68 s) are kept; longer ones are counted in the last bucket.
+ * <p>
+ * {@link #record(long)} may be called from any thread. Readers see a consistent enough
+ * picture for percentiles, not an atomic snapshot.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_BITS = 36;
+
+    public static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong mTotal = new AtomicLong();
+
+    private final AtomicLong mSum = new AtomicLong();
+
+    private final AtomicLong mMax = new AtomicLong();
+
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        if (value > MAX_VALUE) {
+            return BUCKETS - 1;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value that lands in {@code bucket}.
+     */
+    static long highestEquivalentValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket - shift * SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucket(nanos));
+        mTotal.incrementAndGet();
+        mSum.addAndGet(nanos);
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mTotal.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = mTotal.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * Returns a value that {@code percentile} percent of the recorded values do not exceed,
+     * rounded up to the end of its bucket. Zero when nothing was recorded. Copies the counts
+     * each time; to read several percentiles, take a {@link #snapshot} once instead.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        return valueAtPercentile(counts, snapshot(counts), mMax.get(), percentile);
+    }
+
+    /**
+     * Copies the bucket counts into {@code counts}, which holds at least {@link #BUCKETS}, and
+     * returns their total.
+     */
+    public long snapshot(long[] counts) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        return total;
+    }
+
+    /**
+     * {@link #getValueAtPercentile} of a {@link #snapshot} with {@code total} values.
+     */
+    static long valueAtPercentile(long[] counts, long total, long max, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotal.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Appends "count, mean, p50, p90, p99, max" in microseconds.
+     */
+    public void appendSummary(StringBuilder out) {
+        appendSummary(out, new long[BUCKETS]);
+    }
+
+    /**
+     * Same as {@link #appendSummary(StringBuilder)}, taking one snapshot into {@code counts}
+     * for all three percentiles.
+     */
+    public void appendSummary(StringBuilder out, long[] counts) {
+        long total = snapshot(counts);
+        long max = getMax();
+        out.append(String.format(Locale.US, "n=%d mean=%.0f p50=%d p90=%d p99=%d max=%d us",
+                getCount(), getMean() / 1000, valueAtPercentile(counts, total, max, 50) / 1000,
+                valueAtPercentile(counts, total, max, 90) / 1000,
+                valueAtPercentile(counts, total, max, 99) / 1000, max / 1000));
+    }
+
+    /**
+     * Appends one "upper bound in ns, count" line per non-empty bucket.
+     */
+    public void appendBuckets(StringBuilder out) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = mCounts.get(i);
+            if (count > 0) {
+                out.append(highestEquivalentValue(i)).append(',').append(count).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.mch.helloble;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage latency of a reading on its way from the GATT callback to the screen, one
+ * {@link LatencyHistogram} per stage:
+ * <ol>
+ * <li>{@link #STAGE_CALLBACK}: Binder callback to its event slot, mostly waiting for the
+ * connection lock.</li>
+ * <li>{@link #STAGE_DECODE}: copying and parsing the value.</li>
+ * <li>{@link #STAGE_DISPATCH}: waiting on the ring until the event thread drains it.</li>
+ * <li>{@link #STAGE_RECEIVER}: running the listeners.</li>
+ * <li>{@link #STAGE_PUBLISH}: the receiver handing a value to the renderer until the
+ * frame that sets the text.</li>
+ * <li>{@link #STAGE_DRAW}: setting the text until the view is drawn.</li>
+ * </ol>
+ * {@link #STAGE_END_TO_END} covers all of them for the readings that made it to a frame.
+ * <p>
+ * Probes are off unless an instance is handed to {@link ConnectionManager#setLatencyProbes}
+ * and {@link SensorRenderer#setLatencyProbes}; without one each stage costs a null check.
+ */
+public class LatencyProbes {
+
+    public static final int STAGE_CALLBACK = 0;
+    public static final int STAGE_DECODE = 1;
+    public static final int STAGE_DISPATCH = 2;
+    public static final int STAGE_RECEIVER = 3;
+    public static final int STAGE_PUBLISH = 4;
+    public static final int STAGE_DRAW = 5;
+    public static final int STAGE_END_TO_END = 6;
+
+    private static final String[] STAGE_NAMES = {
+            "callback", "decode", "dispatch", "receiver", "publish", "draw", "end-to-end"};
+
+    private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_NAMES.length];
+
+    private final AtomicLong mDropped = new AtomicLong();
+
+    private final AtomicLong mCoalesced = new AtomicLong();
+
+    // Counts of one stage at a time while a summary is built.
+    private final long[] mSnapshot = new long[LatencyHistogram.BUCKETS];
+
+    private volatile long mStartedNanos;
+
+    public LatencyProbes() {
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new LatencyHistogram();
+        }
+        mStartedNanos = System.nanoTime();
+    }
+
+    public static String stageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public int getStageCount() {
+        return mStages.length;
+    }
+
+    public void record(int stage, long nanos) {
+        mStages[stage].record(nanos);
+    }
+
+    public LatencyHistogram get(int stage) {
+        return mStages[stage];
+    }
+
+    /**
+     * A reading was dropped because its ring was full.
+     */
+    public void onDropped() {
+        mDropped.incrementAndGet();
+    }
+
+    /**
+     * A reading was overwritten by a newer one before a frame showed it.
+     */
+    public void onCoalesced() {
+        mCoalesced.incrementAndGet();
+    }
+
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    public long getCoalesced() {
+        return mCoalesced.get();
+    }
+
+    public void reset() {
+        for (LatencyHistogram stage : mStages) {
+            stage.reset();
+        }
+        mDropped.set(0);
+        mCoalesced.set(0);
+        mStartedNanos = System.nanoTime();
+    }
+
+    /**
+     * One line per stage, for the debug overlay.
+     */
+    public String summary() {
+        StringBuilder out = new StringBuilder(512);
+        synchronized (mSnapshot) {
+            for (int i = 0; i < mStages.length; i++) {
+                out.append(STAGE_NAMES[i]).append(": ");
+                mStages[i].appendSummary(out, mSnapshot);
+                out.append('\n');
+            }
+        }
+        out.append("dropped=").append(getDropped()).append(" coalesced=").append(getCoalesced());
+        return out.toString();
+    }
+
+    /**
+     * The summary followed by every stage's buckets, for offline analysis.
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder(summary());
+        out.append("\nrecorded for ").append((System.nanoTime() - mStartedNanos) / 1000000).append(" ms\n");
+        for (int i = 0; i < mStages.length; i++) {
+            out.append("\n# ").append(STAGE_NAMES[i]).append(": upper bound ns, count\n");
+            mStages[i].appendBuckets(out);
+        }
+        return out.toString();
+    }
+}
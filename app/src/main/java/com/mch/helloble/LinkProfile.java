@@ -0,0 +1,81 @@
+package com.mch.helloble;
+
+/**
+ * How a connection is tuned once it is ready: the ATT MTU to ask for, the connection
+ * priority and the preferred PHY.
+ * <p>
+ * Every profile asks for the largest MTU, since fewer, fuller packets cost no more power.
+ * They differ in the connection interval and the PHY: {@link #THROUGHPUT} takes the shortest
+ * interval and the 2M PHY, {@link #LOW_POWER} the longest interval and the 1M PHY, which also
+ * reaches further.
+ */
+public class LinkProfile {
+
+    public static final int DEFAULT_MTU = 23;
+
+    public static final int MAX_MTU = 517;
+
+    public static final LinkProfile THROUGHPUT = new LinkProfile("Throughput", MAX_MTU,
+            GattClient.CONNECTION_PRIORITY_HIGH, GattClient.PHY_LE_2M_MASK);
+
+    public static final LinkProfile BALANCED = new LinkProfile("Balanced", MAX_MTU,
+            GattClient.CONNECTION_PRIORITY_BALANCED, GattClient.PHY_LE_1M_MASK | GattClient.PHY_LE_2M_MASK);
+
+    public static final LinkProfile LOW_POWER = new LinkProfile("Low power", MAX_MTU,
+            GattClient.CONNECTION_PRIORITY_LOW_POWER, GattClient.PHY_LE_1M_MASK);
+
+    private static final LinkProfile[] VALUES = {THROUGHPUT, BALANCED, LOW_POWER};
+
+    private final String mName;
+
+    private final int mMtu;
+
+    private final int mConnectionPriority;
+
+    private final int mPhyMask;
+
+    public LinkProfile(String name, int mtu, int connectionPriority, int phyMask) {
+        if (mtu < DEFAULT_MTU || mtu > MAX_MTU) {
+            throw new IllegalArgumentException("bad MTU " + mtu);
+        }
+        mName = name;
+        mMtu = mtu;
+        mConnectionPriority = connectionPriority;
+        mPhyMask = phyMask;
+    }
+
+    public static LinkProfile[] values() {
+        return VALUES.clone();
+    }
+
+    /**
+     * Queues the requests of this profile ahead of normal work. A PHY request the platform
+     * rejects is not retried.
+     */
+    public void apply(GattCommandQueue queue) {
+        queue.submit(GattCommand.requestMtu(mMtu).setPriority(GattCommand.PRIORITY_HIGH));
+        queue.submit(GattCommand.connectionPriority(mConnectionPriority).setPriority(GattCommand.PRIORITY_HIGH));
+        queue.submit(GattCommand.preferredPhy(mPhyMask).setPriority(GattCommand.PRIORITY_HIGH).setRetries(0));
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getMtu() {
+        return mMtu;
+    }
+
+    public int getConnectionPriority() {
+        return mConnectionPriority;
+    }
+
+    public int getPhyMask() {
+        return mPhyMask;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
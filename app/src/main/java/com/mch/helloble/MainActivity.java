@@ -1,15 +1,15 @@
 package com.mch.helloble;
 
 import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanResult;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
@@ -20,10 +20,20 @@ import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.UUID;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -31,43 +41,117 @@ public class MainActivity extends AppCompatActivity {
 
     private static final long SCAN_PERIOD = 30 * 1000;
 
-    public ArrayList<BluetoothDevice> mList = new ArrayList<>();
+    private static final long LIST_UPDATE_INTERVAL = 250;
 
-    private RecyclerView.Adapter mAdapter;
+    private static final int REQUEST_LOCATION = 0;
+
+    private final DeviceIndex mDeviceIndex = new DeviceIndex();
+
+    private MyItemRecyclerViewAdapter mAdapter;
+
+    private final Handler mHandler = new Handler();
+
+    private boolean mListUpdateScheduled;
+
+    private final Runnable mListUpdateTask = new Runnable() {
+        @Override
+        public void run() {
+            mListUpdateScheduled = false;
+            mDeviceIndex.flush(mAdapter);
+        }
+    };
+
+    private final Runnable mStopScanTask = new Runnable() {
+        @Override
+        public void run() {
+            stopScan();
+        }
+    };
 
     private OnListInteractionListener mListener = new OnListInteractionListener() {
         @Override
-        public void onListInteraction(BluetoothDevice device) {
-            Log.d(TAG, "onListInteraction: " + device.getAddress());
+        public void onListInteraction(DeviceIndex.Entry entry) {
+            Log.d(TAG, "onListInteraction: " + entry.address);
 
+            if (!initBluetooth()) {
+                return;
+            }
+            BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(entry.address);
             startActivity(DeviceActivity.newIntent(getApplicationContext(), device));
         }
     };
 
-    private BluetoothLeScanner mBluetoothLeScanner;
+    private BluetoothAdapter mBluetoothAdapter;
+
+    private Scanner mScanner;
 
     private boolean mScanning;
 
-    private ScanCallback mLeScanCallback = new ScanCallback() {
+    private static final UUID ENVIRONMENTAL_SENSING_SERVICE = UUID.fromString("0000181a-0000-1000-8000-00805f9b34fb");
+
+    private ScanConfig mScanConfig = ScanConfig.batched();
+
+    /**
+     * What the scanner made of {@link #mScanConfig} for the last scan, e.g. not batched where
+     * the controller cannot batch. Callbacks are counted under its name.
+     */
+    private ScanConfig mAppliedScanConfig = mScanConfig;
+
+    /**
+     * Applied by the controller where it can, and always again to each result. Empty means
+     * every advertiser is listed; "Sensors only" fills it with {@link #sensorFilters()}.
+     */
+    private final List<ScanFilterSpec> mScanFilters = new ArrayList<>();
+
+    private final LinkedHashMap<String, ScanMetrics> mScanMetrics = new LinkedHashMap<>();
+
+    private final TraceRecorder mTrace = TraceRecorder.getDefault();
+
+    private StartupMetrics mStartup;
+
+    private RecentDevices mRecentDevices;
+
+    private boolean mFirstFrameDrawn;
+
+    private boolean mPermissionGranted;
+
+    private final Runnable mFirstFrameTask = new Runnable() {
         @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            Log.d(TAG, "onScanResult: " + callbackType + " " + result);
+        public void run() {
+            mFirstFrameDrawn = true;
+            mStartup.mark(StartupMetrics.MARK_FIRST_FRAME, SystemClock.uptimeMillis());
+            startBluetoothWhenReady();
+        }
+    };
 
-            BluetoothDevice device = result.getDevice();
-            if (!mList.contains(device)) {
-                mList.add(result.getDevice());
-                mAdapter.notifyDataSetChanged();
-            }
+    private Scanner.Callback mLeScanCallback = new Scanner.Callback() {
+        @Override
+        public void onScanResult(Scanner.Result result) {
+            mTrace.record(TraceRecorder.EVENT_SCAN_RESULT, result.address, null, 0, result.rssi);
+            currentMetrics().onCallback(1);
+            addResult(result, SystemClock.elapsedRealtime());
+            scheduleListUpdate();
         }
 
         @Override
-        public void onBatchScanResults(List<ScanResult> results) {
-            Log.d(TAG, "onBatchScanResults: " + results.size());
+        public void onBatchScanResults(List<Scanner.Result> results) {
+            mTrace.record(TraceRecorder.EVENT_SCAN_BATCH, null, null, 0, results.size());
+            currentMetrics().onCallback(results.size());
+            long now = SystemClock.elapsedRealtime();
+            for (int i = 0; i < results.size(); i++) {
+                Scanner.Result result = results.get(i);
+                mTrace.record(TraceRecorder.EVENT_SCAN_RESULT, result.address, null, 0, result.rssi);
+                addResult(result, now);
+            }
+            // A batch is already rate limited by the controller, so apply it in one update.
+            mHandler.removeCallbacks(mListUpdateTask);
+            mListUpdateScheduled = false;
+            mDeviceIndex.flush(mAdapter);
         }
 
         @Override
         public void onScanFailed(int errorCode) {
-            Log.d(TAG, "onScanFailed: " + errorCode);
+            mTrace.record(TraceRecorder.EVENT_SCAN_FAILED, null, null, errorCode, 0);
         }
     };
 
@@ -76,6 +160,7 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mStartup = new StartupMetrics(SystemClock.uptimeMillis());
         setContentView(R.layout.activity_main);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
@@ -98,17 +183,107 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        mAdapter = new MyItemRecyclerViewAdapter(mList, mListener);
+        mAdapter = new MyItemRecyclerViewAdapter(mDeviceIndex, mListener);
 
         RecyclerView recyclerView = findViewById(R.id.list);
         recyclerView.setLayoutManager(new LinearLayoutManager(getApplicationContext()));
         recyclerView.setAdapter(mAdapter);
 
-        // Initializes Bluetooth adapter.
-        final BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
-        mBluetoothLeScanner = bluetoothManager.getAdapter().getBluetoothLeScanner();
+        // The snapshot is a few kilobytes; reading it here puts the devices in the first frame.
+        mRecentDevices = RecentDevices.forFile(new File(getFilesDir(), RecentDevices.FILE_NAME));
+        showRecentDevices();
+
+        // Bluetooth setup and the scan wait for the first frame, and for the location permission.
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Runs once the traversal that draws this frame is done.
+                mHandler.post(mFirstFrameTask);
+                return true;
+            }
+        });
+    }
+
+    private void showRecentDevices() {
+        List<RecentDevices.Device> devices = mRecentDevices.load();
+        for (int i = 0; i < devices.size(); i++) {
+            RecentDevices.Device device = devices.get(i);
+            mDeviceIndex.restore(device.address, device.name, device.rssi,
+                    device.hasReading ? device.reading : null);
+        }
+        mDeviceIndex.flush(mAdapter);
+        mStartup.setRecentDevices(devices.size());
+        mStartup.mark(StartupMetrics.MARK_RECENT_SHOWN, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Starts the first scan once the first frame is drawn and the location permission granted.
+     */
+    private void startBluetoothWhenReady() {
+        if (!mFirstFrameDrawn || !mPermissionGranted || mScanner != null) {
+            return;
+        }
+        if (initBluetooth()) {
+            scanLeDevice(true);
+        }
+    }
+
+    private boolean initBluetooth() {
+        if (mScanner != null) {
+            return true;
+        }
+        BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        mBluetoothAdapter = bluetoothManager == null ? null : bluetoothManager.getAdapter();
+        if (mBluetoothAdapter == null) {
+            Log.w(TAG, "initBluetooth: no Bluetooth adapter");
+            return false;
+        }
+        mScanner = new AndroidScanner(mBluetoothAdapter);
+        mStartup.mark(StartupMetrics.MARK_BLUETOOTH_READY, SystemClock.uptimeMillis());
+        return true;
+    }
 
-        scanLeDevice(true);
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_low_latency).setChecked(!mScanConfig.isBatched());
+        menu.findItem(R.id.action_sort_proximity).setChecked(mDeviceIndex.isRankedByProximity());
+        menu.findItem(R.id.action_sensors_only).setChecked(!mScanFilters.isEmpty());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_low_latency:
+                item.setChecked(!item.isChecked());
+                setScanConfig(item.isChecked() ? ScanConfig.lowLatency() : ScanConfig.batched());
+                return true;
+            case R.id.action_sort_proximity:
+                item.setChecked(!item.isChecked());
+                mDeviceIndex.setRankByProximity(item.isChecked());
+                mDeviceIndex.flush(mAdapter);
+                return true;
+            case R.id.action_sensors_only:
+                item.setChecked(!item.isChecked());
+                setScanFilters(item.isChecked() ? sensorFilters() : new ArrayList<ScanFilterSpec>());
+                return true;
+            case R.id.action_scan_metrics:
+                long now = SystemClock.elapsedRealtime();
+                StringBuilder summary = new StringBuilder();
+                for (ScanMetrics metrics : mScanMetrics.values()) {
+                    summary.append(metrics.summary(now)).append('\n');
+                }
+                Snackbar.make(findViewById(R.id.list), summary.append(mStartup.summary()),
+                        Snackbar.LENGTH_LONG).show();
+                return true;
+            case R.id.action_export_trace:
+                exportTrace();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     @Override
@@ -116,9 +291,26 @@ public class MainActivity extends AppCompatActivity {
         super.onStart();
 
         if (ContextCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
-            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.ACCESS_COARSE_LOCATION}, 0);
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.ACCESS_COARSE_LOCATION}, REQUEST_LOCATION);
+        } else {
+            onPermissionGranted();
+        }
+
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == REQUEST_LOCATION && grantResults.length > 0
+                && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            onPermissionGranted();
         }
+    }
 
+    private void onPermissionGranted() {
+        mPermissionGranted = true;
+        mStartup.mark(StartupMetrics.MARK_PERMISSION_GRANTED, SystemClock.uptimeMillis());
+        startBluetoothWhenReady();
     }
 
     @Override
@@ -126,32 +318,151 @@ public class MainActivity extends AppCompatActivity {
         super.onStop();
 
         scanLeDevice(false);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mRecentDevices.save();
+                } catch (IOException e) {
+                    Log.w(TAG, "onStop: cannot save recent devices", e);
+                }
+            }
+        }, "save-recent-devices").start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        mHandler.removeCallbacks(mFirstFrameTask);
+    }
+
+    private void exportTrace() {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+        File file = new File(directory, "trace-" + System.currentTimeMillis() + ".bin");
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                mTrace.writeTo(out);
+            } finally {
+                out.close();
+            }
+            Snackbar.make(findViewById(R.id.list), getString(R.string.trace_exported, file),
+                    Snackbar.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.w(TAG, "exportTrace: failed", e);
+            Snackbar.make(findViewById(R.id.list), getString(R.string.trace_export_failed, e.getMessage()),
+                    Snackbar.LENGTH_LONG).show();
+        }
+    }
+
+    private void addResult(Scanner.Result result, long now) {
+        if (!ScanFilterSpec.matchesAny(mScanFilters, result.advertisement)) {
+            return;
+        }
+        mDeviceIndex.onAdvertisement(result.address, result.name, result.rssi, now);
+        mRecentDevices.onSeen(result.address, result.name, result.rssi, System.currentTimeMillis());
+        if (mStartup.mark(StartupMetrics.MARK_FIRST_LIVE_DEVICE, SystemClock.uptimeMillis())) {
+            Log.i(TAG, mStartup.summary());
+        }
+    }
+
+    private ScanMetrics currentMetrics() {
+        ScanMetrics metrics = mScanMetrics.get(mAppliedScanConfig.name);
+        if (metrics == null) {
+            metrics = new ScanMetrics(mAppliedScanConfig.name);
+            mScanMetrics.put(mAppliedScanConfig.name, metrics);
+        }
+        return metrics;
+    }
+
+    private void setScanConfig(ScanConfig config) {
+        boolean scanning = mScanning;
+        if (scanning) {
+            scanLeDevice(false);
+        }
+        mScanConfig = config;
+        if (scanning) {
+            scanLeDevice(true);
+        }
+    }
+
+    /**
+     * Advertisers of the heart rate or environmental sensing service, which the controller can
+     * match without waking the app for anyone else.
+     */
+    private static List<ScanFilterSpec> sensorFilters() {
+        List<ScanFilterSpec> filters = new ArrayList<>();
+        filters.add(new ScanFilterSpec().setServiceUuid(HeartRateParser.SERVICE));
+        filters.add(new ScanFilterSpec().setServiceUuid(ENVIRONMENTAL_SENSING_SERVICE));
+        return filters;
+    }
+
+    // Devices already listed may not match, so the list starts over.
+    private void setScanFilters(List<ScanFilterSpec> filters) {
+        boolean scanning = mScanning;
+        if (scanning) {
+            scanLeDevice(false);
+        }
+        mScanFilters.clear();
+        mScanFilters.addAll(filters);
+        mDeviceIndex.clear();
+        mDeviceIndex.flush(mAdapter);
+        if (scanning) {
+            scanLeDevice(true);
+        }
+    }
+
+    private void scheduleListUpdate() {
+        if (!mListUpdateScheduled) {
+            mListUpdateScheduled = true;
+            mHandler.postDelayed(mListUpdateTask, LIST_UPDATE_INTERVAL);
+        }
     }
 
     private void scanLeDevice(final boolean enable) {
         if (enable) {
+            if (!initBluetooth()) {
+                mSwipeRefreshLayout.setRefreshing(false);
+                return;
+            }
+            if (mScanning) {
+                stopScan();
+            }
             // Stops scanning after a pre-defined scan period.
-            new Handler().postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    mScanning = false;
-                    mSwipeRefreshLayout.setRefreshing(false);
-                    mBluetoothLeScanner.stopScan(mLeScanCallback);
-                }
-            }, SCAN_PERIOD);
+            mHandler.removeCallbacks(mStopScanTask);
+            mHandler.postDelayed(mStopScanTask, SCAN_PERIOD);
 
             mScanning = true;
             mSwipeRefreshLayout.setRefreshing(true);
-            mBluetoothLeScanner.startScan(mLeScanCallback);
+            mAppliedScanConfig = mScanner.startScan(mScanFilters, mScanConfig, mLeScanCallback);
+            currentMetrics().start(SystemClock.elapsedRealtime());
+            mStartup.mark(StartupMetrics.MARK_SCAN_STARTED, SystemClock.uptimeMillis());
         } else {
-            mScanning = false;
-            mSwipeRefreshLayout.setRefreshing(false);
-            mBluetoothLeScanner.stopScan(mLeScanCallback);
+            mHandler.removeCallbacks(mStopScanTask);
+            stopScan();
+        }
+    }
+
+    private void stopScan() {
+        if (mScanner == null) {
+            return;
+        }
+        if (mScanning && mAppliedScanConfig.isBatched()) {
+            // Deliver whatever the controller is still holding before the scan goes away.
+            mScanner.flushPendingScanResults(mLeScanCallback);
         }
+        mScanning = false;
+        mSwipeRefreshLayout.setRefreshing(false);
+        mScanner.stopScan(mLeScanCallback);
+        currentMetrics().stop(SystemClock.elapsedRealtime());
     }
 
     public interface OnListInteractionListener {
-        void onListInteraction(BluetoothDevice device);
+        void onListInteraction(DeviceIndex.Entry entry);
     }
 
 }
@@ -1,6 +1,5 @@
 package com.mch.helloble;
 
-import android.bluetooth.BluetoothDevice;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
@@ -12,14 +11,18 @@ import com.mch.helloble.MainActivity.OnListInteractionListener;
 
 import java.util.List;
 
-public class MyItemRecyclerViewAdapter extends RecyclerView.Adapter<MyItemRecyclerViewAdapter.ViewHolder> {
+public class MyItemRecyclerViewAdapter extends RecyclerView.Adapter<MyItemRecyclerViewAdapter.ViewHolder>
+        implements DeviceIndex.ChangeListener {
 
-    private final List<BluetoothDevice> mValues;
+    private static final Object PAYLOAD_RSSI = new Object();
+
+    private final DeviceIndex mValues;
     private final OnListInteractionListener mListener;
 
-    public MyItemRecyclerViewAdapter(List<BluetoothDevice> items, OnListInteractionListener listener) {
+    public MyItemRecyclerViewAdapter(DeviceIndex items, OnListInteractionListener listener) {
         mValues = items;
         mListener = listener;
+        setHasStableIds(true);
     }
 
     @NonNull
@@ -27,25 +30,61 @@ public class MyItemRecyclerViewAdapter extends RecyclerView.Adapter<MyItemRecycl
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.device_item, parent, false);
-        return new ViewHolder(view);
-    }
-
-    @Override
-    public void onBindViewHolder(@NonNull final ViewHolder holder, int position) {
-        holder.mItem = mValues.get(position);
-        holder.mName.setText(mValues.get(position).getName());
-        holder.mAddress.setText(mValues.get(position).getAddress());
-
+        final ViewHolder holder = new ViewHolder(view);
         holder.mView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (null != mListener) {
+                if (null != mListener && holder.mItem != null) {
                     // Notify the active callbacks interface (the activity, if the
                     // fragment is attached to one) that an item has been selected.
                     mListener.onListInteraction(holder.mItem);
                 }
             }
         });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull final ViewHolder holder, int position) {
+        holder.mItem = mValues.get(position);
+        holder.mName.setText(holder.mItem.name);
+        holder.mAddress.setText(holder.mItem.address);
+        bindRssi(holder);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        holder.mItem = mValues.get(position);
+        if (holder.mItem.name != null && !holder.mItem.name.equals(holder.mName.getText().toString())) {
+            holder.mName.setText(holder.mItem.name);
+        }
+        bindRssi(holder);
+    }
+
+    private void bindRssi(ViewHolder holder) {
+        DeviceIndex.Entry item = holder.mItem;
+        if (holder.mShownRssi == item.rssi && holder.mShownRecent == item.recent) {
+            return;
+        }
+        holder.mShownRssi = item.rssi;
+        holder.mShownRecent = item.recent;
+        if (!item.recent) {
+            holder.mRssi.setText(item.rssi + " dBm");
+        } else if (item.lastReading != null) {
+            holder.mRssi.setText(holder.mView.getContext().getString(R.string.device_recent_reading,
+                    item.lastReading.temperature, item.lastReading.humidity, item.rssi));
+        } else {
+            holder.mRssi.setText(holder.mView.getContext().getString(R.string.device_recent, item.rssi));
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mValues.get(position).id;
     }
 
     @Override
@@ -53,17 +92,41 @@ public class MyItemRecyclerViewAdapter extends RecyclerView.Adapter<MyItemRecycl
         return mValues.size();
     }
 
+    @Override
+    public void onInserted(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        notifyItemMoved(fromPosition, toPosition);
+    }
+
+    @Override
+    public void onChanged(int position, int count) {
+        notifyItemRangeChanged(position, count, PAYLOAD_RSSI);
+    }
+
+    @Override
+    public void onReset() {
+        notifyDataSetChanged();
+    }
+
     public class ViewHolder extends RecyclerView.ViewHolder {
         public final View mView;
         public final TextView mName;
         public final TextView mAddress;
-        public BluetoothDevice mItem;
+        public final TextView mRssi;
+        public DeviceIndex.Entry mItem;
+        int mShownRssi = Integer.MIN_VALUE;
+        boolean mShownRecent;
 
         public ViewHolder(View view) {
             super(view);
             mView = view;
             mName = view.findViewById(R.id.name);
             mAddress = view.findViewById(R.id.address);
+            mRssi = view.findViewById(R.id.rssi);
         }
     }
 }
@@ -0,0 +1,118 @@
+package com.mch.helloble;
+
+import java.util.UUID;
+
+/**
+ * Maps characteristic UUIDs to {@link CharacteristicParser}s. Characteristics without a parser
+ * get {@link #HEX}, which decodes nothing and shows the value as hex.
+ * <p>
+ * Lookups run on every notification, so the table is open-addressed over the two halves of
+ * the UUID with the hash mixed once at registration: a lookup is a multiply, a shift and
+ * usually one compare, without calling {@code UUID.hashCode} or {@code equals}. Registering
+ * copies the table, so lookups need no lock; register parsers at startup.
+ */
+public class ParserRegistry {
+
+    public static final CharacteristicParser HEX = new CharacteristicParser() {
+        @Override
+        public boolean decode(byte[] value, int length, GattEvent event) {
+            return false;
+        }
+
+        @Override
+        public int format(byte[] value, int length, char[] out) {
+            return HexFormatter.hex(value, 0, length, out, 0);
+        }
+    };
+
+    private static final ParserRegistry DEFAULT = new ParserRegistry();
+
+    static {
+        DEFAULT.register(CombinedDataDecoder.CHARACTERISTIC, CombinedDataDecoder.PARSER);
+        DEFAULT.register(HeartRateParser.CHARACTERISTIC, new HeartRateParser());
+    }
+
+    private static final class Table {
+        final long[] msb;
+        final long[] lsb;
+        final CharacteristicParser[] parsers;
+        final int shift;
+        final int size;
+
+        Table(int capacity, int size) {
+            msb = new long[capacity];
+            lsb = new long[capacity];
+            parsers = new CharacteristicParser[capacity];
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+            this.size = size;
+        }
+    }
+
+    private volatile Table mTable = new Table(8, 0);
+
+    /**
+     * Returns the registry with the parsers this app knows, shared by the connections and the
+     * browser.
+     */
+    public static ParserRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Sets the parser of {@code characteristic}, replacing any earlier one.
+     */
+    public synchronized void register(UUID characteristic, CharacteristicParser parser) {
+        Table old = mTable;
+        int size = old.size + (find(old, characteristic.getMostSignificantBits(),
+                characteristic.getLeastSignificantBits()) < 0 ? 1 : 0);
+        int capacity = old.parsers.length;
+        // Keep the load under a half so that probe runs stay short.
+        while (size * 2 > capacity) {
+            capacity *= 2;
+        }
+        Table table = new Table(capacity, size);
+        for (int i = 0; i < old.parsers.length; i++) {
+            if (old.parsers[i] != null) {
+                put(table, old.msb[i], old.lsb[i], old.parsers[i]);
+            }
+        }
+        put(table, characteristic.getMostSignificantBits(), characteristic.getLeastSignificantBits(), parser);
+        mTable = table;
+    }
+
+    public CharacteristicParser get(UUID characteristic) {
+        Table table = mTable;
+        int index = find(table, characteristic.getMostSignificantBits(), characteristic.getLeastSignificantBits());
+        return index < 0 ? HEX : table.parsers[index];
+    }
+
+    public int size() {
+        return mTable.size;
+    }
+
+    private static int slot(Table table, long msb, long lsb) {
+        // Fibonacci hashing; the 128-bit UUIDs in use differ mostly in the top bits of msb.
+        return (int) (((msb ^ lsb) * 0x9E3779B97F4A7C15L) >>> table.shift);
+    }
+
+    private static int find(Table table, long msb, long lsb) {
+        int mask = table.parsers.length - 1;
+        for (int i = slot(table, msb, lsb); table.parsers[i] != null; i = (i + 1) & mask) {
+            if (table.msb[i] == msb && table.lsb[i] == lsb) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void put(Table table, long msb, long lsb, CharacteristicParser parser) {
+        int mask = table.parsers.length - 1;
+        int i = slot(table, msb, lsb);
+        while (table.parsers[i] != null && (table.msb[i] != msb || table.lsb[i] != lsb)) {
+            i = (i + 1) & mask;
+        }
+        table.msb[i] = msb;
+        table.lsb[i] = lsb;
+        table.parsers[i] = parser;
+    }
+}
@@ -0,0 +1,335 @@
+package com.mch.helloble;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads characteristics that cannot notify at intervals that follow how often their values
+ * change, across any number of connections.
+ * <p>
+ * Each poll starts at its minimum interval. A read that finds the value changed halves the
+ * interval; one that finds it unchanged stretches it by {@link #BACKOFF}, up to the maximum, so
+ * a stable value costs few reads and a changing one is soon read often again.
+ * <p>
+ * One timer serves every poll. When it fires, every read that is due, and every read due
+ * within {@link #EARLY_FRACTION} of its interval, goes to its device's {@link GattCommandQueue}
+ * in the same pass, at low priority so user commands go first. A poll is never queued again
+ * while its read is outstanding, and at most {@link #MAX_OUTSTANDING_PER_DEVICE} reads per
+ * device are queued at once; the reads left over are served most overdue first, relative to
+ * their interval, so no poll starves the others.
+ */
+public class PollScheduler {
+
+    public static final long DEFAULT_MIN_INTERVAL = 1000;
+
+    public static final long DEFAULT_MAX_INTERVAL = 5 * 60 * 1000;
+
+    static final double BACKOFF = 1.25;
+
+    static final double EARLY_FRACTION = 0.25;
+
+    static final int MAX_OUTSTANDING_PER_DEVICE = 4;
+
+    static final long READ_TIMEOUT = 2000;
+
+    /**
+     * Where the reads of each device go; usually {@link ConnectionManager#getQueue}.
+     */
+    public interface Queues {
+        /**
+         * Returns the queue of a ready connection, or null while there is none.
+         */
+        GattCommandQueue getQueue(String address);
+    }
+
+    public interface Listener {
+        /**
+         * Called with every value read; {@code changed} is false if it equals the previous one.
+         */
+        void onPolled(Poll poll, byte[] value, boolean changed);
+    }
+
+    public static class Poll {
+        public final String address;
+        public final UUID service;
+        public final UUID characteristic;
+        final long minInterval;
+        final long maxInterval;
+
+        // Guarded by the scheduler.
+        long interval;
+        long due;
+        boolean outstanding;
+        boolean removed;
+        byte[] value;
+        long reads;
+        long changes;
+
+        Poll(String address, UUID service, UUID characteristic, long minInterval, long maxInterval) {
+            this.address = address;
+            this.service = service;
+            this.characteristic = characteristic;
+            this.minInterval = minInterval;
+            this.maxInterval = maxInterval;
+            interval = minInterval;
+        }
+
+        @Override
+        public String toString() {
+            return "Poll{" + address + " " + characteristic + ", every " + interval + " ms}";
+        }
+    }
+
+    private final Scheduler mScheduler;
+
+    private final Queues mQueues;
+
+    private final ArrayList<Poll> mPolls = new ArrayList<>();
+
+    private final HashMap<String, int[]> mOutstanding = new HashMap<>();
+
+    private final ArrayList<Poll> mDue = new ArrayList<>();
+
+    private Listener mListener;
+
+    private long mPassAt = Long.MAX_VALUE;
+
+    private long mNow;
+
+    private long mReads;
+
+    private long mPasses;
+
+    private final Comparator<Poll> mMostOverdueFirst = new Comparator<Poll>() {
+        @Override
+        public int compare(Poll a, Poll b) {
+            return Double.compare((double) (mNow - b.due) / b.interval, (double) (mNow - a.due) / a.interval);
+        }
+    };
+
+    private final Runnable mPassTask = new Runnable() {
+        @Override
+        public void run() {
+            pass();
+        }
+    };
+
+    public PollScheduler(Scheduler scheduler, Queues queues) {
+        mScheduler = scheduler;
+        mQueues = queues;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public Poll add(String address, UUID service, UUID characteristic) {
+        return add(address, service, characteristic, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL);
+    }
+
+    /**
+     * Starts polling a characteristic, first right away and then every {@code minInterval} to
+     * {@code maxInterval} milliseconds. Returns the existing poll if it is already polled.
+     */
+    public Poll add(String address, UUID service, UUID characteristic, long minInterval, long maxInterval) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("bad intervals " + minInterval + ", " + maxInterval);
+        }
+        synchronized (this) {
+            Poll poll = find(address, characteristic);
+            if (poll == null) {
+                poll = new Poll(address, service, characteristic, minInterval, maxInterval);
+                poll.due = mScheduler.now();
+                mPolls.add(poll);
+                schedulePass();
+            }
+            return poll;
+        }
+    }
+
+    public synchronized Poll find(String address, UUID characteristic) {
+        for (int i = 0; i < mPolls.size(); i++) {
+            Poll poll = mPolls.get(i);
+            if (poll.address.equals(address) && poll.characteristic.equals(characteristic)) {
+                return poll;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops polling. A read already queued still completes but is not reported.
+     */
+    public synchronized void remove(Poll poll) {
+        if (mPolls.remove(poll)) {
+            poll.removed = true;
+            schedulePass();
+        }
+    }
+
+    public synchronized void removeAll(String address) {
+        for (int i = mPolls.size() - 1; i >= 0; i--) {
+            if (mPolls.get(i).address.equals(address)) {
+                mPolls.remove(i).removed = true;
+            }
+        }
+        schedulePass();
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < mPolls.size(); i++) {
+            mPolls.get(i).removed = true;
+        }
+        mPolls.clear();
+        schedulePass();
+    }
+
+    public synchronized List<Poll> getPolls() {
+        return new ArrayList<>(mPolls);
+    }
+
+    public synchronized long getInterval(Poll poll) {
+        return poll.interval;
+    }
+
+    public synchronized long getReads(Poll poll) {
+        return poll.reads;
+    }
+
+    public synchronized long getChanges(Poll poll) {
+        return poll.changes;
+    }
+
+    /**
+     * Returns how many reads were queued in all.
+     */
+    public synchronized long getReadCount() {
+        return mReads;
+    }
+
+    /**
+     * Returns how many times the timer fired and queued reads.
+     */
+    public synchronized long getPassCount() {
+        return mPasses;
+    }
+
+    // Called with the lock held.
+    private void schedulePass() {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < mPolls.size(); i++) {
+            Poll poll = mPolls.get(i);
+            if (!poll.outstanding && poll.due < next && !isBusy(poll.address)) {
+                next = poll.due;
+            }
+        }
+        if (next == mPassAt) {
+            return;
+        }
+        mScheduler.cancel(mPassTask);
+        mPassAt = next;
+        if (next != Long.MAX_VALUE) {
+            mScheduler.schedule(mPassTask, next - mScheduler.now());
+        }
+    }
+
+    // Called with the lock held. A read of a busy device completing schedules the next pass.
+    private boolean isBusy(String address) {
+        int[] outstanding = mOutstanding.get(address);
+        return outstanding != null && outstanding[0] >= MAX_OUTSTANDING_PER_DEVICE;
+    }
+
+    private void pass() {
+        ArrayList<GattCommandQueue> queues = new ArrayList<>();
+        ArrayList<GattCommand> reads = new ArrayList<>();
+        synchronized (this) {
+            mPassAt = Long.MAX_VALUE;
+            mNow = mScheduler.now();
+            for (int i = 0; i < mPolls.size(); i++) {
+                Poll poll = mPolls.get(i);
+                if (!poll.outstanding && poll.due <= mNow + (long) (poll.interval * EARLY_FRACTION)) {
+                    mDue.add(poll);
+                }
+            }
+            Collections.sort(mDue, mMostOverdueFirst);
+            for (int i = 0; i < mDue.size(); i++) {
+                final Poll poll = mDue.get(i);
+                if (isBusy(poll.address)) {
+                    // Still due, and so among the first once a read of this device completes.
+                    continue;
+                }
+                int[] outstanding = mOutstanding.get(poll.address);
+                GattCommandQueue queue = mQueues.getQueue(poll.address);
+                if (queue == null) {
+                    poll.due = mNow + poll.interval;
+                    continue;
+                }
+                if (outstanding == null) {
+                    outstanding = new int[1];
+                    mOutstanding.put(poll.address, outstanding);
+                }
+                outstanding[0]++;
+                poll.outstanding = true;
+                queues.add(queue);
+                reads.add(GattCommand.read(poll.service, poll.characteristic)
+                        .setPriority(GattCommand.PRIORITY_LOW)
+                        .setTimeout(READ_TIMEOUT)
+                        .setRetries(0)
+                        .setCallback(new GattCommand.Callback() {
+                            @Override
+                            public void onComplete(GattCommand command, int status, byte[] value) {
+                                onRead(poll, status, value);
+                            }
+                        }));
+            }
+            mDue.clear();
+            if (!reads.isEmpty()) {
+                mPasses++;
+                mReads += reads.size();
+            }
+            schedulePass();
+        }
+        for (int i = 0; i < reads.size(); i++) {
+            queues.get(i).submit(reads.get(i));
+        }
+    }
+
+    private void onRead(Poll poll, int status, byte[] value) {
+        boolean changed = false;
+        Listener listener;
+        synchronized (this) {
+            int[] outstanding = mOutstanding.get(poll.address);
+            if (--outstanding[0] == 0) {
+                mOutstanding.remove(poll.address);
+            }
+            poll.outstanding = false;
+            if (poll.removed) {
+                schedulePass();
+                return;
+            }
+            if (status == GattCommandQueue.STATUS_SUCCESS && value != null) {
+                poll.reads++;
+                changed = poll.value == null || !Arrays.equals(poll.value, value);
+                // The first value has nothing to be compared with.
+                if (poll.value != null && changed) {
+                    poll.changes++;
+                    poll.interval = Math.max(poll.minInterval, poll.interval / 2);
+                } else if (poll.value != null) {
+                    poll.interval = Math.min(poll.maxInterval, (long) (poll.interval * BACKOFF));
+                }
+                poll.value = value;
+            }
+            poll.due = mScheduler.now() + poll.interval;
+            schedulePass();
+            listener = status == GattCommandQueue.STATUS_SUCCESS && value != null ? mListener : null;
+        }
+        if (listener != null) {
+            listener.onPolled(poll, value, changed);
+        }
+    }
+}
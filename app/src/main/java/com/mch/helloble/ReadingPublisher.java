@@ -0,0 +1,386 @@
+package com.mch.helloble;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands decoded readings to any number of subscribers, each on its own {@link Executor} and
+ * with its own answer to falling behind:
+ * <ul>
+ * <li>{@link #subscribeLatest} keeps only the newest undelivered reading, for a display;</li>
+ * <li>{@link #subscribeBuffered} keeps up to a fixed number and drops the oldest, for a writer
+ * that can catch up;</li>
+ * <li>{@link #subscribeSampled} delivers the newest reading at most once per interval, for a
+ * chart or an uploader.</li>
+ * </ul>
+ * Publishing never blocks on a subscriber. A subscriber is called on one thread at a time, in
+ * publishing order. Every {@link Subscription} counts what it delivered and dropped.
+ */
+public class ReadingPublisher {
+
+    public interface Subscriber {
+        void onReading(Reading reading);
+    }
+
+    /**
+     * One decoded reading. Immutable, so it can be handed to any thread.
+     */
+    public static final class Reading {
+        public final String address;
+        public final long timestamp;
+        public final double temperature;
+        public final int humidity;
+        public final int airQuality;
+        final long publishedNanos;
+
+        public Reading(String address, long timestamp, double temperature, int humidity, int airQuality) {
+            this.address = address;
+            this.timestamp = timestamp;
+            this.temperature = temperature;
+            this.humidity = humidity;
+            this.airQuality = airQuality;
+            publishedNanos = System.nanoTime();
+        }
+
+        @Override
+        public String toString() {
+            return "Reading{" + address + " @" + timestamp + ", " + temperature + ", " + humidity + ", "
+                    + airQuality + "}";
+        }
+    }
+
+    /**
+     * A subscriber's queue and counters. Subclasses decide what an incoming reading does to
+     * what is already queued.
+     */
+    public abstract static class Subscription {
+
+        private final ReadingPublisher mPublisher;
+
+        private final Subscriber mSubscriber;
+
+        private final Executor mExecutor;
+
+        // Offers since the drain last looked; the drain is scheduled by whoever moves it from 0.
+        private final AtomicInteger mWork = new AtomicInteger();
+
+        private final AtomicLong mDelivered = new AtomicLong();
+
+        final AtomicLong mDropped = new AtomicLong();
+
+        private final AtomicLong mMaxLagNanos = new AtomicLong();
+
+        private volatile long mLastLagNanos;
+
+        private volatile boolean mCancelled;
+
+        private final Runnable mDrainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+
+        Subscription(ReadingPublisher publisher, Subscriber subscriber, Executor executor) {
+            mPublisher = publisher;
+            mSubscriber = subscriber;
+            mExecutor = executor;
+        }
+
+        /**
+         * Queues {@code reading}. Called by the publishing thread only.
+         */
+        abstract void offer(Reading reading);
+
+        /**
+         * Takes the next reading to deliver, or null. Called by the drain only.
+         */
+        abstract Reading poll();
+
+        /**
+         * Returns how many readings wait to be delivered.
+         */
+        public abstract int getPending();
+
+        void signal() {
+            if (mWork.getAndIncrement() == 0) {
+                mExecutor.execute(mDrainTask);
+            }
+        }
+
+        private void drain() {
+            int work = mWork.get();
+            do {
+                Reading reading;
+                while (!mCancelled && (reading = poll()) != null) {
+                    deliver(reading);
+                }
+                work = mWork.addAndGet(-work);
+            } while (work != 0);
+        }
+
+        private void deliver(Reading reading) {
+            long lag = System.nanoTime() - reading.publishedNanos;
+            mLastLagNanos = lag;
+            long max;
+            while (lag > (max = mMaxLagNanos.get()) && !mMaxLagNanos.compareAndSet(max, lag)) {
+                // Lost a race with another update; look again.
+            }
+            try {
+                mSubscriber.onReading(reading);
+            } catch (RuntimeException e) {
+                // A broken subscriber would otherwise leave the drain half done for good.
+                cancel();
+                throw e;
+            }
+            mDelivered.incrementAndGet();
+        }
+
+        /**
+         * Stops delivery. A reading being delivered finishes; nothing after it arrives.
+         */
+        public void cancel() {
+            mCancelled = true;
+            mPublisher.remove(this);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        public long getDelivered() {
+            return mDelivered.get();
+        }
+
+        /**
+         * Returns how many readings were dropped or superseded before delivery.
+         */
+        public long getDropped() {
+            return mDropped.get();
+        }
+
+        /**
+         * Returns the time from publishing to delivery of the last reading delivered.
+         */
+        public long getLastLagNanos() {
+            return mLastLagNanos;
+        }
+
+        public long getMaxLagNanos() {
+            return mMaxLagNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{delivered=" + getDelivered() + ", dropped=" + getDropped()
+                    + ", pending=" + getPending() + ", maxLag=" + getMaxLagNanos() / 1000 + "us}";
+        }
+    }
+
+    static class LatestSubscription extends Subscription {
+
+        private final AtomicReference<Reading> mPending = new AtomicReference<>();
+
+        LatestSubscription(ReadingPublisher publisher, Subscriber subscriber, Executor executor) {
+            super(publisher, subscriber, executor);
+        }
+
+        @Override
+        void offer(Reading reading) {
+            if (mPending.getAndSet(reading) != null) {
+                mDropped.incrementAndGet();
+            }
+            signal();
+        }
+
+        @Override
+        Reading poll() {
+            return mPending.getAndSet(null);
+        }
+
+        @Override
+        public int getPending() {
+            return mPending.get() != null ? 1 : 0;
+        }
+    }
+
+    static class BufferedSubscription extends Subscription {
+
+        // Dropping the oldest means the producer takes from the consumer's end too, so a plain
+        // lock is simpler than a ring here; it is held for a few array operations either way.
+        private final ArrayDeque<Reading> mQueue;
+
+        private final int mCapacity;
+
+        BufferedSubscription(ReadingPublisher publisher, Subscriber subscriber, Executor executor, int capacity) {
+            super(publisher, subscriber, executor);
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive: " + capacity);
+            }
+            mQueue = new ArrayDeque<>(capacity);
+            mCapacity = capacity;
+        }
+
+        @Override
+        void offer(Reading reading) {
+            synchronized (mQueue) {
+                if (mQueue.size() == mCapacity) {
+                    mQueue.pollFirst();
+                    mDropped.incrementAndGet();
+                }
+                mQueue.addLast(reading);
+            }
+            signal();
+        }
+
+        @Override
+        Reading poll() {
+            synchronized (mQueue) {
+                return mQueue.pollFirst();
+            }
+        }
+
+        @Override
+        public int getPending() {
+            synchronized (mQueue) {
+                return mQueue.size();
+            }
+        }
+    }
+
+    static class SampledSubscription extends Subscription {
+
+        private final AtomicReference<Reading> mPending = new AtomicReference<>();
+
+        private final Scheduler mScheduler;
+
+        private final long mIntervalMillis;
+
+        private final AtomicBoolean mTimerArmed = new AtomicBoolean();
+
+        private volatile long mNextDue;
+
+        private final Runnable mTimer = new Runnable() {
+            @Override
+            public void run() {
+                mNextDue = mScheduler.now() + mIntervalMillis;
+                mTimerArmed.set(false);
+                signal();
+            }
+        };
+
+        SampledSubscription(ReadingPublisher publisher, Subscriber subscriber, Executor executor,
+                Scheduler scheduler, long intervalMillis) {
+            super(publisher, subscriber, executor);
+            if (intervalMillis <= 0) {
+                throw new IllegalArgumentException("interval must be positive: " + intervalMillis);
+            }
+            mScheduler = scheduler;
+            mIntervalMillis = intervalMillis;
+            mNextDue = scheduler.now();
+        }
+
+        @Override
+        void offer(Reading reading) {
+            if (mPending.getAndSet(reading) != null) {
+                mDropped.incrementAndGet();
+            }
+            if (mTimerArmed.compareAndSet(false, true)) {
+                mScheduler.schedule(mTimer, Math.max(0, mNextDue - mScheduler.now()));
+            }
+        }
+
+        @Override
+        Reading poll() {
+            return mPending.getAndSet(null);
+        }
+
+        @Override
+        public int getPending() {
+            return mPending.get() != null ? 1 : 0;
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            mScheduler.cancel(mTimer);
+        }
+    }
+
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    private volatile Subscription[] mSubscriptions = NO_SUBSCRIPTIONS;
+
+    private final AtomicLong mPublished = new AtomicLong();
+
+    /**
+     * Delivers every reading until the subscriber falls behind, then only the newest.
+     */
+    public Subscription subscribeLatest(Subscriber subscriber, Executor executor) {
+        return add(new LatestSubscription(this, subscriber, executor));
+    }
+
+    /**
+     * Queues up to {@code capacity} readings, dropping the oldest once full.
+     */
+    public Subscription subscribeBuffered(Subscriber subscriber, Executor executor, int capacity) {
+        return add(new BufferedSubscription(this, subscriber, executor, capacity));
+    }
+
+    /**
+     * Delivers the newest reading at most once every {@code intervalMillis}, timed by
+     * {@code scheduler}.
+     */
+    public Subscription subscribeSampled(Subscriber subscriber, Executor executor, Scheduler scheduler,
+            long intervalMillis) {
+        return add(new SampledSubscription(this, subscriber, executor, scheduler, intervalMillis));
+    }
+
+    /**
+     * Hands a reading to every subscriber. Allocates nothing while there are none. Call from one
+     * thread at a time.
+     */
+    public void publish(String address, long timestamp, double temperature, int humidity, int airQuality) {
+        Subscription[] subscriptions = mSubscriptions;
+        mPublished.incrementAndGet();
+        if (subscriptions.length == 0) {
+            return;
+        }
+        Reading reading = new Reading(address, timestamp, temperature, humidity, airQuality);
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(reading);
+        }
+    }
+
+    public long getPublished() {
+        return mPublished.get();
+    }
+
+    public int getSubscriberCount() {
+        return mSubscriptions.length;
+    }
+
+    private synchronized Subscription add(Subscription subscription) {
+        Subscription[] subscriptions = new Subscription[mSubscriptions.length + 1];
+        System.arraycopy(mSubscriptions, 0, subscriptions, 0, mSubscriptions.length);
+        subscriptions[mSubscriptions.length] = subscription;
+        mSubscriptions = subscriptions;
+        return subscription;
+    }
+
+    synchronized void remove(Subscription subscription) {
+        for (int i = 0; i < mSubscriptions.length; i++) {
+            if (mSubscriptions[i] == subscription) {
+                Subscription[] subscriptions = new Subscription[mSubscriptions.length - 1];
+                System.arraycopy(mSubscriptions, 0, subscriptions, 0, i);
+                System.arraycopy(mSubscriptions, i + 1, subscriptions, i, subscriptions.length - i);
+                mSubscriptions = subscriptions;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.mch.helloble;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The devices seen most recently, with their name, last RSSI and last reading, kept in one
+ * small file so that the device list can show them before Bluetooth is even set up.
+ * <p>
+ * A snapshot holds at most {@link #MAX_DEVICES} devices in about 30 bytes each: the address
+ * as 6 bytes, the name truncated to {@link #MAX_NAME_BYTES} bytes of UTF-8, and the reading
+ * as its three raw payload fields, decoded on load. A CRC at the end lets {@link #readFrom(InputStream)} reject a damaged file,
+ * which {@link #load()} then treats as empty. Thread-safe.
+ */
+public class RecentDevices {
+
+    public static final String FILE_NAME = "recent-devices.bin";
+
+    public static final int MAX_DEVICES = 32;
+
+    static final int MAX_NAME_BYTES = 24;
+
+    private static final int MAGIC = 0x52435456;
+    private static final int VERSION = 2;
+
+    private static final int FLAG_RSSI = 1;
+    private static final int FLAG_READING = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Device {
+        public final String address;
+        public String name;
+        public int rssi;
+        /**
+         * Wall clock time of the last advertisement or reading.
+         */
+        public long lastSeen;
+        public boolean hasReading;
+        public final SensorSample reading = new SensorSample();
+
+        // False for a device only known from readings so far.
+        boolean hasRssi;
+
+        // The payload fields of the last reading, saved as received.
+        int rawTemperature;
+        int rawHumidity;
+        int rawAirQuality;
+
+        Device(String address) {
+            this.address = address;
+        }
+
+        Device copy() {
+            Device copy = new Device(address);
+            copy.name = name;
+            copy.rssi = rssi;
+            copy.hasRssi = hasRssi;
+            copy.lastSeen = lastSeen;
+            copy.hasReading = hasReading;
+            copy.setReading(rawTemperature, rawHumidity, rawAirQuality);
+            return copy;
+        }
+
+        void setReading(int temperature, int humidity, int airQuality) {
+            rawTemperature = temperature;
+            rawHumidity = humidity;
+            rawAirQuality = airQuality;
+            reading.set(CombinedDataDecoder.temperature(temperature), CombinedDataDecoder.humidity(humidity),
+                    airQuality);
+        }
+    }
+
+    private static final Comparator<Device> MOST_RECENT_FIRST = new Comparator<Device>() {
+        @Override
+        public int compare(Device a, Device b) {
+            return a.lastSeen > b.lastSeen ? -1 : a.lastSeen == b.lastSeen ? 0 : 1;
+        }
+    };
+
+    private static final HashMap<File, RecentDevices> sOpen = new HashMap<>();
+
+    /**
+     * Returns the process-wide instance kept in {@code file}, so that every screen and the
+     * service update the same snapshot. It is empty until {@link #load()} is called.
+     */
+    public static RecentDevices forFile(File file) {
+        synchronized (sOpen) {
+            RecentDevices devices = sOpen.get(file);
+            if (devices == null) {
+                devices = new RecentDevices(file);
+                sOpen.put(file, devices);
+            }
+            return devices;
+        }
+    }
+
+    private final File mFile;
+
+    private final HashMap<String, Device> mDevices = new HashMap<>();
+
+    private boolean mLoaded;
+
+    private boolean mDirty;
+
+    // Serializes writers of the file without holding up updates while one syncs.
+    private final Object mSaveLock = new Object();
+
+    public RecentDevices(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Reads the snapshot the first time it is called; a missing or damaged file gives an empty
+     * list. Returns the devices, most recently seen first.
+     */
+    public synchronized List<Device> load() {
+        if (!mLoaded) {
+            mLoaded = true;
+            if (mFile.exists()) {
+                try {
+                    FileInputStream in = new FileInputStream(mFile);
+                    try {
+                        merge(readFrom(in));
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    mFile.delete();
+                }
+            }
+        }
+        return getDevices();
+    }
+
+    // Whatever was recorded before the snapshot was loaded is newer; the snapshot fills the gaps.
+    private void merge(List<Device> loaded) {
+        for (int i = 0; i < loaded.size(); i++) {
+            Device device = loaded.get(i);
+            Device current = mDevices.get(device.address);
+            if (current == null) {
+                mDevices.put(device.address, device);
+                continue;
+            }
+            if (current.name == null) {
+                current.name = device.name;
+            }
+            if (!current.hasRssi) {
+                current.rssi = device.rssi;
+                current.hasRssi = true;
+            }
+            if (!current.hasReading && device.hasReading) {
+                current.hasReading = true;
+                current.setReading(device.rawTemperature, device.rawHumidity, device.rawAirQuality);
+            }
+        }
+    }
+
+    public synchronized List<Device> getDevices() {
+        ArrayList<Device> devices = new ArrayList<>(mDevices.size());
+        for (Device device : mDevices.values()) {
+            devices.add(device.copy());
+        }
+        Collections.sort(devices, MOST_RECENT_FIRST);
+        return devices;
+    }
+
+    /**
+     * Records an advertisement; an address that is not "AA:BB:CC:DD:EE:FF" is ignored.
+     */
+    public synchronized void onSeen(String address, String name, int rssi, long now) {
+        Device device = device(address, now);
+        if (device == null) {
+            return;
+        }
+        if (name != null) {
+            device.name = name;
+        }
+        device.rssi = rssi;
+        device.hasRssi = true;
+    }
+
+    /**
+     * Keeps a combined sensor payload as the device's last reading; a short one, like a bad
+     * address, is ignored.
+     */
+    public synchronized void onReading(String address, byte[] value, int length, long now) {
+        if (length < CombinedDataDecoder.PAYLOAD_LENGTH) {
+            return;
+        }
+        Device device = device(address, now);
+        if (device == null) {
+            return;
+        }
+        device.hasReading = true;
+        device.setReading(CombinedDataDecoder.uint16(value, 0), CombinedDataDecoder.uint16(value, 2),
+                CombinedDataDecoder.uint16(value, 4));
+    }
+
+    // Null for an address the snapshot cannot hold, so that saving never fails on one.
+    private Device device(String address, long now) {
+        Device device = mDevices.get(address);
+        if (device == null) {
+            if (!isAddress(address)) {
+                return null;
+            }
+            device = new Device(address);
+            mDevices.put(address, device);
+        }
+        device.lastSeen = Math.max(device.lastSeen, now);
+        mDirty = true;
+        return device;
+    }
+
+    /**
+     * Writes the snapshot if anything changed since it was loaded or last saved, keeping the
+     * {@link #MAX_DEVICES} most recent devices. Call it off the main thread.
+     */
+    public void save() throws IOException {
+        synchronized (mSaveLock) {
+            byte[] content;
+            synchronized (this) {
+                if (!mDirty) {
+                    return;
+                }
+                load();
+                List<Device> devices = getDevices();
+                if (devices.size() > MAX_DEVICES) {
+                    for (int i = MAX_DEVICES; i < devices.size(); i++) {
+                        mDevices.remove(devices.get(i).address);
+                    }
+                    devices = devices.subList(0, MAX_DEVICES);
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + devices.size() * 40);
+                writeTo(devices, bytes);
+                content = bytes.toByteArray();
+                mDirty = false;
+            }
+            File directory = mFile.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("cannot create " + directory);
+            }
+            // Write aside and rename, so that a crash leaves either the old snapshot or the new one.
+            File temp = new File(mFile.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(content);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mFile)) {
+                temp.delete();
+                throw new IOException("cannot replace " + mFile);
+            }
+        }
+    }
+
+    public static void writeTo(List<Device> devices, OutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + devices.size() * 40);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(devices.size());
+        for (int i = 0; i < devices.size(); i++) {
+            Device device = devices.get(i);
+            long address = packAddress(device.address);
+            data.writeShort((int) (address >> 32));
+            data.writeInt((int) address);
+            byte[] name = device.name == null ? new byte[0] : truncate(device.name.getBytes(UTF_8));
+            data.writeByte(name.length);
+            data.write(name);
+            data.writeByte((device.hasRssi ? FLAG_RSSI : 0) | (device.hasReading ? FLAG_READING : 0));
+            data.writeByte(device.rssi);
+            data.writeLong(device.lastSeen);
+            if (device.hasReading) {
+                data.writeShort(device.rawTemperature);
+                data.writeShort(device.rawHumidity);
+                data.writeShort(device.rawAirQuality);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        data.writeInt((int) crc.getValue());
+        bytes.writeTo(out);
+    }
+
+    static boolean isAddress(String address) {
+        if (address == null || address.length() != 17) {
+            return false;
+        }
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2 ? c != ':' : Character.digit(c, 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // "AA:BB:CC:DD:EE:FF" as 48 bits.
+    static long packAddress(String address) {
+        if (!isAddress(address)) {
+            throw new IllegalArgumentException("not a device address: " + address);
+        }
+        long packed = 0;
+        for (int i = 0; i < 17; i += 3) {
+            packed = packed << 8 | Integer.parseInt(address.substring(i, i + 2), 16);
+        }
+        return packed;
+    }
+
+    static String formatAddress(long packed) {
+        char[] address = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int b = (int) (packed >> (40 - 8 * i)) & 0xff;
+            address[i * 3] = Character.toUpperCase(Character.forDigit(b >> 4, 16));
+            address[i * 3 + 1] = Character.toUpperCase(Character.forDigit(b & 0xf, 16));
+            if (i < 5) {
+                address[i * 3 + 2] = ':';
+            }
+        }
+        return new String(address);
+    }
+
+    // Cuts at a character boundary, so the name still decodes.
+    private static byte[] truncate(byte[] name) {
+        if (name.length <= MAX_NAME_BYTES) {
+            return name;
+        }
+        int length = MAX_NAME_BYTES;
+        while (length > 0 && (name[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        byte[] truncated = new byte[length];
+        System.arraycopy(name, 0, truncated, 0, length);
+        return truncated;
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(List, OutputStream)}.
+     *
+     * @throws IOException if the data is truncated, corrupt or of another version
+     */
+    public static List<Device> readFrom(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        byte[] content = bytes.toByteArray();
+        if (content.length < 10) {
+            throw new IOException("truncated device snapshot");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - 4);
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(content));
+        data.skipBytes(content.length - 4);
+        if (data.readInt() != (int) crc.getValue()) {
+            throw new IOException("device snapshot checksum mismatch");
+        }
+
+        data = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - 4));
+        if (data.readInt() != MAGIC || data.readUnsignedByte() != VERSION) {
+            throw new IOException("not a device snapshot");
+        }
+        int count = data.readUnsignedByte();
+        List<Device> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long address = (long) data.readUnsignedShort() << 32 | data.readInt() & 0xffffffffL;
+            Device device = new Device(formatAddress(address));
+            byte[] name = new byte[data.readUnsignedByte()];
+            data.readFully(name);
+            device.name = name.length == 0 ? null : new String(name, UTF_8);
+            int flags = data.readUnsignedByte();
+            device.hasRssi = (flags & FLAG_RSSI) != 0;
+            device.hasReading = (flags & FLAG_READING) != 0;
+            device.rssi = data.readByte();
+            device.lastSeen = data.readLong();
+            if (device.hasReading) {
+                device.setReading(data.readUnsignedShort(), data.readUnsignedShort(), data.readUnsignedShort());
+            }
+            devices.add(device);
+        }
+        return devices;
+    }
+}
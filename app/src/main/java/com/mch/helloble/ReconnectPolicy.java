@@ -0,0 +1,54 @@
+package com.mch.helloble;
+
+import java.util.Random;
+
+/**
+ * How long to wait before reconnecting after a lost link or a failed attempt: exponential
+ * backoff up to a maximum, with jitter.
+ * <p>
+ * The jitter is "equal jitter": half of each delay is fixed and half random, so that devices
+ * dropped together, for example when the phone walks out of range, do not all retry in
+ * lockstep, while a retry still never comes earlier than half the nominal delay.
+ */
+public class ReconnectPolicy {
+
+    public static final long DEFAULT_BASE_DELAY = 1000;
+
+    public static final long DEFAULT_MAX_DELAY = 60 * 1000;
+
+    private final long mBaseDelay;
+
+    private final long mMaxDelay;
+
+    private final Random mRandom;
+
+    public ReconnectPolicy() {
+        this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, new Random());
+    }
+
+    public ReconnectPolicy(long baseDelay, long maxDelay, Random random) {
+        if (baseDelay <= 0 || maxDelay < baseDelay || maxDelay > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("bad delays " + baseDelay + ", " + maxDelay);
+        }
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mRandom = random;
+    }
+
+    /**
+     * Returns the delay before attempt {@code attempt}, counting from 0 for the first attempt
+     * after the link was lost.
+     */
+    public long delay(int attempt) {
+        long nominal = mMaxDelay;
+        if (attempt < 31 && mBaseDelay << attempt < mMaxDelay) {
+            nominal = mBaseDelay << attempt;
+        }
+        long half = nominal / 2;
+        return half + mRandom.nextInt((int) (nominal - half) + 1);
+    }
+
+    public long getMaxDelay() {
+        return mMaxDelay;
+    }
+}
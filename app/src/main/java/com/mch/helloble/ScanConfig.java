@@ -0,0 +1,61 @@
+package com.mch.helloble;
+
+/**
+ * How the LE scan is run. The constants mirror {@code android.bluetooth.le.ScanSettings}.
+ */
+public class ScanConfig {
+
+    public static final int SCAN_MODE_LOW_POWER = 0;
+    public static final int SCAN_MODE_BALANCED = 1;
+    public static final int SCAN_MODE_LOW_LATENCY = 2;
+
+    public static final int MATCH_MODE_AGGRESSIVE = 1;
+    public static final int MATCH_MODE_STICKY = 2;
+
+    private static final long DEFAULT_REPORT_DELAY = 2000;
+
+    public final String name;
+    public final int scanMode;
+    public final long reportDelayMillis;
+    public final int matchMode;
+
+    public ScanConfig(String name, int scanMode, long reportDelayMillis, int matchMode) {
+        this.name = name;
+        this.scanMode = scanMode;
+        this.reportDelayMillis = reportDelayMillis;
+        this.matchMode = matchMode;
+    }
+
+    /**
+     * Every advertisement is reported as it arrives. For a list the user is watching.
+     */
+    public static ScanConfig lowLatency() {
+        return new ScanConfig("low latency", SCAN_MODE_LOW_LATENCY, 0, MATCH_MODE_AGGRESSIVE);
+    }
+
+    /**
+     * The controller buffers advertisements and reports them every couple of seconds.
+     */
+    public static ScanConfig batched() {
+        return new ScanConfig("batched", SCAN_MODE_BALANCED, DEFAULT_REPORT_DELAY, MATCH_MODE_STICKY);
+    }
+
+    public boolean isBatched() {
+        return reportDelayMillis > 0;
+    }
+
+    /**
+     * This config with results reported as they arrive, for controllers that cannot batch.
+     */
+    public ScanConfig unbatched() {
+        if (!isBatched()) {
+            return this;
+        }
+        return new ScanConfig(name + " (not offloaded)", scanMode, 0, matchMode);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,130 @@
+package com.mch.helloble;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One scan filter: a service UUID, a device name prefix and manufacturer data, each optional.
+ * The semantics are those of {@code android.bluetooth.le.ScanFilter}: every criterion that is set
+ * must match, and a list of filters accepts an advertisement that matches any of them.
+ * <p>
+ * The controller can match service UUIDs and manufacturer data but only exact names, so a name
+ * prefix is always checked here, after the hardware filter has let the packet through.
+ */
+public class ScanFilterSpec {
+
+    public interface Advertisement {
+        String getName();
+
+        boolean hasServiceUuid(UUID uuid);
+
+        /**
+         * Returns the manufacturer specific data for the company id, or null.
+         */
+        byte[] getManufacturerData(int manufacturerId);
+    }
+
+    private UUID mServiceUuid;
+    private String mNamePrefix;
+    private int mManufacturerId = -1;
+    private byte[] mManufacturerData;
+    private byte[] mManufacturerDataMask;
+
+    public ScanFilterSpec setServiceUuid(UUID serviceUuid) {
+        mServiceUuid = serviceUuid;
+        return this;
+    }
+
+    public ScanFilterSpec setNamePrefix(String namePrefix) {
+        mNamePrefix = namePrefix;
+        return this;
+    }
+
+    /**
+     * Matches advertisements whose data for the company id starts with {@code data}, comparing
+     * only the bits set in {@code mask}. A null mask compares every bit.
+     */
+    public ScanFilterSpec setManufacturerData(int manufacturerId, byte[] data, byte[] mask) {
+        if (data == null || (mask != null && mask.length != data.length)) {
+            throw new IllegalArgumentException("mask must be as long as data");
+        }
+        mManufacturerId = manufacturerId;
+        mManufacturerData = data;
+        mManufacturerDataMask = mask;
+        return this;
+    }
+
+    public UUID getServiceUuid() {
+        return mServiceUuid;
+    }
+
+    public String getNamePrefix() {
+        return mNamePrefix;
+    }
+
+    public int getManufacturerId() {
+        return mManufacturerId;
+    }
+
+    public byte[] getManufacturerData() {
+        return mManufacturerData;
+    }
+
+    public byte[] getManufacturerDataMask() {
+        return mManufacturerDataMask;
+    }
+
+    /**
+     * Whether the controller can apply this filter at all. A filter with only a name prefix
+     * matches nothing it can check, so offloading the others alone would drop its devices.
+     */
+    public boolean isOffloadable() {
+        return mServiceUuid != null || mManufacturerId >= 0;
+    }
+
+    public boolean matches(Advertisement advertisement) {
+        if (mServiceUuid != null && !advertisement.hasServiceUuid(mServiceUuid)) {
+            return false;
+        }
+        if (mNamePrefix != null) {
+            String name = advertisement.getName();
+            if (name == null || !name.startsWith(mNamePrefix)) {
+                return false;
+            }
+        }
+        if (mManufacturerId >= 0) {
+            byte[] data = advertisement.getManufacturerData(mManufacturerId);
+            if (data == null || data.length < mManufacturerData.length) {
+                return false;
+            }
+            for (int i = 0; i < mManufacturerData.length; i++) {
+                int mask = mManufacturerDataMask == null ? 0xFF : mManufacturerDataMask[i];
+                if (((data[i] ^ mManufacturerData[i]) & mask) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if any filter matches, or if there are no filters.
+     */
+    public static boolean matchesAny(List<ScanFilterSpec> filters, Advertisement advertisement) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).matches(advertisement)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanFilterSpec{service=" + mServiceUuid + ", namePrefix=" + mNamePrefix
+                + ", manufacturer=" + mManufacturerId + "}";
+    }
+}
@@ -0,0 +1,69 @@
+package com.mch.helloble;
+
+import java.util.Locale;
+
+/**
+ * Counts scan callbacks and the results they carried while a scan mode was active, so modes
+ * can be compared by how often they wake the app up.
+ */
+public class ScanMetrics {
+
+    private final String mName;
+
+    private long mCallbacks;
+
+    private long mResults;
+
+    private long mActiveMillis;
+
+    private long mStartedAt = -1;
+
+    public ScanMetrics(String name) {
+        mName = name;
+    }
+
+    public void start(long now) {
+        if (mStartedAt < 0) {
+            mStartedAt = now;
+        }
+    }
+
+    public void stop(long now) {
+        if (mStartedAt >= 0) {
+            mActiveMillis += now - mStartedAt;
+            mStartedAt = -1;
+        }
+    }
+
+    public void onCallback(int results) {
+        mCallbacks++;
+        mResults += results;
+    }
+
+    public long getCallbacks() {
+        return mCallbacks;
+    }
+
+    public long getResults() {
+        return mResults;
+    }
+
+    public long getActiveMillis(long now) {
+        return mActiveMillis + (mStartedAt >= 0 ? now - mStartedAt : 0);
+    }
+
+    public double callbacksPerSecond(long now) {
+        long active = getActiveMillis(now);
+        return active == 0 ? 0 : mCallbacks * 1000.0 / active;
+    }
+
+    public double resultsPerSecond(long now) {
+        long active = getActiveMillis(now);
+        return active == 0 ? 0 : mResults * 1000.0 / active;
+    }
+
+    public String summary(long now) {
+        return String.format(Locale.US, "%s: %.1f callbacks/s, %.1f results/s over %d s",
+                mName, callbacksPerSecond(now), resultsPerSecond(now), getActiveMillis(now) / 1000);
+    }
+}
@@ -0,0 +1,46 @@
+package com.mch.helloble;
+
+import java.util.List;
+
+/**
+ * LE scanning without Android types, so that the scan path can run against a simulated radio
+ * on the JVM. The GATT side of the same split is {@link GattConnector}.
+ */
+public interface Scanner {
+
+    /**
+     * One advertisement. Scanners reuse results, so callbacks must copy what they keep.
+     */
+    class Result {
+        public String address;
+        public String name;
+        public int rssi;
+        public ScanFilterSpec.Advertisement advertisement;
+    }
+
+    interface Callback {
+        void onScanResult(Result result);
+
+        /**
+         * Advertisements the controller held back for {@link ScanConfig#reportDelayMillis}.
+         */
+        void onBatchScanResults(List<Result> results);
+
+        void onScanFailed(int errorCode);
+    }
+
+    /**
+     * Starts scanning. {@code filters} are offloaded where possible but may also let other
+     * advertisements through, so callers still check them with
+     * {@link ScanFilterSpec#matchesAny}. Returns the config in effect, which is
+     * {@link ScanConfig#unbatched} if the controller cannot batch.
+     */
+    ScanConfig startScan(List<ScanFilterSpec> filters, ScanConfig config, Callback callback);
+
+    /**
+     * Delivers what a batched scan is still holding.
+     */
+    void flushPendingScanResults(Callback callback);
+
+    void stopScan(Callback callback);
+}
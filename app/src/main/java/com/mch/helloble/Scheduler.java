@@ -0,0 +1,22 @@
+package com.mch.helloble;
+
+/**
+ * Clock and delayed execution, so timing logic can run against a fake clock on the JVM.
+ */
+public interface Scheduler {
+
+    /**
+     * Returns a monotonic time in milliseconds, the time base of {@link #schedule}.
+     */
+    long now();
+
+    /**
+     * Returns a monotonic time in milliseconds that keeps counting in deep sleep, for measuring
+     * how long something took rather than for scheduling.
+     */
+    long elapsedRealtime();
+
+    void schedule(Runnable task, long delayMillis);
+
+    void cancel(Runnable task);
+}
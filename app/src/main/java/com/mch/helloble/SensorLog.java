@@ -0,0 +1,292 @@
+package com.mch.helloble;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of raw characteristic values, stored as fixed-size records in memory-mapped
+ * segment files. Appending is a copy into the mapping, so it is cheap enough for the GATT
+ * callback thread; the kernel writes pages back in the background.
+ * <p>
+ * Every record ends with a CRC32 of its contents. On open, the newest segment is scanned up to
+ * the first record that fails its check, which is where a crash may have torn the tail, and
+ * appending resumes from there. Records after it, whose pages happened to be written back, are
+ * cleared, so that replay never finds them behind newer ones.
+ */
+public class SensorLog implements Closeable {
+
+    public static final int RECORD_SIZE = 48;
+
+    public static final int MAX_PAYLOAD = 24;
+
+    private static final int OFFSET_TIMESTAMP = 0;
+    private static final int OFFSET_DEVICE = 8;
+    private static final int OFFSET_CHARACTERISTIC = 12;
+    private static final int OFFSET_LENGTH = 16;
+    private static final int OFFSET_PAYLOAD = 20;
+    private static final int OFFSET_CRC = 44;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 15;
+    private static final int DEFAULT_MAX_SEGMENTS = 64;
+
+    /**
+     * One decoded record. The instance passed to a {@link Visitor} is reused for every record.
+     */
+    public static class Record {
+        public long timestamp;
+        public int device;
+        public int characteristic;
+        public int length;
+        public final byte[] payload = new byte[MAX_PAYLOAD];
+    }
+
+    public interface Visitor {
+        void onRecord(Record record);
+    }
+
+    private final File mDirectory;
+    private final int mRecordsPerSegment;
+    private final int mMaxSegments;
+
+    private final byte[] mScratch = new byte[RECORD_SIZE];
+    private final ByteBuffer mScratchBuffer = ByteBuffer.wrap(mScratch);
+    private final CRC32 mCrc = new CRC32();
+
+    private long mFirstSegment;
+    private long mSegment;
+    private MappedByteBuffer mMapped;
+    private boolean mClosed;
+
+    public SensorLog(File directory) throws IOException {
+        this(directory, DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public SensorLog(File directory, int recordsPerSegment, int maxSegments) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        mDirectory = directory;
+        mRecordsPerSegment = recordsPerSegment;
+        mMaxSegments = maxSegments;
+
+        long[] segments = listSegments(directory);
+        if (segments.length == 0) {
+            mFirstSegment = 0;
+            openSegment(0);
+        } else {
+            mFirstSegment = segments[0];
+            openSegment(segments[segments.length - 1]);
+            recoverTail();
+        }
+    }
+
+    /**
+     * Maps a characteristic UUID to the record's 32-bit ID. For Bluetooth SIG UUIDs this is the
+     * 16-bit assigned number.
+     */
+    public static int characteristicId(UUID uuid) {
+        return (int) (uuid.getMostSignificantBits() >>> 32);
+    }
+
+    /**
+     * Appends one record. Values longer than {@link #MAX_PAYLOAD} are truncated. Returns false if
+     * the log is closed.
+     */
+    public synchronized boolean append(long timestamp, int device, int characteristic,
+                                       byte[] value, int offset, int length) throws IOException {
+        if (mClosed) {
+            return false;
+        }
+        if (!mMapped.hasRemaining()) {
+            roll();
+        }
+        length = Math.min(length, MAX_PAYLOAD);
+        ByteBuffer record = mScratchBuffer;
+        record.putLong(OFFSET_TIMESTAMP, timestamp);
+        record.putInt(OFFSET_DEVICE, device);
+        record.putInt(OFFSET_CHARACTERISTIC, characteristic);
+        record.putShort(OFFSET_LENGTH, (short) length);
+        record.putShort(OFFSET_LENGTH + 2, (short) 0);
+        if (value != null) {
+            System.arraycopy(value, offset, mScratch, OFFSET_PAYLOAD, length);
+        }
+        Arrays.fill(mScratch, OFFSET_PAYLOAD + length, OFFSET_CRC, (byte) 0);
+        mCrc.reset();
+        mCrc.update(mScratch, 0, OFFSET_CRC);
+        record.putInt(OFFSET_CRC, (int) mCrc.getValue());
+        mMapped.put(mScratch);
+        return true;
+    }
+
+    /**
+     * Asks the kernel to write the current segment to storage.
+     */
+    public synchronized void flush() {
+        if (!mClosed) {
+            mMapped.force();
+        }
+    }
+
+    /**
+     * Visits every valid record, oldest first, while appends go on. A segment deleted to make
+     * room before it is reached is skipped. Returns the number of records visited.
+     */
+    public long replay(Visitor visitor) throws IOException {
+        long[] segments;
+        synchronized (this) {
+            segments = listSegments(mDirectory);
+        }
+        Record record = new Record();
+        byte[] scratch = new byte[RECORD_SIZE];
+        ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+        CRC32 crc = new CRC32();
+        long count = 0;
+        for (long segment : segments) {
+            RandomAccessFile file;
+            try {
+                file = new RandomAccessFile(segmentFile(segment), "r");
+            } catch (FileNotFoundException e) {
+                // Rolled out since it was listed; the records after it are still there.
+                continue;
+            }
+            try {
+                FileChannel channel = file.getChannel();
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (mapped.remaining() >= RECORD_SIZE) {
+                    mapped.get(scratch);
+                    if (!isValid(scratch, crc)) {
+                        break;
+                    }
+                    record.timestamp = scratchBuffer.getLong(OFFSET_TIMESTAMP);
+                    record.device = scratchBuffer.getInt(OFFSET_DEVICE);
+                    record.characteristic = scratchBuffer.getInt(OFFSET_CHARACTERISTIC);
+                    record.length = scratchBuffer.getShort(OFFSET_LENGTH);
+                    System.arraycopy(scratch, OFFSET_PAYLOAD, record.payload, 0, MAX_PAYLOAD);
+                    visitor.onRecord(record);
+                    count++;
+                }
+            } finally {
+                file.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of records written to the current segment.
+     */
+    public synchronized int getSegmentRecordCount() {
+        return mMapped.position() / RECORD_SIZE;
+    }
+
+    public synchronized long getSegment() {
+        return mSegment;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!mClosed) {
+            mClosed = true;
+            mMapped.force();
+        }
+    }
+
+    private void roll() throws IOException {
+        mMapped.force();
+        openSegment(mSegment + 1);
+        while (mSegment - mFirstSegment >= mMaxSegments) {
+            if (!segmentFile(mFirstSegment).delete()) {
+                break;
+            }
+            mFirstSegment++;
+        }
+    }
+
+    private void openSegment(long segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+        try {
+            mMapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    (long) mRecordsPerSegment * RECORD_SIZE);
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            file.close();
+        }
+        mSegment = segment;
+    }
+
+    private void recoverTail() {
+        CRC32 crc = new CRC32();
+        while (mMapped.hasRemaining()) {
+            int position = mMapped.position();
+            mMapped.get(mScratch);
+            if (!isValid(mScratch, crc)) {
+                // Clear the torn record and everything after it that reached storage. The rest
+                // is left alone, so a fresh segment is not written out in full.
+                int end = usedEnd(position);
+                mMapped.position(position);
+                Arrays.fill(mScratch, (byte) 0);
+                while (mMapped.position() < end) {
+                    mMapped.put(mScratch);
+                }
+                mMapped.position(position);
+                return;
+            }
+        }
+    }
+
+    // Returns the end of the last record at or after {@code from} that is not all zeros.
+    private int usedEnd(int from) {
+        for (int end = mMapped.limit(); end > from; end -= RECORD_SIZE) {
+            for (int i = end - RECORD_SIZE; i < end; i += 8) {
+                if (mMapped.getLong(i) != 0) {
+                    return end;
+                }
+            }
+        }
+        return from;
+    }
+
+    private static boolean isValid(byte[] record, CRC32 crc) {
+        crc.reset();
+        crc.update(record, 0, OFFSET_CRC);
+        int expected = (record[OFFSET_CRC] & 0xFF) << 24 | (record[OFFSET_CRC + 1] & 0xFF) << 16
+                | (record[OFFSET_CRC + 2] & 0xFF) << 8 | (record[OFFSET_CRC + 3] & 0xFF);
+        return (int) crc.getValue() == expected;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(mDirectory, String.format("%s%016d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static long[] listSegments(File directory) {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (names == null) {
+            return new long[0];
+        }
+        long[] segments = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            segments[i] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(),
+                    names[i].length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+}
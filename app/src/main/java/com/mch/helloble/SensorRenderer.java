@@ -0,0 +1,156 @@
+package com.mch.helloble;
+
+import android.view.Choreographer;
+import android.view.ViewTreeObserver;
+import android.widget.TextView;
+
+/**
+ * Keeps the latest reading and pushes it to the sensor views at most once per display frame.
+ * Views whose value did not change since the last frame are left alone. Main thread only.
+ */
+public class SensorRenderer implements Choreographer.FrameCallback {
+
+    private static final String LABEL_TEMPERATURE = "Temperature: \n";
+    private static final String LABEL_HUMIDITY = "Humility: \n";
+    private static final String LABEL_AIR_QUALITY = "Air Quality: \n";
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
+    private final TextView mTemperatureView;
+    private final TextView mHumidityView;
+    private final TextView mAirQualityView;
+
+    // Reused for every view; TextView copies the chars it is given.
+    private final char[] mText = new char[32];
+
+    private double mTemperature;
+    private int mHumidity;
+    private int mAirQuality;
+
+    private boolean mShown;
+    private double mShownTemperature;
+    private int mShownHumidity;
+    private int mShownAirQuality;
+
+    private boolean mFrameScheduled;
+
+    private long mUpdates;
+    private long mFrames;
+
+    private LatencyProbes mProbes;
+    private long mCallbackNanos;
+    private long mUpdateNanos;
+    private long mDrawCallbackNanos;
+    private long mTextSetNanos;
+
+    // Sees the frame that drew the new text; stays registered while probes are set, as draw
+    // listeners cannot remove themselves.
+    private final ViewTreeObserver.OnDrawListener mDrawListener = new ViewTreeObserver.OnDrawListener() {
+        @Override
+        public void onDraw() {
+            if (mProbes != null && mTextSetNanos != 0) {
+                long now = System.nanoTime();
+                mProbes.record(LatencyProbes.STAGE_DRAW, now - mTextSetNanos);
+                mProbes.record(LatencyProbes.STAGE_END_TO_END, now - mDrawCallbackNanos);
+                mTextSetNanos = 0;
+            }
+        }
+    };
+
+    public SensorRenderer(TextView temperatureView, TextView humidityView, TextView airQualityView) {
+        mTemperatureView = temperatureView;
+        mHumidityView = humidityView;
+        mAirQualityView = airQualityView;
+    }
+
+    /**
+     * Records the publish and draw stages into {@code probes}, or nothing if it is null.
+     */
+    public void setLatencyProbes(LatencyProbes probes) {
+        if (probes != null && mProbes == null) {
+            mTemperatureView.getViewTreeObserver().addOnDrawListener(mDrawListener);
+        } else if (probes == null && mProbes != null) {
+            mTemperatureView.getViewTreeObserver().removeOnDrawListener(mDrawListener);
+        }
+        mProbes = probes;
+        mCallbackNanos = 0;
+        mTextSetNanos = 0;
+    }
+
+    public void update(double temperature, int humidity, int airQuality) {
+        update(temperature, humidity, airQuality, 0);
+    }
+
+    /**
+     * Like {@link #update(double, int, int)}, for a value whose callback arrived at
+     * {@link GattEvent#callbackNanos}.
+     */
+    public void update(double temperature, int humidity, int airQuality, long callbackNanos) {
+        mTemperature = temperature;
+        mHumidity = humidity;
+        mAirQuality = airQuality;
+        mUpdates++;
+        if (mProbes != null) {
+            if (mFrameScheduled) {
+                mProbes.onCoalesced();
+            }
+            mCallbackNanos = callbackNanos;
+            mUpdateNanos = System.nanoTime();
+        }
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    public void stop() {
+        if (mFrameScheduled) {
+            mFrameScheduled = false;
+            mChoreographer.removeFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        mFrames++;
+        boolean changed = false;
+        if (!mShown || Double.compare(mTemperature, mShownTemperature) != 0) {
+            mShownTemperature = mTemperature;
+            int length = HexFormatter.string(LABEL_TEMPERATURE, mText, 0);
+            length = HexFormatter.fixed2((int) Math.round(mTemperature * 100), mText, length);
+            mTemperatureView.setText(mText, 0, length);
+            changed = true;
+        }
+        if (!mShown || mHumidity != mShownHumidity) {
+            mShownHumidity = mHumidity;
+            int length = HexFormatter.string(LABEL_HUMIDITY, mText, 0);
+            length = HexFormatter.decimal(mHumidity, mText, length);
+            mHumidityView.setText(mText, 0, length);
+            changed = true;
+        }
+        if (!mShown || mAirQuality != mShownAirQuality) {
+            mShownAirQuality = mAirQuality;
+            int length = HexFormatter.string(LABEL_AIR_QUALITY, mText, 0);
+            length = HexFormatter.decimal(mAirQuality, mText, length);
+            mAirQualityView.setText(mText, 0, length);
+            changed = true;
+        }
+        mShown = true;
+        if (mProbes != null && mCallbackNanos != 0) {
+            long now = System.nanoTime();
+            mProbes.record(LatencyProbes.STAGE_PUBLISH, now - mUpdateNanos);
+            // An unchanged value draws nothing, so it has no draw stage.
+            mTextSetNanos = changed ? now : 0;
+            mDrawCallbackNanos = mCallbackNanos;
+            mCallbackNanos = 0;
+        }
+    }
+
+    /**
+     * Returns how many updates were folded into an earlier frame instead of being drawn.
+     */
+    public long getCoalescedCount() {
+        return mUpdates - mFrames;
+    }
+}
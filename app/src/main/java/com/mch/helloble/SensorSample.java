@@ -0,0 +1,31 @@
+package com.mch.helloble;
+
+/**
+ * Mutable holder for one decoded {@code UUID_COMBINE_DATA_CHAR} reading. Instances are meant to
+ * be reused across notifications, so callers must copy the values they want to keep.
+ */
+public class SensorSample {
+
+    public double temperature;
+
+    public int humidity;
+
+    public int airQuality;
+
+    public void set(double temperature, int humidity, int airQuality) {
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.airQuality = airQuality;
+    }
+
+    public void copyFrom(SensorSample other) {
+        temperature = other.temperature;
+        humidity = other.humidity;
+        airQuality = other.airQuality;
+    }
+
+    @Override
+    public String toString() {
+        return "SensorSample{" + temperature + ", " + humidity + ", " + airQuality + "}";
+    }
+}
@@ -0,0 +1,337 @@
+package com.mch.helloble;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothManager;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Executor;
+
+/**
+ * Owns the GATT connections, so that they outlive the activities that show them. Lost links
+ * are reconnected in the background with backoff, and every value is logged and kept in the
+ * time series whether or not anyone is watching.
+ * <p>
+ * Started with {@link #connectIntent(Context, String)}, it runs in the foreground until the
+ * user disconnects from its notification. Activities bind to it only to observe and to queue
+ * commands.
+ */
+public class SensorService extends Service {
+
+    public static final String TAG = "SensorService";
+
+    public static final String ACTION_CONNECT = "com.mch.helloble.action.CONNECT";
+
+    public static final String ACTION_DISCONNECT_ALL = "com.mch.helloble.action.DISCONNECT_ALL";
+
+    public static final String EXTRA_ADDRESS = "address";
+
+    private static final String CHANNEL_ID = "connections";
+
+    private static final int NOTIFICATION_ID = 1;
+
+    private static final int MAX_CONCURRENT_CONNECTS = 2;
+
+    private static final int MAX_CONCURRENT_DISCOVERIES = 1;
+
+    private static final String SENSOR_LOG_DIR = "sensor-log";
+
+    private static final String SERVICE_CACHE_DIR = "gatt";
+
+    private static final long WINDOW_SHORT = 60 * 1000;
+
+    private static final long WINDOW_LONG = 15 * 60 * 1000;
+
+    public static Intent connectIntent(Context context, String address) {
+        return new Intent(context, SensorService.class).setAction(ACTION_CONNECT).putExtra(EXTRA_ADDRESS, address);
+    }
+
+    public class LocalBinder extends Binder {
+        public SensorService getService() {
+            return SensorService.this;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private ConnectionManager mConnectionManager;
+
+    private final TimeSeriesStore mTimeSeriesStore = new TimeSeriesStore();
+
+    private final ReadingPublisher mReadings = new ReadingPublisher();
+
+    private final WindowAggregator mAggregator = new WindowAggregator(WINDOW_SHORT, WINDOW_LONG);
+
+    private SensorLog mSensorLog;
+
+    private boolean mForeground;
+
+    private LinkProfile mLinkProfile = LinkProfile.BALANCED;
+
+    private LatencyProbes mLatencyProbes;
+
+    private RecentDevices mRecentDevices;
+
+    private PollScheduler mPoller;
+
+    private final GattEventBus.Listener mRecorder = new GattEventBus.Listener() {
+        @Override
+        public void onGattEvent(GattEvent event) {
+            switch (event.type) {
+                case GattEvent.TYPE_DATA_AVAILABLE:
+                    long now = System.currentTimeMillis();
+                    if (event.hasSample) {
+                        mTimeSeriesStore.append(event.address, now, event.sample);
+                        mAggregator.add(event.address, now, event.sample);
+                        mRecentDevices.onReading(event.address, event.value, event.valueLength, now);
+                        mReadings.publish(event.address, now, event.sample.temperature, event.sample.humidity,
+                                event.sample.airQuality);
+                    }
+                    break;
+                case GattEvent.TYPE_DISCONNECTED:
+                case GattEvent.TYPE_SERVICES_DISCOVERED:
+                    updateNotification();
+                    break;
+            }
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        mConnectionManager = new ConnectionManager(
+                new AndroidGattConnector(this, bluetoothManager.getAdapter()),
+                new HandlerScheduler(mHandler),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        mHandler.post(command);
+                    }
+                },
+                MAX_CONCURRENT_CONNECTS, MAX_CONCURRENT_DISCOVERIES);
+        mPoller = new PollScheduler(new HandlerScheduler(mHandler), new PollScheduler.Queues() {
+            @Override
+            public GattCommandQueue getQueue(String address) {
+                return mConnectionManager.getQueue(address);
+            }
+        });
+        mConnectionManager.setServiceCache(new GattServiceCache(new File(getCacheDir(), SERVICE_CACHE_DIR)));
+        mConnectionManager.setReconnectPolicy(new ReconnectPolicy());
+        mConnectionManager.setLinkProfile(mLinkProfile);
+        mRecentDevices = RecentDevices.forFile(new File(getFilesDir(), RecentDevices.FILE_NAME));
+        mConnectionManager.addListener(mRecorder);
+
+        try {
+            mSensorLog = new SensorLog(new File(getFilesDir(), SENSOR_LOG_DIR));
+            mConnectionManager.setSensorLog(mSensorLog);
+        } catch (IOException e) {
+            Log.e(TAG, "onCreate: cannot open sensor log", e);
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent == null ? null : intent.getAction();
+        if (ACTION_CONNECT.equals(action)) {
+            startForeground(NOTIFICATION_ID, buildNotification());
+            mForeground = true;
+            mConnectionManager.connect(intent.getStringExtra(EXTRA_ADDRESS));
+        } else if (ACTION_DISCONNECT_ALL.equals(action)) {
+            mPoller.clear();
+            mConnectionManager.disconnectAll();
+            stopForeground(true);
+            mForeground = false;
+            stopSelf();
+        }
+        // Brought back after being killed, the last connect request is delivered again.
+        return START_REDELIVER_INTENT;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        mConnectionManager.removeListener(mRecorder);
+        mPoller.clear();
+        mConnectionManager.disconnectAll();
+        mConnectionManager.setSensorLog(null);
+        if (mSensorLog != null) {
+            mSensorLog.close();
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mRecentDevices.save();
+                } catch (IOException e) {
+                    Log.w(TAG, "onDestroy: cannot save recent devices", e);
+                }
+            }
+        }, "save-recent-devices").start();
+    }
+
+    public ConnectionManager getConnectionManager() {
+        return mConnectionManager;
+    }
+
+    /**
+     * Returns the scheduler of periodic reads. Values read show up as data events like any
+     * other read.
+     */
+    public PollScheduler getPollScheduler() {
+        return mPoller;
+    }
+
+    public LinkProfile getLinkProfile() {
+        return mLinkProfile;
+    }
+
+    /**
+     * Tunes links that connect from now on with {@code profile}. Use
+     * {@link ConnectionManager#applyLinkProfile} to retune a live link.
+     */
+    public void setLinkProfile(LinkProfile profile) {
+        mLinkProfile = profile;
+        mConnectionManager.setLinkProfile(profile);
+    }
+
+    /**
+     * Returns the probes recording every value's latency, or null while they are off.
+     */
+    public LatencyProbes getLatencyProbes() {
+        return mLatencyProbes;
+    }
+
+    /**
+     * Turns latency probes on with empty histograms, or off.
+     */
+    public LatencyProbes setLatencyProbesEnabled(boolean enabled) {
+        mLatencyProbes = enabled ? new LatencyProbes() : null;
+        mConnectionManager.setLatencyProbes(mLatencyProbes);
+        return mLatencyProbes;
+    }
+
+    /**
+     * Writes the histograms to a new file under the app's external files, where
+     * {@code adb pull} can reach it, and returns the file.
+     */
+    public File dumpLatencyProbes() throws IOException {
+        if (mLatencyProbes == null) {
+            throw new IOException("latency probes are off");
+        }
+        File file = new File(exportDirectory(), "latency-" + System.currentTimeMillis() + ".txt");
+        Writer out = new FileWriter(file);
+        try {
+            out.write(mLatencyProbes.dump());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Writes every combined reading in the sensor log to a new file next to the latency dumps,
+     * compressed or as CSV, and returns the file. Slow for long logs; call it off the main
+     * thread.
+     */
+    public File exportReadings(boolean csv) throws IOException {
+        if (mSensorLog == null) {
+            throw new IOException("no sensor log");
+        }
+        File file = new File(exportDirectory(), "readings-" + System.currentTimeMillis() + (csv ? ".csv" : ".blex"));
+        FileOutputStream out = new FileOutputStream(file);
+        SessionExporter exporter;
+        try {
+            exporter = new SessionExporter(out.getChannel(),
+                    csv ? SessionExporter.FORMAT_CSV : SessionExporter.FORMAT_COMPRESSED);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        try {
+            exporter.export(mSensorLog);
+        } finally {
+            exporter.close();
+        }
+        return file;
+    }
+
+    /**
+     * Returns the decoded readings of every device, for consumers that must not hold up the
+     * main thread or each other.
+     */
+    public ReadingPublisher getReadingPublisher() {
+        return mReadings;
+    }
+
+    /**
+     * Returns the 1 and 15 minute statistics of every device; windows 0 and 1 respectively.
+     * Add rules and query it on the main thread.
+     */
+    public WindowAggregator getWindowAggregator() {
+        return mAggregator;
+    }
+
+    public TimeSeriesStore getTimeSeriesStore() {
+        return mTimeSeriesStore;
+    }
+
+    // Where adb pull can reach without root.
+    private File exportDirectory() {
+        File directory = getExternalFilesDir(null);
+        return directory != null ? directory : getFilesDir();
+    }
+
+    private void updateNotification() {
+        if (!mForeground) {
+            return;
+        }
+        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(NOTIFICATION_ID, buildNotification());
+    }
+
+    private Notification buildNotification() {
+        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.channel_connections), NotificationManager.IMPORTANCE_LOW));
+        }
+        PendingIntent disconnect = PendingIntent.getService(this, 0,
+                new Intent(this, SensorService.class).setAction(ACTION_DISCONNECT_ALL),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.notification_connections,
+                        mConnectionManager.getReadyCount(), mConnectionManager.getConnectionCount()))
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .addAction(0, getString(R.string.action_disconnect_all), disconnect)
+                .build();
+    }
+}
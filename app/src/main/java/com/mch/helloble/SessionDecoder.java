@@ -0,0 +1,217 @@
+package com.mch.helloble;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads what {@link SessionExporter} wrote in {@link SessionExporter#FORMAT_COMPRESSED}, one
+ * block at a time through a fixed-size buffer.
+ */
+public class SessionDecoder {
+
+    public interface Visitor {
+        void onReading(long timestamp, int device, int rawTemperature, int rawHumidity, int airQuality);
+    }
+
+    /**
+     * Reads bits most significant first from a byte array.
+     */
+    static class BitReader {
+        byte[] bytes;
+        int length;
+        int position;
+        private long mPending;
+        private int mPendingBits;
+
+        void reset(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.length = offset + length;
+            position = offset;
+            mPending = 0;
+            mPendingBits = 0;
+        }
+
+        long read(int bits) throws IOException {
+            if (bits > 32) {
+                long high = read(bits - 32);
+                return high << 32 | read(32);
+            }
+            while (mPendingBits < bits) {
+                if (position >= length) {
+                    throw new EOFException("block ends inside a record");
+                }
+                mPending = mPending << 8 | (bytes[position++] & 0xff);
+                mPendingBits += 8;
+            }
+            mPendingBits -= bits;
+            return (mPending >>> mPendingBits) & (-1L >>> (64 - bits));
+        }
+
+        boolean readBit() throws IOException {
+            return read(1) != 0;
+        }
+    }
+
+    private final ReadableByteChannel mChannel;
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(SessionExporter.BLOCK_SIZE);
+
+    private final BitReader mBits = new BitReader();
+
+    private final int[] mDevices = new int[SessionExporter.DEVICE_SLOTS];
+    private final long[] mLastTimestamp = new long[SessionExporter.DEVICE_SLOTS];
+    private final long[] mLastDelta = new long[SessionExporter.DEVICE_SLOTS];
+    private final int[][] mLastValues = new int[SessionExporter.DEVICE_SLOTS][SessionExporter.FIELDS];
+
+    private long mBlocks;
+
+    public SessionDecoder(ReadableByteChannel channel) throws IOException {
+        mChannel = channel;
+        mBuffer.limit(0);
+        if (!fill(8)) {
+            throw new EOFException("empty session export");
+        }
+        if (mBuffer.getInt() != SessionExporter.MAGIC) {
+            throw new IOException("not a session export");
+        }
+        int version = mBuffer.getInt();
+        if (version != SessionExporter.VERSION) {
+            throw new IOException("unsupported session export version " + version);
+        }
+    }
+
+    /**
+     * Visits every reading up to the end of the channel. Returns the number visited.
+     */
+    public long readAll(Visitor visitor) throws IOException {
+        long count = 0;
+        int records;
+        while ((records = readBlock(visitor)) >= 0) {
+            count += records;
+        }
+        return count;
+    }
+
+    public long getBlockCount() {
+        return mBlocks;
+    }
+
+    /**
+     * Visits the readings of the next block and returns how many there were, or -1 at the end
+     * of the channel.
+     */
+    public int readBlock(Visitor visitor) throws IOException {
+        if (!fill(SessionExporter.BLOCK_HEADER_SIZE)) {
+            return -1;
+        }
+        int length = mBuffer.getInt();
+        int records = mBuffer.getInt();
+        if (length < 0 || length > SessionExporter.BLOCK_SIZE - SessionExporter.BLOCK_HEADER_SIZE) {
+            throw new IOException("bad block length " + length);
+        }
+        if (!fill(length)) {
+            throw new EOFException("truncated block");
+        }
+        mBits.reset(mBuffer.array(), mBuffer.position(), length);
+        mBuffer.position(mBuffer.position() + length);
+        decode(records, visitor);
+        mBlocks++;
+        return records;
+    }
+
+    private void decode(int records, Visitor visitor) throws IOException {
+        BitReader bits = mBits;
+        int slotCount = 0;
+        int nextSlot = 0;
+        int slot = 0;
+        for (int r = 0; r < records; r++) {
+            if (!bits.readBit()) {
+                // Same device as the previous reading.
+            } else if (!bits.readBit()) {
+                slot = (int) bits.read(SessionExporter.SLOT_BITS);
+                if (slot >= slotCount) {
+                    throw new IOException("unknown device slot " + slot);
+                }
+            } else {
+                slot = nextSlot;
+                nextSlot = (nextSlot + 1) % SessionExporter.DEVICE_SLOTS;
+                slotCount = Math.min(slotCount + 1, SessionExporter.DEVICE_SLOTS);
+                mDevices[slot] = (int) bits.read(32);
+                mLastTimestamp[slot] = bits.read(64);
+                mLastDelta[slot] = 0;
+                int[] values = mLastValues[slot];
+                for (int i = 0; i < SessionExporter.FIELDS; i++) {
+                    values[i] = (int) bits.read(16);
+                }
+                visitor.onReading(mLastTimestamp[slot], mDevices[slot], values[0], values[1], values[2]);
+                continue;
+            }
+            if (r == 0) {
+                throw new IOException("block starts without a device");
+            }
+            long delta = mLastDelta[slot] + unzigzag(readDeltaOfDelta(bits));
+            mLastTimestamp[slot] += delta;
+            mLastDelta[slot] = delta;
+            int[] values = mLastValues[slot];
+            for (int i = 0; i < SessionExporter.FIELDS; i++) {
+                values[i] += (int) unzigzag(readValueDelta(bits));
+            }
+            visitor.onReading(mLastTimestamp[slot], mDevices[slot], values[0], values[1], values[2]);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader bits) throws IOException {
+        if (!bits.readBit()) {
+            return 0;
+        }
+        if (!bits.readBit()) {
+            return bits.read(7);
+        }
+        if (!bits.readBit()) {
+            return bits.read(9);
+        }
+        if (!bits.readBit()) {
+            return bits.read(12);
+        }
+        return bits.readBit() ? bits.read(64) : bits.read(32);
+    }
+
+    private static long readValueDelta(BitReader bits) throws IOException {
+        if (!bits.readBit()) {
+            return 0;
+        }
+        if (!bits.readBit()) {
+            return bits.read(4);
+        }
+        return bits.readBit() ? bits.read(17) : bits.read(8);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Makes {@code bytes} readable at the buffer's position, compacting and reading from the
+     * channel as needed. Returns false if the channel ended before any of them arrived.
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (mBuffer.remaining() >= bytes) {
+            return true;
+        }
+        mBuffer.compact();
+        while (mBuffer.position() < bytes) {
+            if (mChannel.read(mBuffer) < 0) {
+                boolean empty = mBuffer.position() == 0;
+                mBuffer.flip();
+                if (empty) {
+                    return false;
+                }
+                throw new EOFException("truncated session export");
+            }
+        }
+        mBuffer.flip();
+        return true;
+    }
+}
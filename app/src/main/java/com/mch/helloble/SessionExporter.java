@@ -0,0 +1,368 @@
+package com.mch.helloble;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams combined sensor readings to a channel, either compressed or as CSV, through one
+ * fixed-size buffer however long the session is.
+ * <p>
+ * The compressed format is a header followed by independently decodable blocks of at most
+ * {@link #BLOCK_SIZE} bytes. Within a block every device keeps its own state: timestamps are
+ * stored as the zigzag delta of their delta, bit-packed so that a steady notification interval
+ * costs one bit, and the three raw 16-bit fields as zigzag deltas from the device's previous
+ * reading, so that an unchanged value also costs one bit. {@link SessionDecoder} reads it back.
+ */
+public class SessionExporter implements Closeable {
+
+    public static final int FORMAT_COMPRESSED = 0;
+    public static final int FORMAT_CSV = 1;
+
+    static final int MAGIC = 0x424c4558;
+
+    static final int VERSION = 1;
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    static final int BLOCK_HEADER_SIZE = 8;
+
+    // Devices a block keeps state for; a further device replaces the oldest slot.
+    static final int DEVICE_SLOTS = 16;
+
+    static final int SLOT_BITS = 4;
+
+    static final int FIELDS = 3;
+
+    // Device 34 bits, timestamp 69, fields 3 x 20, rounded up.
+    private static final int MAX_RECORD_BYTES = 24;
+
+    private static final String CSV_HEADER = "timestamp,device,temperature,humidity,air_quality\n";
+
+    // Longest CSV line: 20 + 11 + 7 + 7 + 5 digits and signs, separators.
+    private static final int MAX_CSV_LINE = 64;
+
+    private final WritableByteChannel mChannel;
+
+    private final int mFormat;
+
+    private final ByteBuffer mBuffer;
+
+    private final BitWriter mBits;
+
+    private final char[] mLine = new char[MAX_CSV_LINE];
+
+    private final int[] mDevices = new int[DEVICE_SLOTS];
+    private final long[] mLastTimestamp = new long[DEVICE_SLOTS];
+    private final long[] mLastDelta = new long[DEVICE_SLOTS];
+    private final int[][] mLastValues = new int[DEVICE_SLOTS][FIELDS];
+    private final int[] mValues = new int[FIELDS];
+    private int mSlotCount;
+    private int mNextSlot;
+    private int mLastSlot;
+    private int mBlockRecords;
+
+    private long mRecords;
+    private long mBytesWritten;
+    private boolean mClosed;
+
+    /**
+     * Packs bits most significant first into a byte array.
+     */
+    static class BitWriter {
+        final byte[] bytes;
+        int length;
+        private long mPending;
+        private int mPendingBits;
+
+        BitWriter(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        void write(long value, int bits) {
+            if (bits > 32) {
+                write(value >>> 32, bits - 32);
+                bits = 32;
+            }
+            mPending = mPending << bits | (value & (-1L >>> (64 - bits)));
+            mPendingBits += bits;
+            while (mPendingBits >= 8) {
+                mPendingBits -= 8;
+                bytes[length++] = (byte) (mPending >>> mPendingBits);
+            }
+        }
+
+        int byteLength() {
+            return length + (mPendingBits > 0 ? 1 : 0);
+        }
+
+        /**
+         * Pads the last byte with zeros.
+         */
+        void finish() {
+            if (mPendingBits > 0) {
+                bytes[length++] = (byte) (mPending << (8 - mPendingBits));
+                mPendingBits = 0;
+            }
+        }
+
+        void reset() {
+            length = 0;
+            mPending = 0;
+            mPendingBits = 0;
+        }
+    }
+
+    public SessionExporter(WritableByteChannel channel, int format) throws IOException {
+        mChannel = channel;
+        mFormat = format;
+        mBuffer = ByteBuffer.allocate(BLOCK_SIZE);
+        if (format == FORMAT_COMPRESSED) {
+            mBits = new BitWriter(new byte[BLOCK_SIZE - BLOCK_HEADER_SIZE]);
+            mBuffer.putInt(MAGIC).putInt(VERSION);
+            drain();
+        } else {
+            mBits = null;
+            for (int i = 0; i < CSV_HEADER.length(); i++) {
+                mBuffer.put((byte) CSV_HEADER.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Writes one reading of the combined characteristic from its raw fields.
+     */
+    public void write(long timestamp, int device, int rawTemperature, int rawHumidity, int airQuality)
+            throws IOException {
+        if (mClosed) {
+            throw new IOException("exporter is closed");
+        }
+        if (mFormat == FORMAT_CSV) {
+            writeCsv(timestamp, device, rawTemperature, rawHumidity, airQuality);
+        } else {
+            mValues[0] = rawTemperature;
+            mValues[1] = rawHumidity;
+            mValues[2] = airQuality;
+            writeCompressed(timestamp, device);
+        }
+        mRecords++;
+    }
+
+    /**
+     * Writes a {@link SensorLog} record if it holds a combined reading. Returns false for any
+     * other characteristic.
+     */
+    public boolean write(SensorLog.Record record) throws IOException {
+        if (record.characteristic != SensorLog.characteristicId(CombinedDataDecoder.CHARACTERISTIC)
+                || record.length < CombinedDataDecoder.PAYLOAD_LENGTH) {
+            return false;
+        }
+        write(record.timestamp, record.device, CombinedDataDecoder.uint16(record.payload, 0),
+                CombinedDataDecoder.uint16(record.payload, 2), CombinedDataDecoder.uint16(record.payload, 4));
+        return true;
+    }
+
+    /**
+     * Replays {@code log} into this exporter. Returns the number of readings written.
+     */
+    public long export(SensorLog log) throws IOException {
+        final IOException[] failure = new IOException[1];
+        long before = mRecords;
+        log.replay(new SensorLog.Visitor() {
+            @Override
+            public void onRecord(SensorLog.Record record) {
+                if (failure[0] == null) {
+                    try {
+                        write(record);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return mRecords - before;
+    }
+
+    public long getRecordCount() {
+        return mRecords;
+    }
+
+    /**
+     * Returns the bytes handed to the channel so far; complete only after {@link #finish()}.
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Writes out everything buffered. The channel stays open.
+     */
+    public void finish() throws IOException {
+        if (mFormat == FORMAT_COMPRESSED) {
+            flushBlock();
+        } else {
+            drain();
+        }
+    }
+
+    /**
+     * Finishes and closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        try {
+            finish();
+        } finally {
+            mClosed = true;
+            mChannel.close();
+        }
+    }
+
+    private void writeCompressed(long timestamp, int device) throws IOException {
+        if (mBits.bytes.length - mBits.byteLength() < MAX_RECORD_BYTES) {
+            flushBlock();
+        }
+        BitWriter bits = mBits;
+        int slot = findSlot(device);
+        if (slot == mLastSlot && mBlockRecords > 0) {
+            bits.write(0, 1);
+        } else if (slot >= 0) {
+            bits.write(0b10, 2);
+            bits.write(slot, SLOT_BITS);
+        } else {
+            bits.write(0b11, 2);
+            bits.write(device, 32);
+            slot = mNextSlot;
+            mNextSlot = (mNextSlot + 1) % DEVICE_SLOTS;
+            mSlotCount = Math.min(mSlotCount + 1, DEVICE_SLOTS);
+            mDevices[slot] = device;
+            // The first reading of a device in a block is stored whole.
+            bits.write(timestamp, 64);
+            for (int i = 0; i < FIELDS; i++) {
+                bits.write(mValues[i], 16);
+                mLastValues[slot][i] = mValues[i];
+            }
+            mLastTimestamp[slot] = timestamp;
+            mLastDelta[slot] = 0;
+            mLastSlot = slot;
+            mBlockRecords++;
+            return;
+        }
+        long delta = timestamp - mLastTimestamp[slot];
+        writeDeltaOfDelta(bits, zigzag(delta - mLastDelta[slot]));
+        mLastTimestamp[slot] = timestamp;
+        mLastDelta[slot] = delta;
+        int[] last = mLastValues[slot];
+        for (int i = 0; i < FIELDS; i++) {
+            writeValueDelta(bits, zigzag(mValues[i] - last[i]));
+            last[i] = mValues[i];
+        }
+        mLastSlot = slot;
+        mBlockRecords++;
+    }
+
+    private int findSlot(int device) {
+        if (mBlockRecords > 0 && mDevices[mLastSlot] == device) {
+            return mLastSlot;
+        }
+        for (int i = 0; i < mSlotCount; i++) {
+            if (mDevices[i] == device) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 0 | 10 + 7 bits | 110 + 9 | 1110 + 12 | 11110 + 32 | 11111 + 64, of the zigzag value.
+    private static void writeDeltaOfDelta(BitWriter bits, long value) {
+        if (value == 0) {
+            bits.write(0, 1);
+        } else if (value < 1 << 7) {
+            bits.write(0b10, 2);
+            bits.write(value, 7);
+        } else if (value < 1 << 9) {
+            bits.write(0b110, 3);
+            bits.write(value, 9);
+        } else if (value < 1 << 12) {
+            bits.write(0b1110, 4);
+            bits.write(value, 12);
+        } else if (value < 1L << 32) {
+            bits.write(0b11110, 5);
+            bits.write(value, 32);
+        } else {
+            bits.write(0b11111, 5);
+            bits.write(value, 64);
+        }
+    }
+
+    // 0 | 10 + 4 bits | 110 + 8 | 111 + 17, of the zigzag value.
+    private static void writeValueDelta(BitWriter bits, long value) {
+        if (value == 0) {
+            bits.write(0, 1);
+        } else if (value < 1 << 4) {
+            bits.write(0b10, 2);
+            bits.write(value, 4);
+        } else if (value < 1 << 8) {
+            bits.write(0b110, 3);
+            bits.write(value, 8);
+        } else {
+            bits.write(0b111, 3);
+            bits.write(value, 17);
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void flushBlock() throws IOException {
+        if (mBlockRecords == 0) {
+            return;
+        }
+        mBits.finish();
+        mBuffer.clear();
+        mBuffer.putInt(mBits.length).putInt(mBlockRecords).put(mBits.bytes, 0, mBits.length);
+        drain();
+        mBits.reset();
+        mBlockRecords = 0;
+        mSlotCount = 0;
+        mNextSlot = 0;
+        mLastSlot = 0;
+    }
+
+    private void drain() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mBytesWritten += mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+
+    private void writeCsv(long timestamp, int device, int rawTemperature, int rawHumidity, int airQuality)
+            throws IOException {
+        if (mBuffer.remaining() < MAX_CSV_LINE) {
+            drain();
+        }
+        char[] line = mLine;
+        int pos = HexFormatter.decimal(timestamp, line, 0);
+        line[pos++] = ',';
+        pos = HexFormatter.decimal(device, line, pos);
+        line[pos++] = ',';
+        pos = HexFormatter.fixed2(CombinedDataDecoder.centiCelsius(rawTemperature), line, pos);
+        line[pos++] = ',';
+        pos = HexFormatter.fixed2(rawHumidity, line, pos);
+        line[pos++] = ',';
+        pos = HexFormatter.decimal(airQuality, line, pos);
+        line[pos++] = '\n';
+        for (int i = 0; i < pos; i++) {
+            mBuffer.put((byte) line[i]);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.mch.helloble;
+
+import java.util.Arrays;
+
+/**
+ * Mean, minimum and maximum of one field over the last {@code duration} milliseconds, updated
+ * in O(1) amortized time per sample with no allocation after construction.
+ * <p>
+ * The window is split into a fixed number of buckets, each holding the sum, count, min and max
+ * of its samples, and slides a whole bucket at a time. A running sum over the buckets gives the
+ * mean; a monotonic deque of bucket numbers per extreme, each deque ordered by time and by value,
+ * gives the minimum and maximum from its front. Memory depends on the bucket count, not on the
+ * sample rate. Times must not be negative. Not thread-safe.
+ */
+public class SlidingWindow {
+
+    private final long mDuration;
+
+    private final long mBucketMillis;
+
+    private final int mBuckets;
+
+    private final double[] mSum;
+    private final int[] mCount;
+    private final double[] mMin;
+    private final double[] mMax;
+
+    // Rings of bucket numbers: oldest at the head, the current bucket possibly at the tail.
+    private final long[] mMinQueue;
+    private final long[] mMaxQueue;
+    private int mMinHead;
+    private int mMinSize;
+    private int mMaxHead;
+    private int mMaxSize;
+
+    private long mCurrent = -1;
+
+    private double mTotal;
+
+    private int mTotalCount;
+
+    public SlidingWindow(long durationMillis, int buckets) {
+        if (buckets <= 0 || durationMillis < buckets || durationMillis % buckets != 0) {
+            throw new IllegalArgumentException("duration " + durationMillis + " ms in " + buckets + " buckets");
+        }
+        mDuration = durationMillis;
+        mBucketMillis = durationMillis / buckets;
+        mBuckets = buckets;
+        mSum = new double[buckets];
+        mCount = new int[buckets];
+        mMin = new double[buckets];
+        mMax = new double[buckets];
+        mMinQueue = new long[buckets];
+        mMaxQueue = new long[buckets];
+    }
+
+    public long getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * Adds a sample. A sample older than the newest one counts towards the newest bucket.
+     */
+    public void add(long time, double value) {
+        expire(time);
+        int slot = (int) (mCurrent % mBuckets);
+        mSum[slot] += value;
+        mTotal += value;
+        mTotalCount++;
+        if (mCount[slot]++ == 0) {
+            mMin[slot] = value;
+            mMax[slot] = value;
+            pushMin(value);
+            pushMax(value);
+            return;
+        }
+        if (value < mMin[slot]) {
+            mMin[slot] = value;
+            pushMin(value);
+        }
+        if (value > mMax[slot]) {
+            mMax[slot] = value;
+            pushMax(value);
+        }
+    }
+
+    /**
+     * Slides the window forward to {@code time}, dropping the buckets that fall out of it.
+     */
+    public void expire(long time) {
+        long bucket = time / mBucketMillis;
+        if (bucket <= mCurrent) {
+            return;
+        }
+        if (mCurrent < 0 || bucket - mCurrent >= mBuckets) {
+            clear();
+            mCurrent = bucket;
+            return;
+        }
+        while (mCurrent < bucket) {
+            mCurrent++;
+            int slot = (int) (mCurrent % mBuckets);
+            if (slot == 0) {
+                // Subtracting evicted sums lets rounding errors pile up; start over once a lap.
+                mTotal = 0;
+                for (int i = 1; i < mBuckets; i++) {
+                    mTotal += mSum[i];
+                }
+            } else {
+                mTotal -= mSum[slot];
+            }
+            mTotalCount -= mCount[slot];
+            mSum[slot] = 0;
+            mCount[slot] = 0;
+        }
+        long oldest = mCurrent - mBuckets + 1;
+        while (mMinSize > 0 && mMinQueue[mMinHead] < oldest) {
+            mMinHead = (mMinHead + 1) % mBuckets;
+            mMinSize--;
+        }
+        while (mMaxSize > 0 && mMaxQueue[mMaxHead] < oldest) {
+            mMaxHead = (mMaxHead + 1) % mBuckets;
+            mMaxSize--;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mSum, 0);
+        Arrays.fill(mCount, 0);
+        mMinSize = 0;
+        mMaxSize = 0;
+        mTotal = 0;
+        mTotalCount = 0;
+        mCurrent = -1;
+    }
+
+    public int getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Returns the mean, or NaN if the window is empty.
+     */
+    public double getMean() {
+        return mTotalCount == 0 ? Double.NaN : mTotal / mTotalCount;
+    }
+
+    public double getMin() {
+        return mMinSize == 0 ? Double.NaN : mMin[(int) (mMinQueue[mMinHead] % mBuckets)];
+    }
+
+    public double getMax() {
+        return mMaxSize == 0 ? Double.NaN : mMax[(int) (mMaxQueue[mMaxHead] % mBuckets)];
+    }
+
+    // Buckets at the tail whose minimum is no lower can never be the minimum again.
+    private void pushMin(double value) {
+        while (mMinSize > 0) {
+            long tail = mMinQueue[(mMinHead + mMinSize - 1) % mBuckets];
+            if (tail == mCurrent || mMin[(int) (tail % mBuckets)] >= value) {
+                mMinSize--;
+            } else {
+                break;
+            }
+        }
+        mMinQueue[(mMinHead + mMinSize) % mBuckets] = mCurrent;
+        mMinSize++;
+    }
+
+    private void pushMax(double value) {
+        while (mMaxSize > 0) {
+            long tail = mMaxQueue[(mMaxHead + mMaxSize - 1) % mBuckets];
+            if (tail == mCurrent || mMax[(int) (tail % mBuckets)] <= value) {
+                mMaxSize--;
+            } else {
+                break;
+            }
+        }
+        mMaxQueue[(mMaxHead + mMaxSize) % mBuckets] = mCurrent;
+        mMaxSize++;
+    }
+
+    @Override
+    public String toString() {
+        return "SlidingWindow{" + mDuration + " ms, n=" + mTotalCount + ", mean=" + getMean() + ", min=" + getMin()
+                + ", max=" + getMax() + "}";
+    }
+}
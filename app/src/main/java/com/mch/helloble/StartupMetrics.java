@@ -0,0 +1,93 @@
+package com.mch.helloble;
+
+import java.util.Locale;
+
+/**
+ * Milestones of a cold start, each the time from {@code onCreate} to the first time it was
+ * reached. Later marks of a milestone are ignored, so the callers need not track whether it
+ * already happened. Times come from the caller, e.g. {@code SystemClock.uptimeMillis()}.
+ */
+public class StartupMetrics {
+
+    /**
+     * The recent devices from the snapshot are in the list.
+     */
+    public static final int MARK_RECENT_SHOWN = 0;
+    public static final int MARK_FIRST_FRAME = 1;
+    public static final int MARK_PERMISSION_GRANTED = 2;
+    public static final int MARK_BLUETOOTH_READY = 3;
+    public static final int MARK_SCAN_STARTED = 4;
+    /**
+     * The first advertisement arrived, whether from a recent device or a new one.
+     */
+    public static final int MARK_FIRST_LIVE_DEVICE = 5;
+
+    private static final String[] NAMES = {
+            "recent-shown", "first-frame", "permission", "bluetooth-ready", "scan-started", "first-live-device"};
+
+    public static final int NOT_REACHED = -1;
+
+    private final long mCreated;
+
+    private final long[] mMarks = new long[NAMES.length];
+
+    private int mRecentDevices;
+
+    public StartupMetrics(long created) {
+        mCreated = created;
+        for (int i = 0; i < mMarks.length; i++) {
+            mMarks[i] = NOT_REACHED;
+        }
+    }
+
+    /**
+     * Records {@code milestone} at {@code now} unless it was reached before. Returns whether
+     * this was the first time.
+     */
+    public boolean mark(int milestone, long now) {
+        if (mMarks[milestone] != NOT_REACHED) {
+            return false;
+        }
+        mMarks[milestone] = Math.max(0, now - mCreated);
+        return true;
+    }
+
+    public boolean isReached(int milestone) {
+        return mMarks[milestone] != NOT_REACHED;
+    }
+
+    /**
+     * Returns the milliseconds from creation to {@code milestone}, or {@link #NOT_REACHED}.
+     */
+    public long get(int milestone) {
+        return mMarks[milestone];
+    }
+
+    public void setRecentDevices(int count) {
+        mRecentDevices = count;
+    }
+
+    public String summary() {
+        StringBuilder summary = new StringBuilder("startup:");
+        for (int i = 0; i < mMarks.length; i++) {
+            summary.append(' ').append(NAMES[i]).append(' ');
+            if (mMarks[i] == NOT_REACHED) {
+                summary.append('-');
+            } else {
+                summary.append(mMarks[i]).append(" ms");
+            }
+            if (i == MARK_RECENT_SHOWN) {
+                summary.append(String.format(Locale.US, " (%d devices)", mRecentDevices));
+            }
+            if (i < mMarks.length - 1) {
+                summary.append(',');
+            }
+        }
+        return summary.toString();
+    }
+
+    @Override
+    public String toString() {
+        return summary();
+    }
+}
@@ -0,0 +1,238 @@
+package com.mch.helloble;
+
+import android.bluetooth.BluetoothGattDescriptor;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.Spinner;
+import android.widget.TextView;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Measures sustained notification throughput of one characteristic under each
+ * {@link LinkProfile} in turn. Each profile gets a few seconds to settle, since the MTU,
+ * interval and PHY updates take a few connection events, before it is measured.
+ * <p>
+ * The spinner picks the profile the service tunes new connections with; it is applied to
+ * this device again when the benchmark ends.
+ */
+public class ThroughputActivity extends AppCompatActivity {
+
+    public static final String TAG = "ThroughputActivity";
+
+    public static final String EXTRA_ADDRESS = "address";
+
+    public static final String EXTRA_SERVICE = "service";
+
+    public static final String EXTRA_CHARACTERISTIC = "characteristic";
+
+    private static final long SETTLE_MILLIS = 2000;
+
+    private static final long MEASURE_MILLIS = 10000;
+
+    public static Intent newIntent(Context context, String address, GattServiceTree.Characteristic characteristic) {
+        return new Intent(context, ThroughputActivity.class)
+                .putExtra(EXTRA_ADDRESS, address)
+                .putExtra(EXTRA_SERVICE, characteristic.service.toString())
+                .putExtra(EXTRA_CHARACTERISTIC, characteristic.uuid.toString());
+    }
+
+    private final Handler mHandler = new Handler();
+
+    private final ThroughputMeter mMeter = new ThroughputMeter();
+
+    private final LinkProfile[] mProfiles = LinkProfile.values();
+
+    private String mAddress;
+
+    private UUID mService;
+
+    private UUID mCharacteristic;
+
+    private SensorService mSensorService;
+
+    private ConnectionManager mConnectionManager;
+
+    private Spinner mProfileSpinner;
+
+    private Button mRunButton;
+
+    private TextView mResults;
+
+    private final StringBuilder mReport = new StringBuilder();
+
+    // Index into mProfiles of the run in progress, or -1.
+    private int mRun = -1;
+
+    private boolean mMeasuring;
+
+    private final GattEventBus.Listener mListener = new GattEventBus.Listener() {
+        @Override
+        public void onGattEvent(GattEvent event) {
+            if (mRun < 0 || !mAddress.equals(event.address)) {
+                return;
+            }
+            if (event.type == GattEvent.TYPE_DATA_AVAILABLE) {
+                if (mMeasuring && mCharacteristic.equals(event.characteristic)) {
+                    mMeter.onPacket(event.timestampNanos, event.valueLength);
+                }
+            } else if (event.type == GattEvent.TYPE_DISCONNECTED) {
+                mReport.append("disconnected\n");
+                finishRun();
+            }
+        }
+    };
+
+    private final Runnable mStartMeasuring = new Runnable() {
+        @Override
+        public void run() {
+            mMeter.reset();
+            mMeasuring = true;
+            mHandler.postDelayed(mStopMeasuring, MEASURE_MILLIS);
+        }
+    };
+
+    private final Runnable mStopMeasuring = new Runnable() {
+        @Override
+        public void run() {
+            mMeasuring = false;
+            mReport.append(String.format(Locale.US, "%-10s MTU %d, PHY %d: %s\n", mProfiles[mRun],
+                    mConnectionManager.getMtu(mAddress), mConnectionManager.getRxPhy(mAddress), mMeter));
+            Log.i(TAG, "benchmark: " + mProfiles[mRun] + " " + mMeter);
+            mRun++;
+            nextProfile();
+        }
+    };
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mSensorService = ((SensorService.LocalBinder) binder).getService();
+            mConnectionManager = mSensorService.getConnectionManager();
+            mConnectionManager.addListener(mListener);
+            for (int i = 0; i < mProfiles.length; i++) {
+                if (mProfiles[i] == mSensorService.getLinkProfile()) {
+                    mProfileSpinner.setSelection(i);
+                }
+            }
+            mRunButton.setEnabled(true);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mConnectionManager = null;
+            mSensorService = null;
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_throughput);
+
+        mAddress = getIntent().getStringExtra(EXTRA_ADDRESS);
+        mService = UUID.fromString(getIntent().getStringExtra(EXTRA_SERVICE));
+        mCharacteristic = UUID.fromString(getIntent().getStringExtra(EXTRA_CHARACTERISTIC));
+
+        mResults = findViewById(R.id.benchmark_results);
+
+        ArrayAdapter<LinkProfile> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, mProfiles);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mProfileSpinner = findViewById(R.id.link_profile);
+        mProfileSpinner.setAdapter(adapter);
+        mProfileSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (mSensorService != null && mProfiles[position] != mSensorService.getLinkProfile()) {
+                    mSensorService.setLinkProfile(mProfiles[position]);
+                    mConnectionManager.applyLinkProfile(mAddress, mProfiles[position]);
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        mRunButton = findViewById(R.id.run_benchmark);
+        mRunButton.setEnabled(false);
+        mRunButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startRun();
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        bindService(new Intent(this, SensorService.class), mServiceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        if (mRun >= 0) {
+            mReport.append("stopped\n");
+            finishRun();
+        }
+        if (mConnectionManager != null) {
+            mConnectionManager.removeListener(mListener);
+            mConnectionManager = null;
+        }
+        unbindService(mServiceConnection);
+        mSensorService = null;
+        mRunButton.setEnabled(false);
+    }
+
+    private void startRun() {
+        GattCommandQueue queue = mConnectionManager.getQueue(mAddress);
+        if (queue == null || mConnectionManager.getState(mAddress) != ConnectionManager.STATE_READY) {
+            mResults.setText(R.string.benchmark_not_connected);
+            return;
+        }
+        queue.submit(GattCommand.enableNotifications(mService, mCharacteristic,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE));
+        mReport.setLength(0);
+        mRunButton.setEnabled(false);
+        mRun = 0;
+        nextProfile();
+    }
+
+    private void nextProfile() {
+        if (mRun == mProfiles.length) {
+            finishRun();
+            return;
+        }
+        mResults.setText(mReport + getString(R.string.benchmark_running, mProfiles[mRun].getName()));
+        mConnectionManager.applyLinkProfile(mAddress, mProfiles[mRun]);
+        mHandler.postDelayed(mStartMeasuring, SETTLE_MILLIS);
+    }
+
+    private void finishRun() {
+        mHandler.removeCallbacks(mStartMeasuring);
+        mHandler.removeCallbacks(mStopMeasuring);
+        mMeasuring = false;
+        mRun = -1;
+        mResults.setText(mReport);
+        mRunButton.setEnabled(true);
+        if (mSensorService != null) {
+            mConnectionManager.applyLinkProfile(mAddress, mSensorService.getLinkProfile());
+        }
+    }
+}
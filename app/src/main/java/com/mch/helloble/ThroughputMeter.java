@@ -0,0 +1,85 @@
+package com.mch.helloble;
+
+import java.util.Locale;
+
+/**
+ * Sustained rate and inter-arrival jitter of a stream of notifications. Rates are measured
+ * from the first packet to the last, so the wait for the first one does not count.
+ * <p>
+ * Jitter is the standard deviation of the intervals between packets, kept with Welford's
+ * running update so the meter needs no history. Not thread safe; feed and read it on one
+ * thread.
+ */
+public class ThroughputMeter {
+
+    private long mFirst;
+
+    private long mLast;
+
+    private long mPackets;
+
+    private long mBytes;
+
+    private long mMaxInterval;
+
+    private double mMeanInterval;
+
+    private double mSquares;
+
+    public void reset() {
+        mPackets = 0;
+        mBytes = 0;
+        mMaxInterval = 0;
+        mMeanInterval = 0;
+        mSquares = 0;
+    }
+
+    public void onPacket(long timestampNanos, int bytes) {
+        if (mPackets++ == 0) {
+            mFirst = timestampNanos;
+            mLast = timestampNanos;
+            return;
+        }
+        long interval = timestampNanos - mLast;
+        mLast = timestampNanos;
+        mBytes += bytes;
+        mMaxInterval = Math.max(mMaxInterval, interval);
+        long n = mPackets - 1;
+        double delta = interval - mMeanInterval;
+        mMeanInterval += delta / n;
+        mSquares += delta * (interval - mMeanInterval);
+    }
+
+    public long getPackets() {
+        return mPackets;
+    }
+
+    public double getPacketsPerSecond() {
+        long span = mLast - mFirst;
+        return span <= 0 ? 0 : (mPackets - 1) * 1e9 / span;
+    }
+
+    public double getBytesPerSecond() {
+        long span = mLast - mFirst;
+        return span <= 0 ? 0 : mBytes * 1e9 / span;
+    }
+
+    public double getMeanIntervalMillis() {
+        return mMeanInterval / 1e6;
+    }
+
+    public double getMaxIntervalMillis() {
+        return mMaxInterval / 1e6;
+    }
+
+    public double getJitterMillis() {
+        return mPackets < 3 ? 0 : Math.sqrt(mSquares / (mPackets - 2)) / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%.1f pkt/s, %.1f kB/s, interval %.2f ms, jitter %.2f ms, max %.1f ms",
+                getPacketsPerSecond(), getBytesPerSecond() / 1000, getMeanIntervalMillis(),
+                getJitterMillis(), getMaxIntervalMillis());
+    }
+}
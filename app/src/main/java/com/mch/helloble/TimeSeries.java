@@ -0,0 +1,221 @@
+package com.mch.helloble;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity time series of one sensor field. Raw samples go into a ring of
+ * {@code long}/{@code float} pairs and are rolled up into coarser min/max/sum/count rings as
+ * they arrive, so a downsampling query reads at most a handful of entries per output bucket
+ * no matter how many raw samples the range covers. Not thread-safe.
+ */
+public class TimeSeries {
+
+    private static class Level {
+        final long resolution;
+        final long[] start;
+        final float[] min;
+        final float[] max;
+        final double[] sum;
+        final int[] count;
+        long size;
+
+        Level(long resolution, int capacity) {
+            this.resolution = resolution;
+            start = new long[capacity];
+            min = new float[capacity];
+            if (resolution == 0) {
+                max = null;
+                sum = null;
+                count = null;
+            } else {
+                max = new float[capacity];
+                sum = new double[capacity];
+                count = new int[capacity];
+            }
+        }
+
+        int capacity() {
+            return start.length;
+        }
+
+        int slot(long index) {
+            return (int) (index % start.length);
+        }
+
+        long oldest() {
+            return Math.max(0, size - start.length);
+        }
+
+        void add(long time, float value) {
+            if (resolution == 0) {
+                int slot = slot(size++);
+                start[slot] = time;
+                min[slot] = value;
+                return;
+            }
+            long bucket = time - time % resolution;
+            int slot = slot(size - 1);
+            if (size > 0 && start[slot] == bucket) {
+                if (value < min[slot]) min[slot] = value;
+                if (value > max[slot]) max[slot] = value;
+                sum[slot] += value;
+                count[slot]++;
+            } else {
+                slot = slot(size++);
+                start[slot] = bucket;
+                min[slot] = value;
+                max[slot] = value;
+                sum[slot] = value;
+                count[slot] = 1;
+            }
+        }
+
+        /** Index of the first retained entry whose start is at or after {@code time}. */
+        long search(long time) {
+            long lo = oldest();
+            long hi = size;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (start[slot(mid)] < time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        boolean covers(long time) {
+            return size > 0 && (size <= start.length || start[slot(oldest())] <= time);
+        }
+
+        long footprintBytes() {
+            long perEntry = resolution == 0 ? 8 + 4 : 8 + 4 + 4 + 8 + 4;
+            return perEntry * start.length;
+        }
+    }
+
+    private final Level[] mLevels;
+
+    private long mLastTime = Long.MIN_VALUE;
+
+    /**
+     * @param rawCapacity number of raw samples kept
+     * @param resolutions rollup bucket widths in milliseconds, finest first
+     * @param capacities  number of buckets kept for each rollup
+     */
+    public TimeSeries(int rawCapacity, long[] resolutions, int[] capacities) {
+        if (resolutions.length != capacities.length) {
+            throw new IllegalArgumentException("resolutions and capacities differ in length");
+        }
+        mLevels = new Level[resolutions.length + 1];
+        mLevels[0] = new Level(0, rawCapacity);
+        for (int i = 0; i < resolutions.length; i++) {
+            if (resolutions[i] <= 0 || (i > 0 && resolutions[i] <= resolutions[i - 1])) {
+                throw new IllegalArgumentException("resolutions must be positive and increasing");
+            }
+            mLevels[i + 1] = new Level(resolutions[i], capacities[i]);
+        }
+    }
+
+    /**
+     * Appends a sample. Timestamps are milliseconds; one that goes backwards is clamped to the
+     * previous timestamp so the rings stay ordered.
+     */
+    public void append(long time, float value) {
+        if (time < mLastTime) {
+            time = mLastTime;
+        }
+        mLastTime = time;
+        for (Level level : mLevels) {
+            level.add(time, value);
+        }
+    }
+
+    public long size() {
+        return mLevels[0].size;
+    }
+
+    public long getLastTime() {
+        return mLastTime;
+    }
+
+    /**
+     * Splits {@code [t0, t1)} into {@code buckets} equal buckets and writes the min, max and
+     * average of each into the output arrays; empty buckets get {@code NaN}. Reads from the
+     * coarsest retained level that is still at least as fine as the bucket width, so the cost
+     * grows with {@code buckets} rather than with the number of samples in the range.
+     * Returns the resolution in milliseconds of the level that was read (0 for raw samples).
+     */
+    public long query(long t0, long t1, int buckets, float[] outMin, float[] outMax, float[] outAvg) {
+        if (buckets <= 0 || t1 <= t0) {
+            throw new IllegalArgumentException("empty query");
+        }
+        Arrays.fill(outMin, 0, buckets, Float.NaN);
+        Arrays.fill(outMax, 0, buckets, Float.NaN);
+        Arrays.fill(outAvg, 0, buckets, Float.NaN);
+        Level level = chooseLevel(t0, (t1 - t0 + buckets - 1) / buckets);
+        if (level == null) {
+            return -1;
+        }
+        double span = t1 - t0;
+        int current = -1;
+        double sum = 0;
+        long count = 0;
+        // A rollup entry that starts before t0 but reaches into the range is counted in the
+        // first bucket.
+        long from = level.resolution == 0 ? t0 : t0 - level.resolution + 1;
+        for (long i = level.search(from); i < level.size; i++) {
+            int slot = level.slot(i);
+            long start = level.start[slot];
+            if (start >= t1) {
+                break;
+            }
+            int bucket = start <= t0 ? 0 : (int) ((start - t0) * buckets / span);
+            if (bucket != current) {
+                if (current >= 0) {
+                    outAvg[current] = (float) (sum / count);
+                }
+                current = bucket;
+                sum = 0;
+                count = 0;
+            }
+            float min = level.min[slot];
+            float max = level.resolution == 0 ? min : level.max[slot];
+            if (!(outMin[bucket] <= min)) outMin[bucket] = min;
+            if (!(outMax[bucket] >= max)) outMax[bucket] = max;
+            if (level.resolution == 0) {
+                sum += min;
+                count++;
+            } else {
+                sum += level.sum[slot];
+                count += level.count[slot];
+            }
+        }
+        if (current >= 0) {
+            outAvg[current] = (float) (sum / count);
+        }
+        return level.resolution;
+    }
+
+    private Level chooseLevel(long t0, long bucketWidth) {
+        Level best = null;
+        for (Level level : mLevels) {
+            if (level.size == 0) {
+                continue;
+            }
+            if (level.resolution <= bucketWidth || best == null || !best.covers(t0)) {
+                best = level;
+            }
+        }
+        return best;
+    }
+
+    public long footprintBytes() {
+        long bytes = 0;
+        for (Level level : mLevels) {
+            bytes += level.footprintBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,77 @@
+package com.mch.helloble;
+
+import java.util.HashMap;
+
+/**
+ * In-memory {@link TimeSeries} for every field of every device, keyed by device address.
+ * Not thread-safe; feed and query it from one thread.
+ */
+public class TimeSeriesStore {
+
+    public static final int FIELD_TEMPERATURE = 0;
+    public static final int FIELD_HUMIDITY = 1;
+    public static final int FIELD_AIR_QUALITY = 2;
+
+    public static final int FIELD_COUNT = 3;
+
+    // 10 minutes of raw 10 Hz samples, then 1 s buckets for an hour, 10 s and 60 s for a day.
+    private static final int RAW_CAPACITY = 10 * 60 * 10;
+    private static final long[] RESOLUTIONS = {1000, 10 * 1000, 60 * 1000};
+    private static final int[] CAPACITIES = {60 * 60, 24 * 60 * 6, 24 * 60};
+
+    private final HashMap<String, TimeSeries[]> mSeries = new HashMap<>();
+
+    private final int mRawCapacity;
+    private final long[] mResolutions;
+    private final int[] mCapacities;
+
+    public TimeSeriesStore() {
+        this(RAW_CAPACITY, RESOLUTIONS, CAPACITIES);
+    }
+
+    public TimeSeriesStore(int rawCapacity, long[] resolutions, int[] capacities) {
+        mRawCapacity = rawCapacity;
+        mResolutions = resolutions;
+        mCapacities = capacities;
+    }
+
+    public void append(String address, long time, SensorSample sample) {
+        TimeSeries[] series = mSeries.get(address);
+        if (series == null) {
+            series = new TimeSeries[FIELD_COUNT];
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                series[i] = new TimeSeries(mRawCapacity, mResolutions, mCapacities);
+            }
+            mSeries.put(address, series);
+        }
+        series[FIELD_TEMPERATURE].append(time, (float) sample.temperature);
+        series[FIELD_HUMIDITY].append(time, sample.humidity);
+        series[FIELD_AIR_QUALITY].append(time, sample.airQuality);
+    }
+
+    /**
+     * Returns the series for {@code field} of the device, or null if nothing was recorded.
+     */
+    public TimeSeries get(String address, int field) {
+        TimeSeries[] series = mSeries.get(address);
+        return series == null ? null : series[field];
+    }
+
+    public int getDeviceCount() {
+        return mSeries.size();
+    }
+
+    public void remove(String address) {
+        mSeries.remove(address);
+    }
+
+    public long footprintBytes() {
+        long bytes = 0;
+        for (TimeSeries[] series : mSeries.values()) {
+            for (TimeSeries s : series) {
+                bytes += s.footprintBytes();
+            }
+        }
+        return bytes;
+    }
+}
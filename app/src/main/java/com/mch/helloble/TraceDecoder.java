@@ -0,0 +1,155 @@
+package com.mch.helloble;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Reads what {@link TraceRecorder#writeTo} exported and prints it as a timeline, one line per
+ * event with wall clock time, time since the previous event of the same device, address, event,
+ * UUID, status and argument. Runs off the device:
+ * <pre>
+ * adb pull /sdcard/Android/data/com.mch.helloble/files/trace-1539842641000.bin
+ * java -cp app/build/intermediates/classes/debug com.mch.helloble.TraceDecoder trace-1539842641000.bin
+ * </pre>
+ */
+public class TraceDecoder {
+
+    public static class Record {
+        public long sequence;
+        public long wallClockMillis;
+        public long timestampNanos;
+        public int type;
+        public int status;
+        public String address;
+        public UUID uuid;
+        public int argument;
+    }
+
+    private final List<Record> mRecords = new ArrayList<>();
+
+    private long mFirstSequence;
+
+    private long mMissing;
+
+    public static TraceDecoder read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != TraceRecorder.MAGIC) {
+            throw new IOException("not a trace");
+        }
+        int version = in.readShort();
+        if (version != TraceRecorder.VERSION) {
+            throw new IOException("unsupported trace version " + version);
+        }
+        long exportMillis = in.readLong();
+        long exportNanos = in.readLong();
+        // IDs whose address or UUID was evicted since are missing.
+        HashMap<Integer, String> addresses = new HashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            int id = in.readInt();
+            addresses.put(id, in.readUTF());
+        }
+        HashMap<Integer, UUID> uuids = new HashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            int id = in.readInt();
+            uuids.put(id, new UUID(in.readLong(), in.readLong()));
+        }
+        TraceDecoder decoder = new TraceDecoder();
+        decoder.mFirstSequence = in.readLong();
+        int count = in.readInt();
+        long expected = decoder.mFirstSequence;
+        for (int i = 0; i < count; i++) {
+            Record record = new Record();
+            record.sequence = in.readLong();
+            record.timestampNanos = in.readLong();
+            long header = in.readLong();
+            long payload = in.readLong();
+            record.type = (int) (header >>> 48) & 0xff;
+            record.status = (short) (header >>> 32);
+            int device = (int) header;
+            int uuid = (int) (payload >> 32);
+            record.argument = (int) payload;
+            record.address = addresses.get(device);
+            record.uuid = uuids.get(uuid);
+            record.wallClockMillis = exportMillis - (exportNanos - record.timestampNanos) / 1000000;
+            decoder.mMissing += record.sequence - expected;
+            expected = record.sequence + 1;
+            decoder.mRecords.add(record);
+        }
+        return decoder;
+    }
+
+    public List<Record> getRecords() {
+        return mRecords;
+    }
+
+    /**
+     * Returns how many records were written before the oldest one kept.
+     */
+    public long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    /**
+     * Returns how many records within the exported range were missing, being written as
+     * the export ran.
+     */
+    public long getMissing() {
+        return mMissing;
+    }
+
+    public void printTimeline(PrintWriter out) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        out.printf(Locale.US, "%d events from #%d, %d missing%n", mRecords.size(), mFirstSequence, mMissing);
+        HashMap<String, Long> lastByDevice = new HashMap<>();
+        for (Record record : mRecords) {
+            Long last = lastByDevice.put(record.address, record.timestampNanos);
+            String delta = last == null ? "" : String.format(Locale.US, "+%.3f ms",
+                    (record.timestampNanos - last) / 1e6);
+            out.printf(Locale.US, "%s %12s  %-17s  %-19s  %-36s  status=%d arg=%s%n",
+                    format.format(new Date(record.wallClockMillis)), delta,
+                    record.address == null ? "-" : record.address, TraceRecorder.eventName(record.type),
+                    record.uuid == null ? "-" : record.uuid, record.status, argument(record));
+        }
+        out.flush();
+    }
+
+    private static String argument(Record record) {
+        switch (record.type) {
+            case TraceRecorder.EVENT_PHY:
+                return "tx=" + (record.argument >> 8) + " rx=" + (record.argument & 0xff);
+            case TraceRecorder.EVENT_CONNECT:
+                return record.argument != 0 ? "auto" : "direct";
+            default:
+                return Integer.toString(record.argument);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: TraceDecoder <trace.bin>...");
+            System.exit(2);
+        }
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+        for (String path : args) {
+            InputStream in = new BufferedInputStream(new FileInputStream(path));
+            try {
+                out.println("# " + path);
+                read(in).printTimeline(out);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
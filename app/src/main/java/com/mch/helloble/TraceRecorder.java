@@ -0,0 +1,317 @@
+package com.mch.helloble;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Flight recorder for scan and GATT callbacks. Each event is a fixed-size binary record (type,
+ * timestamp, device ID, UUID index, status and one argument) in a preallocated ring that keeps
+ * the latest {@code capacity} records, so recording neither allocates nor formats. Addresses
+ * and UUIDs are interned into IDs in fixed-size tables; once one is full, a new address or
+ * UUID takes the place of the one interned longest ago, and older records that used it decode
+ * without it.
+ * <p>
+ * Any thread may record. {@link #writeTo(OutputStream)} exports the ring and the ID tables;
+ * {@link TraceDecoder} turns the export into a timeline.
+ */
+public class TraceRecorder {
+
+    public static final int EVENT_SCAN_RESULT = 1;
+    public static final int EVENT_SCAN_BATCH = 2;
+    public static final int EVENT_SCAN_FAILED = 3;
+    public static final int EVENT_CONNECT = 4;
+    public static final int EVENT_CONNECTED = 5;
+    public static final int EVENT_DISCONNECTED = 6;
+    public static final int EVENT_RECONNECT_SCHEDULED = 7;
+    public static final int EVENT_SERVICES_DISCOVERED = 8;
+    public static final int EVENT_READ = 9;
+    public static final int EVENT_WRITE = 10;
+    public static final int EVENT_NOTIFY = 11;
+    public static final int EVENT_DESCRIPTOR_WRITE = 12;
+    public static final int EVENT_MTU = 13;
+    public static final int EVENT_PHY = 14;
+    public static final int EVENT_DROPPED = 15;
+
+    private static final String[] EVENT_NAMES = {
+            "?", "scan-result", "scan-batch", "scan-failed", "connect", "connected", "disconnected",
+            "reconnect-scheduled", "services-discovered", "read", "write", "notify",
+            "descriptor-write", "mtu", "phy", "dropped"};
+
+    /**
+     * Device or UUID of events that have none.
+     */
+    public static final int NONE = -1;
+
+    static final int MAGIC = 0x424c5452;
+
+    static final int VERSION = 2;
+
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    public static final int MAX_DEVICES = 256;
+
+    public static final int MAX_UUIDS = 64;
+
+    private static final int LONGS_PER_RECORD = 4;
+
+    private static final TraceRecorder DEFAULT = new TraceRecorder(DEFAULT_CAPACITY);
+
+    public static TraceRecorder getDefault() {
+        return DEFAULT;
+    }
+
+    public static String eventName(int type) {
+        return type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : Integer.toString(type);
+    }
+
+    /**
+     * Gives each key an ID, keeping at most {@code capacity} keys. A new key beyond that
+     * evicts the oldest one and gets the next ID, so an ID is never reused for another key.
+     * Lookups take no lock; a miss is checked again under it.
+     */
+    static final class InternTable<K> {
+
+        static final class Entry<K> {
+            final K key;
+            final int id;
+
+            Entry(K key, int id) {
+                this.key = key;
+                this.id = id;
+            }
+        }
+
+        // The entry of each ID at id % capacity, so the next ID takes the place of the oldest.
+        private final AtomicReferenceArray<Entry<K>> mById;
+
+        // Open addressing with linear probing, at most half full.
+        private final AtomicReferenceArray<Entry<K>> mIndex;
+
+        private final int mIndexMask;
+
+        private int mNextId;
+
+        private int mSize;
+
+        InternTable(int capacity) {
+            mById = new AtomicReferenceArray<>(capacity);
+            mIndex = new AtomicReferenceArray<>(capacity * 2);
+            mIndexMask = capacity * 2 - 1;
+        }
+
+        int get(K key) {
+            Entry<K> entry = find(key);
+            return entry != null ? entry.id : add(key);
+        }
+
+        private Entry<K> find(K key) {
+            for (int i = home(key); ; i = (i + 1) & mIndexMask) {
+                Entry<K> entry = mIndex.get(i);
+                if (entry == null || entry.key.equals(key)) {
+                    return entry;
+                }
+            }
+        }
+
+        private synchronized int add(K key) {
+            Entry<K> entry = find(key);
+            if (entry != null) {
+                return entry.id;
+            }
+            int id = mNextId;
+            mNextId = (mNextId + 1) & Integer.MAX_VALUE;
+            int slot = id % mById.length();
+            Entry<K> evicted = mById.get(slot);
+            if (evicted != null) {
+                remove(evicted);
+            } else {
+                mSize++;
+            }
+            entry = new Entry<>(key, id);
+            mById.set(slot, entry);
+            int i = home(key);
+            while (mIndex.get(i) != null) {
+                i = (i + 1) & mIndexMask;
+            }
+            mIndex.set(i, entry);
+            return id;
+        }
+
+        // Called with the lock held. Moves later entries of the probe run back into the gap, so
+        // no tombstones pile up; a reader that misses an entry while it moves asks again under
+        // the lock.
+        private void remove(Entry<K> entry) {
+            int gap = home(entry.key);
+            while (mIndex.get(gap) != entry) {
+                gap = (gap + 1) & mIndexMask;
+            }
+            for (int i = (gap + 1) & mIndexMask; ; i = (i + 1) & mIndexMask) {
+                Entry<K> next = mIndex.get(i);
+                if (next == null) {
+                    break;
+                }
+                int home = home(next.key);
+                boolean reachable = gap <= i ? gap < home && home <= i : gap < home || home <= i;
+                if (!reachable) {
+                    mIndex.set(gap, next);
+                    gap = i;
+                }
+            }
+            mIndex.set(gap, null);
+        }
+
+        private int home(K key) {
+            int h = key.hashCode();
+            return (h ^ (h >>> 16)) & mIndexMask;
+        }
+
+        synchronized int size() {
+            return mSize;
+        }
+
+        // The keys still held, in no particular order.
+        List<Entry<K>> entries() {
+            ArrayList<Entry<K>> entries = new ArrayList<>(mById.length());
+            for (int i = 0; i < mById.length(); i++) {
+                Entry<K> entry = mById.get(i);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        }
+    }
+
+    // Per record: commit stamp (sequence + 1, 0 while being written), timestamp,
+    // type | status | device, uuid | argument.
+    private final AtomicLongArray mRing;
+
+    private final int mMask;
+
+    private final AtomicLong mNext = new AtomicLong();
+
+    private final InternTable<String> mDevices = new InternTable<>(MAX_DEVICES);
+
+    private final InternTable<UUID> mUuids = new InternTable<>(MAX_UUIDS);
+
+    public TraceRecorder(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mRing = new AtomicLongArray(capacity * LONGS_PER_RECORD);
+        mMask = capacity - 1;
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Returns how many records were ever written, including those since overwritten.
+     */
+    public long getRecorded() {
+        return mNext.get();
+    }
+
+    /**
+     * Returns the ID of {@code address}, assigning the next one the first time.
+     */
+    public int deviceId(String address) {
+        return address == null ? NONE : mDevices.get(address);
+    }
+
+    /**
+     * Returns the index of {@code uuid}, assigning the next one the first time.
+     */
+    public int uuidIndex(UUID uuid) {
+        return uuid == null ? NONE : mUuids.get(uuid);
+    }
+
+    /**
+     * Returns how many addresses are interned; at most {@link #MAX_DEVICES}.
+     */
+    int getDeviceCount() {
+        return mDevices.size();
+    }
+
+    int getUuidCount() {
+        return mUuids.size();
+    }
+
+    public void record(int type, String address, UUID uuid, int status, int argument) {
+        record(type, deviceId(address), uuidIndex(uuid), status, argument);
+    }
+
+    public void record(int type, int device, int uuid, int status, int argument) {
+        long sequence = mNext.getAndIncrement();
+        int base = (int) (sequence & mMask) * LONGS_PER_RECORD;
+        mRing.set(base, 0);
+        mRing.lazySet(base + 1, System.nanoTime());
+        mRing.lazySet(base + 2, ((long) (type & 0xff) << 48) | ((long) (status & 0xffff) << 32)
+                | (device & 0xffffffffL));
+        mRing.lazySet(base + 3, ((long) uuid << 32) | (argument & 0xffffffffL));
+        mRing.lazySet(base, sequence + 1);
+    }
+
+    /**
+     * Writes the ID tables and the records still in the ring, oldest first, in the format
+     * {@link TraceDecoder} reads. Records being written during the export are left out.
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(System.nanoTime());
+        List<InternTable.Entry<String>> addresses = mDevices.entries();
+        out.writeInt(addresses.size());
+        for (InternTable.Entry<String> address : addresses) {
+            out.writeInt(address.id);
+            out.writeUTF(address.key);
+        }
+        List<InternTable.Entry<UUID>> uuids = mUuids.entries();
+        out.writeInt(uuids.size());
+        for (InternTable.Entry<UUID> uuid : uuids) {
+            out.writeInt(uuid.id);
+            out.writeLong(uuid.key.getMostSignificantBits());
+            out.writeLong(uuid.key.getLeastSignificantBits());
+        }
+        long end = mNext.get();
+        long start = Math.max(0, end - getCapacity());
+        long[] records = new long[(int) (end - start) * LONGS_PER_RECORD];
+        int count = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int base = (int) (sequence & mMask) * LONGS_PER_RECORD;
+            long stamp = mRing.get(base);
+            long timestamp = mRing.get(base + 1);
+            long header = mRing.get(base + 2);
+            long payload = mRing.get(base + 3);
+            if (stamp != sequence + 1 || mRing.get(base) != stamp) {
+                // Still being written, or already overwritten by a newer record.
+                continue;
+            }
+            records[count * LONGS_PER_RECORD] = sequence;
+            records[count * LONGS_PER_RECORD + 1] = timestamp;
+            records[count * LONGS_PER_RECORD + 2] = header;
+            records[count * LONGS_PER_RECORD + 3] = payload;
+            count++;
+        }
+        out.writeLong(start);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            int base = i * LONGS_PER_RECORD;
+            out.writeLong(records[base]);
+            out.writeLong(records[base + 1]);
+            out.writeLong(records[base + 2]);
+            out.writeLong(records[base + 3]);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,215 @@
+package com.mch.helloble;
+
+import java.util.HashMap;
+
+/**
+ * Rolling statistics of every device's readings over a few fixed windows, with threshold rules
+ * evaluated as each reading arrives. Each device gets one {@link SlidingWindow} per field and
+ * window when it is first seen; feeding readings after that allocates nothing. Fields are the
+ * {@code TimeSeriesStore.FIELD_*} constants. Not thread-safe; feed and query it from one thread.
+ */
+public class WindowAggregator {
+
+    public static final int STAT_MEAN = 0;
+    public static final int STAT_MIN = 1;
+    public static final int STAT_MAX = 2;
+
+    public static final int DEFAULT_BUCKETS = 60;
+
+    public interface AlertListener {
+        /**
+         * Called when {@code rule} starts or stops holding for a device.
+         */
+        void onAlert(String address, Rule rule, boolean raised, double value);
+    }
+
+    /**
+     * Raises an alert when a statistic of one field's window crosses {@code raiseAt}, and clears
+     * it only once the statistic is back past {@code clearAt}, so a value hovering at the
+     * threshold does not flap.
+     */
+    public static class Rule {
+        public final String name;
+        public final int field;
+        public final int window;
+        public final int statistic;
+        public final boolean above;
+        public final double raiseAt;
+        public final double clearAt;
+
+        private Rule(String name, int field, int window, int statistic, boolean above, double raiseAt,
+                double clearAt) {
+            if (above ? clearAt > raiseAt : clearAt < raiseAt) {
+                throw new IllegalArgumentException(name + ": clears at " + clearAt + " before it raises at " + raiseAt);
+            }
+            this.name = name;
+            this.field = field;
+            this.window = window;
+            this.statistic = statistic;
+            this.above = above;
+            this.raiseAt = raiseAt;
+            this.clearAt = clearAt;
+        }
+
+        public static Rule above(String name, int field, int window, int statistic, double raiseAt, double clearAt) {
+            return new Rule(name, field, window, statistic, true, raiseAt, clearAt);
+        }
+
+        public static Rule below(String name, int field, int window, int statistic, double raiseAt, double clearAt) {
+            return new Rule(name, field, window, statistic, false, raiseAt, clearAt);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class Device {
+        final SlidingWindow[][] windows;
+        boolean[] raised;
+
+        Device(long[] durations, int buckets, int rules) {
+            windows = new SlidingWindow[TimeSeriesStore.FIELD_COUNT][durations.length];
+            for (int field = 0; field < TimeSeriesStore.FIELD_COUNT; field++) {
+                for (int w = 0; w < durations.length; w++) {
+                    windows[field][w] = new SlidingWindow(durations[w], buckets);
+                }
+            }
+            raised = new boolean[rules];
+        }
+    }
+
+    private static final Rule[] NO_RULES = new Rule[0];
+
+    private final long[] mDurations;
+
+    private final int mBuckets;
+
+    private final HashMap<String, Device> mDevices = new HashMap<>();
+
+    private Rule[] mRules = NO_RULES;
+
+    private AlertListener mListener;
+
+    /**
+     * Keeps a window of each of {@code durationsMillis} for every field, each sliding in
+     * steps of a {@link #DEFAULT_BUCKETS}th of its length.
+     */
+    public WindowAggregator(long... durationsMillis) {
+        this(durationsMillis, DEFAULT_BUCKETS);
+    }
+
+    public WindowAggregator(long[] durationsMillis, int buckets) {
+        mBuckets = buckets;
+        mDurations = durationsMillis.clone();
+    }
+
+    public int getWindowCount() {
+        return mDurations.length;
+    }
+
+    public void setAlertListener(AlertListener listener) {
+        mListener = listener;
+    }
+
+    public void addRule(Rule rule) {
+        if (rule.window < 0 || rule.window >= mDurations.length) {
+            throw new IllegalArgumentException(rule + ": no window " + rule.window);
+        }
+        Rule[] rules = new Rule[mRules.length + 1];
+        System.arraycopy(mRules, 0, rules, 0, mRules.length);
+        rules[mRules.length] = rule;
+        mRules = rules;
+        for (Device device : mDevices.values()) {
+            boolean[] raised = new boolean[rules.length];
+            System.arraycopy(device.raised, 0, raised, 0, device.raised.length);
+            device.raised = raised;
+        }
+    }
+
+    /**
+     * Adds a decoded reading and evaluates every rule for the device.
+     */
+    public void add(String address, long time, SensorSample sample) {
+        Device device = mDevices.get(address);
+        if (device == null) {
+            device = new Device(mDurations, mBuckets, mRules.length);
+            mDevices.put(address, device);
+        }
+        add(device.windows[TimeSeriesStore.FIELD_TEMPERATURE], time, sample.temperature);
+        add(device.windows[TimeSeriesStore.FIELD_HUMIDITY], time, sample.humidity);
+        add(device.windows[TimeSeriesStore.FIELD_AIR_QUALITY], time, sample.airQuality);
+        evaluate(address, device);
+    }
+
+    private static void add(SlidingWindow[] windows, long time, double value) {
+        for (SlidingWindow window : windows) {
+            window.add(time, value);
+        }
+    }
+
+    private void evaluate(String address, Device device) {
+        Rule[] rules = mRules;
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = rules[i];
+            double value = statistic(device.windows[rule.field][rule.window], rule.statistic);
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            boolean raised = device.raised[i];
+            if (!raised && (rule.above ? value > rule.raiseAt : value < rule.raiseAt)) {
+                raised = true;
+            } else if (raised && (rule.above ? value < rule.clearAt : value > rule.clearAt)) {
+                raised = false;
+            } else {
+                continue;
+            }
+            device.raised[i] = raised;
+            if (mListener != null) {
+                mListener.onAlert(address, rule, raised, value);
+            }
+        }
+    }
+
+    static double statistic(SlidingWindow window, int statistic) {
+        switch (statistic) {
+            case STAT_MIN:
+                return window.getMin();
+            case STAT_MAX:
+                return window.getMax();
+            default:
+                return window.getMean();
+        }
+    }
+
+    /**
+     * Returns the window of {@code field} over the {@code window}th duration, or null if the
+     * device has sent nothing.
+     */
+    public SlidingWindow get(String address, int field, int window) {
+        Device device = mDevices.get(address);
+        return device == null ? null : device.windows[field][window];
+    }
+
+    public boolean isRaised(String address, Rule rule) {
+        Device device = mDevices.get(address);
+        if (device == null) {
+            return false;
+        }
+        for (int i = 0; i < mRules.length; i++) {
+            if (mRules[i] == rule) {
+                return device.raised[i];
+            }
+        }
+        return false;
+    }
+
+    public int getDeviceCount() {
+        return mDevices.size();
+    }
+
+    public void remove(String address) {
+        mDevices.remove(address);
+    }
+}
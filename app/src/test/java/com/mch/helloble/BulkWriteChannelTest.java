@@ -0,0 +1,256 @@
+package com.mch.helloble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class BulkWriteChannelTest {
+
+    private static final UUID SERVICE = UUID.fromString("0000fe59-0000-1000-8000-00805f9b34fb");
+    private static final UUID DATA = UUID.fromString("8ec90002-f315-4f60-9fb8-838830daea50");
+
+    private static final int MTU = 247;
+
+    private static final long CONNECTION_INTERVAL = 15;
+
+    private static final int PAYLOAD_LENGTH = 100 * 1024;
+
+    /**
+     * A link whose controller holds {@code buffers} packets and sends up to
+     * {@code packetsPerEvent} of them every connection event, to a peer that writes each chunk
+     * at its offset as long as there is no gap. A write without response completes once its
+     * packet is sent; a write request completes with the peer's response one event later. A
+     * packet written while the buffer is full is lost, as with a stack that does not push back.
+     */
+    private class SimulatedController extends FakeGattClient {
+        final int buffers;
+        final int packetsPerEvent;
+        final ArrayDeque<byte[]> buffer = new ArrayDeque<>();
+        final ArrayDeque<Integer> writeTypes = new ArrayDeque<>();
+        final List<Integer> responses = new ArrayList<>();
+        int overflows;
+        int maxQueued;
+        int dropPacket = -1;
+        int packets;
+        boolean running;
+        boolean linkUp = true;
+
+        final Runnable connectionEvent = new Runnable() {
+            @Override
+            public void run() {
+                onConnectionEvent();
+            }
+        };
+
+        SimulatedController(int buffers, int packetsPerEvent) {
+            this.buffers = buffers;
+            this.packetsPerEvent = packetsPerEvent;
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+            assertEquals(DATA, characteristic);
+            if (buffer.size() == buffers) {
+                overflows++;
+                return true;
+            }
+            buffer.add(value.clone());
+            writeTypes.add(writeType);
+            maxQueued = Math.max(maxQueued, buffer.size());
+            if (!running) {
+                running = true;
+                mScheduler.schedule(connectionEvent, CONNECTION_INTERVAL);
+            }
+            return true;
+        }
+
+        void onConnectionEvent() {
+            if (!linkUp) {
+                return;
+            }
+            List<Integer> responded = new ArrayList<>(responses);
+            responses.clear();
+            List<Integer> sent = new ArrayList<>();
+            for (int i = 0; i < packetsPerEvent && !buffer.isEmpty(); i++) {
+                byte[] packet = buffer.poll();
+                int writeType = writeTypes.poll();
+                boolean accepted = packets++ != dropPacket && mPeer.receive(packet);
+                if (writeType == GattClient.WRITE_TYPE_DEFAULT) {
+                    responses.add(accepted ? 0 : 0x80);
+                } else {
+                    sent.add(0);
+                }
+            }
+            running = !buffer.isEmpty() || !responses.isEmpty();
+            if (running) {
+                mScheduler.schedule(connectionEvent, CONNECTION_INTERVAL);
+            }
+            for (int status : responded) {
+                mChannel.onCharacteristicWrite(DATA, status);
+            }
+            for (int status : sent) {
+                mChannel.onCharacteristicWrite(DATA, status);
+            }
+        }
+
+        void loseLink() {
+            linkUp = false;
+            mScheduler.cancel(connectionEvent);
+            mChannel.onLinkLost();
+        }
+    }
+
+    /**
+     * The device end: places each chunk at its offset unless that would leave a gap.
+     */
+    private static class Peer {
+        final byte[] data = new byte[PAYLOAD_LENGTH];
+        int received;
+
+        boolean receive(byte[] chunk) {
+            int offset = (chunk[0] & 0xff) | (chunk[1] & 0xff) << 8 | (chunk[2] & 0xff) << 16 | chunk[3] << 24;
+            if (offset > received) {
+                return false;
+            }
+            int length = chunk.length - BulkWriteChannel.CHUNK_HEADER_SIZE;
+            System.arraycopy(chunk, BulkWriteChannel.CHUNK_HEADER_SIZE, data, offset, length);
+            received = offset + length;
+            return true;
+        }
+    }
+
+    private FakeScheduler mScheduler;
+
+    private Peer mPeer;
+
+    private byte[] mPayload;
+
+    private BulkWriteChannel mChannel;
+
+    private final List<String> mEvents = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mPeer = new Peer();
+        mPayload = new byte[PAYLOAD_LENGTH];
+        new Random(42).nextBytes(mPayload);
+        mChannel = new BulkWriteChannel(SERVICE, DATA, mPayload).setListener(new BulkWriteChannel.Listener() {
+            @Override
+            public void onCheckpoint(BulkWriteChannel channel, int offset) {
+                mEvents.add("checkpoint " + offset);
+            }
+
+            @Override
+            public void onComplete(BulkWriteChannel channel, int status) {
+                mEvents.add("complete " + status);
+            }
+        });
+    }
+
+    private double transfer(int buffers, int credits) {
+        SimulatedController controller = new SimulatedController(buffers, 6);
+        mChannel.setCredits(credits).setCheckpointInterval(16 * 1024);
+        mChannel.start(controller, mScheduler, MTU);
+        mScheduler.advance(60000);
+        assertEquals(BulkWriteChannel.STATE_COMPLETE, mChannel.getState());
+        assertEquals("complete 0", mEvents.get(mEvents.size() - 1));
+        assertArrayEquals(mPayload, mPeer.data);
+        assertEquals(0, controller.overflows);
+        assertTrue(controller.maxQueued <= credits);
+        return mChannel.getBytesPerSecond();
+    }
+
+    @Test
+    public void creditsKeepControllerBusyWithoutOverflow() {
+        double pipelined = transfer(8, 8);
+        assertEquals(0, mChannel.getBytesResent());
+        assertEquals(PAYLOAD_LENGTH, mChannel.getBytesSent());
+        assertTrue(mEvents.contains("checkpoint 16384"));
+        assertTrue(mEvents.contains("checkpoint " + PAYLOAD_LENGTH));
+
+        setUp();
+        double stopAndWait = transfer(8, 1);
+        // Six 240-byte chunks per 15 ms event is 96 kB/s, less about three events at each checkpoint.
+        assertTrue(pipelined > 70000);
+        assertTrue(pipelined > 4 * stopAndWait);
+    }
+
+    @Test
+    public void rejectedCheckpointResendsSinceTheLastOne() {
+        SimulatedController controller = new SimulatedController(8, 6);
+        // The peer misses a chunk after the first checkpoint, so it cannot acknowledge the second.
+        controller.dropPacket = 100;
+        mChannel.setCredits(8).setCheckpointInterval(16 * 1024);
+        mChannel.start(controller, mScheduler, MTU);
+        mScheduler.advance(60000);
+
+        assertEquals(BulkWriteChannel.STATE_COMPLETE, mChannel.getState());
+        assertArrayEquals(mPayload, mPeer.data);
+        assertEquals(16 * 1024, mChannel.getBytesResent());
+        assertEquals(PAYLOAD_LENGTH + 16 * 1024, mChannel.getBytesSent());
+    }
+
+    @Test
+    public void resumesFromLastCheckpointAfterLinkLoss() {
+        SimulatedController controller = new SimulatedController(8, 6);
+        mChannel.setCredits(8).setCheckpointInterval(16 * 1024);
+        mChannel.start(controller, mScheduler, MTU);
+        while (mChannel.getCheckpoint() < 32 * 1024) {
+            mScheduler.advance(CONNECTION_INTERVAL);
+        }
+        // Part way to the next checkpoint.
+        mScheduler.advance(3 * CONNECTION_INTERVAL);
+        controller.loseLink();
+
+        assertEquals(BulkWriteChannel.STATE_INTERRUPTED, mChannel.getState());
+        assertEquals("complete " + BulkWriteChannel.STATUS_LINK_LOST, mEvents.get(mEvents.size() - 1));
+        int checkpoint = mChannel.getCheckpoint();
+        assertEquals(32 * 1024, checkpoint);
+        assertTrue(mPeer.received > checkpoint);
+
+        // A new link, possibly with another MTU; the peer kept what it acknowledged.
+        mScheduler.advance(5000);
+        SimulatedController reconnected = new SimulatedController(8, 6);
+        mChannel.start(reconnected, mScheduler, 185);
+        mScheduler.advance(60000);
+
+        assertEquals(BulkWriteChannel.STATE_COMPLETE, mChannel.getState());
+        assertArrayEquals(mPayload, mPeer.data);
+        assertTrue(mChannel.getBytesResent() > 0);
+        assertTrue(mChannel.getBytesResent() < 16 * 1024);
+    }
+
+    @Test
+    public void stalledLinkTimesOut() {
+        SimulatedController controller = new SimulatedController(8, 6);
+        controller.linkUp = false;
+        mChannel.start(controller, mScheduler, MTU);
+        mScheduler.advance(BulkWriteChannel.WRITE_TIMEOUT);
+
+        assertEquals(BulkWriteChannel.STATE_INTERRUPTED, mChannel.getState());
+        assertEquals("complete " + BulkWriteChannel.STATUS_TIMEOUT, mEvents.get(mEvents.size() - 1));
+        assertEquals(0, mChannel.getCheckpoint());
+    }
+
+    @Test
+    public void busyClientIsRetried() {
+        FakeGattClient busy = new FakeGattClient();
+        busy.accept = false;
+        BulkWriteChannel channel = new BulkWriteChannel(SERVICE, DATA, new byte[10]);
+        channel.start(busy, mScheduler, MTU);
+        mScheduler.advance(50);
+        assertTrue(busy.operations.size() > 1);
+        busy.accept = true;
+        mScheduler.advance(50);
+        channel.onCharacteristicWrite(DATA, 0);
+        assertEquals(BulkWriteChannel.STATE_COMPLETE, channel.getState());
+    }
+}
@@ -0,0 +1,119 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class CombinedDataDecoderTest {
+
+    @Test
+    public void matchesLegacyDecoding() {
+        int[] raws = {0, 1, 99, 100, 27314, 27315, 27316, 29815, 0x7FFF, 0x8000, 0xFF00, 0x00FF, 0xFFFE, 0xFFFF};
+        SensorSample sample = new SensorSample();
+        for (int t : raws) {
+            for (int h : raws) {
+                byte[] payload = payload(t, h, t ^ h);
+                assertTrue(CombinedDataDecoder.decode(payload, sample));
+                assertEquals(legacyTemperature(payload), sample.temperature, 0);
+                assertEquals(legacyHumidity(payload), sample.humidity);
+                assertEquals(legacyAirQuality(payload), sample.airQuality);
+            }
+        }
+    }
+
+    @Test
+    public void decodesMaxValues() {
+        SensorSample sample = new SensorSample();
+        assertTrue(CombinedDataDecoder.decode(payload(0xFFFF, 0xFFFF, 0xFFFF), sample));
+        assertEquals((0xFFFF - 27315) / 100.0, sample.temperature, 0);
+        assertEquals(655, sample.humidity);
+        assertEquals(0xFFFF, sample.airQuality);
+    }
+
+    @Test
+    public void decodesSubZeroTemperature() {
+        SensorSample sample = new SensorSample();
+        // -12.34 C
+        assertTrue(CombinedDataDecoder.decode(payload(27315 - 1234, 4500, 12), sample));
+        assertEquals(-12.34, sample.temperature, 1e-9);
+        assertEquals(legacyTemperature(payload(27315 - 1234, 4500, 12)), sample.temperature, 0);
+        assertTrue(CombinedDataDecoder.decode(payload(0, 0, 0), sample));
+        assertEquals(-273.15, sample.temperature, 1e-9);
+    }
+
+    @Test
+    public void rejectsShortPayloads() {
+        SensorSample sample = new SensorSample();
+        sample.set(1.5, 2, 3);
+        assertFalse(CombinedDataDecoder.decode((byte[]) null, sample));
+        for (int length = 0; length < CombinedDataDecoder.PAYLOAD_LENGTH; length++) {
+            assertFalse(CombinedDataDecoder.decode(new byte[length], sample));
+            assertFalse(CombinedDataDecoder.decode(ByteBuffer.allocate(length), sample));
+        }
+        assertEquals(1.5, sample.temperature, 0);
+        assertEquals(2, sample.humidity);
+        assertEquals(3, sample.airQuality);
+    }
+
+    @Test
+    public void ignoresTrailingBytesAndHonoursOffset() {
+        byte[] framed = new byte[10];
+        System.arraycopy(payload(29815, 5000, 42), 0, framed, 3, CombinedDataDecoder.PAYLOAD_LENGTH);
+        SensorSample sample = new SensorSample();
+        assertTrue(CombinedDataDecoder.decode(framed, 3, 7, sample));
+        assertEquals(25.0, sample.temperature, 1e-9);
+        assertEquals(50, sample.humidity);
+        assertEquals(42, sample.airQuality);
+    }
+
+    @Test
+    public void decodesByteBufferWithoutMovingIt() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8).order(ByteOrder.BIG_ENDIAN);
+        buffer.put((byte) 0x7F);
+        buffer.put(payload(27315 - 500, 0xFFFF, 0x1234));
+        buffer.position(1);
+        SensorSample sample = new SensorSample();
+        assertTrue(CombinedDataDecoder.decode(buffer, sample));
+        assertEquals(1, buffer.position());
+        assertEquals(-5.0, sample.temperature, 1e-9);
+        assertEquals(655, sample.humidity);
+        assertEquals(0x1234, sample.airQuality);
+    }
+
+    private static byte[] payload(int temperature, int humidity, int airQuality) {
+        return new byte[]{
+                (byte) temperature, (byte) (temperature >> 8),
+                (byte) humidity, (byte) (humidity >> 8),
+                (byte) airQuality, (byte) (airQuality >> 8)
+        };
+    }
+
+    // The arithmetic DeviceActivity used before the decoder existed, with
+    // BluetoothGattCharacteristic.getIntValue(FORMAT_UINT8, offset) replaced by a byte lookup.
+
+    private static double legacyTemperature(byte[] value) {
+        double temp = legacyShortUnsignedAtOffset(value, 0);
+        temp = (-27315f + temp) / 100f;
+        return temp;
+    }
+
+    private static int legacyHumidity(byte[] value) {
+        int humidity = legacyShortUnsignedAtOffset(value, 2);
+        humidity = humidity / 100;
+        return humidity;
+    }
+
+    private static int legacyAirQuality(byte[] value) {
+        return legacyShortUnsignedAtOffset(value, 4);
+    }
+
+    private static Integer legacyShortUnsignedAtOffset(byte[] value, int offset) {
+        Integer lowerByte = value[offset] & 0xFF;
+        Integer upperByte = value[offset + 1] & 0xFF;
+
+        return (upperByte << 8) + lowerByte;
+    }
+}
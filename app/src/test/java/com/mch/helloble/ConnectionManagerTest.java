@@ -0,0 +1,618 @@
+package com.mch.helloble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.mch.helloble.TestDevices.address;
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+
+    private static final long CONNECT_LATENCY = 300;
+    private static final long DISCOVERY_LATENCY = 1000;
+
+    private FakeScheduler mScheduler;
+    private SimulatedConnector mConnector;
+    private final List<String> mEvents = new ArrayList<>();
+
+    private final Executor mDirect = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Connects after {@link #CONNECT_LATENCY} and discovers after {@link #DISCOVERY_LATENCY},
+     * keeping track of how many of each run at once.
+     */
+    private class SimulatedConnector implements GattConnector {
+        final Map<String, GattClient.Callback> callbacks = new ConcurrentHashMap<>();
+        final Map<String, FakeGattClient> clients = new ConcurrentHashMap<>();
+        final List<String> discoveryOrder = new ArrayList<>();
+        final List<String> connectedOrder = new ArrayList<>();
+        final List<Boolean> autoConnects = new ArrayList<>();
+        String unreachable;
+        int failNext;
+        int connecting;
+        int discovering;
+        int maxConnecting;
+        int maxDiscovering;
+
+        @Override
+        public GattClient connect(final String address, boolean autoConnect, final GattClient.Callback callback) {
+            callbacks.put(address, callback);
+            autoConnects.add(autoConnect);
+            connecting++;
+            maxConnecting = Math.max(maxConnecting, connecting);
+            if (failNext > 0) {
+                failNext--;
+                mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        connecting--;
+                        callback.onConnectionStateChange(false, 133);
+                    }
+                }, CONNECT_LATENCY);
+            } else if (!address.equals(unreachable)) {
+                // Later devices connect faster, so completion order differs from request order.
+                long latency = CONNECT_LATENCY + 10 * (100 - Integer.parseInt(address.substring(15), 16) % 100);
+                mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        connecting--;
+                        connectedOrder.add(address);
+                        callback.onConnectionStateChange(true, 0);
+                    }
+                }, latency);
+            }
+            FakeGattClient client = new FakeGattClient() {
+                @Override
+                public boolean discoverServices() {
+                    discovering++;
+                    maxDiscovering = Math.max(maxDiscovering, discovering);
+                    discoveryOrder.add(address);
+                    mScheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            discovering--;
+                            callback.onServicesDiscovered(0);
+                        }
+                    }, DISCOVERY_LATENCY);
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                    if (address.equals(unreachable)) {
+                        connecting--;
+                    }
+                }
+            };
+            clients.put(address, client);
+            return client;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mConnector = new SimulatedConnector();
+    }
+
+    @Test
+    public void capsConnectsAndDiscoversInArrivalOrder() {
+        ConnectionManager manager = newManager(mDirect, 4, 2);
+        for (int i = 0; i < 24; i++) {
+            manager.connect(address(i));
+        }
+        assertEquals(4, manager.getConnectingCount());
+        mScheduler.advance(60000);
+        assertEquals(24, manager.getReadyCount());
+        assertEquals(4, mConnector.maxConnecting);
+        assertEquals(2, mConnector.maxDiscovering);
+        assertEquals(mConnector.connectedOrder, mConnector.discoveryOrder);
+        assertEquals(24 * 2, mEvents.size());
+    }
+
+    @Test
+    public void connectTimeoutFreesTheSlot() {
+        mConnector.unreachable = address(0);
+        ConnectionManager manager = newManager(mDirect, 1, 1);
+        manager.connect(address(0));
+        manager.connect(address(1));
+        mScheduler.advance(14000);
+        assertEquals(ConnectionManager.STATE_CONNECTING, manager.getState(address(0)));
+        assertEquals(ConnectionManager.STATE_DISCONNECTED, manager.getState(address(1)));
+        mScheduler.advance(1000);
+        assertEquals(ConnectionManager.STATE_DISCONNECTED, manager.getState(address(0)));
+        assertEquals(address(0) + " " + GattEvent.TYPE_DISCONNECTED + " " + ConnectionManager.STATUS_CONNECT_TIMEOUT,
+                mEvents.get(0));
+        mScheduler.advance(5000);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(address(1)));
+    }
+
+    @Test
+    public void linkLossClearsQueueAndAllowsReconnect() {
+        ConnectionManager manager = newManager(mDirect, 2, 2);
+        manager.connect(address(3));
+        mScheduler.advance(5000);
+        final int[] cancelled = new int[1];
+        manager.getQueue(address(3)).submit(GattCommand.requestMtu(247).setCallback(new GattCommand.Callback() {
+            @Override
+            public void onComplete(GattCommand command, int status, byte[] value) {
+                cancelled[0] = status;
+            }
+        }));
+        mConnector.callbacks.get(address(3)).onConnectionStateChange(false, 8);
+        assertEquals(GattCommandQueue.STATUS_CANCELLED, cancelled[0]);
+        assertEquals(ConnectionManager.STATE_DISCONNECTED, manager.getState(address(3)));
+        manager.connect(address(3));
+        mScheduler.advance(5000);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(address(3)));
+    }
+
+    @Test
+    public void tunesTheLinkOncePerConnection() {
+        ConnectionManager manager = newManager(mDirect, 2, 2);
+        manager.setLinkProfile(LinkProfile.THROUGHPUT);
+        String device = address(5);
+        manager.connect(device);
+        mScheduler.advance(5000);
+        FakeGattClient client = mConnector.clients.get(device);
+        GattClient.Callback callback = mConnector.callbacks.get(device);
+        assertEquals(Arrays.asList("mtu 517"), client.operations);
+
+        callback.onMtuChanged(247, 0);
+        assertEquals(Arrays.asList("mtu 517", "priority 1", "phy 2 2"), client.operations);
+        callback.onPhyUpdate(GattClient.PHY_LE_2M, GattClient.PHY_LE_2M, 0);
+        assertEquals(247, manager.getMtu(device));
+        assertEquals(GattClient.PHY_LE_2M, manager.getRxPhy(device));
+        assertFalse(manager.getQueue(device).isBusy());
+
+        // Rediscovery after Service Changed keeps the link as it is.
+        callback.onCharacteristicChanged(ConnectionManager.SERVICE_CHANGED, new byte[4]);
+        mScheduler.advance(5000);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(device));
+        assertEquals(3, client.operations.size());
+
+        assertTrue(manager.applyLinkProfile(device, LinkProfile.LOW_POWER));
+        callback.onMtuChanged(247, 0);
+        assertEquals(Arrays.asList("mtu 517", "priority 2", "phy 1 1"), client.operations.subList(3, 6));
+
+        callback.onConnectionStateChange(false, 8);
+        assertEquals(LinkProfile.DEFAULT_MTU, manager.getMtu(device));
+        assertFalse(manager.applyLinkProfile(device, LinkProfile.THROUGHPUT));
+    }
+
+    @Test
+    public void bulkWriteHoldsQueuedCommandsUntilItEnds() {
+        ConnectionManager manager = newManager(mDirect, 2, 2);
+        String device = address(6);
+        manager.connect(device);
+        mScheduler.advance(5000);
+        FakeGattClient client = mConnector.clients.get(device);
+        GattClient.Callback callback = mConnector.callbacks.get(device);
+        GattCommandQueue queue = manager.getQueue(device);
+        UUID service = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+        UUID data = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+        UUID status = UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");
+        final List<String> completed = new ArrayList<>();
+
+        // A poll is running when the transfer is asked for, so the transfer waits for it.
+        queue.submit(GattCommand.read(service, status).setCallback(record("poll", completed)));
+        BulkWriteChannel channel = new BulkWriteChannel(service, data, new byte[100])
+                .setListener(new BulkWriteChannel.Listener() {
+                    @Override
+                    public void onCheckpoint(BulkWriteChannel channel, int offset) {
+                    }
+
+                    @Override
+                    public void onComplete(BulkWriteChannel channel, int status) {
+                        completed.add("bulk " + status);
+                    }
+                });
+        assertTrue(manager.startBulkWrite(device, channel));
+        assertFalse(manager.startBulkWrite(device, new BulkWriteChannel(service, data, new byte[1])));
+        assertEquals(BulkWriteChannel.STATE_IDLE, channel.getState());
+        queue.submit(GattCommand.read(service, status).setCallback(record("read", completed)));
+        queue.submit(GattCommand.write(service, data, new byte[]{1}, GattClient.WRITE_TYPE_DEFAULT)
+                .setCallback(record("write", completed)));
+        callback.onCharacteristicRead(status, new byte[1], 0);
+        assertEquals(BulkWriteChannel.STATE_RUNNING, channel.getState());
+
+        // Only chunks go out until the last one is acknowledged.
+        int handled = 1;
+        while (channel.getState() == BulkWriteChannel.STATE_RUNNING) {
+            assertEquals("write " + data, client.operations.get(handled++));
+            callback.onCharacteristicWrite(data, 0);
+        }
+        assertEquals(BulkWriteChannel.STATE_COMPLETE, channel.getState());
+        assertEquals("read " + status, client.operations.get(handled));
+        callback.onCharacteristicRead(status, new byte[1], 0);
+        assertEquals("write " + data, client.operations.get(handled + 1));
+        callback.onCharacteristicWrite(data, 0);
+        assertEquals(Arrays.asList("poll 0", "bulk 0", "read 0", "write 0"), completed);
+        assertFalse(queue.isPaused());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void linkLossStopsAWaitingBulkWrite() {
+        ConnectionManager manager = newManager(mDirect, 2, 2);
+        String device = address(7);
+        manager.connect(device);
+        mScheduler.advance(5000);
+        GattCommandQueue queue = manager.getQueue(device);
+        UUID service = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+        UUID data = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+        final List<String> completed = new ArrayList<>();
+        queue.submit(GattCommand.read(service, data).setCallback(record("read", completed)));
+        BulkWriteChannel channel = new BulkWriteChannel(service, data, new byte[100])
+                .setListener(new BulkWriteChannel.Listener() {
+                    @Override
+                    public void onCheckpoint(BulkWriteChannel channel, int offset) {
+                    }
+
+                    @Override
+                    public void onComplete(BulkWriteChannel channel, int status) {
+                        completed.add("bulk " + status);
+                    }
+                });
+        assertTrue(manager.startBulkWrite(device, channel));
+
+        mConnector.callbacks.get(device).onConnectionStateChange(false, 8);
+        assertEquals(Arrays.asList("read " + GattCommandQueue.STATUS_CANCELLED,
+                "bulk " + BulkWriteChannel.STATUS_LINK_LOST), completed);
+        assertEquals(BulkWriteChannel.STATE_INTERRUPTED, channel.getState());
+        assertFalse(queue.isPaused());
+    }
+
+    @Test
+    public void latencyProbesRecordEveryStageOnlyWhenSet() {
+        final List<Runnable> pending = new ArrayList<>();
+        ConnectionManager manager = newManager(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pending.add(command);
+            }
+        }, 2, 2);
+        final long[] callbackNanos = new long[1];
+        manager.addListener(new GattEventBus.Listener() {
+            @Override
+            public void onGattEvent(GattEvent event) {
+                callbackNanos[0] = event.callbackNanos;
+            }
+        });
+        String device = address(1);
+        manager.connect(device);
+        mScheduler.advance(5000);
+        runAll(pending);
+        GattClient.Callback callback = mConnector.callbacks.get(device);
+        byte[] value = {0x13, 0x74, (byte) 0xA0, 0x0F, 0x2A, 0x00};
+
+        callback.onCharacteristicChanged(CombinedDataDecoder.CHARACTERISTIC, value);
+        runAll(pending);
+        assertEquals(0, callbackNanos[0]);
+
+        LatencyProbes probes = new LatencyProbes();
+        manager.setLatencyProbes(probes);
+        // One more than the ring holds.
+        for (int i = 0; i < 65; i++) {
+            callback.onCharacteristicChanged(CombinedDataDecoder.CHARACTERISTIC, value);
+        }
+        runAll(pending);
+        assertTrue(callbackNanos[0] > 0);
+        assertEquals(1, probes.getDropped());
+        for (int stage = LatencyProbes.STAGE_CALLBACK; stage <= LatencyProbes.STAGE_RECEIVER; stage++) {
+            assertEquals(LatencyProbes.stageName(stage), 64, probes.get(stage).getCount());
+        }
+        assertEquals(0, probes.get(LatencyProbes.STAGE_DRAW).getCount());
+        // Events that waited behind the others show it.
+        assertTrue(probes.get(LatencyProbes.STAGE_DISPATCH).getMax()
+                >= probes.get(LatencyProbes.STAGE_DISPATCH).getValueAtPercentile(50));
+
+        manager.setLatencyProbes(null);
+        callback.onCharacteristicChanged(CombinedDataDecoder.CHARACTERISTIC, value);
+        runAll(pending);
+        assertEquals(64, probes.get(LatencyProbes.STAGE_DECODE).getCount());
+    }
+
+    @Test
+    public void sensorLogKeepsValuesTheBusDrops() throws IOException {
+        File directory = File.createTempFile("sensor-log", "");
+        assertTrue(directory.delete());
+        SensorLog log = new SensorLog(directory);
+        try {
+            final List<Runnable> pending = new ArrayList<>();
+            ConnectionManager manager = newManager(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    pending.add(command);
+                }
+            }, 2, 2);
+            manager.setSensorLog(log);
+            String device = address(1);
+            manager.connect(device);
+            mScheduler.advance(5000);
+            runAll(pending);
+            GattClient.Callback callback = mConnector.callbacks.get(device);
+            long before = System.currentTimeMillis();
+            // More than the ring holds, with nothing drained in between.
+            for (int i = 0; i < 100; i++) {
+                callback.onCharacteristicChanged(CombinedDataDecoder.CHARACTERISTIC,
+                        new byte[]{(byte) i, 0x74, (byte) 0xA0, 0x0F, 0x2A, 0x00});
+            }
+            callback.onCharacteristicRead(CombinedDataDecoder.CHARACTERISTIC, new byte[]{1}, 133);
+            long after = System.currentTimeMillis();
+            assertTrue(manager.getDroppedEvents() > 0);
+
+            final List<Long> timestamps = new ArrayList<>();
+            final int[] next = new int[1];
+            log.replay(new SensorLog.Visitor() {
+                @Override
+                public void onRecord(SensorLog.Record record) {
+                    assertEquals(next[0]++, record.payload[0] & 0xFF);
+                    timestamps.add(record.timestamp);
+                }
+            });
+            assertEquals(100, next[0]);
+            // Stamped on arrival, not when the receivers get to them.
+            runAll(pending);
+            assertTrue(timestamps.get(0) >= before);
+            assertTrue(timestamps.get(99) <= after);
+
+            manager.setSensorLog(null);
+            callback.onCharacteristicChanged(CombinedDataDecoder.CHARACTERISTIC, new byte[]{1});
+            assertEquals(100, log.getSegmentRecordCount());
+        } finally {
+            log.close();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void reconnectsWithBackoffAndAutoConnect() {
+        ConnectionManager manager = newManager(mDirect, 2, 2);
+        manager.setReconnectPolicy(new ReconnectPolicy(1000, 8000, new Random(3)));
+        String device = address(99);
+        manager.connect(device);
+        mScheduler.advance(5000);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(device));
+        assertEquals(Arrays.asList(false), mConnector.autoConnects);
+
+        // Lost, then three failed attempts before one gets through.
+        mConnector.failNext = 3;
+        long lost = mScheduler.now();
+        mConnector.callbacks.get(device).onConnectionStateChange(false, 8);
+        ConnectionStats stats = manager.getStats(device);
+        assertTrue(stats.isInOutage());
+        long[] attemptTimes = new long[5];
+        int attempts = 0;
+        while (manager.getState(device) != ConnectionManager.STATE_READY) {
+            int before = mConnector.autoConnects.size();
+            mScheduler.advance(1);
+            if (mConnector.autoConnects.size() > before) {
+                attemptTimes[attempts++] = mScheduler.now();
+            }
+        }
+        assertEquals(4, attempts);
+        assertEquals(Arrays.asList(false, true, true, true, true), mConnector.autoConnects);
+        // Each wait is between half and all of 1, 2, 4, 8 s after the previous failure.
+        long previousEnd = lost;
+        for (int i = 0; i < attempts; i++) {
+            long wait = attemptTimes[i] - previousEnd;
+            long nominal = 1000L << i;
+            assertTrue("wait " + i + " was " + wait, wait >= nominal / 2 && wait <= nominal);
+            previousEnd = attemptTimes[i] + CONNECT_LATENCY;
+        }
+        assertEquals(0, manager.getConnectingCount());
+
+        assertFalse(stats.isInOutage());
+        assertEquals(1, stats.getReconnects());
+        assertEquals(5, stats.getAttempts());
+        assertEquals(mScheduler.now() - lost, stats.getLastReconnectLatency());
+        assertEquals(stats.getLastReconnectLatency(), stats.getDisconnectedMillis(mScheduler.now()));
+
+        // A later loss starts the backoff from the beginning again.
+        mConnector.callbacks.get(device).onConnectionStateChange(false, 8);
+        mScheduler.advance(1000 + CONNECT_LATENCY + 2000);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(device));
+        assertEquals(2, stats.getReconnects());
+    }
+
+    @Test
+    public void disconnectStopsReconnecting() {
+        ConnectionManager manager = newManager(mDirect, 2, 2);
+        manager.setReconnectPolicy(new ReconnectPolicy(1000, 8000, new Random(3)));
+        String device = address(7);
+        manager.connect(device);
+        mScheduler.advance(5000);
+        mConnector.failNext = 100;
+        mConnector.callbacks.get(device).onConnectionStateChange(false, 8);
+        mScheduler.advance(10000);
+        int attempts = mConnector.autoConnects.size();
+        assertTrue(attempts > 2);
+
+        manager.disconnect(device);
+        ConnectionStats stats = manager.getStats(device);
+        assertFalse(stats.isInOutage());
+        assertEquals(10000, stats.getDisconnectedMillis(mScheduler.now()));
+        mScheduler.advance(60000);
+        assertEquals(attempts, mConnector.autoConnects.size());
+        assertEquals(0, stats.getReconnects());
+        assertEquals(10000, stats.getDisconnectedMillis(mScheduler.now()));
+
+        // Asking again connects straight away instead of waiting out the backoff.
+        mConnector.failNext = 0;
+        manager.connect(device);
+        assertFalse(mConnector.autoConnects.get(mConnector.autoConnects.size() - 1));
+        mScheduler.advance(5000);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(device));
+    }
+
+    @Test
+    public void outagesIncludeDeepSleep() {
+        ConnectionManager manager = newManager(mDirect, 2, 2);
+        manager.setReconnectPolicy(new ReconnectPolicy(1000, 8000, new Random(3)));
+        String device = address(3);
+        manager.connect(device);
+        mScheduler.advance(5000);
+        ConnectionStats stats = manager.getStats(device);
+
+        mConnector.callbacks.get(device).onConnectionStateChange(false, 8);
+        // The backoff waits in uptime, which stands still while the phone sleeps; the outage does not.
+        mScheduler.sleep(60000);
+        assertEquals(60000, stats.getDisconnectedMillis(mScheduler.elapsedRealtime()));
+        mScheduler.advance(5000);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(device));
+        assertTrue(stats.toString(), stats.getLastReconnectLatency() > 60000);
+        assertTrue(stats.toString(), stats.getLastReconnectLatency() < 65000);
+    }
+
+    @Test
+    public void withoutPolicyLostDevicesStayDisconnected() {
+        ConnectionManager manager = newManager(mDirect, 2, 2);
+        manager.connect(address(1));
+        mScheduler.advance(5000);
+        mConnector.callbacks.get(address(1)).onConnectionStateChange(false, 8);
+        mScheduler.advance(120000);
+        assertEquals(ConnectionManager.STATE_DISCONNECTED, manager.getState(address(1)));
+        assertEquals(1, mConnector.autoConnects.size());
+        assertTrue(manager.getStats(address(1)).isInOutage());
+    }
+
+    /**
+     * Simulates 24 devices notifying from their own threads in bursts of 8 every millisecond,
+     * far above what a BLE link delivers, and checks that the merged stream keeps up, keeps
+     * per-device order and shares the consumer fairly.
+     */
+    @Test
+    public void loadTestManyDevices() throws Exception {
+        final int devices = 24;
+        final int perDevice = 4000;
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        ConnectionManager manager = new ConnectionManager(mConnector, mScheduler, consumer, 4, 2);
+        final Map<String, int[]> received = new HashMap<>();
+        for (int i = 0; i < devices; i++) {
+            received.put(address(i), new int[]{0, -1});
+            manager.connect(address(i));
+        }
+        mScheduler.advance(60000);
+        assertEquals(devices, manager.getReadyCount());
+
+        final boolean[] outOfOrder = new boolean[1];
+        final long[] total = new long[1];
+        manager.addListener(new GattEventBus.Listener() {
+            @Override
+            public void onGattEvent(GattEvent event) {
+                if (event.type != GattEvent.TYPE_DATA_AVAILABLE) {
+                    return;
+                }
+                int[] counts = received.get(event.address);
+                if (event.sample.airQuality <= counts[1]) {
+                    outOfOrder[0] = true;
+                }
+                counts[1] = event.sample.airQuality;
+                counts[0]++;
+                total[0]++;
+            }
+        });
+
+        final CountDownLatch done = new CountDownLatch(devices);
+        for (int i = 0; i < devices; i++) {
+            final GattClient.Callback callback = mConnector.callbacks.get(address(i));
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] payload = {0x13, 0x74, (byte) 0x88, 0x13, 0, 0};
+                    for (int n = 0; n < perDevice; n++) {
+                        payload[4] = (byte) n;
+                        payload[5] = (byte) (n >> 8);
+                        callback.onCharacteristicChanged(CombinedDataDecoder.CHARACTERISTIC, payload);
+                        if (n % 8 == 7) {
+                            LockSupport.parkNanos(1000000);
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        while (true) {
+            final CountDownLatch step = new CountDownLatch(1);
+            consumer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    step.countDown();
+                }
+            });
+            step.await();
+            if (total[0] + manager.getDroppedEvents() == (long) devices * perDevice) {
+                break;
+            }
+            Thread.sleep(1);
+        }
+        consumer.shutdown();
+
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int[] counts : received.values()) {
+            min = Math.min(min, counts[0]);
+            max = Math.max(max, counts[0]);
+        }
+        long offered = (long) devices * perDevice;
+        assertFalse(outOfOrder[0]);
+        assertTrue("too many drops", manager.getDroppedEvents() * 10 < offered);
+        assertTrue("device starved: min " + min + " max " + max, min * 10 >= max * 8);
+    }
+
+    private ConnectionManager newManager(Executor executor, int connects, int discoveries) {
+        ConnectionManager manager = new ConnectionManager(mConnector, mScheduler, executor, connects, discoveries);
+        manager.addListener(new GattEventBus.Listener() {
+            @Override
+            public void onGattEvent(GattEvent event) {
+                mEvents.add(event.address + " " + event.type + " " + event.status);
+            }
+        });
+        return manager;
+    }
+
+    private static GattCommand.Callback record(final String name, final List<String> completed) {
+        return new GattCommand.Callback() {
+            @Override
+            public void onComplete(GattCommand command, int status, byte[] value) {
+                completed.add(name + " " + status);
+            }
+        };
+    }
+
+    private static void runAll(List<Runnable> pending) {
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+    }
+}
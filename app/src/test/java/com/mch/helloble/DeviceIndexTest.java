@@ -0,0 +1,286 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.mch.helloble.TestDevices.address;
+import static org.junit.Assert.*;
+
+public class DeviceIndexTest {
+
+    private static class RecordingListener implements DeviceIndex.ChangeListener {
+        final List<String> changes = new ArrayList<>();
+
+        @Override
+        public void onInserted(int position, int count) {
+            changes.add("insert " + position + "+" + count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            changes.add("move " + fromPosition + ">" + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            changes.add("change " + position + "+" + count);
+        }
+
+        @Override
+        public void onReset() {
+            changes.add("reset");
+        }
+    }
+
+    /**
+     * Replays the reported changes on a copy of the list, the way a RecyclerView would.
+     */
+    private static void assertReplays(List<Long> shown, List<String> changes, DeviceIndex index) {
+        for (String change : changes) {
+            if (change.startsWith("insert ")) {
+                String[] range = change.substring(7).split("\\+");
+                int position = Integer.parseInt(range[0]);
+                for (int i = 0; i < Integer.parseInt(range[1]); i++) {
+                    shown.add(position + i, -1L);
+                }
+            } else if (change.startsWith("move ")) {
+                String[] move = change.substring(5).split(">");
+                shown.add(Integer.parseInt(move[1]), shown.remove(Integer.parseInt(move[0])));
+            }
+        }
+        assertEquals(index.size(), shown.size());
+        for (int i = 0; i < shown.size(); i++) {
+            if (shown.get(i) == -1L) {
+                shown.set(i, index.get(i).id);
+            }
+            assertEquals(index.get(i).id, (long) shown.get(i));
+        }
+    }
+
+    @Test
+    public void deduplicatesByAddressAndTracksStats() {
+        DeviceIndex index = new DeviceIndex();
+        index.onAdvertisement("AA:00", "one", -70, 100);
+        index.onAdvertisement("AA:01", null, -80, 150);
+        DeviceIndex.Entry entry = index.onAdvertisement("AA:00", null, -60, 200);
+        assertEquals(2, index.size());
+        assertSame(entry, index.get(0));
+        assertEquals("one", entry.name);
+        assertEquals(-60, entry.rssi);
+        assertEquals(100, entry.firstSeen);
+        assertEquals(200, entry.lastSeen);
+        assertEquals(2, entry.advertisementCount);
+        assertEquals(0, entry.id);
+        assertEquals(1, index.find("AA:01").id);
+    }
+
+    @Test
+    public void batchesInsertsAndMergesChangedRanges() {
+        DeviceIndex index = new DeviceIndex();
+        RecordingListener listener = new RecordingListener();
+        for (int i = 0; i < 10; i++) {
+            index.onAdvertisement("AA:0" + i, null, -50, 0);
+        }
+        index.flush(listener);
+        assertEquals(Arrays.asList("insert 0+10"), listener.changes);
+        listener.changes.clear();
+
+        index.onAdvertisement("AA:05", null, -51, 1);
+        index.onAdvertisement("AA:03", null, -51, 1);
+        index.onAdvertisement("AA:04", null, -51, 1);
+        index.onAdvertisement("AA:04", null, -52, 2);
+        index.onAdvertisement("AA:08", null, -51, 1);
+        index.onAdvertisement("BB:00", null, -51, 1);
+        index.onAdvertisement("BB:00", null, -51, 1);
+        assertTrue(index.hasPendingChanges());
+        index.flush(listener);
+        assertEquals(Arrays.asList("insert 10+1", "change 3+3", "change 8+1"), listener.changes);
+        assertFalse(index.hasPendingChanges());
+
+        listener.changes.clear();
+        index.flush(listener);
+        assertTrue(listener.changes.isEmpty());
+    }
+
+    @Test
+    public void walksListWhenMostRowsChanged() {
+        DeviceIndex index = new DeviceIndex();
+        RecordingListener listener = new RecordingListener();
+        for (int i = 0; i < 8; i++) {
+            index.onAdvertisement("AA:0" + i, null, -50, 0);
+        }
+        index.flush(listener);
+        listener.changes.clear();
+        for (int i : new int[]{7, 0, 1, 2, 5, 6}) {
+            index.onAdvertisement("AA:0" + i, null, -40, 1);
+        }
+        index.flush(listener);
+        assertEquals(Arrays.asList("change 0+3", "change 5+3"), listener.changes);
+    }
+
+    @Test
+    public void restoredDevicesGoLiveOnTheirFirstAdvertisement() {
+        DeviceIndex index = new DeviceIndex();
+        RecordingListener listener = new RecordingListener();
+        SensorSample reading = new SensorSample();
+        reading.set(21.5, 40, 450);
+        index.restore("AA:00", "one", -90, reading);
+        index.restore("AA:01", "two", -60, null);
+        index.flush(listener);
+        assertEquals(Arrays.asList("insert 0+2"), listener.changes);
+        assertTrue(index.get(0).recent);
+        assertSame(reading, index.get(0).lastReading);
+        assertEquals(0, index.get(0).advertisementCount);
+
+        listener.changes.clear();
+        assertSame(index.get(0), index.restore("AA:00", "other", -50, null));
+        DeviceIndex.Entry entry = index.onAdvertisement("AA:00", null, -50, 1000);
+        index.onAdvertisement("AA:02", "three", -70, 1000);
+        index.flush(listener);
+        assertEquals(Arrays.asList("insert 2+1", "change 0+1"), listener.changes);
+        assertFalse(entry.recent);
+        assertEquals("one", entry.name);
+        // The remembered RSSI is not averaged in.
+        assertEquals(-50, entry.smoothedRssi, 0);
+        assertEquals(1000, entry.firstSeen);
+        assertTrue(index.get(1).recent);
+    }
+
+    @Test
+    public void smoothsRssi() {
+        DeviceIndex index = new DeviceIndex();
+        DeviceIndex.Entry entry = index.onAdvertisement("AA:00", null, -80, 0);
+        assertEquals(-80f, entry.smoothedRssi, 0f);
+        index.onAdvertisement("AA:00", null, -40, 1);
+        assertEquals(-70f, entry.smoothedRssi, 1e-6f);
+        for (int i = 0; i < 50; i++) {
+            index.onAdvertisement("AA:00", null, -40, 2 + i);
+        }
+        assertEquals(-40f, entry.smoothedRssi, 0.01f);
+        assertEquals(-40, entry.rssi);
+    }
+
+    @Test
+    public void ranksByProximityWithHysteresis() {
+        DeviceIndex index = new DeviceIndex();
+        index.setRankByProximity(true);
+        RecordingListener listener = new RecordingListener();
+        index.onAdvertisement("AA:00", null, -70, 0);
+        index.onAdvertisement("AA:01", null, -50, 0);
+        index.onAdvertisement("AA:02", null, -90, 0);
+        index.onAdvertisement("AA:03", null, -60, 0);
+        assertEquals("AA:01", index.get(0).address);
+        assertEquals("AA:03", index.get(1).address);
+        assertEquals("AA:00", index.get(2).address);
+        assertEquals("AA:02", index.get(3).address);
+        index.flush(listener);
+        assertEquals(Arrays.asList("reset"), listener.changes);
+        List<Long> shown = new ArrayList<>();
+        for (int i = 0; i < index.size(); i++) {
+            shown.add(index.get(i).id);
+        }
+
+        // A single strong reading moves AA:00 to -65, inside the hysteresis band of AA:03.
+        listener.changes.clear();
+        index.onAdvertisement("AA:00", null, -50, 1);
+        assertEquals("AA:00", index.get(2).address);
+        index.flush(listener);
+        assertEquals(Arrays.asList("change 2+1"), listener.changes);
+
+        // Staying close, it passes both neighbours in one move.
+        listener.changes.clear();
+        for (int i = 0; i < 10; i++) {
+            index.onAdvertisement("AA:00", null, -30, 2);
+        }
+        index.onAdvertisement("AA:04", null, -95, 2);
+        index.flush(listener);
+        assertEquals("AA:00", index.get(0).address);
+        // The rank steps up several times, but the moves of one row merge into one.
+        assertEquals(Arrays.asList("move 2>0", "insert 4+1", "change 0+1"), listener.changes);
+        assertReplays(shown, listener.changes, index);
+    }
+
+    @Test
+    public void reportedMovesReplayToTheRankedOrder() {
+        DeviceIndex index = new DeviceIndex();
+        RecordingListener listener = new RecordingListener();
+        index.setRankByProximity(true);
+        index.flush(listener);
+        List<Long> shown = new ArrayList<>();
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            listener.changes.clear();
+            for (int i = 0; i < 6; i++) {
+                index.onAdvertisement("AA:0" + random.nextInt(10), null, -40 - random.nextInt(60), round);
+            }
+            index.flush(listener);
+            assertReplays(shown, listener.changes, index);
+            for (int i = 1; i < index.size(); i++) {
+                assertTrue(index.get(i).rankRssi <= index.get(i - 1).rankRssi);
+                assertEquals(index.get(i).smoothedRssi, index.get(i).rankRssi, DeviceIndex.RANK_HYSTERESIS);
+            }
+        }
+    }
+
+    @Test
+    public void resetsWhenTooMuchMoved() {
+        DeviceIndex index = new DeviceIndex();
+        RecordingListener listener = new RecordingListener();
+        index.setRankByProximity(true);
+        for (int i = 0; i < 200; i++) {
+            index.onAdvertisement("AA:" + i, null, -20 - i / 2, 0);
+        }
+        index.flush(listener);
+        listener.changes.clear();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 200; i++) {
+                index.onAdvertisement("AA:" + i, null, -120 + i / 2, 1);
+            }
+        }
+        index.flush(listener);
+        assertEquals(Arrays.asList("reset"), listener.changes);
+        assertFalse(index.hasPendingChanges());
+        assertEquals(-21f, index.get(0).rankRssi, DeviceIndex.RANK_HYSTERESIS);
+    }
+
+    /**
+     * 1,000 advertisers at 10 Hz for a simulated minute with the list refreshed twice a second.
+     * Unranked, each refresh reports at most an insert range and a change range.
+     */
+    @Test
+    public void thousandAdvertisersCoalesceIntoFewNotifications() {
+        for (boolean ranked : new boolean[]{false, true}) {
+            int devices = 1000;
+            String[] addresses = new String[devices];
+            for (int i = 0; i < devices; i++) {
+                addresses[i] = address(i);
+            }
+
+            DeviceIndex index = new DeviceIndex();
+            index.setRankByProximity(ranked);
+            RecordingListener listener = new RecordingListener();
+            Random random = new Random(1);
+            long flushes = 0;
+            for (int tick = 0; tick < 600; tick++) {
+                for (int i = 0; i < devices; i++) {
+                    // Each device sits at its own distance, with +/-6 dB of fading on every packet.
+                    int device = (i * 7 + tick) % devices;
+                    index.onAdvertisement(addresses[device], null, -40 - device % 50 + random.nextInt(13) - 6,
+                            tick * 100L);
+                }
+                if (tick % 5 == 2) {
+                    index.flush(listener);
+                    flushes++;
+                }
+            }
+            assertEquals(devices, index.size());
+            if (!ranked) {
+                assertTrue(listener.changes.size() <= flushes * 2);
+            }
+        }
+    }
+}
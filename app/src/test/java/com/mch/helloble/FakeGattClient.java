@@ -0,0 +1,95 @@
+package com.mch.helloble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link GattClient} that records every operation it is asked to start.
+ */
+public class FakeGattClient implements GattClient {
+
+    public final List<String> operations = new ArrayList<>();
+
+    public boolean accept = true;
+
+    /**
+     * Returned by {@link #getServices()}; set by {@link #useServices} when
+     * {@link #acceptCachedServices} is true.
+     */
+    public GattServiceTree services;
+
+    public boolean acceptCachedServices;
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        operations.add("read " + characteristic);
+        return accept;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+        operations.add("write " + characteristic);
+        return accept;
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        operations.add("writeDescriptor " + characteristic + " " + descriptor + " " + value[0]);
+        return accept;
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        operations.add("notify " + characteristic + " " + enable);
+        return accept;
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        operations.add("mtu " + mtu);
+        return accept;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        operations.add("priority " + priority);
+        return accept;
+    }
+
+    @Override
+    public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+        operations.add("phy " + txPhyMask + " " + rxPhyMask);
+        return accept;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        operations.add("discover");
+        return accept;
+    }
+
+    @Override
+    public GattServiceTree getServices() {
+        return services;
+    }
+
+    @Override
+    public boolean useServices(GattServiceTree cached) {
+        operations.add("useServices");
+        if (acceptCachedServices) {
+            services = cached;
+        }
+        return acceptCachedServices;
+    }
+
+    @Override
+    public void disconnect() {
+        operations.add("disconnect");
+    }
+
+    @Override
+    public void close() {
+        operations.add("close");
+    }
+}
@@ -0,0 +1,95 @@
+package com.mch.helloble;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * {@link Scheduler} driven by hand: time only moves when a test calls {@link #advance(long)}
+ * or {@link #sleep(long)}.
+ */
+public class FakeScheduler implements Scheduler {
+
+    private static class Task implements Comparable<Task> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+
+        Task(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>();
+
+    private long mNow;
+
+    private long mSlept;
+
+    private long mSequence;
+
+    @Override
+    public long now() {
+        return mNow;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return mNow + mSlept;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        mTasks.add(new Task(mNow + Math.max(0, delayMillis), mSequence++, task));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        Iterator<Task> iterator = mTasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().runnable == task) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Moves the clock forward, running every task that falls due on the way.
+     */
+    public void advance(long millis) {
+        long end = mNow + millis;
+        while (!mTasks.isEmpty() && mTasks.peek().time <= end) {
+            Task task = mTasks.poll();
+            mNow = Math.max(mNow, task.time);
+            task.runnable.run();
+        }
+        mNow = end;
+    }
+
+    /**
+     * Deep sleep: only {@link #elapsedRealtime()} moves, and no task runs.
+     */
+    public void sleep(long millis) {
+        mSlept += millis;
+    }
+
+    /**
+     * Runs the tasks that are due now without moving the clock.
+     */
+    public void runDue() {
+        advance(0);
+    }
+
+    public int pendingCount() {
+        return mTasks.size();
+    }
+}
@@ -0,0 +1,83 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattBrowserModelTest {
+
+    private static final UUID GENERIC_ACCESS = UUID.fromString("00001800-0000-1000-8000-00805f9b34fb");
+    private static final UUID DEVICE_NAME = UUID.fromString("00002a00-0000-1000-8000-00805f9b34fb");
+    private static final UUID APPEARANCE = UUID.fromString("00002a01-0000-1000-8000-00805f9b34fb");
+    private static final UUID SENSOR = UUID.fromString("3bd91500-ec56-9cf3-b2df-f2e239d01013");
+
+    private static GattServiceTree tree(int sensorProperties) {
+        GattServiceTree tree = new GattServiceTree();
+        GattServiceTree.Service access = tree.addService(GENERIC_ACCESS);
+        access.addCharacteristic(DEVICE_NAME, GattServiceTree.PROPERTY_READ);
+        access.addCharacteristic(APPEARANCE, GattServiceTree.PROPERTY_READ);
+        tree.addService(SENSOR).addCharacteristic(CombinedDataDecoder.CHARACTERISTIC, sensorProperties);
+        return tree;
+    }
+
+    @Test
+    public void servicesStartCollapsedAndExpandInPlace() {
+        GattBrowserModel model = new GattBrowserModel();
+        model.setServices(tree(GattServiceTree.PROPERTY_NOTIFY));
+        assertEquals(2, model.size());
+        assertEquals(GattBrowserModel.TYPE_SERVICE, model.get(1).type);
+
+        assertEquals(2, model.toggle(0));
+        assertEquals(4, model.size());
+        assertEquals(DEVICE_NAME, model.get(1).uuid);
+        assertEquals(SENSOR, model.get(3).uuid);
+        assertEquals(0, model.toggle(1));
+
+        assertEquals(2, model.toggle(0));
+        assertEquals(2, model.size());
+    }
+
+    @Test
+    public void nodesKeepIdsAndLabelsAcrossUpdates() {
+        GattBrowserModel model = new GattBrowserModel();
+        model.setServices(tree(GattServiceTree.PROPERTY_NOTIFY));
+        model.toggle(0);
+        model.toggle(3);
+        GattBrowserModel.Node name = model.get(1);
+        GattBrowserModel.Node combined = model.get(4);
+        assertEquals(CombinedDataDecoder.CHARACTERISTIC + " ! ", combined.label);
+
+        model.setServices(tree(GattServiceTree.PROPERTY_NOTIFY | GattServiceTree.PROPERTY_READ));
+        assertEquals(5, model.size());
+        assertSame(name, model.get(1));
+        assertSame(name.label, model.get(1).label);
+        assertTrue(model.get(0).isExpanded());
+        // Changed properties make a new row.
+        assertNotSame(combined, model.get(4));
+        assertTrue(model.get(4).id > combined.id);
+    }
+
+    @Test
+    public void valuesGoToTheirRowAndSurviveCollapse() {
+        GattBrowserModel model = new GattBrowserModel();
+        model.setServices(tree(GattServiceTree.PROPERTY_NOTIFY));
+        byte[] value = {0x13, 0x74, (byte) 0xA0, 0x0F};
+        assertEquals(-1, model.onValue(CombinedDataDecoder.CHARACTERISTIC, value, 4));
+        assertEquals(-1, model.onValue(UUID.randomUUID(), value, 4));
+
+        model.toggle(1);
+        assertEquals(2, model.onValue(CombinedDataDecoder.CHARACTERISTIC, value, 3));
+        GattBrowserModel.Node node = model.get(2);
+        assertTrue(node.hasValue());
+        // Too short for the combined parser, so it falls back to hex.
+        char[] text = new char[CharacteristicParser.MAX_TEXT_LENGTH];
+        int length = GattBrowserModel.formatValue(node, ParserRegistry.getDefault(), text);
+        assertEquals("13 74 A0", new String(text, 0, length));
+
+        model.toggle(0);
+        assertEquals(4, model.onValue(CombinedDataDecoder.CHARACTERISTIC, value, 4));
+        assertFalse(model.get(1).hasValue());
+    }
+}
@@ -0,0 +1,154 @@
+package com.mch.helloble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattCommandQueueTest {
+
+    private static final UUID SERVICE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHAR_A = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHAR_B = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
+
+    private FakeGattClient mClient;
+    private FakeScheduler mScheduler;
+    private GattCommandQueue mQueue;
+    private List<String> mResults;
+
+    private final GattCommand.Callback mCallback = new GattCommand.Callback() {
+        @Override
+        public void onComplete(GattCommand command, int status, byte[] value) {
+            mResults.add(command.getType() + ":" + status + (value == null ? "" : ":" + value[0]));
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mClient = new FakeGattClient();
+        mScheduler = new FakeScheduler();
+        mQueue = new GattCommandQueue(mClient, mScheduler);
+        mResults = new ArrayList<>();
+    }
+
+    @Test
+    public void runsOneCommandAtATime() {
+        mQueue.submit(GattCommand.read(SERVICE, CHAR_A).setCallback(mCallback));
+        mQueue.submit(GattCommand.enableNotifications(SERVICE, CHAR_A, new byte[]{1, 0}).setCallback(mCallback));
+        assertEquals(Arrays.asList("read " + CHAR_A), mClient.operations);
+        assertEquals(2, mQueue.size());
+
+        mQueue.onCharacteristicRead(CHAR_A, new byte[]{7}, 0);
+        assertEquals(Arrays.asList("1:0:7"), mResults);
+        assertEquals(Arrays.asList(
+                "read " + CHAR_A,
+                "notify " + CHAR_A + " true",
+                "writeDescriptor " + CHAR_A + " " + GattClient.CLIENT_CHARACTERISTIC_CONFIG + " 1"),
+                mClient.operations);
+
+        mQueue.onDescriptorWrite(CHAR_A, GattClient.CLIENT_CHARACTERISTIC_CONFIG, 0);
+        assertEquals(Arrays.asList("1:0:7", "4:0"), mResults);
+        assertFalse(mQueue.isBusy());
+        assertEquals(0, mScheduler.pendingCount());
+    }
+
+    @Test
+    public void ignoresCallbacksThatDoNotMatch() {
+        mQueue.submit(GattCommand.read(SERVICE, CHAR_A).setCallback(mCallback));
+        mQueue.onCharacteristicRead(CHAR_B, new byte[]{1}, 0);
+        mQueue.onMtuChanged(185, 0);
+        assertTrue(mQueue.isBusy());
+        assertTrue(mResults.isEmpty());
+    }
+
+    @Test
+    public void retriesAfterTimeoutThenFails() {
+        mQueue.submit(GattCommand.read(SERVICE, CHAR_A).setTimeout(100).setRetries(1).setCallback(mCallback));
+        mQueue.submit(GattCommand.requestMtu(247).setCallback(mCallback));
+        mScheduler.advance(100);
+        assertEquals(2, mClient.operations.size());
+        assertEquals("read " + CHAR_A, mClient.operations.get(1));
+        mScheduler.advance(100);
+        assertEquals(Arrays.asList("1:" + GattCommandQueue.STATUS_TIMEOUT), mResults);
+        assertEquals("mtu 247", mClient.operations.get(2));
+        // A late answer to the timed-out read must not complete the MTU request.
+        mQueue.onCharacteristicRead(CHAR_A, new byte[]{1}, 0);
+        assertEquals(1, mResults.size());
+        mQueue.onMtuChanged(247, 0);
+        assertEquals("5:0", mResults.get(1));
+    }
+
+    @Test
+    public void retriesRejectedCommandsAfterDelay() {
+        mClient.accept = false;
+        mQueue.submit(GattCommand.read(SERVICE, CHAR_A).setRetries(2).setCallback(mCallback));
+        assertEquals(1, mClient.operations.size());
+        mScheduler.advance(50);
+        assertEquals(2, mClient.operations.size());
+        mClient.accept = true;
+        mScheduler.advance(50);
+        assertEquals(3, mClient.operations.size());
+        assertTrue(mQueue.isBusy());
+        mQueue.onCharacteristicRead(CHAR_A, new byte[]{3}, 0);
+        assertEquals(Arrays.asList("1:0:3"), mResults);
+    }
+
+    @Test
+    public void reportsRejectionWhenRetriesRunOut() {
+        mClient.accept = false;
+        mQueue.submit(GattCommand.read(SERVICE, CHAR_A).setRetries(0).setCallback(mCallback));
+        assertEquals(Arrays.asList("1:" + GattCommandQueue.STATUS_REJECTED), mResults);
+        assertEquals(0, mQueue.size());
+    }
+
+    @Test
+    public void servesHigherPriorityFirstWithoutStarvingLowerLanes() {
+        mQueue.submit(GattCommand.requestMtu(23));
+        GattCommand low = GattCommand.read(SERVICE, CHAR_B).setPriority(GattCommand.PRIORITY_LOW).setCallback(mCallback);
+        mQueue.submit(low);
+        for (int i = 0; i < 20; i++) {
+            mQueue.submit(GattCommand.read(SERVICE, CHAR_A).setPriority(GattCommand.PRIORITY_HIGH));
+        }
+        mQueue.onMtuChanged(23, 0);
+        int served = 0;
+        while (!mResults.contains("1:0:9")) {
+            String last = mClient.operations.get(mClient.operations.size() - 1);
+            if (last.equals("read " + CHAR_B)) {
+                mQueue.onCharacteristicRead(CHAR_B, new byte[]{9}, 0);
+            } else {
+                mQueue.onCharacteristicRead(CHAR_A, new byte[]{0}, 0);
+                served++;
+            }
+        }
+        assertEquals(GattCommandQueue.MAX_SKIPS, served);
+    }
+
+    @Test
+    public void clearCancelsEverything() {
+        mQueue.submit(GattCommand.read(SERVICE, CHAR_A).setCallback(mCallback));
+        mQueue.submit(GattCommand.read(SERVICE, CHAR_B).setCallback(mCallback));
+        mQueue.clear();
+        assertEquals(Arrays.asList("1:" + GattCommandQueue.STATUS_CANCELLED, "1:" + GattCommandQueue.STATUS_CANCELLED), mResults);
+        assertEquals(0, mQueue.size());
+        assertEquals(0, mScheduler.pendingCount());
+    }
+
+    @Test
+    public void connectionPriorityCompletesWithoutCallback() {
+        mQueue.submit(GattCommand.connectionPriority(GattClient.CONNECTION_PRIORITY_HIGH).setCallback(mCallback));
+        mQueue.submit(GattCommand.preferredPhy(GattClient.PHY_LE_2M_MASK).setCallback(mCallback));
+        assertEquals(Arrays.asList("6:0"), mResults);
+        assertEquals(Arrays.asList("priority 1", "phy 2 2"), mClient.operations);
+        assertTrue(mQueue.isBusy());
+        mQueue.onMtuChanged(247, 0);
+        assertTrue(mQueue.isBusy());
+        mQueue.onPhyUpdate(GattClient.PHY_LE_2M, GattClient.PHY_LE_2M, 0);
+        assertEquals(Arrays.asList("6:0", "7:0"), mResults);
+        assertFalse(mQueue.isBusy());
+    }
+}
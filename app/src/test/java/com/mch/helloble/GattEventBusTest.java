@@ -0,0 +1,127 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GattEventBusTest {
+
+    private static class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.poll().run();
+            }
+        }
+    }
+
+    @Test
+    public void schedulesOneDrainPerBurst() {
+        ManualExecutor executor = new ManualExecutor();
+        GattEventBus bus = new GattEventBus(16, executor);
+        final int[] received = new int[1];
+        bus.addListener(new GattEventBus.Listener() {
+            @Override
+            public void onGattEvent(GattEvent event) {
+                assertEquals(received[0], event.status);
+                received[0]++;
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            bus.claim(GattEvent.TYPE_DATA_AVAILABLE).status = i;
+            bus.publish();
+        }
+        assertEquals(1, executor.mTasks.size());
+        assertEquals(10, bus.getBacklog());
+        executor.runAll();
+        assertEquals(10, received[0]);
+        assertEquals(0, bus.getBacklog());
+    }
+
+    @Test
+    public void countsDropsWhenConsumerFallsBehind() {
+        ManualExecutor executor = new ManualExecutor();
+        GattEventBus bus = new GattEventBus(8, executor);
+        for (int i = 0; i < 13; i++) {
+            bus.publish(GattEvent.TYPE_DATA_AVAILABLE);
+        }
+        assertEquals(8, bus.getPublished());
+        assertEquals(5, bus.getDropped());
+        assertEquals(8, bus.getBacklog());
+        assertNull(bus.claim(GattEvent.TYPE_CONNECTED));
+        executor.runAll();
+        assertEquals(0, bus.getBacklog());
+        assertTrue(bus.publish(GattEvent.TYPE_CONNECTED));
+    }
+
+    @Test
+    public void removedListenerStopsReceiving() {
+        ManualExecutor executor = new ManualExecutor();
+        GattEventBus bus = new GattEventBus(4, executor);
+        final int[] received = new int[1];
+        GattEventBus.Listener listener = new GattEventBus.Listener() {
+            @Override
+            public void onGattEvent(GattEvent event) {
+                received[0]++;
+            }
+        };
+        bus.addListener(listener);
+        bus.publish(GattEvent.TYPE_CONNECTED);
+        executor.runAll();
+        bus.removeListener(listener);
+        bus.publish(GattEvent.TYPE_DISCONNECTED);
+        executor.runAll();
+        assertEquals(1, received[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPowerOfTwoCapacity() {
+        new GattEventBus(100, new ManualExecutor());
+    }
+
+    @Test
+    public void deliversInOrderAcrossThreads() throws Exception {
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        try {
+            int count = 100000;
+            GattEventBus bus = new GattEventBus(64, consumer);
+            final CountDownLatch done = new CountDownLatch(count);
+            final int[] next = new int[1];
+            final boolean[] outOfOrder = new boolean[1];
+            bus.addListener(new GattEventBus.Listener() {
+                @Override
+                public void onGattEvent(GattEvent event) {
+                    if (event.sample.airQuality != next[0]++) {
+                        outOfOrder[0] = true;
+                    }
+                    done.countDown();
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                GattEvent event;
+                while ((event = bus.claim(GattEvent.TYPE_DATA_AVAILABLE)) == null) {
+                    Thread.yield();
+                }
+                event.sample.airQuality = i;
+                bus.publish();
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertFalse(outOfOrder[0]);
+        } finally {
+            consumer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.mch.helloble;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class GattServiceCacheTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:01";
+
+    private static final UUID SENSOR_SERVICE = UUID.fromString("3bd91500-ec56-9cf3-b2df-f2e239d01013");
+
+    /**
+     * One ATT request and response per connection interval, as on a phone's default link.
+     */
+    private static final long CONNECTION_INTERVAL = 45;
+
+    private static final long CONNECT_LATENCY = 300;
+
+    private File mDirectory;
+
+    private FakeScheduler mScheduler;
+
+    private final Executor mDirect = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * A peripheral whose discovery takes one connection interval per service, per
+     * characteristic and per descriptor lookup, and which notifies every interval once its CCC
+     * descriptor is written.
+     */
+    private class SimulatedPeripheral implements GattConnector {
+        final GattServiceTree tree;
+        boolean supportsCachedServices = true;
+        int discoveries;
+        FakeGattClient client;
+        GattClient.Callback callback;
+
+        SimulatedPeripheral(GattServiceTree tree) {
+            this.tree = tree;
+        }
+
+        long discoveryLatency() {
+            return CONNECTION_INTERVAL * (1 + tree.getServices().size() + 2L * tree.getCharacteristicCount());
+        }
+
+        @Override
+        public GattClient connect(String address, boolean autoConnect, final GattClient.Callback callback) {
+            this.callback = callback;
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onConnectionStateChange(true, 0);
+                }
+            }, CONNECT_LATENCY);
+            client = new FakeGattClient() {
+                @Override
+                public boolean discoverServices() {
+                    discoveries++;
+                    mScheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            services = tree;
+                            callback.onServicesDiscovered(0);
+                        }
+                    }, discoveryLatency());
+                    return true;
+                }
+
+                @Override
+                public boolean writeDescriptor(UUID service, final UUID characteristic, final UUID descriptor,
+                                               byte[] value) {
+                    super.writeDescriptor(service, characteristic, descriptor, value);
+                    if (services == null || services.findCharacteristic(service, characteristic) == null) {
+                        return false;
+                    }
+                    mScheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onDescriptorWrite(characteristic, descriptor, 0);
+                            notifyLater(callback, characteristic);
+                        }
+                    }, CONNECTION_INTERVAL);
+                    return true;
+                }
+            };
+            client.acceptCachedServices = supportsCachedServices;
+            return client;
+        }
+
+        void notifyLater(final GattClient.Callback callback, final UUID characteristic) {
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onCharacteristicChanged(characteristic, new byte[]{0x13, 0x74, 0x20, 0x00, 0x2A, 0x00});
+                }
+            }, CONNECTION_INTERVAL);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("gatt-cache", "");
+        assertTrue(mDirectory.delete());
+        mScheduler = new FakeScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void roundTripsCompactly() throws IOException {
+        GattServiceTree tree = sensorTree(10, 6);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeTo(out);
+        GattServiceTree read = GattServiceTree.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(tree, read);
+        assertEquals(60, read.getCharacteristicCount());
+        GattServiceTree.Characteristic combined =
+                read.findCharacteristic(SENSOR_SERVICE, CombinedDataDecoder.CHARACTERISTIC);
+        assertTrue(combined.hasProperty(GattServiceTree.PROPERTY_NOTIFY));
+        assertEquals(GattClient.CLIENT_CHARACTERISTIC_CONFIG, combined.getDescriptors().get(0));
+        // 16 bytes per UUID plus structure would be over 2 KB.
+        assertTrue(out.size() < 1024);
+    }
+
+    @Test
+    public void corruptFileIsDroppedAndTreatedAsMissing() throws IOException {
+        GattServiceCache cache = new GattServiceCache(mDirectory);
+        assertNull(cache.get(ADDRESS));
+        assertTrue(cache.put(ADDRESS, sensorTree(2, 3)));
+        assertFalse(cache.put(ADDRESS, sensorTree(2, 3)));
+        File[] files = mDirectory.listFiles();
+        assertEquals(1, files.length);
+
+        FileOutputStream out = new FileOutputStream(files[0], true);
+        out.write(0);
+        out.close();
+        GattServiceCache reopened = new GattServiceCache(mDirectory);
+        assertNull(reopened.get(ADDRESS));
+        assertFalse(files[0].exists());
+    }
+
+    @Test
+    public void reconnectUsesCacheUntilServiceChanged() {
+        SimulatedPeripheral peripheral = new SimulatedPeripheral(sensorTree(3, 2));
+        ConnectionManager manager = new ConnectionManager(peripheral, mScheduler, mDirect, 1, 1);
+        manager.setServiceCache(new GattServiceCache(mDirectory));
+
+        manager.connect(ADDRESS);
+        mScheduler.advance(5000);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(ADDRESS));
+        assertEquals(1, peripheral.discoveries);
+
+        manager.disconnect(ADDRESS);
+        manager.connect(ADDRESS);
+        mScheduler.advance(CONNECT_LATENCY);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(ADDRESS));
+        assertEquals(1, peripheral.discoveries);
+        assertEquals(peripheral.tree, manager.getServices(ADDRESS));
+
+        peripheral.callback.onCharacteristicChanged(ConnectionManager.SERVICE_CHANGED, new byte[4]);
+        assertEquals(ConnectionManager.STATE_DISCOVERING, manager.getState(ADDRESS));
+        assertEquals(2, peripheral.discoveries);
+        mScheduler.advance(5000);
+        assertEquals(ConnectionManager.STATE_READY, manager.getState(ADDRESS));
+        assertEquals(peripheral.tree, new GattServiceCache(mDirectory).get(ADDRESS));
+    }
+
+    @Test
+    public void clientThatCannotUseCacheStillDiscovers() {
+        SimulatedPeripheral peripheral = new SimulatedPeripheral(sensorTree(3, 2));
+        peripheral.supportsCachedServices = false;
+        ConnectionManager manager = new ConnectionManager(peripheral, mScheduler, mDirect, 1, 1);
+        manager.setServiceCache(new GattServiceCache(mDirectory));
+        for (int i = 0; i < 2; i++) {
+            manager.connect(ADDRESS);
+            mScheduler.advance(5000);
+            manager.disconnect(ADDRESS);
+        }
+        assertEquals(2, peripheral.discoveries);
+        assertEquals(peripheral.tree, manager.getServices(ADDRESS));
+    }
+
+    /**
+     * Time from connect() to the first notification of the sensor characteristic, first with
+     * an empty cache and then on reconnect, for a peripheral with 10 services of 6
+     * characteristics each.
+     */
+    @Test
+    public void cacheCutsTimeToFirstNotification() {
+        SimulatedPeripheral peripheral = new SimulatedPeripheral(sensorTree(10, 6));
+        ConnectionManager manager = new ConnectionManager(peripheral, mScheduler, mDirect, 1, 1);
+        manager.setServiceCache(new GattServiceCache(mDirectory));
+        final ConnectionManager subscriber = manager;
+        final long[] firstNotification = new long[1];
+        manager.addListener(new GattEventBus.Listener() {
+            @Override
+            public void onGattEvent(GattEvent event) {
+                if (event.type == GattEvent.TYPE_SERVICES_DISCOVERED) {
+                    GattServiceTree.Characteristic c = subscriber.getServices(event.address)
+                            .findCharacteristic(CombinedDataDecoder.CHARACTERISTIC);
+                    subscriber.getQueue(event.address).submit(
+                            GattCommand.enableNotifications(c.service, c.uuid, new byte[]{1, 0}));
+                } else if (event.type == GattEvent.TYPE_DATA_AVAILABLE && firstNotification[0] == 0) {
+                    firstNotification[0] = mScheduler.now();
+                }
+            }
+        });
+
+        long[] results = new long[2];
+        for (int run = 0; run < 2; run++) {
+            firstNotification[0] = 0;
+            long start = mScheduler.now();
+            manager.connect(ADDRESS);
+            mScheduler.advance(10000);
+            assertTrue(firstNotification[0] > 0);
+            results[run] = firstNotification[0] - start;
+            manager.disconnect(ADDRESS);
+            mScheduler.advance(1000);
+        }
+        assertEquals(1, peripheral.discoveries);
+        assertEquals(CONNECT_LATENCY + 2 * CONNECTION_INTERVAL, results[1]);
+        assertTrue(results[1] * 4 < results[0]);
+    }
+
+    private static GattServiceTree sensorTree(int services, int characteristicsPerService) {
+        GattServiceTree tree = new GattServiceTree();
+        for (int i = 0; i < services - 1; i++) {
+            GattServiceTree.Service service = tree.addService(
+                    UUID.fromString(String.format("0000%04x-0000-1000-8000-00805f9b34fb", 0x1800 + i)));
+            for (int j = 0; j < characteristicsPerService; j++) {
+                service.addCharacteristic(
+                        UUID.fromString(String.format("0000%04x-0000-1000-8000-00805f9b34fb", 0x2a00 + i * 16 + j)),
+                        GattServiceTree.PROPERTY_READ);
+            }
+        }
+        GattServiceTree.Service sensor = tree.addService(SENSOR_SERVICE);
+        sensor.addCharacteristic(CombinedDataDecoder.CHARACTERISTIC,
+                GattServiceTree.PROPERTY_READ | GattServiceTree.PROPERTY_NOTIFY)
+                .addDescriptor(GattClient.CLIENT_CHARACTERISTIC_CONFIG);
+        for (int j = 1; j < characteristicsPerService; j++) {
+            sensor.addCharacteristic(new UUID(SENSOR_SERVICE.getMostSignificantBits() + j,
+                    SENSOR_SERVICE.getLeastSignificantBits()), GattServiceTree.PROPERTY_WRITE);
+        }
+        return tree;
+    }
+}
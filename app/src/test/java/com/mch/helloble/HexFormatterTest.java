@@ -0,0 +1,39 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HexFormatterTest {
+
+    @Test
+    public void formatsDecimals() {
+        char[] out = new char[32];
+        int[] values = {0, 7, 10, 99, 100, 101, 65535, -42, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) {
+            assertEquals(Integer.toString(value), new String(out, 0, HexFormatter.decimal(value, out, 0)));
+        }
+        assertEquals("-0.05", new String(out, 0, HexFormatter.fixed2(-5, out, 0)));
+        assertEquals("273.15", new String(out, 0, HexFormatter.fixed2(27315, out, 0)));
+    }
+
+    @Test
+    public void hexMatchesStringFormat() {
+        byte[] value = new byte[256];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) i;
+        }
+        char[] out = new char[HexFormatter.hexLength(value.length) + 2];
+        int end = HexFormatter.hex(value, 0, value.length, out, 2);
+        assertEquals(2 + HexFormatter.hexLength(value.length), end);
+        assertEquals(formatWithString(value, value.length).trim(), new String(out, 2, end - 2));
+    }
+
+    private static String formatWithString(byte[] value, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(String.format("%02X ", value[i]));
+        }
+        return builder.toString();
+    }
+}
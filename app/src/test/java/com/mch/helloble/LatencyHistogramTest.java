@@ -0,0 +1,112 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguousAndCoverTheRange() {
+        assertEquals(0, LatencyHistogram.bucket(0));
+        assertEquals(63, LatencyHistogram.bucket(63));
+        assertEquals(64, LatencyHistogram.bucket(64));
+        assertEquals(64, LatencyHistogram.bucket(65));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(LatencyHistogram.MAX_VALUE));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+        long low = 0;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long high = LatencyHistogram.highestEquivalentValue(bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(low));
+            assertEquals(bucket, LatencyHistogram.bucket(high));
+            // Within 1/32 of the values the bucket holds.
+            assertTrue(high - low <= Math.max(0, high / 32));
+            low = high + 1;
+        }
+        assertEquals(LatencyHistogram.MAX_VALUE + 1, low);
+    }
+
+    @Test
+    public void percentilesMatchSortedValuesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(11);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal-ish: mostly microseconds, some tens of milliseconds.
+            values[i] = (long) Math.exp(8 + 2 * random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + exact + " vs " + estimate,
+                    estimate >= exact && estimate <= exact + exact / 32 + 1);
+        }
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+
+        // One snapshot gives the same percentiles, and the same summary.
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        long total = histogram.snapshot(counts);
+        assertEquals(values.length, total);
+        for (double percentile : new double[]{50, 90, 99}) {
+            assertEquals(histogram.getValueAtPercentile(percentile),
+                    LatencyHistogram.valueAtPercentile(counts, total, histogram.getMax(), percentile));
+        }
+        StringBuilder once = new StringBuilder();
+        histogram.appendSummary(once, counts);
+        StringBuilder each = new StringBuilder();
+        histogram.appendSummary(each);
+        assertEquals(each.toString(), once.toString());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int perThread = 250000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(random.nextInt(1000000));
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(threads * perThread, histogram.getCount());
+        StringBuilder summary = new StringBuilder();
+        histogram.appendSummary(summary);
+        assertTrue(summary.toString(), summary.toString().startsWith("n=" + threads * perThread + " "));
+        StringBuilder buckets = new StringBuilder();
+        histogram.appendBuckets(buckets);
+        long counted = 0;
+        for (String line : buckets.toString().split("\n")) {
+            counted += Long.parseLong(line.substring(line.indexOf(',') + 1));
+        }
+        assertEquals(threads * perThread, counted);
+    }
+}
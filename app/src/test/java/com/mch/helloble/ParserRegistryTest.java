@@ -0,0 +1,96 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ParserRegistryTest {
+
+    private final char[] mText = new char[CharacteristicParser.MAX_TEXT_LENGTH];
+
+    @Test
+    public void unknownCharacteristicsFallBackToHex() {
+        ParserRegistry registry = new ParserRegistry();
+        assertSame(ParserRegistry.HEX, registry.get(UUID.randomUUID()));
+        assertEquals("00 7F 80 FF", format(ParserRegistry.HEX, new byte[]{0, 0x7F, (byte) 0x80, (byte) 0xFF}));
+        assertEquals("", format(ParserRegistry.HEX, new byte[0]));
+    }
+
+    @Test
+    public void findsEveryRegisteredParserAsTheTableGrows() {
+        ParserRegistry registry = new ParserRegistry();
+        Random random = new Random(11);
+        List<UUID> uuids = new ArrayList<>();
+        List<CharacteristicParser> parsers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // Half of them SIG UUIDs, which differ only in 16 bits of msb.
+            UUID uuid = i % 2 == 0 ? new UUID(0x00002a00_00001000L + ((long) i << 32), 0x800000805f9b34fbL)
+                    : new UUID(random.nextLong(), random.nextLong());
+            CharacteristicParser parser = new HeartRateParser();
+            registry.register(uuid, parser);
+            uuids.add(uuid);
+            parsers.add(parser);
+        }
+        assertEquals(100, registry.size());
+        for (int i = 0; i < uuids.size(); i++) {
+            assertSame(parsers.get(i), registry.get(new UUID(uuids.get(i).getMostSignificantBits(),
+                    uuids.get(i).getLeastSignificantBits())));
+        }
+        registry.register(uuids.get(7), ParserRegistry.HEX);
+        assertEquals(100, registry.size());
+        assertSame(ParserRegistry.HEX, registry.get(uuids.get(7)));
+    }
+
+    @Test
+    public void heartRateHonoursFlags() {
+        CharacteristicParser parser = ParserRegistry.getDefault().get(HeartRateParser.CHARACTERISTIC);
+        assertTrue(parser instanceof HeartRateParser);
+        assertEquals("72 bpm", format(parser, new byte[]{0x00, 72}));
+        assertEquals("200 bpm", format(parser, new byte[]{0x06, (byte) 200}));
+        assertEquals("300 bpm, no contact", format(parser, new byte[]{0x05, 0x2C, 0x01}));
+        assertEquals("64 bpm, 1234 kJ, RR 800 1000 ms",
+                format(parser, new byte[]{0x18, 64, (byte) 0xD2, 0x04, 0x33, 0x03, 0x00, 0x04}));
+        // Claims a 16-bit rate but has only one byte of it.
+        assertEquals("01 48", format(parser, new byte[]{0x01, 72}));
+        assertFalse(parser.decode(new byte[]{0, 72}, 2, new GattEvent()));
+    }
+
+    @Test
+    public void heartRateCutsRrIntervalsThatDoNotFit() {
+        byte[] value = new byte[GattEvent.MAX_VALUE_LENGTH];
+        value[0] = 0x19;
+        value[1] = (byte) 0xFF;
+        value[2] = (byte) 0xFF;
+        for (int i = 3; i < value.length; i++) {
+            // 0xFFFF/1024 s, the longest interval there is.
+            value[i] = (byte) 0xFF;
+        }
+        String text = format(new HeartRateParser(), value);
+        assertTrue(text.length() <= CharacteristicParser.MAX_TEXT_LENGTH);
+        assertTrue(text, text.startsWith("65535 bpm, 65535 kJ, RR 63999 63999"));
+        assertTrue(text, text.endsWith(" 63999 ... ms"));
+    }
+
+    @Test
+    public void combinedDataDecodesAndFormats() {
+        CharacteristicParser parser = ParserRegistry.getDefault().get(CombinedDataDecoder.CHARACTERISTIC);
+        byte[] value = {0x13, 0x74, (byte) 0x88, 0x13, 0x2A, 0x00};
+        GattEvent event = new GattEvent();
+        assertTrue(parser.decode(value, value.length, event));
+        assertTrue(event.hasSample);
+        assertEquals(24.0, event.sample.temperature, 1e-9);
+        assertEquals(50, event.sample.humidity);
+        assertEquals(42, event.sample.airQuality);
+        assertEquals("24.00 \u00B0C, 50 %, AQ 42", format(parser, value));
+        assertFalse(parser.decode(value, 5, new GattEvent()));
+    }
+
+    private String format(CharacteristicParser parser, byte[] value) {
+        return new String(mText, 0, parser.format(value, value.length, mText));
+    }
+}
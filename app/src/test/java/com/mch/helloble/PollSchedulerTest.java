@@ -0,0 +1,288 @@
+package com.mch.helloble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static com.mch.helloble.TestDevices.address;
+import static org.junit.Assert.*;
+
+public class PollSchedulerTest {
+
+    private static final UUID SERVICE = UUID.fromString("0000181a-0000-1000-8000-00805f9b34fb");
+
+    // Request and response each in their own connection event.
+    private static final long READ_LATENCY = 30;
+
+    private static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * A value that changes at random with a given mean period. The value read is its version,
+     * so the test can tell how long each change went unseen.
+     */
+    private static class SimulatedValue {
+        final long[] changes;
+        int count;
+        int seen;
+        long staleness;
+        int changesSeen;
+
+        SimulatedValue(long meanPeriod, long duration, Random random) {
+            List<Long> times = new ArrayList<>();
+            if (meanPeriod != NEVER) {
+                long t = 0;
+                while (true) {
+                    t += (long) (-Math.log(1 - random.nextDouble()) * meanPeriod) + 1;
+                    if (t >= duration) {
+                        break;
+                    }
+                    times.add(t);
+                }
+            }
+            changes = new long[times.size()];
+            for (int i = 0; i < changes.length; i++) {
+                changes[i] = times.get(i);
+            }
+        }
+
+        byte[] read(long now) {
+            while (count < changes.length && changes[count] <= now) {
+                count++;
+            }
+            return new byte[]{(byte) count, (byte) (count >> 8), (byte) (count >> 16)};
+        }
+
+        void observe(byte[] value, long now) {
+            int version = (value[0] & 0xff) | (value[1] & 0xff) << 8 | (value[2] & 0xff) << 16;
+            // A change overwritten before anyone read it was stale until the newer value was read.
+            for (; seen < version; seen++) {
+                staleness += now - changes[seen];
+                changesSeen++;
+            }
+        }
+    }
+
+    /**
+     * A peripheral answering each read {@link #READ_LATENCY} ms later with the value it holds
+     * then.
+     */
+    private class SimulatedPeripheral extends FakeGattClient {
+        final GattCommandQueue queue = new GattCommandQueue(this, mScheduler);
+        final HashMap<UUID, SimulatedValue> values = new HashMap<>();
+        int maxQueued;
+        int reads;
+
+        @Override
+        public boolean readCharacteristic(UUID service, final UUID characteristic) {
+            reads++;
+            maxQueued = Math.max(maxQueued, queue.size());
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    queue.onCharacteristicRead(characteristic, values.get(characteristic).read(mScheduler.now()), 0);
+                }
+            }, READ_LATENCY);
+            return true;
+        }
+    }
+
+    private FakeScheduler mScheduler;
+
+    private HashMap<String, SimulatedPeripheral> mPeripherals;
+
+    private PollScheduler mPoller;
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mPeripherals = new HashMap<>();
+        mPoller = new PollScheduler(mScheduler, new PollScheduler.Queues() {
+            @Override
+            public GattCommandQueue getQueue(String address) {
+                SimulatedPeripheral peripheral = mPeripherals.get(address);
+                return peripheral == null ? null : peripheral.queue;
+            }
+        });
+        mPoller.setListener(new PollScheduler.Listener() {
+            @Override
+            public void onPolled(PollScheduler.Poll poll, byte[] value, boolean changed) {
+                mPeripherals.get(poll.address).values.get(poll.characteristic).observe(value, mScheduler.now());
+            }
+        });
+    }
+
+    private static UUID characteristic(int i) {
+        return new UUID(0x00002a6e00001000L + ((long) i << 32), 0x800000805f9b34fbL);
+    }
+
+    private SimulatedValue simulate(String address, UUID characteristic, long meanPeriod, long duration, Random random) {
+        SimulatedPeripheral peripheral = mPeripherals.get(address);
+        if (peripheral == null) {
+            peripheral = new SimulatedPeripheral();
+            mPeripherals.put(address, peripheral);
+        }
+        SimulatedValue value = new SimulatedValue(meanPeriod, duration, random);
+        peripheral.values.put(characteristic, value);
+        return value;
+    }
+
+    /**
+     * Four devices, each with one value changing about every second, one every 10 s, one every
+     * minute and three that never change, for half an hour. Returns reads/s, the mean
+     * staleness of all changes, then the mean staleness of each kind of changing value.
+     */
+    private double[] run(long minInterval, long maxInterval) {
+        long[] periods = {1000, 10 * 1000, 60 * 1000, NEVER, NEVER, NEVER};
+        long duration = 30 * 60 * 1000;
+        int devices = 4;
+        Random random = new Random(7);
+        SimulatedValue[][] values = new SimulatedValue[devices][periods.length];
+        for (int d = 0; d < devices; d++) {
+            for (int c = 0; c < periods.length; c++) {
+                values[d][c] = simulate(address(d), characteristic(c), periods[c], duration, random);
+                mPoller.add(address(d), SERVICE, characteristic(c), minInterval, maxInterval);
+            }
+        }
+        mScheduler.advance(duration);
+
+        double[] result = new double[5];
+        result[0] = mPoller.getReadCount() * 1000.0 / duration;
+        long totalStaleness = 0;
+        int totalSeen = 0;
+        for (int c = 0; c < 3; c++) {
+            long staleness = 0;
+            int seen = 0;
+            for (int d = 0; d < devices; d++) {
+                staleness += values[d][c].staleness;
+                seen += values[d][c].changesSeen;
+            }
+            result[c + 2] = (double) staleness / seen;
+            totalStaleness += staleness;
+            totalSeen += seen;
+        }
+        result[1] = (double) totalStaleness / totalSeen;
+        for (SimulatedPeripheral peripheral : mPeripherals.values()) {
+            assertTrue(peripheral.maxQueued <= PollScheduler.MAX_OUTSTANDING_PER_DEVICE);
+        }
+        return result;
+    }
+
+    @Test
+    public void adaptiveRatesSpendReadsWhereValuesChange() {
+        double[] adaptive = run(250, 60 * 1000);
+        setUp();
+        double[] fast = run(250, 250);
+        // Fixed polling with the same number of reads as the adaptive one.
+        long interval = Math.round(24 * 1000 / adaptive[0]);
+        setUp();
+        double[] fixed = run(interval, interval);
+        assertEquals(adaptive[0], fixed[0], adaptive[0] / 20);
+
+        // A fraction of the reads of fast polling, and fresher values than the same reads at a
+        // fixed rate, most of all where they change often.
+        assertTrue(adaptive[0] < fast[0] / 4);
+        assertTrue(fast[1] < adaptive[1]);
+        assertTrue(adaptive[1] < fixed[1] * 0.7);
+        assertTrue(adaptive[2] < fixed[2] / 3);
+    }
+
+    @Test
+    public void backsOffWhileStableAndSpeedsUpOnChange() {
+        String address = address(0);
+        SimulatedPeripheral peripheral = new SimulatedPeripheral();
+        mPeripherals.put(address, peripheral);
+        SimulatedValue value = new SimulatedValue(NEVER, 0, new Random(1));
+        peripheral.values.put(characteristic(0), value);
+        PollScheduler.Poll poll = mPoller.add(address, SERVICE, characteristic(0), 100, 10000);
+
+        mScheduler.advance(60 * 1000);
+        assertEquals(10000, mPoller.getInterval(poll));
+        // 100, 125, 156, ... 10000: about 20 reads to back off, then one every 10 s.
+        assertTrue(mPoller.getReads(poll) < 30);
+
+        long readsBefore = mPoller.getReads(poll);
+        peripheral.values.put(characteristic(0), new SimulatedValue(50, 60 * 60 * 1000, new Random(1)));
+        mScheduler.advance(30 * 1000);
+        assertTrue(mPoller.getChanges(poll) > 0);
+        assertTrue(mPoller.getInterval(poll) < 1000);
+        assertTrue(mPoller.getReads(poll) - readsBefore > 30);
+    }
+
+    @Test
+    public void mergesReadsDueTogetherIntoOnePass() {
+        Random random = new Random(3);
+        for (int d = 0; d < 3; d++) {
+            for (int c = 0; c < 2; c++) {
+                simulate(address(d), characteristic(c), NEVER, 0, random);
+                // Nearly the same interval, so the reads drift apart unless they are merged.
+                mPoller.add(address(d), SERVICE, characteristic(c), 1000 + d * 50 + c * 20, 1000 + d * 50 + c * 20);
+            }
+        }
+        mScheduler.advance(60 * 1000);
+        long reads = mPoller.getReadCount();
+        assertTrue(reads >= 6 * 50);
+        assertTrue(mPoller.getPassCount() * 3 < reads);
+    }
+
+    @Test
+    public void neverQueuesAPollTwiceAndServesEveryPoll() {
+        String address = address(0);
+        Random random = new Random(5);
+        List<PollScheduler.Poll> polls = new ArrayList<>();
+        for (int c = 0; c < 12; c++) {
+            simulate(address, characteristic(c), 20, 60 * 1000, random);
+            // Far more than one link can read: 12 polls every 50 ms against 33 reads/s.
+            polls.add(mPoller.add(address, SERVICE, characteristic(c), 50, 50));
+        }
+        // A user read still gets through.
+        final List<Integer> userRead = new ArrayList<>();
+        mScheduler.advance(5000);
+        mPeripherals.get(address).queue.submit(GattCommand.read(SERVICE, characteristic(0))
+                .setCallback(new GattCommand.Callback() {
+                    @Override
+                    public void onComplete(GattCommand command, int status, byte[] value) {
+                        userRead.add(status);
+                    }
+                }));
+        mScheduler.advance(5000);
+
+        SimulatedPeripheral peripheral = mPeripherals.get(address);
+        assertTrue(peripheral.maxQueued <= PollScheduler.MAX_OUTSTANDING_PER_DEVICE + 1);
+        assertTrue(peripheral.reads >= 10000 / READ_LATENCY - 2);
+        assertEquals(1, userRead.size());
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (PollScheduler.Poll poll : polls) {
+            min = Math.min(min, mPoller.getReads(poll));
+            max = Math.max(max, mPoller.getReads(poll));
+        }
+        assertTrue(min * 10 >= max * 9);
+    }
+
+    @Test
+    public void waitsForTheDeviceToConnect() {
+        String address = address(0);
+        PollScheduler.Poll poll = mPoller.add(address, SERVICE, characteristic(0), 1000, 1000);
+        mScheduler.advance(5000);
+        assertEquals(0, mPoller.getReadCount());
+
+        simulate(address, characteristic(0), NEVER, 0, new Random(1));
+        mScheduler.advance(1000 + READ_LATENCY);
+        assertEquals(1, mPoller.getReads(poll));
+
+        mPoller.remove(poll);
+        mScheduler.advance(5000);
+        assertEquals(1, mPoller.getReadCount());
+        assertEquals(0, mScheduler.pendingCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBadIntervals() {
+        mPoller.add(address(0), SERVICE, characteristic(0), 1000, 500);
+    }
+}
@@ -0,0 +1,265 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReadingPublisherTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.poll().run();
+            }
+        }
+    }
+
+    // Records the humidity field, which the tests use as a sequence number.
+    private static class Recorder implements ReadingPublisher.Subscriber {
+        final List<Integer> mReceived = new ArrayList<>();
+
+        @Override
+        public void onReading(ReadingPublisher.Reading reading) {
+            mReceived.add(reading.humidity);
+        }
+    }
+
+    private static void publish(ReadingPublisher publisher, int from, int to) {
+        for (int i = from; i < to; i++) {
+            publisher.publish("AA:BB", i, 21.5, i, 400);
+        }
+    }
+
+    @Test
+    public void latestOnlyDeliversNewestToSubscriberThatFellBehind() {
+        ReadingPublisher publisher = new ReadingPublisher();
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder();
+        ReadingPublisher.Subscription subscription = publisher.subscribeLatest(recorder, executor);
+
+        publish(publisher, 0, 10);
+        assertEquals(1, executor.mTasks.size());
+        assertEquals(1, subscription.getPending());
+        executor.runAll();
+        assertEquals(1, recorder.mReceived.size());
+        assertEquals(9, (int) recorder.mReceived.get(0));
+        assertEquals(9, subscription.getDropped());
+
+        // Keeping up, nothing is lost.
+        publish(publisher, 10, 11);
+        executor.runAll();
+        publish(publisher, 11, 12);
+        executor.runAll();
+        assertEquals(3, subscription.getDelivered());
+        assertEquals(9, subscription.getDropped());
+        assertEquals(0, subscription.getPending());
+    }
+
+    @Test
+    public void bufferedDropsOldestOnceFull() {
+        ReadingPublisher publisher = new ReadingPublisher();
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder();
+        ReadingPublisher.Subscription subscription = publisher.subscribeBuffered(recorder, executor, 4);
+
+        publish(publisher, 0, 10);
+        assertEquals(4, subscription.getPending());
+        assertEquals(6, subscription.getDropped());
+        executor.runAll();
+        assertEquals(4, subscription.getDelivered());
+        assertEquals("[6, 7, 8, 9]", recorder.mReceived.toString());
+    }
+
+    @Test
+    public void sampledDeliversNewestAtMostOncePerInterval() {
+        FakeScheduler scheduler = new FakeScheduler();
+        ReadingPublisher publisher = new ReadingPublisher();
+        final List<Long> times = new ArrayList<>();
+        final Recorder recorder = new Recorder();
+        final FakeScheduler clock = scheduler;
+        ReadingPublisher.Subscription subscription = publisher.subscribeSampled(new ReadingPublisher.Subscriber() {
+            @Override
+            public void onReading(ReadingPublisher.Reading reading) {
+                times.add(clock.now());
+                recorder.onReading(reading);
+            }
+        }, DIRECT, scheduler, 100);
+
+        // 20 Hz for a second.
+        for (int i = 0; i < 20; i++) {
+            publish(publisher, i, i + 1);
+            scheduler.runDue();
+            scheduler.advance(50);
+        }
+        scheduler.advance(1000);
+        assertEquals("[0, 100, 200, 300, 400, 500, 600, 700, 800, 900, 1000]", times.toString());
+        // Each delivery is the newest reading at the time; the last one is not held back.
+        assertEquals("[0, 1, 3, 5, 7, 9, 11, 13, 15, 17, 19]", recorder.mReceived.toString());
+        assertEquals(9, subscription.getDropped());
+        assertEquals(0, scheduler.pendingCount());
+
+        // A quiet subscription does not keep a timer going.
+        scheduler.advance(1000);
+        publish(publisher, 20, 21);
+        scheduler.runDue();
+        assertEquals(20, (int) recorder.mReceived.get(recorder.mReceived.size() - 1));
+    }
+
+    @Test
+    public void cancelStopsDeliveryAndThrowingSubscriberIsCancelled() {
+        ReadingPublisher publisher = new ReadingPublisher();
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder();
+        ReadingPublisher.Subscription subscription = publisher.subscribeBuffered(recorder, executor, 16);
+        ReadingPublisher.Subscription broken = publisher.subscribeLatest(new ReadingPublisher.Subscriber() {
+            @Override
+            public void onReading(ReadingPublisher.Reading reading) {
+                throw new IllegalStateException("broken");
+            }
+        }, DIRECT);
+        assertEquals(2, publisher.getSubscriberCount());
+
+        try {
+            publish(publisher, 0, 1);
+            fail("exception swallowed");
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(broken.isCancelled());
+        assertEquals(1, publisher.getSubscriberCount());
+
+        publish(publisher, 1, 3);
+        subscription.cancel();
+        executor.runAll();
+        assertTrue(recorder.mReceived.isEmpty());
+        assertEquals(0, publisher.getSubscriberCount());
+        // Nothing is allocated for nobody.
+        publish(publisher, 3, 4);
+        assertEquals(4, publisher.getPublished());
+    }
+
+    // Slow subscribers on their own threads must neither stall the producer nor see readings
+    // out of order or on two threads at once.
+    @Test
+    public void fastProducerIsNotHeldUpBySlowSubscribers() throws InterruptedException {
+        final int readings = 200000;
+        ReadingPublisher publisher = new ReadingPublisher();
+        ExecutorService display = Executors.newSingleThreadExecutor();
+        ExecutorService writer = Executors.newFixedThreadPool(4);
+        ExecutorService uploader = Executors.newSingleThreadExecutor();
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        Scheduler scheduler = new Scheduler() {
+            @Override
+            public long now() {
+                return System.nanoTime() / 1000000;
+            }
+
+            @Override
+            public long elapsedRealtime() {
+                return now();
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void cancel(Runnable task) {
+            }
+        };
+
+        SlowSubscriber[] subscribers = {new SlowSubscriber(readings), new SlowSubscriber(readings),
+                new SlowSubscriber(readings)};
+        ReadingPublisher.Subscription[] subscriptions = {
+                publisher.subscribeLatest(subscribers[0], display),
+                publisher.subscribeBuffered(subscribers[1], writer, 256),
+                publisher.subscribeSampled(subscribers[2], uploader, scheduler, 5),
+        };
+
+        long start = System.nanoTime();
+        publish(publisher, 0, readings);
+        long publishNanos = System.nanoTime() - start;
+
+        String[] names = {"latest", "buffered", "sampled"};
+        for (int i = 0; i < subscribers.length; i++) {
+            assertTrue(names[i] + " never caught up", subscribers[i].mLast.await(10, TimeUnit.SECONDS));
+            ReadingPublisher.Subscription subscription = subscriptions[i];
+            // The last reading is counted as delivered once the subscriber returns.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (subscription.getDelivered() + subscription.getDropped() < readings && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertNull(names[i] + " failed: " + subscribers[i].mFailure, subscribers[i].mFailure);
+            assertEquals(0, subscription.getPending());
+            assertEquals(subscription.getDelivered(), subscribers[i].mCount.get());
+            assertEquals(readings, subscription.getDelivered() + subscription.getDropped());
+        }
+        // A millisecond-per-reading subscriber would take minutes if the producer waited on it.
+        assertTrue(publishNanos < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(subscriptions[1].getDelivered() >= 256);
+
+        display.shutdown();
+        writer.shutdown();
+        uploader.shutdown();
+        timer.shutdown();
+    }
+
+    private static class SlowSubscriber implements ReadingPublisher.Subscriber {
+        final int mReadings;
+        final CountDownLatch mLast = new CountDownLatch(1);
+        final AtomicInteger mInFlight = new AtomicInteger();
+        final AtomicInteger mCount = new AtomicInteger();
+        volatile int mPrevious = -1;
+        volatile String mFailure;
+
+        SlowSubscriber(int readings) {
+            mReadings = readings;
+        }
+
+        @Override
+        public void onReading(ReadingPublisher.Reading reading) {
+            if (mInFlight.incrementAndGet() != 1) {
+                mFailure = "called concurrently";
+            }
+            if (reading.humidity <= mPrevious) {
+                mFailure = "out of order: " + reading.humidity + " after " + mPrevious;
+            }
+            mPrevious = reading.humidity;
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mCount.incrementAndGet();
+            mInFlight.decrementAndGet();
+            if (reading.humidity == mReadings - 1) {
+                mLast.countDown();
+            }
+        }
+    }
+}
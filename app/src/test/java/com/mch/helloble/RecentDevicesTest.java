@@ -0,0 +1,181 @@
+package com.mch.helloble;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static com.mch.helloble.TestDevices.address;
+import static org.junit.Assert.*;
+
+public class RecentDevicesTest {
+
+    private static final long NOW = 1539842641000L;
+
+    private File mDirectory;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("recent-devices", "");
+        assertTrue(mDirectory.delete());
+        mFile = new File(mDirectory, RecentDevices.FILE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    // A combined sensor payload from its raw fields.
+    private static byte[] payload(int temperature, int humidity, int airQuality) {
+        return new byte[]{(byte) temperature, (byte) (temperature >> 8), (byte) humidity, (byte) (humidity >> 8),
+                (byte) airQuality, (byte) (airQuality >> 8)};
+    }
+
+    @Test
+    public void roundTripsThroughFile() throws IOException {
+        RecentDevices recent = new RecentDevices(mFile);
+        recent.onSeen("AA:BB:CC:DD:EE:01", "Sensor 1", -61, NOW);
+        // -4.25 C, 45 %
+        recent.onReading("AA:BB:CC:DD:EE:01", payload(26890, 4500, 612), 6, NOW + 1000);
+        recent.onSeen("aa:bb:cc:dd:ee:02", "A rather long device name, cut short", -90, NOW + 500);
+        recent.onSeen("AA:BB:CC:DD:EE:03", null, -40, NOW - 1000);
+        recent.save();
+
+        List<RecentDevices.Device> devices = new RecentDevices(mFile).load();
+        assertEquals(3, devices.size());
+        RecentDevices.Device first = devices.get(0);
+        assertEquals("AA:BB:CC:DD:EE:01", first.address);
+        assertEquals("Sensor 1", first.name);
+        assertEquals(-61, first.rssi);
+        assertEquals(NOW + 1000, first.lastSeen);
+        assertTrue(first.hasReading);
+        assertEquals(-4.25, first.reading.temperature, 0);
+        assertEquals(45, first.reading.humidity);
+        assertEquals(612, first.reading.airQuality);
+
+        RecentDevices.Device second = devices.get(1);
+        assertEquals("AA:BB:CC:DD:EE:02", second.address);
+        assertEquals("A rather long device nam", second.name);
+        assertEquals(-90, second.rssi);
+        assertFalse(second.hasReading);
+
+        assertEquals("AA:BB:CC:DD:EE:03", devices.get(2).address);
+        assertNull(devices.get(2).name);
+    }
+
+    @Test
+    public void keepsFullRangeOfEveryField() throws IOException {
+        RecentDevices recent = new RecentDevices(mFile);
+        recent.onReading("AA:BB:CC:DD:EE:01", payload(0xFFFF, 0xFFFF, 0xFFFF), 6, NOW);
+        recent.onReading("AA:BB:CC:DD:EE:02", payload(0, 0, 0), 6, NOW - 1);
+        // Too short to be a reading.
+        recent.onReading("AA:BB:CC:DD:EE:03", payload(1, 2, 3), 5, NOW - 2);
+        recent.save();
+
+        List<RecentDevices.Device> devices = new RecentDevices(mFile).load();
+        assertEquals(2, devices.size());
+        SensorSample hottest = devices.get(0).reading;
+        assertEquals(382.20, hottest.temperature, 1e-9);
+        assertEquals(655, hottest.humidity);
+        assertEquals(65535, hottest.airQuality);
+        SensorSample coldest = devices.get(1).reading;
+        assertEquals(-273.15, coldest.temperature, 1e-9);
+        assertEquals(0, coldest.humidity);
+        assertEquals(0, coldest.airQuality);
+    }
+
+    @Test
+    public void ignoresAddressesTheSnapshotCannotHold() throws IOException {
+        RecentDevices recent = new RecentDevices(mFile);
+        recent.onSeen("AA:BB:CC:DD:EE:01", "Sensor 1", -61, NOW);
+        recent.onSeen("AA:BB:CC:DD:EE", "Short", -61, NOW);
+        recent.onSeen("GG:BB:CC:DD:EE:01", "Not hex", -61, NOW);
+        recent.onSeen("AA-BB-CC-DD-EE-01", "Dashes", -61, NOW);
+        recent.onReading("+A:BB:CC:DD:EE:01", payload(29565, 5000, 500), 6, NOW);
+        recent.onReading(null, payload(29565, 5000, 500), 6, NOW);
+        assertEquals(1, recent.getDevices().size());
+        recent.save();
+
+        List<RecentDevices.Device> devices = new RecentDevices(mFile).load();
+        assertEquals(1, devices.size());
+        assertEquals("AA:BB:CC:DD:EE:01", devices.get(0).address);
+    }
+
+    @Test
+    public void keepsTheMostRecentDevicesCompactly() throws IOException {
+        RecentDevices recent = new RecentDevices(mFile);
+        for (int i = 0; i < RecentDevices.MAX_DEVICES + 8; i++) {
+            recent.onSeen(address(i), "Sensor " + i, -50 - i, NOW + i * 1000);
+            recent.onReading(address(i), payload(29415 + i * 10, 4000, 400 + i), 6, NOW + i * 1000);
+        }
+        recent.save();
+        assertEquals(RecentDevices.MAX_DEVICES, recent.getDevices().size());
+        // Address, a short name, RSSI, time and a reading in about 30 bytes a device.
+        assertTrue(mFile.length() < RecentDevices.MAX_DEVICES * 40);
+
+        List<RecentDevices.Device> devices = new RecentDevices(mFile).load();
+        assertEquals(RecentDevices.MAX_DEVICES, devices.size());
+        assertEquals(address(RecentDevices.MAX_DEVICES + 7), devices.get(0).address);
+        assertEquals(address(8), devices.get(RecentDevices.MAX_DEVICES - 1).address);
+    }
+
+    @Test
+    public void damagedSnapshotLoadsEmpty() throws IOException {
+        RecentDevices recent = new RecentDevices(mFile);
+        recent.onSeen("AA:BB:CC:DD:EE:01", "Sensor 1", -61, NOW);
+        recent.save();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(8);
+            file.write(0x5A);
+        } finally {
+            file.close();
+        }
+        assertTrue(new RecentDevices(mFile).load().isEmpty());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void updatesBeforeLoadingWinOverTheSnapshot() throws IOException {
+        RecentDevices before = new RecentDevices(mFile);
+        before.onSeen("AA:BB:CC:DD:EE:01", "Sensor 1", -61, NOW);
+        before.onSeen("AA:BB:CC:DD:EE:02", "Sensor 2", -70, NOW);
+        before.save();
+
+        // A reading arrives in the service before the list is shown.
+        RecentDevices after = new RecentDevices(mFile);
+        after.onReading("AA:BB:CC:DD:EE:01", payload(29565, 5000, 500), 6, NOW + 5000);
+        List<RecentDevices.Device> devices = after.load();
+        assertEquals(2, devices.size());
+        assertEquals("Sensor 1", devices.get(0).name);
+        assertEquals(-61, devices.get(0).rssi);
+        assertEquals(NOW + 5000, devices.get(0).lastSeen);
+        assertEquals(22.5, devices.get(0).reading.temperature, 0);
+        assertEquals("Sensor 2", devices.get(1).name);
+    }
+
+    @Test
+    public void unchangedSnapshotIsNotWrittenAgain() throws IOException {
+        RecentDevices recent = new RecentDevices(mFile);
+        recent.save();
+        assertFalse(mFile.exists());
+        recent.onSeen("AA:BB:CC:DD:EE:01", "Sensor 1", -61, NOW);
+        recent.save();
+        assertTrue(mFile.setLastModified(1000));
+        recent.save();
+        assertEquals(1000, mFile.lastModified());
+    }
+}
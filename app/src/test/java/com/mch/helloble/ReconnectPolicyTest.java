@@ -0,0 +1,41 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void delaysDoubleUpToTheMaximumWithEqualJitter() {
+        ReconnectPolicy policy = new ReconnectPolicy(1000, 30000, new Random(42));
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long nominal = Math.min(30000, attempt < 20 ? 1000L << attempt : Long.MAX_VALUE);
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.delay(attempt);
+                assertTrue(attempt + ": " + delay, delay >= nominal / 2 && delay <= nominal);
+            }
+        }
+    }
+
+    @Test
+    public void jitterSpreadsDevicesLostTogether() {
+        ReconnectPolicy policy = new ReconnectPolicy(1000, 60000, new Random(1));
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int device = 0; device < 50; device++) {
+            long delay = policy.delay(3);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min < 4500);
+        assertTrue(max > 7500);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaximumBelowBase() {
+        new ReconnectPolicy(1000, 500, new Random());
+    }
+}
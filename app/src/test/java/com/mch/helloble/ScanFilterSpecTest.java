@@ -0,0 +1,108 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ScanFilterSpecTest {
+
+    private static final UUID SERVICE = UUID.fromString("3bd91500-ec56-9cf3-b2df-f2e239d01013");
+
+    private static final int COMPANY = 0x0059;
+
+    private static class FakeAdvertisement implements ScanFilterSpec.Advertisement {
+        final String name;
+        final List<UUID> services = new ArrayList<>();
+        final Map<Integer, byte[]> manufacturerData = new HashMap<>();
+
+        FakeAdvertisement(String name) {
+            this.name = name;
+        }
+
+        FakeAdvertisement service(UUID uuid) {
+            services.add(uuid);
+            return this;
+        }
+
+        FakeAdvertisement manufacturer(int id, byte... data) {
+            manufacturerData.put(id, data);
+            return this;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean hasServiceUuid(UUID uuid) {
+            return services.contains(uuid);
+        }
+
+        @Override
+        public byte[] getManufacturerData(int manufacturerId) {
+            return manufacturerData.get(manufacturerId);
+        }
+    }
+
+    @Test
+    public void emptyFilterAndEmptyListMatchEverything() {
+        FakeAdvertisement anything = new FakeAdvertisement(null);
+        assertTrue(new ScanFilterSpec().matches(anything));
+        assertTrue(ScanFilterSpec.matchesAny(Collections.<ScanFilterSpec>emptyList(), anything));
+    }
+
+    @Test
+    public void criteriaWithinAFilterAreAnded() {
+        ScanFilterSpec filter = new ScanFilterSpec().setServiceUuid(SERVICE).setNamePrefix("Hello");
+        assertTrue(filter.matches(new FakeAdvertisement("HelloSensor").service(SERVICE)));
+        assertFalse(filter.matches(new FakeAdvertisement("HelloSensor")));
+        assertFalse(filter.matches(new FakeAdvertisement("Other").service(SERVICE)));
+        assertFalse(filter.matches(new FakeAdvertisement(null).service(SERVICE)));
+    }
+
+    @Test
+    public void filtersInAListAreOred() {
+        List<ScanFilterSpec> filters = Arrays.asList(
+                new ScanFilterSpec().setServiceUuid(SERVICE),
+                new ScanFilterSpec().setNamePrefix("Hello"));
+        assertTrue(ScanFilterSpec.matchesAny(filters, new FakeAdvertisement(null).service(SERVICE)));
+        assertTrue(ScanFilterSpec.matchesAny(filters, new FakeAdvertisement("Hello")));
+        assertFalse(ScanFilterSpec.matchesAny(filters, new FakeAdvertisement("Other")));
+    }
+
+    @Test
+    public void manufacturerDataIsAMaskedPrefix() {
+        ScanFilterSpec filter = new ScanFilterSpec().setManufacturerData(COMPANY,
+                new byte[]{0x01, (byte) 0xA0}, new byte[]{(byte) 0xFF, (byte) 0xF0});
+        assertTrue(filter.matches(new FakeAdvertisement(null).manufacturer(COMPANY, (byte) 0x01, (byte) 0xAF, (byte) 0x7F)));
+        assertFalse(filter.matches(new FakeAdvertisement(null).manufacturer(COMPANY, (byte) 0x02, (byte) 0xA0)));
+        assertFalse(filter.matches(new FakeAdvertisement(null).manufacturer(COMPANY, (byte) 0x01, (byte) 0xB0)));
+        assertFalse(filter.matches(new FakeAdvertisement(null).manufacturer(COMPANY, (byte) 0x01)));
+        assertFalse(filter.matches(new FakeAdvertisement(null).manufacturer(0x004C, (byte) 0x01, (byte) 0xA0)));
+
+        ScanFilterSpec exact = new ScanFilterSpec().setManufacturerData(COMPANY, new byte[]{0x01}, null);
+        assertTrue(exact.matches(new FakeAdvertisement(null).manufacturer(COMPANY, (byte) 0x01, (byte) 0x02)));
+        assertFalse(exact.matches(new FakeAdvertisement(null).manufacturer(COMPANY, (byte) 0x03)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaskOfDifferentLength() {
+        new ScanFilterSpec().setManufacturerData(COMPANY, new byte[2], new byte[1]);
+    }
+
+    @Test
+    public void onlyNamePrefixCannotBeOffloaded() {
+        assertTrue(new ScanFilterSpec().setServiceUuid(SERVICE).setNamePrefix("Hello").isOffloadable());
+        assertTrue(new ScanFilterSpec().setManufacturerData(COMPANY, new byte[0], null).isOffloadable());
+        assertFalse(new ScanFilterSpec().setNamePrefix("Hello").isOffloadable());
+    }
+}
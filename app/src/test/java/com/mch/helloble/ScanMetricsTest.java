@@ -0,0 +1,42 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScanMetricsTest {
+
+    @Test
+    public void ratesCountOnlyActiveTime() {
+        ScanMetrics metrics = new ScanMetrics("batched");
+        metrics.start(1000);
+        metrics.onCallback(40);
+        metrics.onCallback(60);
+        metrics.stop(3000);
+        // Idle time between scans is not counted.
+        metrics.start(10000);
+        metrics.onCallback(100);
+        assertEquals(4000, metrics.getActiveMillis(12000));
+        assertEquals(0.75, metrics.callbacksPerSecond(12000), 1e-9);
+        assertEquals(50, metrics.resultsPerSecond(12000), 1e-9);
+        assertEquals("batched: 0.8 callbacks/s, 50.0 results/s over 4 s", metrics.summary(12000));
+    }
+
+    @Test
+    public void batchedConfigIsBatched() {
+        assertTrue(ScanConfig.batched().isBatched());
+        assertFalse(ScanConfig.lowLatency().isBatched());
+        assertEquals(ScanConfig.SCAN_MODE_LOW_LATENCY, ScanConfig.lowLatency().scanMode);
+    }
+
+    @Test
+    public void unbatchedFallbackIsNamedForWhatItDoes() {
+        ScanConfig batched = ScanConfig.batched();
+        ScanConfig fallback = batched.unbatched();
+        assertFalse(fallback.isBatched());
+        assertEquals(batched.scanMode, fallback.scanMode);
+        assertEquals("batched (not offloaded)", fallback.name);
+        ScanConfig lowLatency = ScanConfig.lowLatency();
+        assertSame(lowLatency, lowLatency.unbatched());
+    }
+}
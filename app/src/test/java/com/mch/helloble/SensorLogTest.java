@@ -0,0 +1,203 @@
+package com.mch.helloble;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SensorLogTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("sensor-log", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void replaysRecordsInOrderAcrossSegments() throws IOException {
+        SensorLog log = new SensorLog(mDirectory, 10, 100);
+        for (int i = 0; i < 35; i++) {
+            assertTrue(log.append(1000 + i, 7, 0x2A37, new byte[]{(byte) i, 2, 3}, 0, 3));
+        }
+        assertEquals(3, log.getSegment());
+        final int[] next = new int[1];
+        long count = log.replay(new SensorLog.Visitor() {
+            @Override
+            public void onRecord(SensorLog.Record record) {
+                assertEquals(1000 + next[0], record.timestamp);
+                assertEquals(7, record.device);
+                assertEquals(0x2A37, record.characteristic);
+                assertEquals(3, record.length);
+                assertEquals(next[0], record.payload[0]);
+                assertEquals(3, record.payload[2]);
+                next[0]++;
+            }
+        });
+        assertEquals(35, count);
+        log.close();
+        assertFalse(log.append(0, 0, 0, null, 0, 0));
+    }
+
+    @Test
+    public void resumesAfterReopen() throws IOException {
+        SensorLog log = new SensorLog(mDirectory, 100, 100);
+        for (int i = 0; i < 20; i++) {
+            log.append(i, 1, 1, new byte[6], 0, 6);
+        }
+        log.close();
+        log = new SensorLog(mDirectory, 100, 100);
+        assertEquals(20, log.getSegmentRecordCount());
+        log.append(20, 1, 1, new byte[6], 0, 6);
+        assertEquals(21, countRecords(log));
+        log.close();
+    }
+
+    @Test
+    public void recoversTornTail() throws IOException {
+        SensorLog log = new SensorLog(mDirectory, 100, 100);
+        for (int i = 0; i < 10; i++) {
+            log.append(i, 1, 1, new byte[]{1, 2, 3, 4, 5, 6}, 0, 6);
+        }
+        log.close();
+        // Simulate a crash halfway through writing the last record.
+        File segment = mDirectory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(9 * SensorLog.RECORD_SIZE + 20);
+        file.write(new byte[]{9, 9, 9});
+        file.close();
+
+        log = new SensorLog(mDirectory, 100, 100);
+        assertEquals(9, log.getSegmentRecordCount());
+        assertEquals(9, countRecords(log));
+        log.append(100, 1, 1, new byte[6], 0, 6);
+        final long[] last = new long[1];
+        assertEquals(10, log.replay(new SensorLog.Visitor() {
+            @Override
+            public void onRecord(SensorLog.Record record) {
+                last[0] = record.timestamp;
+            }
+        }));
+        assertEquals(100, last[0]);
+        log.close();
+    }
+
+    @Test
+    public void clearsRecordsWrittenBackAfterTheTornOne() throws IOException {
+        SensorLog log = new SensorLog(mDirectory, 100, 100);
+        for (int i = 0; i < 20; i++) {
+            log.append(i, 1, 1, new byte[]{1, 2, 3, 4, 5, 6}, 0, 6);
+        }
+        log.close();
+        // The page holding record 9 was lost in the crash, the ones after it were not.
+        File segment = mDirectory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(9 * SensorLog.RECORD_SIZE + 20);
+        file.write(new byte[]{9, 9, 9});
+        file.close();
+
+        log = new SensorLog(mDirectory, 100, 100);
+        assertEquals(9, log.getSegmentRecordCount());
+        log.append(100, 1, 1, new byte[6], 0, 6);
+        final long[] last = new long[1];
+        // Records 10 to 19 must not come back after the one appended in place of 9.
+        assertEquals(10, log.replay(new SensorLog.Visitor() {
+            @Override
+            public void onRecord(SensorLog.Record record) {
+                last[0] = record.timestamp;
+            }
+        }));
+        assertEquals(100, last[0]);
+        log.close();
+    }
+
+    @Test
+    public void truncatesLongPayloads() throws IOException {
+        SensorLog log = new SensorLog(mDirectory, 10, 10);
+        byte[] value = new byte[244];
+        value[SensorLog.MAX_PAYLOAD - 1] = 42;
+        log.append(1, 1, 1, value, 0, value.length);
+        log.replay(new SensorLog.Visitor() {
+            @Override
+            public void onRecord(SensorLog.Record record) {
+                assertEquals(SensorLog.MAX_PAYLOAD, record.length);
+                assertEquals(42, record.payload[SensorLog.MAX_PAYLOAD - 1]);
+            }
+        });
+        log.close();
+    }
+
+    @Test
+    public void dropsOldestSegments() throws IOException {
+        SensorLog log = new SensorLog(mDirectory, 10, 3);
+        for (int i = 0; i < 100; i++) {
+            log.append(i, 1, 1, null, 0, 0);
+        }
+        assertEquals(3, mDirectory.list().length);
+        assertEquals(30, countRecords(log));
+        log.close();
+    }
+
+    @Test
+    public void replaySkipsSegmentsDroppedWhileItRuns() throws IOException {
+        final SensorLog log = new SensorLog(mDirectory, 10, 3);
+        for (int i = 0; i < 30; i++) {
+            log.append(i, 1, 1, null, 0, 0);
+        }
+        final List<Long> timestamps = new ArrayList<>();
+        long count = log.replay(new SensorLog.Visitor() {
+            @Override
+            public void onRecord(SensorLog.Record record) {
+                if (timestamps.isEmpty()) {
+                    // Two rolls drop segments 0 and 1 after replay listed them.
+                    try {
+                        for (int i = 30; i < 50; i++) {
+                            log.append(i, 1, 1, null, 0, 0);
+                        }
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                timestamps.add(record.timestamp);
+            }
+        });
+        assertEquals(20, count);
+        assertEquals(9, (long) timestamps.get(9));
+        assertEquals(20, (long) timestamps.get(10));
+        assertEquals(29, (long) timestamps.get(19));
+        log.close();
+    }
+
+    @Test
+    public void characteristicIdOfSigUuidIsAssignedNumber() {
+        assertEquals(0x2A37, SensorLog.characteristicId(UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb")));
+    }
+
+    private static long countRecords(SensorLog log) throws IOException {
+        return log.replay(new SensorLog.Visitor() {
+            @Override
+            public void onRecord(SensorLog.Record record) {
+            }
+        });
+    }
+}
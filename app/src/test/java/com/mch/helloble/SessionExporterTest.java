@@ -0,0 +1,179 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SessionExporterTest {
+
+    private static final int READINGS = 200000;
+
+    // A session of interleaved devices: each notifies about every 100 ms with some jitter and
+    // drifts slowly, the way a room of sensors does. Rows are timestamp, device, t, h, aq.
+    private static long[][] session(int devices, int readings) {
+        Random random = new Random(42);
+        long[] next = new long[devices];
+        int[][] values = new int[devices][];
+        for (int d = 0; d < devices; d++) {
+            next[d] = 1539842641000L + d * 7;
+            values[d] = new int[]{29665 + d * 10, 4500 + d, 400 + d};
+        }
+        long[][] rows = new long[readings][];
+        for (int i = 0; i < readings; i++) {
+            int d = 0;
+            for (int k = 1; k < devices; k++) {
+                if (next[k] < next[d]) {
+                    d = k;
+                }
+            }
+            // Hashes of addresses are as often negative as not.
+            int device = (d % 2 == 0 ? -1 : 1) * (0x1234567 + d * 0x10001);
+            rows[i] = new long[]{next[d], device, values[d][0], values[d][1], values[d][2]};
+            next[d] += 100 + (random.nextInt(10) == 0 ? random.nextInt(7) - 3 : 0);
+            if (random.nextInt(20) == 0) {
+                values[d][0] += random.nextInt(5) - 2;
+            }
+            if (random.nextInt(50) == 0) {
+                values[d][1] += random.nextInt(21) - 10;
+            }
+            if (random.nextInt(10) == 0) {
+                values[d][2] += random.nextInt(9) - 4;
+            }
+        }
+        return rows;
+    }
+
+    private static byte[] export(long[][] rows, int format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SessionExporter exporter = new SessionExporter(Channels.newChannel(out), format);
+        for (long[] row : rows) {
+            exporter.write(row[0], (int) row[1], (int) row[2], (int) row[3], (int) row[4]);
+        }
+        exporter.close();
+        assertEquals(rows.length, exporter.getRecordCount());
+        assertEquals(out.size(), exporter.getBytesWritten());
+        return out.toByteArray();
+    }
+
+    private static List<long[]> decode(byte[] bytes) throws IOException {
+        final List<long[]> rows = new ArrayList<>();
+        SessionDecoder decoder = new SessionDecoder(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        decoder.readAll(new SessionDecoder.Visitor() {
+            @Override
+            public void onReading(long timestamp, int device, int rawTemperature, int rawHumidity, int airQuality) {
+                rows.add(new long[]{timestamp, device, rawTemperature, rawHumidity, airQuality});
+            }
+        });
+        return rows;
+    }
+
+    private static void assertRoundTrip(long[][] rows) throws IOException {
+        byte[] compressed = export(rows, SessionExporter.FORMAT_COMPRESSED);
+        assertTrue("several blocks", compressed.length > 3 * SessionExporter.BLOCK_SIZE);
+
+        List<long[]> decoded = decode(compressed);
+        assertEquals(rows.length, decoded.size());
+        for (int i = 0; i < rows.length; i++) {
+            assertArrayEquals("reading " + i, rows[i], decoded.get(i));
+        }
+    }
+
+    @Test
+    public void compressedRoundTripIsExactAcrossBlocks() throws IOException {
+        assertRoundTrip(session(12, READINGS));
+    }
+
+    @Test
+    public void compressedRoundTripIsExactWithMoreDevicesThanSlots() throws IOException {
+        assertRoundTrip(session(SessionExporter.DEVICE_SLOTS + 4, 20000));
+    }
+
+    @Test
+    public void compressesWellBelowLogAndCsv() throws IOException {
+        long[][] rows = session(12, READINGS);
+        byte[] compressed = export(rows, SessionExporter.FORMAT_COMPRESSED);
+        byte[] csv = export(rows, SessionExporter.FORMAT_CSV);
+        long logBytes = (long) rows.length * SensorLog.RECORD_SIZE;
+        // About 12 bits a reading against 48 bytes in the log, and 25 times smaller than CSV.
+        assertTrue(compressed.length < rows.length * 2);
+        assertTrue(compressed.length * 25L < logBytes);
+        assertTrue(compressed.length * 20L < csv.length);
+    }
+
+    @Test
+    public void writesCsvLines() throws IOException {
+        byte[] csv = export(new long[][]{
+                {1539842641000L, -123456, 29665, 4550, 412},
+                {1539842641100L, 7, 27315 - 105, 0, 0},
+        }, SessionExporter.FORMAT_CSV);
+        assertEquals("timestamp,device,temperature,humidity,air_quality\n"
+                + "1539842641000,-123456,23.50,45.50,412\n"
+                + "1539842641100,7,-1.05,0.00,0\n", new String(csv, "US-ASCII"));
+    }
+
+    @Test
+    public void exportsCombinedReadingsFromSensorLog() throws IOException {
+        File directory = File.createTempFile("session-export", "");
+        assertTrue(directory.delete());
+        SensorLog log = new SensorLog(directory, 100, 10);
+        try {
+            int combined = SensorLog.characteristicId(CombinedDataDecoder.CHARACTERISTIC);
+            for (int i = 0; i < 250; i++) {
+                byte[] payload = {(byte) 0xe1, 0x73, (byte) i, 0x11, 0x20, 0x01};
+                log.append(1000 + i * 100, 5, combined, payload, 0, payload.length);
+                // Heart rate and the like are not part of the export.
+                log.append(1000 + i * 100, 5, 0x2A37, new byte[]{0, 60}, 0, 2);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SessionExporter exporter = new SessionExporter(Channels.newChannel(out), SessionExporter.FORMAT_COMPRESSED);
+            assertEquals(250, exporter.export(log));
+            exporter.close();
+
+            List<long[]> decoded = decode(out.toByteArray());
+            assertEquals(250, decoded.size());
+            for (int i = 0; i < 250; i++) {
+                assertArrayEquals(new long[]{1000 + i * 100, 5, 0x73e1, 0x1100 | i, 0x0120}, decoded.get(i));
+            }
+        } finally {
+            log.close();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void truncatedExportFails() throws IOException {
+        byte[] compressed = export(session(12, 1000), SessionExporter.FORMAT_COMPRESSED);
+        try {
+            decode(Arrays.copyOf(compressed, compressed.length - 3));
+            fail("decoded a truncated export");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void zigzagRoundTrips() {
+        long[] values = {0, 1, -1, 63, -64, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            assertEquals(value, SessionDecoder.unzigzag(SessionExporter.zigzag(value)));
+        }
+        assertEquals(1, SessionExporter.zigzag(-1));
+        assertEquals(2, SessionExporter.zigzag(1));
+    }
+}
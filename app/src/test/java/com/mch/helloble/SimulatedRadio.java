@@ -0,0 +1,550 @@
+package com.mch.helloble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * A radio full of simulated peripherals, driven by a {@link FakeScheduler}. It is both the
+ * {@link Scanner} and the {@link GattConnector}, so the app's scan, connect and decode path
+ * runs against it unchanged.
+ * <p>
+ * Every peripheral advertises at its interval plus the 0-10 ms random delay of the spec.
+ * Sensors also accept connections and, once their CCC descriptor is written, notify the
+ * combined characteristic at their rate. Faults are set per peripheral: notification latency
+ * and loss, and link drops after an exponentially distributed uptime, each followed by an
+ * outage during which the sensor cannot be reached.
+ */
+public class SimulatedRadio implements Scanner, GattConnector {
+
+    public static final UUID SENSOR_SERVICE = UUID.fromString("3bd91500-ec56-9cf3-b2df-f2e239d01013");
+
+    public static final int STATUS_LINK_LOSS = 8;
+
+    private static final long ATT_LATENCY = 15;
+
+    private static final int MAX_MTU = 247;
+
+    public class Peripheral implements ScanFilterSpec.Advertisement {
+        public final String address;
+        public final String name;
+        public final boolean sensor;
+
+        public int rssi = -60;
+        public long advertisingInterval = 100;
+        public long notifyInterval = 50;
+        public long minLatency;
+        public long maxLatency;
+        public double loss;
+        /**
+         * Mean time a link stays up, or 0 to never drop it.
+         */
+        public long meanUptime;
+        public long outage = 5000;
+        public long connectLatency = 300;
+        public long discoveryLatency = 600;
+
+        public long advertised;
+        public long notificationsSent;
+        public long notificationsLost;
+        public long linkDrops;
+
+        boolean reachable = true;
+        Client client;
+
+        final Runnable mAdvertiseTask = new Runnable() {
+            @Override
+            public void run() {
+                advertise(Peripheral.this);
+            }
+        };
+
+        Peripheral(String address, String name, boolean sensor) {
+            this.address = address;
+            this.name = name;
+            this.sensor = sensor;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean hasServiceUuid(UUID uuid) {
+            return sensor && SENSOR_SERVICE.equals(uuid);
+        }
+
+        @Override
+        public byte[] getManufacturerData(int manufacturerId) {
+            return null;
+        }
+    }
+
+    private final FakeScheduler mScheduler;
+
+    private final Random mRandom;
+
+    private final HashMap<String, Peripheral> mPeripherals = new HashMap<>();
+
+    private final ArrayList<Peripheral> mPeripheralList = new ArrayList<>();
+
+    private final GattServiceTree mSensorTree = new GattServiceTree();
+
+    private Callback mScanCallback;
+
+    private List<ScanFilterSpec> mScanFilters;
+
+    private boolean mOffloaded;
+
+    private ScanConfig mScanConfig;
+
+    private final ArrayList<Result> mPool = new ArrayList<>();
+
+    private final ArrayList<Result> mBatch = new ArrayList<>();
+
+    private long mScanCallbacks;
+
+    private long mScanResults;
+
+    private final Runnable mReportTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mScanCallback != null) {
+                report();
+                mScheduler.schedule(this, mScanConfig.reportDelayMillis);
+            }
+        }
+    };
+
+    public SimulatedRadio(FakeScheduler scheduler, Random random) {
+        mScheduler = scheduler;
+        mRandom = random;
+        mSensorTree.addService(SENSOR_SERVICE)
+                .addCharacteristic(CombinedDataDecoder.CHARACTERISTIC, GattServiceTree.PROPERTY_READ
+                        | GattServiceTree.PROPERTY_NOTIFY)
+                .addDescriptor(GattClient.CLIENT_CHARACTERISTIC_CONFIG);
+    }
+
+    public Peripheral addAdvertiser(String address, String name) {
+        return add(new Peripheral(address, name, false));
+    }
+
+    public Peripheral addSensor(String address, String name) {
+        return add(new Peripheral(address, name, true));
+    }
+
+    public Peripheral get(String address) {
+        return mPeripherals.get(address);
+    }
+
+    public List<Peripheral> getPeripherals() {
+        return mPeripheralList;
+    }
+
+    public long getScanCallbacks() {
+        return mScanCallbacks;
+    }
+
+    public long getScanResults() {
+        return mScanResults;
+    }
+
+    private Peripheral add(Peripheral peripheral) {
+        mPeripherals.put(peripheral.address, peripheral);
+        mPeripheralList.add(peripheral);
+        if (mScanCallback != null) {
+            mScheduler.schedule(peripheral.mAdvertiseTask, mRandom.nextInt((int) peripheral.advertisingInterval));
+        }
+        return peripheral;
+    }
+
+    @Override
+    public ScanConfig startScan(List<ScanFilterSpec> filters, ScanConfig config, Callback callback) {
+        if (mScanCallback != null) {
+            callback.onScanFailed(1);
+            return config;
+        }
+        mScanCallback = callback;
+        mScanFilters = new ArrayList<>(filters);
+        mScanConfig = config;
+        // Like the controller: all filters are offloaded or none is.
+        mOffloaded = !filters.isEmpty();
+        for (ScanFilterSpec filter : filters) {
+            mOffloaded &= filter.isOffloadable();
+        }
+        for (Peripheral peripheral : mPeripheralList) {
+            mScheduler.schedule(peripheral.mAdvertiseTask, mRandom.nextInt((int) peripheral.advertisingInterval));
+        }
+        if (config.isBatched()) {
+            mScheduler.schedule(mReportTask, config.reportDelayMillis);
+        }
+        return config;
+    }
+
+    @Override
+    public void flushPendingScanResults(Callback callback) {
+        if (callback == mScanCallback) {
+            report();
+        }
+    }
+
+    @Override
+    public void stopScan(Callback callback) {
+        if (callback != mScanCallback) {
+            return;
+        }
+        mScanCallback = null;
+        mBatch.clear();
+        mScheduler.cancel(mReportTask);
+        for (Peripheral peripheral : mPeripheralList) {
+            mScheduler.cancel(peripheral.mAdvertiseTask);
+        }
+    }
+
+    private void advertise(Peripheral peripheral) {
+        if (mScanCallback == null) {
+            return;
+        }
+        peripheral.advertised++;
+        mScheduler.schedule(peripheral.mAdvertiseTask, peripheral.advertisingInterval + mRandom.nextInt(11));
+        if (mOffloaded && !ScanFilterSpec.matchesAny(mScanFilters, peripheral)) {
+            return;
+        }
+        Result result = pooled(mScanConfig.isBatched() ? mBatch.size() : 0);
+        result.address = peripheral.address;
+        result.name = peripheral.name;
+        result.rssi = peripheral.rssi + (int) Math.round(mRandom.nextGaussian() * 4);
+        result.advertisement = peripheral;
+        if (mScanConfig.isBatched()) {
+            mBatch.add(result);
+        } else {
+            mScanCallbacks++;
+            mScanResults++;
+            mScanCallback.onScanResult(result);
+        }
+    }
+
+    private void report() {
+        if (mBatch.isEmpty()) {
+            return;
+        }
+        mScanCallbacks++;
+        mScanResults += mBatch.size();
+        mScanCallback.onBatchScanResults(mBatch);
+        mBatch.clear();
+    }
+
+    private Result pooled(int index) {
+        while (mPool.size() <= index) {
+            mPool.add(new Result());
+        }
+        return mPool.get(index);
+    }
+
+    @Override
+    public GattClient connect(String address, boolean autoConnect, GattClient.Callback callback) {
+        Peripheral peripheral = mPeripherals.get(address);
+        Client client = new Client(peripheral, callback);
+        if (peripheral == null || !peripheral.sensor) {
+            // Never answers; the caller times out.
+            return client;
+        }
+        peripheral.client = client;
+        if (peripheral.reachable) {
+            client.connectLater();
+        } else if (!autoConnect) {
+            client.failLater();
+        }
+        // Else an autoConnect attempt waits for the outage to end.
+        return client;
+    }
+
+    private void dropLink(Peripheral peripheral) {
+        Client client = peripheral.client;
+        if (client == null || !client.mConnected) {
+            return;
+        }
+        peripheral.linkDrops++;
+        peripheral.reachable = false;
+        // A dropped link stays down; only a new connect brings the sensor back.
+        peripheral.client = null;
+        client.mConnected = false;
+        client.mCallback.onConnectionStateChange(false, STATUS_LINK_LOSS);
+        final Peripheral p = peripheral;
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                p.reachable = true;
+                if (p.client != null && !p.client.mClosed && !p.client.mConnected) {
+                    p.client.connectLater();
+                }
+            }
+        }, peripheral.outage);
+    }
+
+    private long exponential(long mean) {
+        return (long) (-Math.log(1 - mRandom.nextDouble()) * mean);
+    }
+
+    /**
+     * One link to a sensor. Callbacks stop once it is closed.
+     */
+    class Client implements GattClient {
+
+        final Peripheral mPeripheral;
+
+        final GattClient.Callback mCallback;
+
+        boolean mConnected;
+
+        boolean mClosed;
+
+        boolean mNotifying;
+
+        GattServiceTree mServices;
+
+        long mLastDelivery;
+
+        final Runnable mNotifyTask = new Runnable() {
+            @Override
+            public void run() {
+                notifyNext();
+            }
+        };
+
+        Client(Peripheral peripheral, GattClient.Callback callback) {
+            mPeripheral = peripheral;
+            mCallback = callback;
+        }
+
+        void connectLater() {
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mPeripheral.reachable) {
+                        return;
+                    }
+                    mConnected = true;
+                    mNotifying = false;
+                    mCallback.onConnectionStateChange(true, 0);
+                    if (mPeripheral.meanUptime > 0) {
+                        scheduleDrop();
+                    }
+                }
+            }, mPeripheral.connectLatency);
+        }
+
+        void failLater() {
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPeripheral.client == Client.this) {
+                        mPeripheral.client = null;
+                    }
+                    mCallback.onConnectionStateChange(false, 133);
+                }
+            }, mPeripheral.connectLatency);
+        }
+
+        private void scheduleDrop() {
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mClosed && mPeripheral.client == Client.this) {
+                        dropLink(mPeripheral);
+                    }
+                }
+            }, exponential(mPeripheral.meanUptime));
+        }
+
+        private void later(final Runnable task, long delay) {
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mClosed) {
+                        task.run();
+                    }
+                }
+            }, delay);
+        }
+
+        private void notifyNext() {
+            if (mClosed || !mConnected || !mNotifying) {
+                return;
+            }
+            mScheduler.schedule(mNotifyTask, mPeripheral.notifyInterval);
+            final long sequence = mPeripheral.notificationsSent++;
+            if (mRandom.nextDouble() < mPeripheral.loss) {
+                mPeripheral.notificationsLost++;
+                return;
+            }
+            long latency = mPeripheral.minLatency;
+            if (mPeripheral.maxLatency > mPeripheral.minLatency) {
+                latency += mRandom.nextInt((int) (mPeripheral.maxLatency - mPeripheral.minLatency + 1));
+            }
+            // The link layer delivers in order, however long each packet took.
+            long at = Math.max(mLastDelivery, mScheduler.now() + latency);
+            mLastDelivery = at;
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (mClosed || !mConnected) {
+                        mPeripheral.notificationsLost++;
+                        return;
+                    }
+                    mCallback.onCharacteristicChanged(CombinedDataDecoder.CHARACTERISTIC, value(sequence));
+                }
+            }, at - mScheduler.now());
+        }
+
+        private byte[] value(long sequence) {
+            int temperature = 27315 + 2000 + (int) (sequence % 500);
+            int humidity = 4500 + (int) (sequence % 100);
+            int airQuality = (int) (sequence % 1000);
+            return new byte[]{(byte) temperature, (byte) (temperature >> 8), (byte) humidity, (byte) (humidity >> 8),
+                    (byte) airQuality, (byte) (airQuality >> 8)};
+        }
+
+        private boolean hasCharacteristic(UUID service, UUID characteristic) {
+            return mConnected && mServices != null && mServices.findCharacteristic(service, characteristic) != null;
+        }
+
+        @Override
+        public boolean readCharacteristic(UUID service, final UUID characteristic) {
+            if (!hasCharacteristic(service, characteristic)) {
+                return false;
+            }
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onCharacteristicRead(characteristic, value(mPeripheral.notificationsSent), 0);
+                }
+            }, ATT_LATENCY);
+            return true;
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, final UUID characteristic, byte[] value, int writeType) {
+            if (!hasCharacteristic(service, characteristic)) {
+                return false;
+            }
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onCharacteristicWrite(characteristic, 0);
+                }
+            }, ATT_LATENCY);
+            return true;
+        }
+
+        @Override
+        public boolean writeDescriptor(UUID service, final UUID characteristic, final UUID descriptor,
+                                       final byte[] value) {
+            if (!hasCharacteristic(service, characteristic)) {
+                return false;
+            }
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    boolean notifying = value[0] != 0;
+                    mCallback.onDescriptorWrite(characteristic, descriptor, 0);
+                    if (notifying && !mNotifying) {
+                        mNotifying = true;
+                        mScheduler.schedule(mNotifyTask, mPeripheral.notifyInterval);
+                    }
+                    mNotifying = notifying;
+                }
+            }, ATT_LATENCY);
+            return true;
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+            return hasCharacteristic(service, characteristic);
+        }
+
+        @Override
+        public boolean requestMtu(final int mtu) {
+            if (!mConnected) {
+                return false;
+            }
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onMtuChanged(Math.min(mtu, MAX_MTU), 0);
+                }
+            }, ATT_LATENCY);
+            return true;
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return mConnected;
+        }
+
+        @Override
+        public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+            if (!mConnected) {
+                return false;
+            }
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onPhyUpdate(GattClient.PHY_LE_2M, GattClient.PHY_LE_2M, 0);
+                }
+            }, ATT_LATENCY);
+            return true;
+        }
+
+        @Override
+        public boolean discoverServices() {
+            if (!mConnected) {
+                return false;
+            }
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    mServices = mSensorTree;
+                    mCallback.onServicesDiscovered(0);
+                }
+            }, mPeripheral.discoveryLatency);
+            return true;
+        }
+
+        @Override
+        public GattServiceTree getServices() {
+            return mServices;
+        }
+
+        @Override
+        public boolean useServices(GattServiceTree services) {
+            mServices = services;
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    if (mConnected) {
+                        mConnected = false;
+                        mCallback.onConnectionStateChange(false, 0);
+                    }
+                }
+            }, 0);
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+            mConnected = false;
+            if (mPeripheral != null && mPeripheral.client == this) {
+                mPeripheral.client = null;
+            }
+        }
+    }
+}
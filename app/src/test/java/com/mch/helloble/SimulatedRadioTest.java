@@ -0,0 +1,205 @@
+package com.mch.helloble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static com.mch.helloble.TestDevices.address;
+import static org.junit.Assert.*;
+
+/**
+ * Load tests of the scan, connect, decode and display path against a {@link SimulatedRadio}.
+ */
+public class SimulatedRadioTest {
+
+    private static final long FRAME_INTERVAL = 16;
+
+    private FakeScheduler mScheduler;
+
+    private SimulatedRadio mRadio;
+
+    private final Executor mDirect = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Feeds every result into a {@link DeviceIndex} the way MainActivity does.
+     */
+    private class IndexingCallback implements Scanner.Callback {
+        final DeviceIndex index = new DeviceIndex();
+        final List<ScanFilterSpec> filters;
+
+        IndexingCallback(List<ScanFilterSpec> filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        public void onScanResult(Scanner.Result result) {
+            add(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<Scanner.Result> results) {
+            for (int i = 0; i < results.size(); i++) {
+                add(results.get(i));
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            fail("scan failed " + errorCode);
+        }
+
+        private void add(Scanner.Result result) {
+            if (ScanFilterSpec.matchesAny(filters, result.advertisement)) {
+                index.onAdvertisement(result.address, result.name, result.rssi, mScheduler.now());
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mRadio = new SimulatedRadio(mScheduler, new Random(42));
+    }
+
+    @Test
+    public void batchedScanFindsEverySensorAmongHundredsOfAdvertisers() {
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            SimulatedRadio.Peripheral peripheral = i % 5 == 0
+                    ? mRadio.addSensor(address(i), "Sensor " + i)
+                    : mRadio.addAdvertiser(address(i), i % 2 == 0 ? "Beacon " + i : null);
+            peripheral.advertisingInterval = 100 + random.nextInt(900);
+            peripheral.rssi = -40 - random.nextInt(55);
+        }
+        List<ScanFilterSpec> filters = Collections.singletonList(
+                new ScanFilterSpec().setServiceUuid(SimulatedRadio.SENSOR_SERVICE));
+        IndexingCallback batched = new IndexingCallback(filters);
+        mRadio.startScan(filters, ScanConfig.batched(), batched);
+        mScheduler.advance(10000);
+        mRadio.flushPendingScanResults(batched);
+        mRadio.stopScan(batched);
+        assertEquals(100, batched.index.size());
+        assertEquals(5, mRadio.getScanCallbacks());
+        long batchedResults = mRadio.getScanResults();
+
+        // The same fleet without offloading: every advertisement wakes the app.
+        IndexingCallback unfiltered = new IndexingCallback(Collections.<ScanFilterSpec>emptyList());
+        mRadio.startScan(Collections.<ScanFilterSpec>emptyList(), ScanConfig.lowLatency(), unfiltered);
+        mScheduler.advance(10000);
+        mRadio.stopScan(unfiltered);
+        assertEquals(500, unfiltered.index.size());
+        long callbacks = mRadio.getScanCallbacks() - 5;
+        assertTrue(callbacks > 1000 * 5);
+        assertEquals(0, mScheduler.pendingCount());
+        // Batching and filtering in the controller saves most results as well as most wakeups.
+        assertTrue(batchedResults * 4 < callbacks);
+    }
+
+    @Test
+    public void loadTestScanConnectDecodeDisplay() {
+        final int sensors = 100;
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            SimulatedRadio.Peripheral peripheral = i < sensors
+                    ? mRadio.addSensor(address(i), "Sensor " + i)
+                    : mRadio.addAdvertiser(address(i), null);
+            peripheral.advertisingInterval = 100 + random.nextInt(400);
+            peripheral.notifyInterval = 50;
+            peripheral.minLatency = 5;
+            peripheral.maxLatency = 40;
+            peripheral.loss = 0.02;
+            peripheral.meanUptime = 60000;
+            peripheral.outage = 3000 + random.nextInt(5000);
+        }
+
+        final ConnectionManager manager = new ConnectionManager(mRadio, mScheduler, mDirect, 4, 2);
+        manager.setReconnectPolicy(new ReconnectPolicy(1000, 16000, new Random(3)));
+
+        // Display: the latest sample per device, drawn once per frame.
+        final Map<String, SensorSample> latest = new HashMap<>();
+        final Set<String> dirty = new HashSet<>();
+        final long[] counts = new long[4];
+        manager.addListener(new GattEventBus.Listener() {
+            @Override
+            public void onGattEvent(GattEvent event) {
+                if (event.type == GattEvent.TYPE_SERVICES_DISCOVERED) {
+                    manager.getQueue(event.address).submit(GattCommand.enableNotifications(
+                            SimulatedRadio.SENSOR_SERVICE, CombinedDataDecoder.CHARACTERISTIC, new byte[]{1, 0}));
+                } else if (event.type == GattEvent.TYPE_DATA_AVAILABLE && event.hasSample) {
+                    SensorSample sample = latest.get(event.address);
+                    if (sample == null) {
+                        sample = new SensorSample();
+                        latest.put(event.address, sample);
+                    }
+                    sample.copyFrom(event.sample);
+                    counts[0]++;
+                    if (!dirty.add(event.address)) {
+                        counts[1]++;
+                    }
+                }
+            }
+        });
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                counts[2]++;
+                counts[3] += dirty.size();
+                dirty.clear();
+                mScheduler.schedule(this, FRAME_INTERVAL);
+            }
+        }, FRAME_INTERVAL);
+
+        List<ScanFilterSpec> filters = Collections.singletonList(
+                new ScanFilterSpec().setServiceUuid(SimulatedRadio.SENSOR_SERVICE));
+        IndexingCallback scan = new IndexingCallback(filters);
+        mRadio.startScan(filters, ScanConfig.lowLatency(), scan);
+        mScheduler.advance(3000);
+        mRadio.stopScan(scan);
+        assertEquals(sensors, scan.index.size());
+        for (int i = 0; i < scan.index.size(); i++) {
+            manager.connect(scan.index.get(i).address);
+        }
+        long simulated = 120000;
+        mScheduler.advance(simulated);
+
+        long sent = 0;
+        long lost = 0;
+        long drops = 0;
+        for (SimulatedRadio.Peripheral peripheral : mRadio.getPeripherals()) {
+            if (!peripheral.sensor) {
+                continue;
+            }
+            sent += peripheral.notificationsSent;
+            lost += peripheral.notificationsLost;
+            drops += peripheral.linkDrops;
+            ConnectionStats stats = manager.getStats(peripheral.address);
+            // Every drop but one still in its outage was recovered from.
+            assertTrue(peripheral.address + " " + stats + " drops " + peripheral.linkDrops,
+                    stats.getReconnects() >= peripheral.linkDrops - 1);
+        }
+        assertEquals(sensors, latest.size());
+        assertEquals(0, manager.getDroppedEvents());
+        assertTrue(drops > 0);
+        // What was sent minus what was lost arrived, apart from the last few still in flight.
+        long delivered = counts[0];
+        assertTrue("delivered " + delivered + " of " + (sent - lost), sent - lost - delivered <= sensors);
+        // Connecting takes a while with two discoveries at a time, and every drop costs an outage.
+        assertTrue(delivered > 0.7 * sensors * simulated / 50);
+        assertEquals(0.02, (double) lost / sent, 0.005);
+        // Every sample was drawn, coalesced into a later one, or waits for the next frame.
+        assertEquals(delivered, counts[1] + counts[3] + dirty.size());
+    }
+}
@@ -0,0 +1,79 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SlidingWindowTest {
+
+    @Test
+    public void matchesRecomputingOverHistory() {
+        SlidingWindow window = new SlidingWindow(60 * 1000, 60);
+        Random random = new Random(42);
+        List<long[]> history = new ArrayList<>();
+        long time = 1539842641000L;
+        double value = 400;
+        for (int i = 0; i < 50000; i++) {
+            // Mostly 20 Hz, with the odd pause and the odd link loss longer than the window.
+            int gap = random.nextInt(1000);
+            time += gap < 990 ? 50 : gap < 999 ? 5000 : 120 * 1000;
+            value += random.nextGaussian() * 5;
+            window.add(time, value);
+            history.add(new long[]{time, Double.doubleToLongBits(value)});
+
+            long oldest = (time / 1000 - 59) * 1000;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            int count = 0;
+            for (int j = history.size() - 1; j >= 0 && history.get(j)[0] >= oldest; j--) {
+                double v = Double.longBitsToDouble(history.get(j)[1]);
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                count++;
+            }
+            assertEquals(count, window.getCount());
+            assertEquals(sum / count, window.getMean(), 1e-6);
+            assertEquals(min, window.getMin(), 0);
+            assertEquals(max, window.getMax(), 0);
+        }
+    }
+
+    @Test
+    public void expiresWithoutNewSamples() {
+        SlidingWindow window = new SlidingWindow(10 * 1000, 10);
+        assertTrue(Double.isNaN(window.getMean()));
+        window.add(1000, 5);
+        window.add(5000, 1);
+        window.add(9000, 3);
+        assertEquals(3, window.getMean(), 0);
+        assertEquals(1, window.getMin(), 0);
+        assertEquals(5, window.getMax(), 0);
+
+        window.expire(11000);
+        assertEquals(2, window.getCount());
+        assertEquals(3, window.getMax(), 0);
+        window.expire(15000);
+        assertEquals(3, window.getMin(), 0);
+        window.expire(30000);
+        assertEquals(0, window.getCount());
+        assertTrue(Double.isNaN(window.getMin()));
+        assertTrue(Double.isNaN(window.getMax()));
+
+        // Late samples land in the newest bucket rather than rewriting the past.
+        window.add(31000, 7);
+        window.add(20000, 2);
+        assertEquals(2, window.getCount());
+        assertEquals(2, window.getMin(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDurationNotDivisibleIntoBuckets() {
+        new SlidingWindow(1000, 7);
+    }
+}
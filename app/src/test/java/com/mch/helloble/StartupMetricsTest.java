@@ -0,0 +1,26 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupMetricsTest {
+
+    @Test
+    public void recordsEachMilestoneOnce() {
+        StartupMetrics startup = new StartupMetrics(5000);
+        startup.setRecentDevices(3);
+        assertTrue(startup.mark(StartupMetrics.MARK_RECENT_SHOWN, 5012));
+        assertTrue(startup.mark(StartupMetrics.MARK_FIRST_FRAME, 5180));
+        assertFalse(startup.mark(StartupMetrics.MARK_FIRST_FRAME, 5300));
+        assertTrue(startup.mark(StartupMetrics.MARK_FIRST_LIVE_DEVICE, 6450));
+
+        assertEquals(12, startup.get(StartupMetrics.MARK_RECENT_SHOWN));
+        assertEquals(180, startup.get(StartupMetrics.MARK_FIRST_FRAME));
+        assertEquals(1450, startup.get(StartupMetrics.MARK_FIRST_LIVE_DEVICE));
+        assertFalse(startup.isReached(StartupMetrics.MARK_SCAN_STARTED));
+        assertEquals(StartupMetrics.NOT_REACHED, startup.get(StartupMetrics.MARK_SCAN_STARTED));
+        assertEquals("startup: recent-shown 12 ms (3 devices), first-frame 180 ms, permission -, "
+                + "bluetooth-ready -, scan-started -, first-live-device 1450 ms", startup.summary());
+    }
+}
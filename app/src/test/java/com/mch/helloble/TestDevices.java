@@ -0,0 +1,19 @@
+package com.mch.helloble;
+
+import java.util.Locale;
+
+/**
+ * Addresses for tests that need many distinct devices.
+ */
+public final class TestDevices {
+
+    private TestDevices() {
+    }
+
+    /**
+     * Returns the {@code i}th of 65536 well formed addresses; the last byte is {@code i & 0xFF}.
+     */
+    public static String address(int i) {
+        return String.format(Locale.US, "C0:FF:EE:00:%02X:%02X", (i >> 8) & 0xFF, i & 0xFF);
+    }
+}
@@ -0,0 +1,47 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThroughputMeterTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void steadyStreamHasNoJitter() {
+        ThroughputMeter meter = new ThroughputMeter();
+        // Two 244-byte notifications per 7.5 ms connection event.
+        long time = 5000 * MS;
+        for (int i = 0; i < 401; i++) {
+            meter.onPacket(time, 244);
+            time += 3750000;
+        }
+        assertEquals(401, meter.getPackets());
+        assertEquals(266.67, meter.getPacketsPerSecond(), 0.01);
+        assertEquals(65066.7, meter.getBytesPerSecond(), 0.1);
+        assertEquals(3.75, meter.getMeanIntervalMillis(), 1e-9);
+        assertEquals(0, meter.getJitterMillis(), 1e-9);
+    }
+
+    @Test
+    public void jitterIsDeviationOfIntervals() {
+        ThroughputMeter meter = new ThroughputMeter();
+        long time = 0;
+        meter.onPacket(time, 20);
+        for (int i = 0; i < 1000; i++) {
+            time += i % 2 == 0 ? 10 * MS : 30 * MS;
+            meter.onPacket(time, 20);
+        }
+        assertEquals(20, meter.getMeanIntervalMillis(), 1e-9);
+        assertEquals(10, meter.getJitterMillis(), 0.01);
+        assertEquals(30, meter.getMaxIntervalMillis(), 1e-9);
+        assertEquals(50, meter.getPacketsPerSecond(), 1e-9);
+
+        meter.reset();
+        meter.onPacket(time, 20);
+        assertEquals(1, meter.getPackets());
+        assertEquals(0, meter.getPacketsPerSecond(), 0);
+        assertEquals(0, meter.getJitterMillis(), 0);
+    }
+}
@@ -0,0 +1,156 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimeSeriesTest {
+
+    @Test
+    public void rollupMatchesBruteForce() {
+        TimeSeries series = new TimeSeries(100000, new long[]{1000, 10000}, new int[]{10000, 1000});
+        Random random = new Random(42);
+        int count = 36000;
+        long[] times = new long[count];
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = i * 100L;
+            values[i] = random.nextFloat() * 100 - 50;
+            series.append(times[i], values[i]);
+        }
+        int buckets = 60;
+        float[] min = new float[buckets];
+        float[] max = new float[buckets];
+        float[] avg = new float[buckets];
+        // One hour in one-minute buckets reads the 10 s rollup.
+        assertEquals(10000, series.query(0, 3600000, buckets, min, max, avg));
+        assertMatches(times, values, 0, 3600000, buckets, min, max, avg);
+        // Ten seconds in one-second buckets reads the 1 s rollup.
+        assertEquals(1000, series.query(120000, 130000, 10, min, max, avg));
+        assertMatches(times, values, 120000, 130000, 10, min, max, avg);
+        // Sub-second buckets read raw samples.
+        assertEquals(0, series.query(5050, 6050, 4, min, max, avg));
+        assertMatches(times, values, 5050, 6050, 4, min, max, avg);
+    }
+
+    @Test
+    public void emptyBucketsAreNaN() {
+        TimeSeries series = new TimeSeries(16, new long[]{1000}, new int[]{16});
+        series.append(0, 1);
+        series.append(3500, 3);
+        float[] min = new float[4];
+        float[] max = new float[4];
+        float[] avg = new float[4];
+        series.query(0, 4000, 4, min, max, avg);
+        assertEquals(1, avg[0], 0);
+        assertTrue(Float.isNaN(avg[1]));
+        assertTrue(Float.isNaN(min[2]));
+        assertEquals(3, max[3], 0);
+    }
+
+    @Test
+    public void fallsBackToCoarserLevelWhenFinerIsEvicted() {
+        TimeSeries series = new TimeSeries(100, new long[]{1000, 60000}, new int[]{100, 100});
+        for (long t = 0; t < 600000; t += 100) {
+            series.append(t, t / 60000);
+        }
+        float[] min = new float[10];
+        float[] max = new float[10];
+        float[] avg = new float[10];
+        // Raw and 1 s rings only reach back 10 s and 100 s.
+        assertEquals(60000, series.query(0, 600000, 10, min, max, avg));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, min[i], 0);
+            assertEquals(i, max[i], 0);
+            assertEquals(i, avg[i], 0);
+        }
+        assertEquals(1000, series.query(590000, 600000, 10, min, max, avg));
+        assertEquals(0, series.query(599500, 600000, 5, min, max, avg));
+        assertEquals(9, avg[4], 0);
+    }
+
+    @Test
+    public void clampsTimestampsThatGoBackwards() {
+        TimeSeries series = new TimeSeries(8, new long[]{1000}, new int[]{8});
+        series.append(5000, 1);
+        series.append(4000, 2);
+        assertEquals(5000, series.getLastTime());
+        float[] min = new float[1];
+        float[] max = new float[1];
+        float[] avg = new float[1];
+        series.query(5000, 6000, 1, min, max, avg);
+        assertEquals(1.5, avg[0], 1e-6);
+    }
+
+    @Test
+    public void storeKeepsSeriesPerDeviceAndField() {
+        TimeSeriesStore store = new TimeSeriesStore();
+        SensorSample sample = new SensorSample();
+        sample.set(21.5, 40, 300);
+        store.append("AA:BB:CC:DD:EE:01", 0, sample);
+        sample.set(-3.25, 80, 5);
+        store.append("AA:BB:CC:DD:EE:02", 0, sample);
+        assertEquals(2, store.getDeviceCount());
+        assertNull(store.get("AA:BB:CC:DD:EE:03", TimeSeriesStore.FIELD_HUMIDITY));
+        float[] min = new float[1];
+        float[] max = new float[1];
+        float[] avg = new float[1];
+        store.get("AA:BB:CC:DD:EE:02", TimeSeriesStore.FIELD_TEMPERATURE).query(0, 1000, 1, min, max, avg);
+        assertEquals(-3.25, avg[0], 0);
+        store.get("AA:BB:CC:DD:EE:01", TimeSeriesStore.FIELD_AIR_QUALITY).query(0, 1000, 1, min, max, avg);
+        assertEquals(300, avg[0], 0);
+    }
+
+    /**
+     * A day of 10 Hz readings for ten devices fits the store's fixed footprint, and a chart
+     * query over it sees the latest minute's ramp.
+     */
+    @Test
+    public void dayOfDataForTenDevicesStaysBounded() {
+        TimeSeriesStore store = new TimeSeriesStore();
+        SensorSample sample = new SensorSample();
+        String[] addresses = new String[10];
+        for (int device = 0; device < addresses.length; device++) {
+            addresses[device] = "AA:BB:CC:DD:EE:0" + device;
+        }
+        long day = 24 * 60 * 60 * 1000L;
+        for (long t = 0; t < day; t += 100) {
+            for (int device = 0; device < 10; device++) {
+                sample.set(20 + device + (t % 60000) / 60000.0, 40, (int) (t / 1000) % 500);
+                store.append(addresses[device], t, sample);
+            }
+        }
+
+        float[] min = new float[500];
+        float[] max = new float[500];
+        float[] avg = new float[500];
+        TimeSeries series = store.get("AA:BB:CC:DD:EE:05", TimeSeriesStore.FIELD_TEMPERATURE);
+        series.query(0, day, 500, min, max, avg);
+        assertTrue(store.footprintBytes() < 16 * 1024 * 1024);
+        assertEquals(25.5, avg[499], 0.5);
+    }
+
+    private static void assertMatches(long[] times, float[] values, long t0, long t1, int buckets,
+                                      float[] min, float[] max, float[] avg) {
+        long width = (t1 - t0) / buckets;
+        for (int b = 0; b < buckets; b++) {
+            float expectedMin = Float.POSITIVE_INFINITY;
+            float expectedMax = Float.NEGATIVE_INFINITY;
+            double sum = 0;
+            int count = 0;
+            for (int i = 0; i < times.length; i++) {
+                if (times[i] >= t0 + b * width && times[i] < t0 + (b + 1) * width) {
+                    expectedMin = Math.min(expectedMin, values[i]);
+                    expectedMax = Math.max(expectedMax, values[i]);
+                    sum += values[i];
+                    count++;
+                }
+            }
+            assertEquals(expectedMin, min[b], 0);
+            assertEquals(expectedMax, max[b], 0);
+            assertEquals(sum / count, avg[b], 1e-4);
+        }
+    }
+}
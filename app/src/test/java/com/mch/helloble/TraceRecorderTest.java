@@ -0,0 +1,145 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import static com.mch.helloble.TestDevices.address;
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+
+    private static final String DEVICE = "AA:BB:CC:DD:EE:01";
+
+    private static TraceDecoder roundTrip(TraceRecorder trace) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.writeTo(out);
+        return TraceDecoder.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void recordsSurviveExportAndDecode() throws Exception {
+        TraceRecorder trace = new TraceRecorder(16);
+        trace.record(TraceRecorder.EVENT_CONNECT, DEVICE, null, 0, 1);
+        trace.record(TraceRecorder.EVENT_DISCONNECTED, DEVICE, null, ConnectionManager.STATUS_CONNECT_TIMEOUT, 0);
+        trace.record(TraceRecorder.EVENT_NOTIFY, DEVICE, CombinedDataDecoder.CHARACTERISTIC, 0, 6);
+        trace.record(TraceRecorder.EVENT_PHY, DEVICE, null, 0, GattClient.PHY_LE_2M << 8 | GattClient.PHY_LE_1M);
+        trace.record(TraceRecorder.EVENT_SCAN_FAILED, null, null, 2, 0);
+        assertEquals(0, trace.deviceId(DEVICE));
+        assertEquals(0, trace.uuidIndex(CombinedDataDecoder.CHARACTERISTIC));
+
+        TraceDecoder decoder = roundTrip(trace);
+        List<TraceDecoder.Record> records = decoder.getRecords();
+        assertEquals(5, records.size());
+        assertEquals(0, decoder.getMissing());
+        TraceDecoder.Record timeout = records.get(1);
+        assertEquals(TraceRecorder.EVENT_DISCONNECTED, timeout.type);
+        assertEquals(ConnectionManager.STATUS_CONNECT_TIMEOUT, timeout.status);
+        assertEquals(DEVICE, timeout.address);
+        assertNull(timeout.uuid);
+        TraceDecoder.Record notify = records.get(2);
+        assertEquals(CombinedDataDecoder.CHARACTERISTIC, notify.uuid);
+        assertEquals(6, notify.argument);
+        assertTrue(notify.timestampNanos >= timeout.timestampNanos);
+        assertNull(records.get(4).address);
+
+        StringWriter text = new StringWriter();
+        decoder.printTimeline(new PrintWriter(text));
+        String timeline = text.toString();
+        assertTrue(timeline, timeline.contains("connect") && timeline.contains("auto"));
+        assertTrue(timeline, timeline.contains("status=-1"));
+        assertTrue(timeline, timeline.contains(CombinedDataDecoder.CHARACTERISTIC.toString()));
+        assertTrue(timeline, timeline.contains("tx=2 rx=1"));
+    }
+
+    @Test
+    public void ringKeepsTheLatestRecords() throws Exception {
+        TraceRecorder trace = new TraceRecorder(8);
+        for (int i = 0; i < 20; i++) {
+            trace.record(TraceRecorder.EVENT_SCAN_RESULT, "AA:BB:CC:DD:EE:" + (10 + i % 3), null, 0, -i);
+        }
+        TraceDecoder decoder = roundTrip(trace);
+        assertEquals(20, trace.getRecorded());
+        assertEquals(12, decoder.getFirstSequence());
+        assertEquals(8, decoder.getRecords().size());
+        assertEquals(-12, decoder.getRecords().get(0).argument);
+        assertEquals(-19, decoder.getRecords().get(7).argument);
+        assertEquals("AA:BB:CC:DD:EE:11", decoder.getRecords().get(7).address);
+    }
+
+    @Test
+    public void idTablesStayBounded() throws Exception {
+        TraceRecorder trace = new TraceRecorder(64);
+        int devices = TraceRecorder.MAX_DEVICES * 8;
+        for (int i = 0; i < devices; i++) {
+            String address = address(i);
+            trace.record(TraceRecorder.EVENT_SCAN_RESULT, address, new UUID(0, i), 0, i);
+            assertEquals(i, trace.deviceId(address));
+        }
+        assertEquals(TraceRecorder.MAX_DEVICES, trace.getDeviceCount());
+        assertEquals(TraceRecorder.MAX_UUIDS, trace.getUuidCount());
+        // The most recent ones are still interned, under the IDs they got.
+        assertEquals(devices - 1, trace.deviceId(address(devices - 1)));
+        assertEquals(devices - 1, trace.uuidIndex(new UUID(0, devices - 1)));
+
+        // The records still in the ring are recent enough to keep their address and UUID.
+        List<TraceDecoder.Record> records = roundTrip(trace).getRecords();
+        assertEquals(64, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            TraceDecoder.Record record = records.get(i);
+            assertEquals(address(record.argument), record.address);
+            assertEquals(new UUID(0, record.argument), record.uuid);
+        }
+
+        // A device seen again after it was evicted gets a new ID; its old records lose it.
+        trace = new TraceRecorder(1024);
+        trace.record(TraceRecorder.EVENT_CONNECT, DEVICE, null, 0, 0);
+        for (int i = 0; i < TraceRecorder.MAX_DEVICES; i++) {
+            trace.deviceId(address(i));
+        }
+        assertEquals(TraceRecorder.MAX_DEVICES + 1, trace.deviceId(DEVICE));
+        assertNull(roundTrip(trace).getRecords().get(0).address);
+    }
+
+    @Test
+    public void concurrentWritersDoNotTearRecords() throws Exception {
+        final TraceRecorder trace = new TraceRecorder(1024);
+        final int threads = 4;
+        final int perThread = 200000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            // Registered here so that thread t gets device id t, whichever thread runs first.
+            final int device = trace.deviceId("AA:BB:CC:DD:EE:0" + t);
+            final int index = trace.uuidIndex(new UUID(t, t));
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        // Status and argument both carry the device, so a torn record shows.
+                        trace.record(TraceRecorder.EVENT_NOTIFY, device, index, device, device);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        // Export while the writers run.
+        TraceDecoder during = roundTrip(trace);
+        done.await();
+        TraceDecoder after = roundTrip(trace);
+        assertEquals(threads * perThread, trace.getRecorded());
+        // A writer preempted between taking its sequence and writing can be lapped and then
+        // overwrite a newer record, so each writer may leave one slot stale.
+        assertTrue(after.getRecords().size() >= 1024 - threads);
+        for (TraceDecoder.Record record : during.getRecords()) {
+            assertEquals(record.address, "AA:BB:CC:DD:EE:0" + record.status);
+            assertEquals(record.status, record.argument);
+            assertEquals(new UUID(record.status, record.status), record.uuid);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.mch.helloble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static com.mch.helloble.TestDevices.address;
+import static org.junit.Assert.*;
+
+public class WindowAggregatorTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void ruleRaisesAndClearsWithHysteresis() {
+        WindowAggregator aggregator = new WindowAggregator(MINUTE, 15 * MINUTE);
+        final List<String> alerts = new ArrayList<>();
+        aggregator.setAlertListener(new WindowAggregator.AlertListener() {
+            @Override
+            public void onAlert(String address, WindowAggregator.Rule rule, boolean raised, double value) {
+                alerts.add(String.format(Locale.US, "%s %s %s %.0f", address, rule, raised ? "raised" : "cleared", value));
+            }
+        });
+        WindowAggregator.Rule poorAir = WindowAggregator.Rule.above("poor-air", TimeSeriesStore.FIELD_AIR_QUALITY, 0,
+                WindowAggregator.STAT_MEAN, 1000, 800);
+        aggregator.addRule(poorAir);
+
+        SensorSample sample = new SensorSample();
+        long time = 0;
+        // One reading a second: air quality climbs past the threshold, hovers around it, then falls.
+        int[] airQuality = {900, 1100, 1300, 950, 1050, 900, 700, 600};
+        for (int step = 0; step < airQuality.length; step++) {
+            for (int i = 0; i < 60; i++) {
+                sample.set(21.5, 45, airQuality[step]);
+                aggregator.add("AA:BB", time, sample);
+                time += 1000;
+            }
+        }
+        assertEquals(alerts.toString(), 2, alerts.size());
+        assertTrue(alerts.get(0), alerts.get(0).startsWith("AA:BB poor-air raised 10"));
+        assertTrue(alerts.get(1), alerts.get(1).startsWith("AA:BB poor-air cleared 7"));
+        assertFalse(aggregator.isRaised("AA:BB", poorAir));
+        assertEquals(600, aggregator.get("AA:BB", TimeSeriesStore.FIELD_AIR_QUALITY, 0).getMax(), 0);
+        assertEquals(1300, aggregator.get("AA:BB", TimeSeriesStore.FIELD_AIR_QUALITY, 1).getMax(), 0);
+        assertNull(aggregator.get("CC:DD", TimeSeriesStore.FIELD_AIR_QUALITY, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRuleThatClearsBeforeItRaises() {
+        WindowAggregator.Rule.below("cold", TimeSeriesStore.FIELD_TEMPERATURE, 0, WindowAggregator.STAT_MIN, 5, 3);
+    }
+
+    // 100 devices notifying at 20 Hz, each with 4 windows over every field.
+    @Test
+    public void slidesWindowsOfHundredDevicesAtTwentyHertz() {
+        int devices = 100;
+        WindowAggregator aggregator = new WindowAggregator(30 * 1000, MINUTE, 5 * MINUTE, 15 * MINUTE);
+        for (int w = 0; w < aggregator.getWindowCount(); w++) {
+            aggregator.addRule(WindowAggregator.Rule.above("hot-" + w, TimeSeriesStore.FIELD_TEMPERATURE, w,
+                    WindowAggregator.STAT_MAX, 30, 28));
+        }
+        String[] addresses = new String[devices];
+        for (int d = 0; d < devices; d++) {
+            addresses[d] = address(d);
+        }
+        SensorSample sample = new SensorSample();
+        // 25 minutes of readings, so that even the longest window has slid.
+        long time = 1539842641000L;
+        for (int tick = 0; tick < 25 * 60 * 20; tick++) {
+            for (int d = 0; d < devices; d++) {
+                sample.set(21 + (tick + d) % 97 / 10.0, 40 + (tick + d) % 13, 400 + (tick * 7 + d) % 211);
+                aggregator.add(addresses[d], time + d, sample);
+            }
+            time += 50;
+        }
+        assertEquals(devices, aggregator.getDeviceCount());
+        assertEquals(15 * 60 * 20, aggregator.get(addresses[0], TimeSeriesStore.FIELD_TEMPERATURE, 3).getCount(), 20 * 15);
+    }
+}
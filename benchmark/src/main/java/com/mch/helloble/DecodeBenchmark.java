@@ -0,0 +1,84 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the combined sensor payload, the first thing done with every notification.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    // Power of two, so that the payload index is a mask.
+    private static final int PAYLOADS = 1024;
+
+    private final byte[][] mPayloads = new byte[PAYLOADS][];
+
+    private final ByteBuffer[] mBuffers = new ByteBuffer[PAYLOADS];
+
+    private final SensorSample mSample = new SensorSample();
+
+    private final GattEvent mEvent = new GattEvent();
+
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < PAYLOADS; i++) {
+            mPayloads[i] = new byte[CombinedDataDecoder.PAYLOAD_LENGTH];
+            random.nextBytes(mPayloads[i]);
+            mBuffers[i] = ByteBuffer.wrap(mPayloads[i]);
+        }
+    }
+
+    /**
+     * Different payloads each call, so the JIT cannot fold the result.
+     */
+    private int next() {
+        return mNext++ & (PAYLOADS - 1);
+    }
+
+    @Benchmark
+    public SensorSample decodeArray() {
+        CombinedDataDecoder.decode(mPayloads[next()], mSample);
+        return mSample;
+    }
+
+    @Benchmark
+    public SensorSample decodeBuffer() {
+        CombinedDataDecoder.decode(mBuffers[next()], mSample);
+        return mSample;
+    }
+
+    /**
+     * What ConnectionManager does: decode straight into the claimed event.
+     */
+    @Benchmark
+    public boolean decodeEvent() {
+        byte[] payload = mPayloads[next()];
+        return CombinedDataDecoder.PARSER.decode(payload, payload.length, mEvent);
+    }
+
+    @Benchmark
+    public int uint16() {
+        return CombinedDataDecoder.uint16(mPayloads[next()], 2);
+    }
+}
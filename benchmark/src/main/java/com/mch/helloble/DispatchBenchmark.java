@@ -0,0 +1,165 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing a notification from the GATT callback thread to a listener through
+ * {@link GattEventBus}: claim, copy, decode and publish on one side, drain on the other.
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DispatchBenchmark {
+
+    private static final byte[] PAYLOAD = {0x13, 0x74, (byte) 0xA0, 0x0F, 0x2A, 0x00};
+
+    private static final String ACTION_DATA_AVAILABLE = "com.mch.helloble.ACTION_DATA_AVAILABLE";
+    private static final String EXTRA_ACTION = "action";
+    private static final String EXTRA_TEMPERATURE = "com.mch.helloble.EXTRA_TEMP";
+    private static final String EXTRA_HUMIDITY = "com.mch.helloble.EXTRA_HUMILITY";
+    private static final String EXTRA_AIR_QUALITY = "com.mch.helloble.EXTRA_AIR";
+
+    private static final Executor DEFERRED = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            // The consumer drains on its own schedule, like the main looper.
+        }
+    };
+
+    /**
+     * What a listener usually keeps from an event.
+     */
+    static class LatestSample implements GattEventBus.Listener {
+        final SensorSample sample = new SensorSample();
+        long events;
+
+        @Override
+        public void onGattEvent(GattEvent event) {
+            if (event.hasSample) {
+                sample.copyFrom(event.sample);
+            }
+            events++;
+        }
+    }
+
+    static boolean produce(GattEventBus bus) {
+        GattEvent event = bus.claim(GattEvent.TYPE_DATA_AVAILABLE);
+        if (event == null) {
+            return false;
+        }
+        event.characteristic = CombinedDataDecoder.CHARACTERISTIC;
+        event.setValue(PAYLOAD);
+        CombinedDataDecoder.PARSER.decode(event.value, event.valueLength, event);
+        bus.publish();
+        return true;
+    }
+
+    /**
+     * Producer and consumer on one thread: the cost of a round trip without contention.
+     */
+    @State(Scope.Thread)
+    public static class Inline {
+        final LatestSample listener = new LatestSample();
+        final SensorSample decoded = new SensorSample();
+        GattEventBus bus;
+
+        @Setup
+        public void setUp() {
+            bus = new GattEventBus(256, DEFERRED);
+            bus.addListener(listener);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int publishAndDrain(Inline state) {
+        produce(state.bus);
+        return state.bus.drain();
+    }
+
+    /**
+     * A full batch as arrives between two main thread turns.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int publishBatchAndDrain(Inline state) {
+        for (int i = 0; i < 32; i++) {
+            produce(state.bus);
+        }
+        return state.bus.drain();
+    }
+
+    /**
+     * The broadcast Intents the bus replaced, less Binder: a map of boxed extras per value,
+     * looked up again by the receiver.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double broadcastModel(Inline state) {
+        SensorSample sample = state.decoded;
+        CombinedDataDecoder.decode(PAYLOAD, sample);
+        Map<String, Object> intent = new HashMap<>();
+        intent.put(EXTRA_ACTION, ACTION_DATA_AVAILABLE);
+        intent.put(EXTRA_TEMPERATURE, sample.temperature);
+        intent.put(EXTRA_HUMIDITY, sample.humidity);
+        intent.put(EXTRA_AIR_QUALITY, sample.airQuality);
+        if (!ACTION_DATA_AVAILABLE.equals(intent.get(EXTRA_ACTION))) {
+            return 0;
+        }
+        return (Double) intent.get(EXTRA_TEMPERATURE) + (Integer) intent.get(EXTRA_HUMIDITY)
+                + (Integer) intent.get(EXTRA_AIR_QUALITY);
+    }
+
+    /**
+     * Producer and consumer on their own threads, sharing the ring.
+     */
+    @State(Scope.Group)
+    public static class Shared {
+        final LatestSample listener = new LatestSample();
+        GattEventBus bus;
+
+        @Setup
+        public void setUp() {
+            bus = new GattEventBus(1024, DEFERRED);
+            bus.addListener(listener);
+        }
+    }
+
+    @Benchmark
+    @Group("crossThread")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean producer(Shared state) {
+        return produce(state.bus);
+    }
+
+    @Benchmark
+    @Group("crossThread")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void consumer(Shared state, Blackhole blackhole) {
+        blackhole.consume(state.bus.drain(64));
+    }
+}
@@ -0,0 +1,74 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering characteristic values for the browser, against the String.format loop it replaced.
+ * 20 bytes is a default-MTU notification, 244 the most one data length extension packet holds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class FormatBenchmark {
+
+    @Param({"20", "244"})
+    public int length;
+
+    private byte[] mValue;
+
+    private final byte[] mCombined = {0x13, 0x74, (byte) 0xA0, 0x0F, 0x2A, 0x00};
+
+    private final char[] mText = new char[CharacteristicParser.MAX_TEXT_LENGTH];
+
+    private ParserRegistry mParsers;
+
+    @Setup
+    public void setUp() {
+        mValue = new byte[length];
+        new Random(42).nextBytes(mValue);
+        mParsers = ParserRegistry.getDefault();
+    }
+
+    @Benchmark
+    public int hex() {
+        return HexFormatter.hex(mValue, 0, length, mText, 0);
+    }
+
+    @Benchmark
+    public String hexString() {
+        return new String(mText, 0, HexFormatter.hex(mValue, 0, length, mText, 0));
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        StringBuilder builder = new StringBuilder(length);
+        for (byte b : mValue) {
+            builder.append(String.format("%02X ", b));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Registry lookup plus the combined parser's text, as a browser row bind does it.
+     */
+    @Benchmark
+    public int combined() {
+        return mParsers.get(CombinedDataDecoder.CHARACTERISTIC).format(mCombined, mCombined.length, mText);
+    }
+}
@@ -0,0 +1,69 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording a latency into a {@link LatencyHistogram}, alone and from four threads at once as
+ * the GATT callback and main threads do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HistogramBenchmark {
+
+    private static final int VALUES = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        final LatencyHistogram histogram = new LatencyHistogram();
+    }
+
+    /**
+     * Latencies of up to a millisecond, spread over the buckets.
+     */
+    @State(Scope.Thread)
+    public static class Values {
+        final long[] nanos = new long[VALUES];
+        int next;
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(42);
+            for (int i = 0; i < VALUES; i++) {
+                nanos[i] = random.nextInt(1000000);
+            }
+        }
+
+        long next() {
+            return nanos[next++ & (VALUES - 1)];
+        }
+    }
+
+    @Benchmark
+    public LatencyHistogram record(Shared shared, Values values) {
+        shared.histogram.record(values.next());
+        return shared.histogram;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public LatencyHistogram recordContended(Shared shared, Values values) {
+        shared.histogram.record(values.next());
+        return shared.histogram;
+    }
+}
@@ -0,0 +1,177 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a value to {@link SensorLog} on the callback path, and reading a session of 12
+ * sensors back out of it: a plain replay, and exports through {@link SessionExporter}.
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LogBenchmark {
+
+    private static final byte[] PAYLOAD = {0x13, 0x74, (byte) 0x88, 0x13, 0x2A, 0x00};
+
+    private static final int DEVICES = 12;
+
+    private static final int READINGS = 1 << 16;
+
+    private static final SensorLog.Visitor IGNORE = new SensorLog.Visitor() {
+        @Override
+        public void onRecord(SensorLog.Record record) {
+        }
+    };
+
+    /**
+     * Counts what it is given and keeps none of it, so that only the encoding is measured.
+     */
+    static class NullChannel implements WritableByteChannel {
+        long bytes;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            src.position(src.limit());
+            bytes += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static File createDirectory() throws IOException {
+        File directory = File.createTempFile("sensor-log", "");
+        if (!directory.delete()) {
+            throw new IOException("Cannot replace " + directory);
+        }
+        return directory;
+    }
+
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * A log that keeps growing; segments roll and the oldest are deleted as on a device.
+     */
+    @State(Scope.Thread)
+    public static class Appending {
+        File directory;
+        SensorLog log;
+        long time = 1539842641000L;
+
+        @Setup
+        public void setUp() throws IOException {
+            directory = createDirectory();
+            log = new SensorLog(directory, 1 << 15, 8);
+        }
+
+        @TearDown
+        public void tearDown() {
+            log.close();
+            delete(directory);
+        }
+    }
+
+    /**
+     * {@link #READINGS} combined readings from {@link #DEVICES} sensors notifying about every
+     * 100 ms, with slowly drifting values.
+     */
+    @State(Scope.Benchmark)
+    public static class Session {
+        File directory;
+        SensorLog log;
+
+        @Setup
+        public void setUp() throws IOException {
+            directory = createDirectory();
+            log = new SensorLog(directory);
+            byte[] value = PAYLOAD.clone();
+            long time = 1539842641000L;
+            for (int i = 0; i < READINGS; i++) {
+                int device = i % DEVICES;
+                int temperature = 29665 + device * 10 + i / 2000;
+                int airQuality = 400 + device + i % 7;
+                value[0] = (byte) temperature;
+                value[1] = (byte) (temperature >> 8);
+                value[4] = (byte) airQuality;
+                value[5] = (byte) (airQuality >> 8);
+                log.append(time + i * 100L / DEVICES, 0x1234567 + device * 0x10001,
+                        SensorLog.characteristicId(CombinedDataDecoder.CHARACTERISTIC), value, 0, value.length);
+            }
+            log.flush();
+        }
+
+        @TearDown
+        public void tearDown() {
+            log.close();
+            delete(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean append(Appending state) throws IOException {
+        return state.log.append(state.time++, 0x1234567, 0x1234, PAYLOAD, 0, PAYLOAD.length);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long replay(Session session) throws IOException {
+        return session.log.replay(IGNORE);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long exportCompressed(Session session) throws IOException {
+        return export(session, SessionExporter.FORMAT_COMPRESSED);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long exportCsv(Session session) throws IOException {
+        return export(session, SessionExporter.FORMAT_CSV);
+    }
+
+    private static long export(Session session, int format) throws IOException {
+        NullChannel channel = new NullChannel();
+        SessionExporter exporter = new SessionExporter(channel, format);
+        exporter.export(session.log);
+        exporter.close();
+        return channel.bytes;
+    }
+}
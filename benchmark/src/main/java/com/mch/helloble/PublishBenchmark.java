@@ -0,0 +1,107 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishing one reading through {@link ReadingPublisher} to a display, a writer and an
+ * uploader, either all caught up or all behind. The producer's cost must not depend on how far
+ * behind they are.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PublishBenchmark {
+
+    private static final String DEVICE = "AA:BB:CC:DD:EE:01";
+
+    private static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final Executor NEVER = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            // A subscriber that never gets its turn.
+        }
+    };
+
+    /**
+     * Runs timers at once when {@code due}, or never.
+     */
+    static class Timers implements Scheduler {
+        final boolean due;
+
+        Timers(boolean due) {
+            this.due = due;
+        }
+
+        @Override
+        public long now() {
+            return System.nanoTime() / 1000000;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return now();
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            if (due) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+        }
+    }
+
+    private static final ReadingPublisher.Subscriber IGNORE = new ReadingPublisher.Subscriber() {
+        @Override
+        public void onReading(ReadingPublisher.Reading reading) {
+        }
+    };
+
+    @Param({"false", "true"})
+    public boolean behind;
+
+    private ReadingPublisher mPublisher;
+
+    private long mTime = 1539842641000L;
+
+    @Setup
+    public void setUp() {
+        Executor executor = behind ? NEVER : INLINE;
+        mPublisher = new ReadingPublisher();
+        mPublisher.subscribeLatest(IGNORE, executor);
+        mPublisher.subscribeBuffered(IGNORE, executor, 256);
+        mPublisher.subscribeSampled(IGNORE, executor, new Timers(!behind), 5);
+    }
+
+    @Benchmark
+    public ReadingPublisher publish() {
+        mTime += 50;
+        mPublisher.publish(DEVICE, mTime, 21.5, 40, (int) mTime & 0x1FF);
+        return mPublisher;
+    }
+}
@@ -0,0 +1,111 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One advertisement from an already known device: {@link DeviceIndex} against the
+ * {@code ArrayList.contains} check the scan list used to do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ScanDedupBenchmark {
+
+    private static final int ADVERTISEMENTS = 4096;
+
+    private static final DeviceIndex.ChangeListener IGNORE = new DeviceIndex.ChangeListener() {
+        @Override
+        public void onInserted(int position, int count) {
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+        }
+
+        @Override
+        public void onReset() {
+        }
+    };
+
+    @Param({"10", "100", "1000"})
+    public int devices;
+
+    @Param({"false", "true"})
+    public boolean rankByProximity;
+
+    private final String[] mAddresses = new String[ADVERTISEMENTS];
+
+    private final int[] mRssi = new int[ADVERTISEMENTS];
+
+    private DeviceIndex mIndex;
+
+    private ArrayList<String> mList;
+
+    private int mNext;
+
+    private long mNow;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        String[] known = new String[devices];
+        mIndex = new DeviceIndex();
+        mIndex.setRankByProximity(rankByProximity);
+        mList = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            known[i] = String.format(Locale.US, "C0:FF:EE:00:%02X:%02X", i >> 8, i & 0xFF);
+            mIndex.onAdvertisement(known[i], null, -60, 0);
+            mList.add(known[i]);
+        }
+        mIndex.flush(IGNORE);
+        for (int i = 0; i < ADVERTISEMENTS; i++) {
+            // Fresh strings, as every scan result carries its own address.
+            mAddresses[i] = new String(known[random.nextInt(devices)]);
+            mRssi[i] = -40 - random.nextInt(55);
+        }
+    }
+
+    @Benchmark
+    public DeviceIndex.Entry deviceIndex() {
+        int i = mNext++ & (ADVERTISEMENTS - 1);
+        DeviceIndex.Entry entry = mIndex.onAdvertisement(mAddresses[i], null, mRssi[i], ++mNow);
+        if ((mNow & 63) == 0) {
+            // MainActivity flushes once a frame; without it the dirty list only grows.
+            mIndex.flush(IGNORE);
+        }
+        return entry;
+    }
+
+    @Benchmark
+    public boolean arrayListContains() {
+        int i = mNext++ & (ADVERTISEMENTS - 1);
+        String address = mAddresses[i];
+        if (!mList.contains(address)) {
+            mList.add(address);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ten devices notifying at 10 Hz into a {@link TimeSeriesStore}: one reading appended, and a
+ * 500-bucket chart query over the last hour or the whole day of one device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SeriesBenchmark {
+
+    private static final int DEVICES = 10;
+
+    private static final long INTERVAL = 100;
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static final int BUCKETS = 500;
+
+    private final String[] mAddresses = new String[DEVICES];
+
+    private final SensorSample mSample = new SensorSample();
+
+    private final float[] mMin = new float[BUCKETS];
+
+    private final float[] mMax = new float[BUCKETS];
+
+    private final float[] mAvg = new float[BUCKETS];
+
+    private TimeSeriesStore mStore;
+
+    private TimeSeries mSeries;
+
+    private int mDevice;
+
+    private long mTime;
+
+    @Setup
+    public void setUp() {
+        mStore = new TimeSeriesStore();
+        for (int d = 0; d < DEVICES; d++) {
+            mAddresses[d] = "AA:BB:CC:DD:EE:0" + d;
+        }
+        // A full day, so that every resolution is populated and appends evict.
+        while (mTime < DAY) {
+            next();
+        }
+        mSeries = mStore.get(mAddresses[5], TimeSeriesStore.FIELD_TEMPERATURE);
+    }
+
+    private void next() {
+        mSample.set(20 + mDevice + (mTime % 60000) / 60000.0, 40, (int) (mTime / 1000) % 500);
+        mStore.append(mAddresses[mDevice], mTime, mSample);
+        if (++mDevice == DEVICES) {
+            mDevice = 0;
+            mTime += INTERVAL;
+        }
+    }
+
+    @Benchmark
+    public TimeSeriesStore append() {
+        next();
+        return mStore;
+    }
+
+    @Benchmark
+    public long queryHour() {
+        return mSeries.query(DAY - 60 * 60 * 1000L, DAY, BUCKETS, mMin, mMax, mAvg);
+    }
+
+    @Benchmark
+    public long queryDay() {
+        return mSeries.query(0, DAY, BUCKETS, mMin, mMax, mAvg);
+    }
+}
@@ -0,0 +1,66 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a full {@link RecentDevices} snapshot, which the scan screen reads
+ * before its first frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+
+    private static final long NOW = 1539842641000L;
+
+    private List<RecentDevices.Device> mDevices;
+
+    private byte[] mSnapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Not saved, so the file is never touched.
+        RecentDevices recent = new RecentDevices(null);
+        byte[] value = {0x13, 0x74, (byte) 0xA0, 0x0F, 0, 0};
+        for (int i = 0; i < RecentDevices.MAX_DEVICES; i++) {
+            String address = String.format(Locale.US, "C0:FF:EE:00:%02X:%02X", i >> 8, i & 0xFF);
+            recent.onSeen(address, "Sensor " + i, -50 - i, NOW + i * 1000);
+            value[4] = (byte) (400 + i);
+            value[5] = (byte) ((400 + i) >> 8);
+            recent.onReading(address, value, value.length, NOW + i * 1000);
+        }
+        mDevices = recent.getDevices();
+        mSnapshot = write();
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + mDevices.size() * 40);
+        RecentDevices.writeTo(mDevices, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public List<RecentDevices.Device> read() throws IOException {
+        return RecentDevices.readFrom(new ByteArrayInputStream(mSnapshot));
+    }
+}
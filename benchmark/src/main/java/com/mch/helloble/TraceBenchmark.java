@@ -0,0 +1,45 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracing a notification with {@link TraceRecorder}, against the log line it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TraceBenchmark {
+
+    private static final String DEVICE = "AA:BB:CC:DD:EE:01";
+
+    private static final UUID CHARACTERISTIC = CombinedDataDecoder.CHARACTERISTIC;
+
+    private final TraceRecorder mTrace = new TraceRecorder(TraceRecorder.DEFAULT_CAPACITY);
+
+    private int mArgument;
+
+    @Benchmark
+    public TraceRecorder record() {
+        mTrace.record(TraceRecorder.EVENT_NOTIFY, DEVICE, CHARACTERISTIC, 0, mArgument++);
+        return mTrace;
+    }
+
+    @Benchmark
+    public String logLine() {
+        return "onCharacteristicChanged: " + CHARACTERISTIC + " " + DEVICE + " " + mArgument++;
+    }
+}
@@ -0,0 +1,142 @@
+package com.mch.helloble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One reading from one of 100 devices notifying at 20 Hz, with 30 s, 1, 5 and 15 minute
+ * windows over every field: {@link WindowAggregator} against recomputing each window from the
+ * raw history.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class WindowBenchmark {
+
+    private static final int DEVICES = 100;
+
+    private static final long INTERVAL = 50;
+
+    private static final long[] WINDOWS = {30 * 1000, 60 * 1000, 5 * 60 * 1000, 15 * 60 * 1000};
+
+    // Enough raw history for the longest window at 20 Hz.
+    private static final int HISTORY = (int) (WINDOWS[WINDOWS.length - 1] / INTERVAL) + 1;
+
+    /**
+     * Raw readings of one device in a ring, scanned backwards for every window on every reading.
+     */
+    private static class History {
+        final long[] times = new long[HISTORY];
+        final double[][] values = new double[TimeSeriesStore.FIELD_COUNT][HISTORY];
+        final double[] stats = new double[WINDOWS.length * TimeSeriesStore.FIELD_COUNT * 3];
+        long size;
+
+        void append(long time, SensorSample sample) {
+            int slot = (int) (size++ % HISTORY);
+            times[slot] = time;
+            values[TimeSeriesStore.FIELD_TEMPERATURE][slot] = sample.temperature;
+            values[TimeSeriesStore.FIELD_HUMIDITY][slot] = sample.humidity;
+            values[TimeSeriesStore.FIELD_AIR_QUALITY][slot] = sample.airQuality;
+        }
+
+        void add(long time, SensorSample sample) {
+            append(time, sample);
+            int stat = 0;
+            for (long window : WINDOWS) {
+                for (double[] field : values) {
+                    double sum = 0;
+                    double min = Double.POSITIVE_INFINITY;
+                    double max = Double.NEGATIVE_INFINITY;
+                    int count = 0;
+                    for (long i = size - 1; i >= Math.max(0, size - HISTORY); i--) {
+                        int s = (int) (i % HISTORY);
+                        if (times[s] <= time - window) {
+                            break;
+                        }
+                        sum += field[s];
+                        min = Math.min(min, field[s]);
+                        max = Math.max(max, field[s]);
+                        count++;
+                    }
+                    stats[stat++] = sum / count;
+                    stats[stat++] = min;
+                    stats[stat++] = max;
+                }
+            }
+        }
+    }
+
+    private final String[] mAddresses = new String[DEVICES];
+
+    private final SensorSample mSample = new SensorSample();
+
+    private WindowAggregator mAggregator;
+
+    private final History[] mHistories = new History[DEVICES];
+
+    private int mDevice;
+
+    private long mTime = 1539842641000L;
+
+    @Setup
+    public void setUp() {
+        mAggregator = new WindowAggregator(WINDOWS);
+        for (int w = 0; w < WINDOWS.length; w++) {
+            mAggregator.addRule(WindowAggregator.Rule.above("hot-" + w, TimeSeriesStore.FIELD_TEMPERATURE, w,
+                    WindowAggregator.STAT_MAX, 30, 28));
+        }
+        for (int d = 0; d < DEVICES; d++) {
+            mAddresses[d] = String.format(Locale.US, "C0:FF:EE:00:%02X:%02X", d >> 8, d & 0xFF);
+            mHistories[d] = new History();
+        }
+        // Fill the longest window, so that both sides slide from the first measured reading.
+        for (int i = 0; i < HISTORY * DEVICES; i++) {
+            mAggregator.add(mAddresses[mDevice], mTime, next());
+            mHistories[mDevice].append(mTime, mSample);
+            advance();
+        }
+    }
+
+    private SensorSample next() {
+        long tick = mTime / INTERVAL;
+        mSample.set(21 + (tick + mDevice) % 97 / 10.0, 40 + (int) ((tick + mDevice) % 13),
+                400 + (int) ((tick * 7 + mDevice) % 211));
+        return mSample;
+    }
+
+    private void advance() {
+        if (++mDevice == DEVICES) {
+            mDevice = 0;
+            mTime += INTERVAL;
+        }
+    }
+
+    @Benchmark
+    public WindowAggregator aggregate() {
+        mAggregator.add(mAddresses[mDevice], mTime, next());
+        advance();
+        return mAggregator;
+    }
+
+    @Benchmark
+    public double[] recomputeFromHistory() {
+        History history = mHistories[mDevice];
+        history.add(mTime, next());
+        advance();
+        return history.stats;
+    }
+}